@@ -0,0 +1,124 @@
+package au.com.illyrian.benchmark;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.mozilla.classfile.SimpleClassLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.com.illyrian.classmaker.ClassMaker;
+import au.com.illyrian.classmaker.ClassMakerConstants;
+import au.com.illyrian.classmaker.ClassMakerFactory;
+import au.com.illyrian.jesub.ast.AstStructure;
+import au.com.illyrian.jesub.ast.AstStructureVisitor;
+import au.com.illyrian.jsub.bnf.JsubBnfParser;
+import au.com.illyrian.parser.ParseModule;
+import au.com.illyrian.parser.impl.ModuleContext;
+
+/**
+ * Measures code generation and class definition, separately and end to end.
+ * <ul>
+ * <li><code>generate</code> visits a parsed tree with an <code>AstStructureVisitor</code>
+ *     to generate a class with a <code>ClassMaker</code></li>
+ * <li><code>toByteArray</code> writes a generated class to bytes with <code>ClassFileWriter</code></li>
+ * <li><code>defineClass</code> loads the bytes with a <code>SimpleClassLoader</code></li>
+ * <li><code>compile</code> parses, generates and defines the class</li>
+ * </ul>
+ * Like <code>ParserBenchmark</code>, these benchmarks must be run from the
+ * <code>parsermaker</code> directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodeGenerationBenchmark
+{
+    private static final String CLASS_NAME = "au.com.illyrian.benchmark.generated.GeneratedSample";
+
+    /** The number of methods in the synthetic class. */
+    @Param({"10", "100", "1000"})
+    public int methods;
+
+    String source;
+    ParseModule<AstStructure> jesubParser;
+    AstStructure tree;
+    ClassMaker generated;
+    byte[] classBytes;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        source = SyntheticSource.jesubClass("GeneratedSample", methods);
+        jesubParser = new JsubBnfParser(new File(JsubBnfParser.TEST_DIR)).getParser();
+        tree = parse();
+        generated = generate(tree);
+        classBytes = generated.getGen().toByteArray();
+    }
+
+    AstStructure parse() throws Exception
+    {
+        ModuleContext context = new ModuleContext();
+        context.setInputReader(new StringReader(source), "GeneratedSample.jesub");
+        return jesubParser.parseModule(context);
+    }
+
+    static ClassMaker generate(AstStructure tree)
+    {
+        ClassMakerFactory factory = new ClassMakerFactory();
+        ClassMaker maker = factory.createClassMaker();
+        AstStructureVisitor visitor = new AstStructureVisitor(maker);
+        visitor.setFilename("GeneratedSample.jesub");
+
+        factory.setPass(ClassMakerConstants.FIRST_PASS);
+        tree.resolveDeclaration(visitor);
+        maker.EndClass();
+
+        factory.setPass(ClassMakerConstants.SECOND_PASS);
+        tree.resolveDeclaration(visitor);
+        maker.EndClass();
+        return maker;
+    }
+
+    /** Generates the class from a parsed tree. */
+    @Benchmark
+    public ClassMaker generate()
+    {
+        return generate(tree);
+    }
+
+    /** Writes the generated class to a byte array. */
+    @Benchmark
+    public byte[] toByteArray()
+    {
+        return generated.getGen().toByteArray();
+    }
+
+    /** Defines the class bytes in a new class loader. */
+    @Benchmark
+    public Class<?> defineClass()
+    {
+        SimpleClassLoader loader = new SimpleClassLoader();
+        return loader.defineClass(CLASS_NAME, classBytes);
+    }
+
+    /** Parses the source, generates the class and defines it. */
+    @Benchmark
+    public Class<?> compile() throws Exception
+    {
+        ClassMaker maker = generate(parse());
+        return maker.defineClass();
+    }
+}
@@ -0,0 +1,89 @@
+package au.com.illyrian.benchmark;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.com.illyrian.parser.TokenType;
+import au.com.illyrian.parser.impl.Latin1Lexer;
+import au.com.illyrian.parser.impl.LexerInputStream;
+import au.com.illyrian.parser.impl.LexerInputString;
+
+/**
+ * Measures the throughput of <code>Latin1Lexer.nextToken</code>.
+ * <br/>
+ * Each invocation tokenises the whole of a synthetic source and returns the number of tokens,
+ * so the score divided by the token count gives the cost per token.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark
+{
+    /** The number of methods in the synthetic class. */
+    @Param({"10", "100", "1000"})
+    public int methods;
+
+    String source;
+    String expression;
+
+    @Setup
+    public void setUp()
+    {
+        source = SyntheticSource.jesubClass("LexerSample", methods);
+        expression = SyntheticSource.expression(methods * 10);
+    }
+
+    /** Tokenises a multi-line source read through <code>LexerInputStream</code>. */
+    @Benchmark
+    public int nextTokenStream() throws IOException
+    {
+        Latin1Lexer lexer = new Latin1Lexer(new LexerInputStream(new StringReader(source), "LexerSample.java"));
+        return countTokens(lexer);
+    }
+
+    /** Tokenises a single line expression held in a <code>LexerInputString</code>. */
+    @Benchmark
+    public int nextTokenString()
+    {
+        Latin1Lexer lexer = new Latin1Lexer(new LexerInputString(expression));
+        return countTokens(lexer);
+    }
+
+    /** Tokenises a multi-line source where the Java keywords are reserved words. */
+    @Benchmark
+    public int nextTokenReserved() throws IOException
+    {
+        Latin1Lexer lexer = new Latin1Lexer(new LexerInputStream(new StringReader(source), "LexerSample.java"));
+        for (String word : KEYWORDS) {
+            lexer.getReservedWords().setProperty(word, word);
+        }
+        return countTokens(lexer);
+    }
+
+    static final String[] KEYWORDS = {"package", "public", "class", "int", "this", "for", "if", "else", "return"};
+
+    static int countTokens(Latin1Lexer lexer)
+    {
+        int count = 0;
+        while (lexer.nextToken() != TokenType.END) {
+            count++;
+        }
+        return count;
+    }
+}
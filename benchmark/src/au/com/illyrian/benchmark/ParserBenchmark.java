@@ -0,0 +1,83 @@
+package au.com.illyrian.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.com.illyrian.classmaker.ast.AstExpressionFactory;
+import au.com.illyrian.expressionparser.ExpressionParser;
+import au.com.illyrian.jesub.ast.AstStructure;
+import au.com.illyrian.jsub.bnf.JsubBnfParser;
+import au.com.illyrian.parser.ParseModule;
+import au.com.illyrian.parser.expr.AstExpressionPrecidenceAction;
+import au.com.illyrian.parser.impl.LexerInputString;
+import au.com.illyrian.parser.impl.ModuleContext;
+
+/**
+ * Measures the parse rate of the expression parser and of the parser generated
+ * from the Jesub grammar.
+ * <br/>
+ * The Jesub parser is generated from <code>test/au/com/illyrian/bnf/Jesub_syntax.bnf</code>
+ * relative to the working directory, so the benchmarks must be run from the
+ * <code>parsermaker</code> directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark
+{
+    /** The number of methods in the synthetic class and tens of operands in the expression. */
+    @Param({"10", "100", "1000"})
+    public int size;
+
+    String expression;
+    String source;
+    ParseModule<AstStructure> jesubParser;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        expression = SyntheticSource.expression(size * 10);
+        source = SyntheticSource.jesubClass("ParserSample", size);
+        jesubParser = new JsubBnfParser(new File(JsubBnfParser.TEST_DIR)).getParser();
+    }
+
+    /** Parses an arithmetic expression into an <code>AstExpression</code> tree. */
+    @Benchmark
+    public Object parseExpression()
+    {
+        LexerInputString input = new LexerInputString(expression);
+        ExpressionParser parser = new ExpressionParser();
+        parser.setPrecidenceActions(new AstExpressionPrecidenceAction(new AstExpressionFactory()));
+        ModuleContext context = new ModuleContext();
+        context.setInput(input);
+        parser.setCompilerContext(context);
+        parser.setInput(input);
+        return parser.parseExpression(context);
+    }
+
+    /** Parses a Jesub class into an <code>AstStructure</code> tree. */
+    @Benchmark
+    public AstStructure parseJesub() throws IOException
+    {
+        ModuleContext context = new ModuleContext();
+        context.setInputReader(new StringReader(source), "ParserSample.jesub");
+        return jesubParser.parseModule(context);
+    }
+}
@@ -0,0 +1,67 @@
+package au.com.illyrian.benchmark;
+
+/**
+ * Generates synthetic source text of a given size for the benchmarks.
+ * <br/>
+ * The generated text is deterministic so that results can be compared between runs.
+ */
+public class SyntheticSource
+{
+    /**
+     * Creates an arithmetic expression with the given number of operands,
+     * enclosed in braces as expected by <code>ExpressionParser</code>.
+     * @param operands the number of operands in the expression
+     * @return the expression text
+     */
+    public static String expression(int operands)
+    {
+        final String[] operators = {" + ", " * ", " - ", " / "};
+        StringBuilder buf = new StringBuilder(operands * 8);
+        buf.append('{');
+        for (int i = 0; i < operands; i++) {
+            if (i > 0) {
+                buf.append(operators[i % operators.length]);
+            }
+            if (i % 3 == 0) {
+                buf.append('(').append("a").append(i).append(" + ").append(i).append(')');
+            } else {
+                buf.append("b").append(i);
+            }
+        }
+        buf.append('}');
+        return buf.toString();
+    }
+
+    /**
+     * Creates a Jesub compilation unit containing a class with the given number of methods.
+     * Each method loops, branches and updates fields.
+     * @param className the simple name of the class
+     * @param methods the number of methods in the class
+     * @return the source text
+     */
+    public static String jesubClass(String className, int methods)
+    {
+        StringBuilder buf = new StringBuilder(methods * 200);
+        buf.append("package au.com.illyrian.benchmark.generated;\n");
+        buf.append("public class ").append(className).append(" {\n");
+        buf.append("  int count;\n");
+        buf.append("  int sum;\n");
+        for (int i = 0; i < methods; i++) {
+            // Statements start with a keyword because the grammar reads a leading name as a declaration.
+            buf.append("  // Method number ").append(i).append('\n');
+            buf.append("  public int method").append(i).append("(int a) {\n");
+            buf.append("    this.sum = 0;\n");
+            buf.append("    for (this.count = 0; this.count < a; this.count = this.count + 1) {\n");
+            buf.append("      if (this.count > ").append(i).append(") {\n");
+            buf.append("        this.sum = this.sum + this.count * ").append(i + 1).append(";\n");
+            buf.append("      } else {\n");
+            buf.append("        this.sum = this.sum - a;\n");
+            buf.append("      }\n");
+            buf.append("    }\n");
+            buf.append("    return this.sum;\n");
+            buf.append("  }\n");
+        }
+        buf.append("}\n");
+        return buf.toString();
+    }
+}
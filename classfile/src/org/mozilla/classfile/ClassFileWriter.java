@@ -39,7 +39,9 @@
 package org.mozilla.classfile;
 
 import java.io.*;
-import java.util.HashMap;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Vector;
 
 /**
@@ -82,8 +84,58 @@ public class ClassFileWriter implements ByteCode {
      *            is not desired
      */
     public ClassFileWriter(String className, String superClassName, String sourceFileName) {
-        generatedClassName = className;
         itsConstantPool = new ConstantPool(this);
+        init(className, superClassName, sourceFileName);
+    }
+
+    /**
+     * Prepare this ClassFileWriter to write another class.
+     *
+     * The writer is returned to the state of a new writer, but keeps the
+     * buffers of the constant pool and the tables used by methods, so that
+     * many classes can be generated without allocating them again.
+     * The major version and whether code is optimized are also kept.
+     * The class file of the previous class must have been written.
+     *
+     * @param className
+     *            the name of the class to write, including
+     *            full package qualification.
+     * @param superClassName
+     *            the name of the superclass of the class
+     *            to write, including full package qualification.
+     * @param sourceFileName
+     *            the name of the source file to use for
+     *            producing debug information, or null if debug information
+     *            is not desired
+     */
+    public void reset(String className, String superClassName, String sourceFileName) {
+        if (itsCurrentMethod != null) {
+            // Abstract and native methods have no code, so they are never stopped.
+            if ((itsCurrentMethodFlags & (ACC_ABSTRACT | ACC_NATIVE)) == 0)
+                throw new IllegalStateException("Method " + itsCurrentMethodName + " has not been stopped");
+            BufferPool.release(itsCodeBuffer, itsCodeBufferTop);
+            itsCodeBuffer = NO_CODE;
+            itsCodeBufferTop = 0;
+            itsCurrentMethod = null;
+            itsCurrentMethodName = null;
+            itsCurrentMethodType = null;
+        }
+        itsConstantPool.reset();
+        itsMethods.clear();
+        itsFields.clear();
+        itsInterfaces.clear();
+        itsBytesSaved = 0;
+        itsSourceFileNameIndex = 0;
+        itsLineNumberTable = null;
+        debugCodeOutput = null;
+        debugComment = null;
+        debugLabel = -1;
+        init(className, superClassName, sourceFileName);
+    }
+
+    private void init(String className, String superClassName, String sourceFileName) {
+        generatedClassName = className;
+        itsSuperClassName = superClassName;
         itsThisClassIndex = itsConstantPool.addClass(className);
         itsSuperClassIndex = itsConstantPool.addClass(superClassName);
         if (sourceFileName != null)
@@ -99,6 +151,121 @@ public class ClassFileWriter implements ByteCode {
         return generatedClassName;
     }
 
+    /**
+     * Set the major version of the class file.
+     *
+     * The default is <code>MAJOR_VERSION_JAVA_1</code>, which is checked
+     * by the type inferencing verifier. From version 50 a StackMapTable
+     * is computed for each method in <code>stopMethod</code> so the class
+     * can be checked by the faster type checking verifier. JSR and RET
+     * instructions are not permitted in these versions.
+     *
+     * @param majorVersion
+     *            one of <code>MAJOR_VERSION_JAVA_1</code>,
+     *            <code>MAJOR_VERSION_JAVA_8</code>,
+     *            <code>MAJOR_VERSION_JAVA_11</code> or
+     *            <code>MAJOR_VERSION_JAVA_17</code>
+     */
+    public void setMajorVersion(int majorVersion) {
+        if (majorVersion < MAJOR_VERSION_JAVA_1 || majorVersion > MAJOR_VERSION_JAVA_17)
+            throw new IllegalArgumentException("Unsupported class file version: " + majorVersion);
+        itsMajorVersion = majorVersion;
+    }
+
+    public final int getMajorVersion() {
+        return itsMajorVersion;
+    }
+
+    /**
+     * Whether a StackMapTable is written for each method.
+     */
+    public final boolean isStackMapRequired() {
+        return itsMajorVersion >= MAJOR_VERSION_STACK_MAP;
+    }
+
+    /**
+     * Set whether the code of each method is passed through the
+     * <code>PeepholeOptimizer</code> when the method is stopped.
+     *
+     * The default is false, so the code is written as it was added.
+     *
+     * @param optimize
+     *            true to remove redundant instructions
+     */
+    public void setOptimizeCode(boolean optimize) {
+        itsOptimizeCode = optimize;
+    }
+
+    public final boolean isOptimizeCode() {
+        return itsOptimizeCode;
+    }
+
+    /**
+     * The number of bytes of code removed from the methods of this class
+     * by the peephole optimizer.
+     */
+    public final int getBytesSaved() {
+        return itsBytesSaved;
+    }
+
+    /**
+     * Returns the name of the closest common super class of two classes.
+     *
+     * This is used to merge the types of references where control flow
+     * joins when computing StackMapTable frames. Interfaces are merged
+     * as <code>java/lang/Object</code>, as they are by the verifier.
+     *
+     * @param type1
+     *            the internal name of a class
+     * @param type2
+     *            the internal name of another class
+     * @return the internal name of the common super class
+     */
+    protected String getCommonSuperClass(String type1, String type2) {
+        if (type1.equals(type2))
+            return type1;
+        Vector<String> superClasses = new Vector<String>();
+        for (String name = type1; name != null; name = getSuperClassName(name)) {
+            superClasses.add(name);
+        }
+        for (String name = type2; name != null; name = getSuperClassName(name)) {
+            if (superClasses.contains(name))
+                return name;
+        }
+        return "java/lang/Object";
+    }
+
+    /**
+     * Returns the name of the super class of the given class.
+     *
+     * The default implementation knows the class being written and loads
+     * other classes using the context class loader. Override this method
+     * to describe classes that are being generated at the same time.
+     *
+     * @param className
+     *            the internal name of a class
+     * @return the internal name of the super class, or null if the class is
+     *         an interface, <code>java/lang/Object</code> or cannot be found
+     */
+    protected String getSuperClassName(String className) {
+        if (className.equals(getSlashedForm(generatedClassName)))
+            return getSlashedForm(itsSuperClassName);
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null)
+            loader = ClassFileWriter.class.getClassLoader();
+        try {
+            Class<?> javaClass = Class.forName(className.replace('/', '.'), false, loader);
+            Class<?> superClass = javaClass.getSuperclass();
+            if (javaClass.isInterface() || superClass == null)
+                return null;
+            return getSlashedForm(superClass.getName());
+        } catch (ClassNotFoundException ex) {
+            return null;
+        } catch (LinkageError ex) {
+            return null;
+        }
+    }
+
     /**
      * Add an interface implemented by this class.
      *
@@ -290,7 +457,11 @@ public class ClassFileWriter implements ByteCode {
         short methodNameIndex = itsConstantPool.addUtf8(methodName);
         short typeIndex = itsConstantPool.addUtf8(type);
         itsCurrentMethod = new ClassFileMethod(methodNameIndex, typeIndex, flags);
+        itsCurrentMethodName = methodName;
+        itsCurrentMethodType = type;
+        itsCurrentMethodFlags = flags;
         itsMethods.add(itsCurrentMethod);
+        itsCodeBuffer = BufferPool.acquire(MIN_CODE_BUFFER_SIZE);
         if (isDebugCode())
             debugString(".method " + modifierStr(flags) + methodName + type);
     }
@@ -310,9 +481,26 @@ public class ClassFileWriter implements ByteCode {
             throw new IllegalStateException("No method to stop");
 
         fixLabelGotos();
+        if (itsOptimizeCode && itsCodeBufferTop > 0)
+            optimizeCode();
 
         itsMaxLocals = maxLocals;
 
+        int[] exceptionTable = resolveExceptionTable();
+
+        byte[] stackMapTable = null;
+        if (isStackMapRequired() && itsCodeBufferTop > 0) {
+            StackMapTable frames = new StackMapTable(this, itsConstantPool, itsCodeBuffer, itsCodeBufferTop,
+                    exceptionTable, maxLocals, generatedClassName, itsCurrentMethodName, itsCurrentMethodType,
+                    itsCurrentMethodFlags);
+            frames.compute();
+            exceptionTable = frames.getExceptionTable();
+            itsMaxStack = (short) frames.getMaxStack(itsMaxStack);
+            if (frames.getFrameCount() > 0)
+                stackMapTable = frames.toAttribute();
+        }
+        int exceptionTableTop = exceptionTable.length / 4;
+
         int lineNumberTableLength = 0;
         if (itsLineNumberTable != null) {
             // 6 bytes for the attribute header
@@ -335,8 +523,10 @@ public class ClassFileWriter implements ByteCode {
                 2 + // max_locals
                 4 + // code_length
                 itsCodeBufferTop + 2 + // exception_table_length
-                (itsExceptionTableTop * 8) + 2 + // attributes_count
+                (exceptionTableTop * 8) + 2 + // attributes_count
                 lineNumberTableLength + variableTableLength;
+        if (stackMapTable != null)
+            attrLength += stackMapTable.length;
 
         if (attrLength > 65536) {
             // See http://java.sun.com/docs/books/jvms/second_edition/html/ClassFile.doc.html,
@@ -356,29 +546,9 @@ public class ClassFileWriter implements ByteCode {
         System.arraycopy(itsCodeBuffer, 0, codeAttribute, index, itsCodeBufferTop);
         index += itsCodeBufferTop;
 
-        if (itsExceptionTableTop > 0) {
-            index = putInt16(itsExceptionTableTop, codeAttribute, index);
-            for (int i = 0; i < itsExceptionTableTop; i++) {
-                ExceptionTableEntry ete = itsExceptionTable[i];
-                short startPC = (short) getLabelPC(ete.itsStartLabel);
-                short endPC = (short) getLabelPC(ete.itsEndLabel);
-                short handlerPC = (short) getLabelPC(ete.itsHandlerLabel);
-                short catchType = ete.itsCatchType;
-                if (startPC == -1)
-                    throw new IllegalStateException("start label not defined");
-                if (endPC == -1)
-                    throw new IllegalStateException("end label not defined");
-                if (handlerPC == -1)
-                    throw new IllegalStateException("handler label not defined");
-
-                index = putInt16(startPC, codeAttribute, index);
-                index = putInt16(endPC, codeAttribute, index);
-                index = putInt16(handlerPC, codeAttribute, index);
-                index = putInt16(catchType, codeAttribute, index);
-            }
-        } else {
-            // write 0 as exception table length
-            index = putInt16(0, codeAttribute, index);
+        index = putInt16(exceptionTableTop, codeAttribute, index);
+        for (int i = 0; i < exceptionTable.length; i++) {
+            index = putInt16(exceptionTable[i], codeAttribute, index);
         }
 
         int attributeCount = 0;
@@ -386,8 +556,15 @@ public class ClassFileWriter implements ByteCode {
             attributeCount++;
         if (itsVarDescriptors != null)
             attributeCount++;
+        if (stackMapTable != null)
+            attributeCount++;
         index = putInt16(attributeCount, codeAttribute, index);
 
+        if (stackMapTable != null) {
+            System.arraycopy(stackMapTable, 0, codeAttribute, index, stackMapTable.length);
+            index += stackMapTable.length;
+        }
+
         if (itsLineNumberTable != null) {
             int lineNumberTableAttrIndex = itsConstantPool.addUtf8("LineNumberTable");
             index = putInt16(lineNumberTableAttrIndex, codeAttribute, index);
@@ -425,9 +602,13 @@ public class ClassFileWriter implements ByteCode {
 
         itsCurrentMethod.setCodeAttribute(codeAttribute);
 
+        itsCurrentMethodName = null;
+        itsCurrentMethodType = null;
         itsExceptionTable = null;
         itsExceptionTableTop = 0;
         itsLineNumberTableTop = 0;
+        BufferPool.release(itsCodeBuffer, itsCodeBufferTop);
+        itsCodeBuffer = NO_CODE;
         itsCodeBufferTop = 0;
         itsCurrentMethod = null;
         itsMaxStack = 0;
@@ -439,6 +620,31 @@ public class ClassFileWriter implements ByteCode {
             debugString(".end method");
     }
 
+    /*
+     * Convert the label based exception table into program counters,
+     * four ints per entry: start_pc, end_pc, handler_pc and catch_type.
+     */
+    private int[] resolveExceptionTable() {
+        int[] table = new int[itsExceptionTableTop * 4];
+        for (int i = 0; i < itsExceptionTableTop; i++) {
+            ExceptionTableEntry ete = itsExceptionTable[i];
+            int startPC = getLabelPC(ete.itsStartLabel);
+            int endPC = getLabelPC(ete.itsEndLabel);
+            int handlerPC = getLabelPC(ete.itsHandlerLabel);
+            if (startPC == -1)
+                throw new IllegalStateException("start label not defined");
+            if (endPC == -1)
+                throw new IllegalStateException("end label not defined");
+            if (handlerPC == -1)
+                throw new IllegalStateException("handler label not defined");
+            table[i * 4] = startPC;
+            table[i * 4 + 1] = endPC;
+            table[i * 4 + 2] = handlerPC;
+            table[i * 4 + 3] = ete.itsCatchType & 0xFFFF;
+        }
+        return table;
+    }
+
     /**
      * Add the single-byte opcode to the current method.
      *
@@ -513,10 +719,11 @@ public class ClassFileWriter implements ByteCode {
                     int theLabel = theOperand & 0x7FFFFFFF;
                     System.out.println("Fixing branch to " + theLabel + " at " + targetPC + " from " + branchPC);
                 }
-                if (targetPC != -1) {
+                if (targetPC != -1 && (short) (targetPC - branchPC) == targetPC - branchPC) {
                     int offset = targetPC - branchPC;
                     addToCodeInt16(offset);
                 } else {
+                    // A branch that is out of range is widened when the method is stopped.
                     addLabelFixup(theOperand, branchPC + 1);
                     addToCodeInt16(0);
                 }
@@ -1398,6 +1605,7 @@ public class ClassFileWriter implements ByteCode {
 
     private void fixLabelGotos() {
         byte[] codeBuffer = itsCodeBuffer;
+        int[] farTargets = null;
         for (int i = 0; i < itsFixupTableTop; i++) {
             long fixup = itsFixupTable[i];
             int label = (int) (fixup >> 32);
@@ -1410,12 +1618,368 @@ public class ClassFileWriter implements ByteCode {
             // -1 to get delta from instruction start
             int offset = pc - (fixupSite - 1);
             if ((short) offset != offset) {
-                throw new ClassFileFormatException("Program too complex: too big jump offset");
+                if (farTargets == null) {
+                    farTargets = new int[itsCodeBufferTop];
+                    Arrays.fill(farTargets, -1);
+                }
+                farTargets[fixupSite - 1] = pc;
+                continue;
             }
             codeBuffer[fixupSite] = (byte) (offset >> 8);
             codeBuffer[fixupSite + 1] = (byte) offset;
         }
         itsFixupTableTop = 0;
+        if (farTargets != null) {
+            widenBranches(farTargets);
+        }
+    }
+
+    /*
+     * Rewrites the code of the current method so that branches with targets beyond
+     * the range of a 16 bit offset use goto_w. A goto or jsr becomes goto_w or jsr_w,
+     * while a conditional branch is inverted to jump over a goto_w to the target.
+     * Widening a branch moves the code after it, which may put other branches out of
+     * range, so the widened branches are found before any code is moved.
+     * <p>
+     * Labels, line numbers and local variable ranges are moved with the code.
+     * The stack map frames are calculated afterwards from the rewritten code.
+     *
+     * @param farTargets the target of each branch that is known to be out of range,
+     *            indexed by the pc of the branch, or -1
+     */
+    private void widenBranches(int[] farTargets) {
+        byte[] code = itsCodeBuffer;
+        int top = itsCodeBufferTop;
+        boolean[] wide = new boolean[top];
+        for (int pc = 0; pc < top; pc++) {
+            wide[pc] = farTargets[pc] != -1;
+        }
+
+        int[] newPC = new int[top + 1];
+        boolean changed = true;
+        while (changed) {
+            int newTop = 0;
+            for (int pc = 0; pc < top; pc += instructionLength(code, pc)) {
+                newPC[pc] = newTop;
+                newTop += widenedLength(code, pc, newTop, wide[pc]);
+            }
+            newPC[top] = newTop;
+            changed = false;
+            for (int pc = 0; pc < top; pc += instructionLength(code, pc)) {
+                int opcode = code[pc] & 0xFF;
+                if (!wide[pc] && isJumpOpcode(opcode) && opcode != ByteCode.GOTO_W && opcode != ByteCode.JSR_W) {
+                    int offset = newPC[branchTarget(code, pc, farTargets)] - newPC[pc];
+                    if ((short) offset != offset) {
+                        wide[pc] = true;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        int newTop = newPC[top];
+        byte[] widened = BufferPool.acquire(Math.max(newTop, code.length));
+        for (int pc = 0; pc < top; pc += instructionLength(code, pc)) {
+            int opcode = code[pc] & 0xFF;
+            int at = newPC[pc];
+            if (opcode == ByteCode.TABLESWITCH || opcode == ByteCode.LOOKUPSWITCH) {
+                int base = (pc + 4) & ~3;
+                int newBase = (at + 4) & ~3;
+                widened[at] = (byte) opcode;
+                for (int i = at + 1; i < newBase; i++) {
+                    widened[i] = 0;
+                }
+                System.arraycopy(code, base, widened, newBase, pc + instructionLength(code, pc) - base);
+                putInt32(newPC[pc + getInt32(code, base)] - at, widened, newBase);
+                if (opcode == ByteCode.TABLESWITCH) {
+                    int count = getInt32(code, base + 8) - getInt32(code, base + 4) + 1;
+                    for (int i = 0; i < count; i++) {
+                        int site = base + 12 + 4 * i;
+                        putInt32(newPC[pc + getInt32(code, site)] - at, widened, newBase + 12 + 4 * i);
+                    }
+                } else {
+                    int count = getInt32(code, base + 4);
+                    for (int i = 0; i < count; i++) {
+                        int site = base + 12 + 8 * i;
+                        putInt32(newPC[pc + getInt32(code, site)] - at, widened, newBase + 12 + 8 * i);
+                    }
+                }
+            } else if (opcode == ByteCode.GOTO_W || opcode == ByteCode.JSR_W) {
+                widened[at] = (byte) opcode;
+                putInt32(newPC[pc + getInt32(code, pc + 1)] - at, widened, at + 1);
+            } else if (isJumpOpcode(opcode)) {
+                int target = newPC[branchTarget(code, pc, farTargets)];
+                if (!wide[pc]) {
+                    widened[at] = (byte) opcode;
+                    putInt16(target - at, widened, at + 1);
+                } else if (opcode == ByteCode.GOTO || opcode == ByteCode.JSR) {
+                    widened[at] = (byte) ((opcode == ByteCode.GOTO) ? ByteCode.GOTO_W : ByteCode.JSR_W);
+                    putInt32(target - at, widened, at + 1);
+                } else {
+                    widened[at] = (byte) invertBranch(opcode);
+                    putInt16(3 + 5, widened, at + 1);
+                    widened[at + 3] = (byte) ByteCode.GOTO_W;
+                    putInt32(target - (at + 3), widened, at + 4);
+                }
+            } else {
+                System.arraycopy(code, pc, widened, at, instructionLength(code, pc));
+            }
+        }
+        BufferPool.release(code, top);
+        itsCodeBuffer = widened;
+        itsCodeBufferTop = newTop;
+        relocate(newPC);
+    }
+
+    /*
+     * Removes redundant instructions from the code of the current method,
+     * making passes until nothing more can be removed.
+     */
+    private void optimizeCode() {
+        int before = itsCodeBufferTop;
+        for (int pass = 0; pass < MAX_OPTIMIZER_PASSES; pass++) {
+            PeepholeOptimizer optimizer = new PeepholeOptimizer(itsCodeBuffer, itsCodeBufferTop, itsLabelTable,
+                    itsLabelTableTop, resolveExceptionTable());
+            if (!optimizer.optimize())
+                break;
+            byte[] optimized = BufferPool.acquire(itsCodeBuffer.length);
+            int newTop = optimizer.rewrite(optimized);
+            BufferPool.release(itsCodeBuffer, itsCodeBufferTop);
+            itsCodeBuffer = optimized;
+            itsCodeBufferTop = newTop;
+            itsMaxStack = (short) (itsMaxStack + optimizer.getStackIncrease());
+            relocate(optimizer.getNewPC());
+        }
+        itsBytesSaved += before - itsCodeBufferTop;
+    }
+
+    /*
+     * Moves the labels, line numbers and local variable ranges of the current
+     * method after its code has been rewritten.
+     *
+     * @param newPC the new position of each instruction, indexed by its old position
+     */
+    private void relocate(int[] newPC) {
+        for (int i = 0; i < itsLabelTableTop; i++) {
+            if (itsLabelTable[i] != -1) {
+                itsLabelTable[i] = newPC[itsLabelTable[i]];
+            }
+        }
+        for (int i = 0; i < itsLineNumberTableTop; i++) {
+            int entry = itsLineNumberTable[i];
+            itsLineNumberTable[i] = (newPC[entry >>> 16] << 16) | (entry & 0xFFFF);
+        }
+        if (itsVarDescriptors != null) {
+            for (int i = 0; i < itsVarDescriptors.size(); i++) {
+                int[] chunk = (int[]) itsVarDescriptors.get(i);
+                chunk[2] = newPC[chunk[2]];
+                if (chunk[4] != -1) {
+                    chunk[4] = newPC[chunk[4]];
+                }
+            }
+        }
+    }
+
+    /*
+     * The length of an instruction once it has been moved to newPC and widened if required.
+     */
+    private static int widenedLength(byte[] code, int pc, int newPC, boolean wide) {
+        int opcode = code[pc] & 0xFF;
+        int length = instructionLength(code, pc);
+        if (opcode == ByteCode.TABLESWITCH || opcode == ByteCode.LOOKUPSWITCH) {
+            // The padding after the opcode aligns the operands to a multiple of four.
+            int padding = ((pc + 4) & ~3) - (pc + 1);
+            int newPadding = ((newPC + 4) & ~3) - (newPC + 1);
+            return length - padding + newPadding;
+        } else if (!wide) {
+            return length;
+        } else if (opcode == ByteCode.GOTO || opcode == ByteCode.JSR) {
+            return 5;
+        } else {
+            return 3 + 5;
+        }
+    }
+
+    private static int branchTarget(byte[] code, int pc, int[] farTargets) {
+        if (farTargets[pc] != -1) {
+            return farTargets[pc];
+        }
+        return pc + (short) ((code[pc + 1] << 8) | (code[pc + 2] & 0xFF));
+    }
+
+    /*
+     * The conditional branch that jumps when the given branch would not.
+     */
+    static int invertBranch(int opcode) {
+        switch (opcode) {
+        case ByteCode.IFEQ:
+            return ByteCode.IFNE;
+        case ByteCode.IFNE:
+            return ByteCode.IFEQ;
+        case ByteCode.IFLT:
+            return ByteCode.IFGE;
+        case ByteCode.IFGE:
+            return ByteCode.IFLT;
+        case ByteCode.IFGT:
+            return ByteCode.IFLE;
+        case ByteCode.IFLE:
+            return ByteCode.IFGT;
+        case ByteCode.IF_ICMPEQ:
+            return ByteCode.IF_ICMPNE;
+        case ByteCode.IF_ICMPNE:
+            return ByteCode.IF_ICMPEQ;
+        case ByteCode.IF_ICMPLT:
+            return ByteCode.IF_ICMPGE;
+        case ByteCode.IF_ICMPGE:
+            return ByteCode.IF_ICMPLT;
+        case ByteCode.IF_ICMPGT:
+            return ByteCode.IF_ICMPLE;
+        case ByteCode.IF_ICMPLE:
+            return ByteCode.IF_ICMPGT;
+        case ByteCode.IF_ACMPEQ:
+            return ByteCode.IF_ACMPNE;
+        case ByteCode.IF_ACMPNE:
+            return ByteCode.IF_ACMPEQ;
+        case ByteCode.IFNULL:
+            return ByteCode.IFNONNULL;
+        case ByteCode.IFNONNULL:
+            return ByteCode.IFNULL;
+        default:
+            throw new IllegalArgumentException("Not a conditional branch: " + bytecodeStr(opcode));
+        }
+    }
+
+    /**
+     * Append a copy of the code between two marked labels to the current method.
+     * <p>
+     * Jumps from within the copied code to targets inside the range, including
+     * the end label, are redirected to the copy, while jumps to targets outside
+     * the range keep their original destinations. Exception handlers and line
+     * numbers that lie within the range are duplicated for the copy.
+     * <p>
+     * This allows a finally block to be inlined at each exit from a try
+     * statement, rather than being called as a <code>jsr</code> subroutine.
+     *
+     * @param startLabel
+     *            the label marking the start of the code to copy
+     * @param endLabel
+     *            the label marking the end of the code to copy
+     */
+    public void addCodeCopy(int startLabel, int endLabel) {
+        int start = getLabelPC(startLabel);
+        int end = getLabelPC(endLabel);
+        if (start == -1 || end == -1 || end < start)
+            throw new IllegalArgumentException("Labels must be marked in order before code is copied");
+        if (isDebugCode())
+            debugString("\t.copy #" + (startLabel & 0x7FFFFFFF) + " to #" + (endLabel & 0x7FFFFFFF));
+
+        // Keep the copy aligned with the original so switch padding is unchanged.
+        while (((itsCodeBufferTop - start) & 3) != 0)
+            addToCodeBuffer(ByteCode.NOP);
+        int length = end - start;
+        int delta = itsCodeBufferTop - start;
+        int dest = addReservedCodeSpace(length);
+        System.arraycopy(itsCodeBuffer, start, itsCodeBuffer, dest, length);
+
+        // Branches that have not been resolved are duplicated in the copy.
+        int fixupTop = itsFixupTableTop;
+        boolean[] pending = new boolean[length];
+        for (int i = 0; i < fixupTop; i++) {
+            long fixup = itsFixupTable[i];
+            int label = (int) (fixup >> 32);
+            int fixupSite = (int) fixup;
+            if (fixupSite < start || fixupSite >= end)
+                continue;
+            pending[fixupSite - start] = true;
+            int pc = itsLabelTable[label];
+            if (start <= pc && pc <= end && (short) (pc - (fixupSite - 1)) == pc - (fixupSite - 1)) {
+                putInt16(pc - (fixupSite - 1), itsCodeBuffer, fixupSite + delta);
+            } else if (start <= pc && pc <= end) {
+                int copyLabel = acquireLabel();
+                itsLabelTable[copyLabel & 0x7FFFFFFF] = pc + delta;
+                addLabelFixup(copyLabel, fixupSite + delta);
+            } else {
+                addLabelFixup(label | 0x80000000, fixupSite + delta);
+            }
+        }
+
+        // Resolved branches to targets outside the range are adjusted.
+        for (int pc = start; pc < end; pc += instructionLength(itsCodeBuffer, pc)) {
+            int opcode = itsCodeBuffer[pc] & 0xFF;
+            if (opcode == ByteCode.TABLESWITCH || opcode == ByteCode.LOOKUPSWITCH) {
+                int base = (pc + 4) & ~3;
+                copyJumpOffset32(pc, base, start, end, delta);
+                if (opcode == ByteCode.TABLESWITCH) {
+                    int count = getInt32(itsCodeBuffer, base + 8) - getInt32(itsCodeBuffer, base + 4) + 1;
+                    for (int i = 0; i < count; i++)
+                        copyJumpOffset32(pc, base + 12 + 4 * i, start, end, delta);
+                } else {
+                    int count = getInt32(itsCodeBuffer, base + 4);
+                    for (int i = 0; i < count; i++)
+                        copyJumpOffset32(pc, base + 12 + 8 * i, start, end, delta);
+                }
+            } else if (opcode == ByteCode.GOTO_W || opcode == ByteCode.JSR_W) {
+                copyJumpOffset32(pc, pc + 1, start, end, delta);
+            } else if (isJumpOpcode(opcode) && !pending[pc + 1 - start]) {
+                int target = pc + (short) ((itsCodeBuffer[pc + 1] << 8) | (itsCodeBuffer[pc + 2] & 0xFF));
+                if (target < start || target > end) {
+                    int offset = target - (pc + delta);
+                    if ((short) offset == offset) {
+                        putInt16(offset, itsCodeBuffer, pc + 1 + delta);
+                    } else {
+                        // The copied branch is widened when the method is stopped.
+                        int label = acquireLabel();
+                        itsLabelTable[label & 0x7FFFFFFF] = target;
+                        addLabelFixup(label, pc + 1 + delta);
+                    }
+                }
+            }
+        }
+
+        // Exception handlers that lie within the range are duplicated.
+        int handlerTop = itsExceptionTableTop;
+        for (int i = 0; i < handlerTop; i++) {
+            ExceptionTableEntry entry = itsExceptionTable[i];
+            int startPC = getLabelPC(entry.itsStartLabel);
+            int endPC = getLabelPC(entry.itsEndLabel);
+            int handlerPC = getLabelPC(entry.itsHandlerLabel);
+            if (startPC < start || endPC < startPC || endPC > end || handlerPC < start || handlerPC >= end)
+                continue;
+            int newStart = acquireLabel();
+            int newEnd = acquireLabel();
+            int newHandler = acquireLabel();
+            itsLabelTable[newStart & 0x7FFFFFFF] = startPC + delta;
+            itsLabelTable[newEnd & 0x7FFFFFFF] = endPC + delta;
+            itsLabelTable[newHandler & 0x7FFFFFFF] = handlerPC + delta;
+            ExceptionTableEntry copy = new ExceptionTableEntry(newStart, newEnd, newHandler, entry.itsCatchType);
+            if (itsExceptionTableTop == itsExceptionTable.length) {
+                ExceptionTableEntry[] tmp = new ExceptionTableEntry[itsExceptionTableTop * 2];
+                System.arraycopy(itsExceptionTable, 0, tmp, 0, itsExceptionTableTop);
+                itsExceptionTable = tmp;
+            }
+            itsExceptionTable[itsExceptionTableTop++] = copy;
+        }
+
+        // Line numbers within the range are duplicated.
+        int lineTop = itsLineNumberTableTop;
+        for (int i = 0; i < lineTop; i++) {
+            int entry = itsLineNumberTable[i];
+            int pc = entry >>> 16;
+            if (pc < start || pc >= end)
+                continue;
+            if (itsLineNumberTableTop == itsLineNumberTable.length) {
+                int[] tmp = new int[itsLineNumberTableTop * 2];
+                System.arraycopy(itsLineNumberTable, 0, tmp, 0, itsLineNumberTableTop);
+                itsLineNumberTable = tmp;
+            }
+            itsLineNumberTable[itsLineNumberTableTop++] = ((pc + delta) << 16) + (entry & 0xFFFF);
+        }
+    }
+
+    private void copyJumpOffset32(int pc, int site, int start, int end, int delta) {
+        int target = pc + getInt32(itsCodeBuffer, site);
+        if (target < start || target > end)
+            putInt32(target - (pc + delta), itsCodeBuffer, site + delta);
     }
 
     /**
@@ -1427,6 +1991,48 @@ public class ClassFileWriter implements ByteCode {
         return itsCodeBufferTop;
     }
 
+    /**
+     * Removes the code of the current method from the given offset onwards.
+     * <p>
+     * This allows the instructions that push constant operands to be replaced
+     * by a single instruction that pushes the result. The code is not removed
+     * if a label, branch or local variable refers to a position after the
+     * offset. Line numbers after the offset are moved back to it. The caller
+     * must adjust the stack for the values that are no longer pushed.
+     *
+     * @param pc the offset of the first instruction to remove
+     * @return true if the code was removed; otherwise false
+     */
+    public boolean removeCode(int pc) {
+        if (pc < 0 || pc > itsCodeBufferTop)
+            throw new IllegalArgumentException("Bad code offset: " + pc);
+        for (int i = 0; i < itsLabelTableTop; i++) {
+            if (itsLabelTable[i] > pc)
+                return false;
+        }
+        for (int i = 0; i < itsFixupTableTop; i++) {
+            if ((int) itsFixupTable[i] >= pc)
+                return false;
+        }
+        if (itsVarDescriptors != null) {
+            for (int i = 0; i < itsVarDescriptors.size(); i++) {
+                int[] chunk = (int[]) itsVarDescriptors.get(i);
+                if (chunk[2] > pc || chunk[4] > pc)
+                    return false;
+            }
+        }
+        for (int i = 0; i < itsLineNumberTableTop; i++) {
+            int entry = itsLineNumberTable[i];
+            if ((entry >>> 16) > pc) {
+                itsLineNumberTable[i] = (pc << 16) | (entry & 0xFFFF);
+            }
+        }
+        if (isDebugCode())
+            debugString("\t; removed code from " + pc);
+        itsCodeBufferTop = pc;
+        return true;
+    }
+
     public short getStackTop() {
         return itsStackTop;
     }
@@ -1526,14 +2132,56 @@ public class ClassFileWriter implements ByteCode {
     /**
      * Write the class file to the OutputStream.
      *
+     * The constant pool and the code of each method are written directly
+     * from their buffers, so the class file is not assembled in memory.
+     *
      * @param oStream
      *            the stream to write to
      * @throws IOException
      *             if writing to the stream produces an exception
      */
-    public void write(OutputStream oStream) throws IOException {
-        byte[] array = toByteArray();
-        oStream.write(array);
+    public void write(final OutputStream oStream) throws IOException {
+        writeTo(new ByteSink() {
+            void write(byte[] data, int offset, int length) throws IOException {
+                oStream.write(data, offset, length);
+            }
+        });
+    }
+
+    /**
+     * Write the class file into the ByteBuffer.
+     *
+     * The class file is written at the position of the buffer, which is
+     * advanced past the end of the class file.
+     *
+     * @param buffer
+     *            the buffer to write to
+     * @throws BufferOverflowException
+     *             if the class file does not fit in the remaining space
+     */
+    public void write(final ByteBuffer buffer) {
+        if (buffer.remaining() < getWriteSize()) {
+            throw new BufferOverflowException();
+        }
+        try {
+            writeTo(new ByteSink() {
+                void write(byte[] data, int offset, int length) {
+                    buffer.put(data, offset, length);
+                }
+            });
+        } catch (IOException ex) {
+            // Writing to a ByteBuffer does not throw IOException.
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * The size of the class file in bytes.
+     *
+     * @return the number of bytes written by <code>write</code>
+     */
+    public int getClassFileSize() {
+        return getWriteSize();
     }
 
     private int getWriteSize() {
@@ -1543,7 +2191,7 @@ public class ClassFileWriter implements ByteCode {
             itsConstantPool.addUtf8("SourceFile");
         }
 
-        size += 8; //writeLong(FileHeaderConstant);
+        size += 8; //writeInt(FileHeaderMagic); writeShort(minor); writeShort(major);
         size += itsConstantPool.getWriteSize();
         size += 2; //writeShort(itsFlags);
         size += 2; //writeShort(itsThisClassIndex);
@@ -1574,21 +2222,55 @@ public class ClassFileWriter implements ByteCode {
     }
 
     /**
-     * Get the class file as array of bytesto the OutputStream.
+     * Get the class file as array of bytes.
      */
     public byte[] toByteArray() {
         int dataSize = getWriteSize();
-        byte[] data = new byte[dataSize];
-        int offset = 0;
+        final byte[] data = new byte[dataSize];
+        final int[] top = new int[1];
+        try {
+            writeTo(new ByteSink() {
+                void write(byte[] bytes, int offset, int length) {
+                    System.arraycopy(bytes, offset, data, top[0], length);
+                    top[0] += length;
+                }
+            });
+        } catch (IOException ex) {
+            // Copying into an array does not throw IOException.
+            throw new IllegalStateException(ex);
+        }
 
+        if (top[0] != dataSize) {
+            // Check getWriteSize is consistent with write!
+            throw new RuntimeException();
+        }
+
+        return data;
+    }
+
+    /*
+     * Writes the class file in sections. The fixed size parts are assembled in a small
+     * array; the constant pool and the code attributes are passed to the sink unchanged.
+     */
+    private void writeTo(ByteSink sink) throws IOException {
         short sourceFileAttributeNameIndex = 0;
         if (itsSourceFileNameIndex != 0) {
             sourceFileAttributeNameIndex = itsConstantPool.addUtf8("SourceFile");
         }
 
-        offset = putInt64(FileHeaderConstant, data, offset);
-        offset = itsConstantPool.write(data, offset);
-        offset = putInt16(itsFlags, data, offset);
+        int membersSize = 2 * 4 + 2 * itsInterfaces.size() + 2 + 2;
+        for (int i = 0; i < itsFields.size(); i++) {
+            membersSize += ((ClassFileField) (itsFields.get(i))).getWriteSize();
+        }
+        byte[] data = new byte[Math.max(10, membersSize)];
+
+        int offset = putInt32(FileHeaderMagic, data, 0);
+        offset = putInt16((itsMajorVersion == MAJOR_VERSION_JAVA_1) ? 3 : 0, data, offset); // minor_version
+        offset = putInt16(itsMajorVersion, data, offset);
+        sink.write(data, 0, offset);
+        itsConstantPool.write(sink, data);
+
+        offset = putInt16(itsFlags, data, 0);
         offset = putInt16(itsThisClassIndex, data, offset);
         offset = putInt16(itsSuperClassIndex, data, offset);
         offset = putInt16(itsInterfaces.size(), data, offset);
@@ -1602,25 +2284,28 @@ public class ClassFileWriter implements ByteCode {
             offset = field.write(data, offset);
         }
         offset = putInt16(itsMethods.size(), data, offset);
+        sink.write(data, 0, offset);
         for (int i = 0; i < itsMethods.size(); i++) {
             ClassFileMethod method = (ClassFileMethod) itsMethods.get(i);
-            offset = method.write(data, offset);
+            method.write(sink, data);
         }
+
         if (itsSourceFileNameIndex != 0) {
-            offset = putInt16(1, data, offset); // attributes count
+            offset = putInt16(1, data, 0); // attributes count
             offset = putInt16(sourceFileAttributeNameIndex, data, offset);
             offset = putInt32(2, data, offset);
             offset = putInt16(itsSourceFileNameIndex, data, offset);
         } else {
-            offset = putInt16(0, data, offset); // no attributes
-        }
-
-        if (offset != dataSize) {
-            // Check getWriteSize is consistent with write!
-            throw new RuntimeException();
+            offset = putInt16(0, data, 0); // no attributes
         }
+        sink.write(data, 0, offset);
+    }
 
-        return data;
+    /*
+     * Receives the sections of a class file as they are written.
+     */
+    static abstract class ByteSink {
+        abstract void write(byte[] data, int offset, int length) throws IOException;
     }
 
     static int putInt64(long value, byte[] array, int offset) {
@@ -1745,6 +2430,11 @@ public class ClassFileWriter implements ByteCode {
         throw new IllegalArgumentException("Bad parameter signature: " + pString);
     }
 
+    static int getInt32(byte[] array, int offset) {
+        return ((array[offset] & 0xFF) << 24) | ((array[offset + 1] & 0xFF) << 16)
+                | ((array[offset + 2] & 0xFF) << 8) | (array[offset + 3] & 0xFF);
+    }
+
     static int putInt16(int value, byte[] array, int offset) {
         array[offset + 0] = (byte) (value >>> 8);
         array[offset + 1] = (byte) value;
@@ -2431,6 +3121,32 @@ public class ClassFileWriter implements ByteCode {
         throw new IllegalArgumentException("Bad opcode: " + opcode);
     }
 
+    /*
+     * Number of bytes taken by the instruction at the given offset,
+     * including its operands and the padding of switch instructions.
+     */
+    static int instructionLength(byte[] code, int pc) {
+        int opcode = code[pc] & 0xFF;
+        switch (opcode) {
+        case ByteCode.WIDE:
+            return ((code[pc + 1] & 0xFF) == ByteCode.IINC) ? 6 : 4;
+        case ByteCode.TABLESWITCH: {
+            int base = (pc + 4) & ~3;
+            int low = getInt32(code, base + 4);
+            int high = getInt32(code, base + 8);
+            return base - pc + 12 + 4 * (high - low + 1);
+        }
+        case ByteCode.LOOKUPSWITCH: {
+            int base = (pc + 4) & ~3;
+            int npairs = getInt32(code, base + 4);
+            return base - pc + 8 + 8 * npairs;
+        }
+        case ByteCode.INVOKEINTERFACE:
+            return 5;
+        }
+        return 1 + extra(opcode);
+    }
+
     public static boolean isJumpOpcode(int opcode) {
         switch (opcode) {
         case ByteCode.GOTO:
@@ -2985,13 +3701,30 @@ public class ClassFileWriter implements ByteCode {
     private static final int LineNumberTableSize = 16;
     private static final int ExceptionTableSize = 4;
 
-    private final static long FileHeaderConstant = 0xCAFEBABE0003002DL;
+    private final static int FileHeaderMagic = 0xCAFEBABE;
+
+    /** Class file version 45.3, checked by the type inferencing verifier. */
+    public static final int MAJOR_VERSION_JAVA_1 = 45;
+    /** Class file version 52.0, the first version supported by Java 8. */
+    public static final int MAJOR_VERSION_JAVA_8 = 52;
+    /** Class file version 55.0, the first version supported by Java 11. */
+    public static final int MAJOR_VERSION_JAVA_11 = 55;
+    /** Class file version 61.0, the first version supported by Java 17. */
+    public static final int MAJOR_VERSION_JAVA_17 = 61;
+
+    private static final int MAJOR_VERSION_STACK_MAP = 50;
+    /** The most passes of the peephole optimizer over the code of a method. */
+    private static final int MAX_OPTIMIZER_PASSES = 4;
     // Set DEBUG flags to true to get better checking and progress info.
     private static final boolean DEBUGSTACK = false;
     private static final boolean DEBUGLABELS = false;
     private static final boolean DEBUGCODE = false;
 
     private String generatedClassName;
+    private String itsSuperClassName;
+    private int itsMajorVersion = MAJOR_VERSION_JAVA_1;
+    private boolean itsOptimizeCode = false;
+    private int itsBytesSaved;
 
     private ExceptionTableEntry itsExceptionTable[];
     private int itsExceptionTableTop;
@@ -2999,12 +3732,19 @@ public class ClassFileWriter implements ByteCode {
     private int itsLineNumberTable[]; // pack start_pc & line_number together
     private int itsLineNumberTableTop;
 
-    private byte[] itsCodeBuffer = new byte[256];
+    private static final int MIN_CODE_BUFFER_SIZE = 256;
+    private static final byte[] NO_CODE = new byte[0];
+
+    /** The code of the current method, taken from the <code>BufferPool</code> by <code>startMethod</code>. */
+    private byte[] itsCodeBuffer = NO_CODE;
     private int itsCodeBufferTop;
 
     private ConstantPool itsConstantPool;
 
     private ClassFileMethod itsCurrentMethod;
+    private String itsCurrentMethodName;
+    private String itsCurrentMethodType;
+    private short itsCurrentMethodFlags;
     private short itsStackTop;
 
     private short itsMaxStack;
@@ -3124,19 +3864,19 @@ final class ClassFileMethod {
         return itsCodeAttribute;
     }
 
-    int write(byte[] data, int offset) {
-        offset = ClassFileWriter.putInt16(itsFlags, data, offset);
+    void write(ClassFileWriter.ByteSink sink, byte[] data) throws IOException {
+        int offset = ClassFileWriter.putInt16(itsFlags, data, 0);
         offset = ClassFileWriter.putInt16(itsNameIndex, data, offset);
         offset = ClassFileWriter.putInt16(itsTypeIndex, data, offset);
         // Code attribute only
         if (itsCodeAttribute.length > 0) {
             offset = ClassFileWriter.putInt16(1, data, offset);
-            System.arraycopy(itsCodeAttribute, 0, data, offset, itsCodeAttribute.length);
-            offset += itsCodeAttribute.length;
+            sink.write(data, 0, offset);
+            sink.write(itsCodeAttribute, 0, itsCodeAttribute.length);
         } else { // There are no attributes for this abstract method.
             offset = ClassFileWriter.putInt16(0, data, offset);
+            sink.write(data, 0, offset);
         }
-        return offset;
     }
 
     int getWriteSize() {
@@ -3150,327 +3890,51 @@ final class ClassFileMethod {
 
 }
 
-final class ConstantPool {
-
-    ConstantPool(ClassFileWriter cfw) {
-        this.cfw = cfw;
-        itsTopIndex = 1; // the zero'th entry is reserved
-        itsPool = new byte[ConstantPoolSize];
-        itsTop = 0;
-    }
-
-    private static final int ConstantPoolSize = 256;
-    private static final byte CONSTANT_Class = 7, CONSTANT_Fieldref = 9, CONSTANT_Methodref = 10,
-            CONSTANT_InterfaceMethodref = 11, CONSTANT_String = 8, CONSTANT_Integer = 3, CONSTANT_Float = 4,
-            CONSTANT_Long = 5, CONSTANT_Double = 6, CONSTANT_NameAndType = 12, CONSTANT_Utf8 = 1;
-
-    int write(byte[] data, int offset) {
-        offset = ClassFileWriter.putInt16((short) itsTopIndex, data, offset);
-        System.arraycopy(itsPool, 0, data, offset, itsTop);
-        offset += itsTop;
-        return offset;
-    }
-
-    int getWriteSize() {
-        return 2 + itsTop;
-    }
-
-    int addConstant(int k) {
-        ensure(5);
-        itsPool[itsTop++] = CONSTANT_Integer;
-        itsTop = ClassFileWriter.putInt32(k, itsPool, itsTop);
-        return (short) (itsTopIndex++);
-    }
-
-    int addConstant(long k) {
-        ensure(9);
-        itsPool[itsTop++] = CONSTANT_Long;
-        itsTop = ClassFileWriter.putInt64(k, itsPool, itsTop);
-        int index = itsTopIndex;
-        itsTopIndex += 2;
-        return index;
-    }
-
-    int addConstant(float k) {
-        ensure(5);
-        itsPool[itsTop++] = CONSTANT_Float;
-        int bits = Float.floatToIntBits(k);
-        itsTop = ClassFileWriter.putInt32(bits, itsPool, itsTop);
-        return itsTopIndex++;
-    }
-
-    int addConstant(double k) {
-        ensure(9);
-        itsPool[itsTop++] = CONSTANT_Double;
-        long bits = Double.doubleToLongBits(k);
-        itsTop = ClassFileWriter.putInt64(bits, itsPool, itsTop);
-        int index = itsTopIndex;
-        itsTopIndex += 2;
-        return index;
-    }
-
-    private int getStringConstHash(int utf8Index) {
-        Integer theValue = itsStringConstHash.get(Integer.valueOf(utf8Index));
-        return (theValue != null) ? theValue.intValue() : -1;
-    }
-
-    private void putStringConstHash(int utf8Index, int theIndex) {
-        itsStringConstHash.put(Integer.valueOf(utf8Index), Integer.valueOf(theIndex));
-    }
-
-    private int getInt(HashMap<Object, Integer> map, Object key) {
-        Integer theValue = map.get(key);
-        return (theValue != null) ? theValue.intValue() : -1;
-    }
-
-    private void putInt(HashMap<Object, Integer> map, Object key, int theIndex) {
-        map.put(key, Integer.valueOf(theIndex));
-    }
-
-    int addConstant(String k) {
-        int utf8Index = 0xFFFF & addUtf8(k);
-        //int theIndex = itsStringConstHash.getInt(utf8Index, -1);
-        int theIndex = getStringConstHash(utf8Index);
-        if (theIndex == -1) {
-            theIndex = itsTopIndex++;
-            ensure(3);
-            itsPool[itsTop++] = CONSTANT_String;
-            itsTop = ClassFileWriter.putInt16(utf8Index, itsPool, itsTop);
-            putStringConstHash(utf8Index, theIndex);
-        }
-        return theIndex;
-    }
-
-    boolean isUnderUtfEncodingLimit(String s) {
-        int strLen = s.length();
-        if (strLen * 3 <= MAX_UTF_ENCODING_SIZE) {
-            return true;
-        } else if (strLen > MAX_UTF_ENCODING_SIZE) {
-            return false;
-        }
-        return strLen == getUtfEncodingLimit(s, 0, strLen);
-    }
-
-    /**
-     * Get maximum i such that <tt>start <= i <= end</tt> and
-     * <tt>s.substring(start, i)</tt> fits JVM UTF string encoding limit.
-     */
-    int getUtfEncodingLimit(String s, int start, int end) {
-        if ((end - start) * 3 <= MAX_UTF_ENCODING_SIZE) {
-            return end;
-        }
-        int limit = MAX_UTF_ENCODING_SIZE;
-        for (int i = start; i != end; i++) {
-            int c = s.charAt(i);
-            if (0 != c && c <= 0x7F) {
-                --limit;
-            } else if (c < 0x7FF) {
-                limit -= 2;
-            } else {
-                limit -= 3;
-            }
-            if (limit < 0) {
-                return i;
-            }
-        }
-        return end;
-    }
-
-    short addUtf8(String k) {
-        int theIndex = getInt(itsUtf8Hash, k);
-        if (theIndex == -1) {
-            int strLen = k.length();
-            boolean tooBigString;
-            if (strLen > MAX_UTF_ENCODING_SIZE) {
-                tooBigString = true;
-            } else {
-                tooBigString = false;
-                // Ask for worst case scenario buffer when each char takes 3
-                // bytes
-                ensure(1 + 2 + strLen * 3);
-                int top = itsTop;
-
-                itsPool[top++] = CONSTANT_Utf8;
-                top += 2; // skip length
-
-                char[] chars = cfw.getCharBuffer(strLen);
-                k.getChars(0, strLen, chars, 0);
-
-                for (int i = 0; i != strLen; i++) {
-                    int c = chars[i];
-                    if (c != 0 && c <= 0x7F) {
-                        itsPool[top++] = (byte) c;
-                    } else if (c > 0x7FF) {
-                        itsPool[top++] = (byte) (0xE0 | (c >> 12));
-                        itsPool[top++] = (byte) (0x80 | ((c >> 6) & 0x3F));
-                        itsPool[top++] = (byte) (0x80 | (c & 0x3F));
-                    } else {
-                        itsPool[top++] = (byte) (0xC0 | (c >> 6));
-                        itsPool[top++] = (byte) (0x80 | (c & 0x3F));
-                    }
-                }
-
-                int utfLen = top - (itsTop + 1 + 2);
-                if (utfLen > MAX_UTF_ENCODING_SIZE) {
-                    tooBigString = true;
-                } else {
-                    // Write back length
-                    itsPool[itsTop + 1] = (byte) (utfLen >>> 8);
-                    itsPool[itsTop + 2] = (byte) utfLen;
-
-                    itsTop = top;
-                    theIndex = itsTopIndex++;
-                    putInt(itsUtf8Hash, k, theIndex);
-                }
-            }
-            if (tooBigString) {
-                throw new IllegalArgumentException("Too big string");
-            }
-        }
-        return (short) theIndex;
-    }
-
-    private short addNameAndType(String name, String type) {
-        short nameIndex = addUtf8(name);
-        short typeIndex = addUtf8(type);
-        ensure(5);
-        itsPool[itsTop++] = CONSTANT_NameAndType;
-        itsTop = ClassFileWriter.putInt16(nameIndex, itsPool, itsTop);
-        itsTop = ClassFileWriter.putInt16(typeIndex, itsPool, itsTop);
-        return (short) (itsTopIndex++);
-    }
-
-    short addClass(String className) {
-        int theIndex = getInt(itsClassHash, className);
-        if (theIndex == -1) {
-            String slashed = className;
-            if (className.indexOf('.') > 0) {
-                slashed = ClassFileWriter.getSlashedForm(className);
-                theIndex = getInt(itsClassHash, slashed);
-                if (theIndex != -1) {
-                    putInt(itsClassHash, className, theIndex);
-                }
-            }
-            if (theIndex == -1) {
-                int utf8Index = addUtf8(slashed);
-                ensure(3);
-                itsPool[itsTop++] = CONSTANT_Class;
-                itsTop = ClassFileWriter.putInt16(utf8Index, itsPool, itsTop);
-                theIndex = itsTopIndex++;
-                putInt(itsClassHash, slashed, theIndex);
-                if (className != slashed) {
-                    putInt(itsClassHash, className, theIndex);
-                }
-            }
-        }
-        return (short) theIndex;
-    }
-
-    short addFieldRef(String className, String fieldName, String fieldType) {
-        FieldOrMethodRef ref = new FieldOrMethodRef(className, fieldName, fieldType);
-
-        int theIndex = getInt(itsFieldRefHash, ref);
-        if (theIndex == -1) {
-            short ntIndex = addNameAndType(fieldName, fieldType);
-            short classIndex = addClass(className);
-            ensure(5);
-            itsPool[itsTop++] = CONSTANT_Fieldref;
-            itsTop = ClassFileWriter.putInt16(classIndex, itsPool, itsTop);
-            itsTop = ClassFileWriter.putInt16(ntIndex, itsPool, itsTop);
-            theIndex = itsTopIndex++;
-            putInt(itsFieldRefHash, ref, theIndex);
-        }
-        return (short) theIndex;
-    }
+/*
+ * Holds buffers for reuse by the ClassFileWriters on each thread.
+ */
+final class BufferPool {
+    /** The maximum number of idle buffers kept for each thread. */
+    private static final int POOL_SIZE = 4;
 
-    short addMethodRef(String className, String methodName, String methodType) {
-        FieldOrMethodRef ref = new FieldOrMethodRef(className, methodName, methodType);
+    /** Larger buffers are left to the garbage collector. */
+    private static final int MAX_BUFFER_SIZE = 1 << 20;
 
-        int theIndex = getInt(itsMethodRefHash, ref);
-        if (theIndex == -1) {
-            short ntIndex = addNameAndType(methodName, methodType);
-            short classIndex = addClass(className);
-            ensure(5);
-            itsPool[itsTop++] = CONSTANT_Methodref;
-            itsTop = ClassFileWriter.putInt16(classIndex, itsPool, itsTop);
-            itsTop = ClassFileWriter.putInt16(ntIndex, itsPool, itsTop);
-            theIndex = itsTopIndex++;
-            putInt(itsMethodRefHash, ref, theIndex);
+    private static final ThreadLocal<Vector<byte[]>> buffers = new ThreadLocal<Vector<byte[]>>() {
+        @Override
+        protected Vector<byte[]> initialValue() {
+            return new Vector<byte[]>(POOL_SIZE);
         }
-        return (short) theIndex;
-    }
+    };
 
-    short addInterfaceMethodRef(String className, String methodName, String methodType) {
-        short ntIndex = addNameAndType(methodName, methodType);
-        short classIndex = addClass(className);
-        ensure(5);
-        itsPool[itsTop++] = CONSTANT_InterfaceMethodref;
-        itsTop = ClassFileWriter.putInt16(classIndex, itsPool, itsTop);
-        itsTop = ClassFileWriter.putInt16(ntIndex, itsPool, itsTop);
-        return (short) (itsTopIndex++);
-    }
-
-    void ensure(int howMuch) {
-        if (itsTop + howMuch > itsPool.length) {
-            int newCapacity = itsPool.length * 2;
-            if (itsTop + howMuch > newCapacity) {
-                newCapacity = itsTop + howMuch;
+    /*
+     * Takes the smallest idle buffer that holds at least the given number of bytes.
+     * A new buffer is allocated if there is none.
+     */
+    static byte[] acquire(int minSize) {
+        Vector<byte[]> pool = buffers.get();
+        int best = -1;
+        for (int i = 0; i < pool.size(); i++) {
+            int length = pool.get(i).length;
+            if (length >= minSize && (best == -1 || length < pool.get(best).length)) {
+                best = i;
             }
-            byte[] tmp = new byte[newCapacity];
-            System.arraycopy(itsPool, 0, tmp, 0, itsTop);
-            itsPool = tmp;
         }
+        return (best == -1) ? new byte[minSize] : pool.remove(best);
     }
 
-    private ClassFileWriter cfw;
-
-    private static final int MAX_UTF_ENCODING_SIZE = 65535;
-
-    private HashMap<Integer, Integer> itsStringConstHash = new HashMap<Integer, Integer>();
-    private HashMap<Object, Integer> itsUtf8Hash = new HashMap<Object, Integer>();
-    private HashMap<Object, Integer> itsFieldRefHash = new HashMap<Object, Integer>();
-    private HashMap<Object, Integer> itsMethodRefHash = new HashMap<Object, Integer>();
-    private HashMap<Object, Integer> itsClassHash = new HashMap<Object, Integer>();
-    //private UintMap itsStringConstHash = new UintMap();
-    //private ObjToIntMap itsUtf8Hash = new ObjToIntMap();
-    //private ObjToIntMap itsFieldRefHash = new ObjToIntMap();
-    //private ObjToIntMap itsMethodRefHash = new ObjToIntMap();
-    //private ObjToIntMap itsClassHash = new ObjToIntMap();
-
-    private int itsTop;
-    private int itsTopIndex;
-    private byte itsPool[];
-}
-
-final class FieldOrMethodRef {
-    FieldOrMethodRef(String className, String name, String type) {
-        this.className = className;
-        this.name = name;
-        this.type = type;
-    }
-
-    @Override
-    public boolean equals(Object obj) {
-        if (!(obj instanceof FieldOrMethodRef)) {
-            return false;
+    /*
+     * Returns a buffer to the pool of the current thread.
+     * The bytes that were used are cleared, so the buffer is the same as a new one.
+     */
+    static void release(byte[] buffer, int used) {
+        if (buffer.length == 0 || buffer.length > MAX_BUFFER_SIZE) {
+            return;
         }
-        FieldOrMethodRef x = (FieldOrMethodRef) obj;
-        return className.equals(x.className) && name.equals(x.name) && type.equals(x.type);
-    }
-
-    @Override
-    public int hashCode() {
-        if (hashCode == -1) {
-            int h1 = className.hashCode();
-            int h2 = name.hashCode();
-            int h3 = type.hashCode();
-            hashCode = h1 ^ h2 ^ h3;
+        Vector<byte[]> pool = buffers.get();
+        if (pool.size() < POOL_SIZE) {
+            Arrays.fill(buffer, 0, used, (byte) 0);
+            pool.add(buffer);
         }
-        return hashCode;
     }
-
-    private String className;
-    private String name;
-    private String type;
-    private int hashCode = -1;
 }
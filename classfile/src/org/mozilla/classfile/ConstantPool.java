@@ -0,0 +1,573 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *   Roger Lawrence
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.mozilla.classfile;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+final class ConstantPool {
+
+    ConstantPool(ClassFileWriter cfw) {
+        this.cfw = cfw;
+        itsTopIndex = 1; // the zero'th entry is reserved
+        itsPool = new byte[ConstantPoolSize];
+        itsTop = 0;
+    }
+
+    private static final int ConstantPoolSize = 256;
+    static final byte CONSTANT_Class = 7, CONSTANT_Fieldref = 9, CONSTANT_Methodref = 10,
+            CONSTANT_InterfaceMethodref = 11, CONSTANT_String = 8, CONSTANT_Integer = 3, CONSTANT_Float = 4,
+            CONSTANT_Long = 5, CONSTANT_Double = 6, CONSTANT_NameAndType = 12, CONSTANT_Utf8 = 1;
+
+    void write(ClassFileWriter.ByteSink sink, byte[] data) throws IOException {
+        ClassFileWriter.putInt16((short) itsTopIndex, data, 0);
+        sink.write(data, 0, 2);
+        sink.write(itsPool, 0, itsTop);
+    }
+
+    int getWriteSize() {
+        return 2 + itsTop;
+    }
+
+    /*
+     * Removes all the constants, keeping the buffer for the next class.
+     */
+    void reset() {
+        itsStringConstHash.clear();
+        itsIntegerHash.clear();
+        itsFloatHash.clear();
+        itsLongHash.clear();
+        itsDoubleHash.clear();
+        itsUtf8Hash.clear();
+        itsFieldRefHash.clear();
+        itsMethodRefHash.clear();
+        itsClassHash.clear();
+        Arrays.fill(itsPoolTypes, 0, Math.min(itsTopIndex, itsPoolTypes.length), (byte) 0);
+        Arrays.fill(itsConstantData, 0, Math.min(itsTopIndex, itsConstantData.length), null);
+        itsTopIndex = 1; // the zero'th entry is reserved
+        itsTop = 0;
+    }
+
+    int addConstant(int k) {
+        int theIndex = itsIntegerHash.get(k);
+        if (theIndex == -1) {
+            ensure(5);
+            itsPool[itsTop++] = CONSTANT_Integer;
+            itsTop = ClassFileWriter.putInt32(k, itsPool, itsTop);
+            theIndex = itsTopIndex++;
+            itsIntegerHash.put(k, theIndex);
+            setConstantType(theIndex, CONSTANT_Integer);
+        }
+        return (short) theIndex;
+    }
+
+    int addConstant(long k) {
+        int theIndex = itsLongHash.get(k);
+        if (theIndex == -1) {
+            ensure(9);
+            itsPool[itsTop++] = CONSTANT_Long;
+            itsTop = ClassFileWriter.putInt64(k, itsPool, itsTop);
+            theIndex = itsTopIndex;
+            itsTopIndex += 2;
+            itsLongHash.put(k, theIndex);
+            setConstantType(theIndex, CONSTANT_Long);
+        }
+        return theIndex;
+    }
+
+    int addConstant(float k) {
+        // Constants are matched by their bits, so 0.0f and -0.0f are kept apart.
+        int bits = Float.floatToIntBits(k);
+        int theIndex = itsFloatHash.get(bits);
+        if (theIndex == -1) {
+            ensure(5);
+            itsPool[itsTop++] = CONSTANT_Float;
+            itsTop = ClassFileWriter.putInt32(bits, itsPool, itsTop);
+            theIndex = itsTopIndex++;
+            itsFloatHash.put(bits, theIndex);
+            setConstantType(theIndex, CONSTANT_Float);
+        }
+        return theIndex;
+    }
+
+    int addConstant(double k) {
+        long bits = Double.doubleToLongBits(k);
+        int theIndex = itsDoubleHash.get(bits);
+        if (theIndex == -1) {
+            ensure(9);
+            itsPool[itsTop++] = CONSTANT_Double;
+            itsTop = ClassFileWriter.putInt64(bits, itsPool, itsTop);
+            theIndex = itsTopIndex;
+            itsTopIndex += 2;
+            itsDoubleHash.put(bits, theIndex);
+            setConstantType(theIndex, CONSTANT_Double);
+        }
+        return theIndex;
+    }
+
+    int addConstant(String k) {
+        int utf8Index = 0xFFFF & addUtf8(k);
+        int theIndex = itsStringConstHash.get(utf8Index);
+        if (theIndex == -1) {
+            theIndex = itsTopIndex++;
+            ensure(3);
+            itsPool[itsTop++] = CONSTANT_String;
+            itsTop = ClassFileWriter.putInt16(utf8Index, itsPool, itsTop);
+            itsStringConstHash.put(utf8Index, theIndex);
+            setConstantType(theIndex, CONSTANT_String);
+        }
+        return theIndex;
+    }
+
+    boolean isUnderUtfEncodingLimit(String s) {
+        int strLen = s.length();
+        if (strLen * 3 <= MAX_UTF_ENCODING_SIZE) {
+            return true;
+        } else if (strLen > MAX_UTF_ENCODING_SIZE) {
+            return false;
+        }
+        return strLen == getUtfEncodingLimit(s, 0, strLen);
+    }
+
+    /**
+     * Get maximum i such that <tt>start <= i <= end</tt> and
+     * <tt>s.substring(start, i)</tt> fits JVM UTF string encoding limit.
+     */
+    int getUtfEncodingLimit(String s, int start, int end) {
+        if ((end - start) * 3 <= MAX_UTF_ENCODING_SIZE) {
+            return end;
+        }
+        int limit = MAX_UTF_ENCODING_SIZE;
+        for (int i = start; i != end; i++) {
+            int c = s.charAt(i);
+            if (0 != c && c <= 0x7F) {
+                --limit;
+            } else if (c < 0x7FF) {
+                limit -= 2;
+            } else {
+                limit -= 3;
+            }
+            if (limit < 0) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    short addUtf8(String k) {
+        int theIndex = itsUtf8Hash.get(k);
+        if (theIndex == -1) {
+            int strLen = k.length();
+            boolean tooBigString;
+            if (strLen > MAX_UTF_ENCODING_SIZE) {
+                tooBigString = true;
+            } else {
+                tooBigString = false;
+                // Ask for worst case scenario buffer when each char takes 3
+                // bytes
+                ensure(1 + 2 + strLen * 3);
+                int top = itsTop;
+
+                itsPool[top++] = CONSTANT_Utf8;
+                top += 2; // skip length
+
+                char[] chars = cfw.getCharBuffer(strLen);
+                k.getChars(0, strLen, chars, 0);
+
+                for (int i = 0; i != strLen; i++) {
+                    int c = chars[i];
+                    if (c != 0 && c <= 0x7F) {
+                        itsPool[top++] = (byte) c;
+                    } else if (c > 0x7FF) {
+                        itsPool[top++] = (byte) (0xE0 | (c >> 12));
+                        itsPool[top++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                        itsPool[top++] = (byte) (0x80 | (c & 0x3F));
+                    } else {
+                        itsPool[top++] = (byte) (0xC0 | (c >> 6));
+                        itsPool[top++] = (byte) (0x80 | (c & 0x3F));
+                    }
+                }
+
+                int utfLen = top - (itsTop + 1 + 2);
+                if (utfLen > MAX_UTF_ENCODING_SIZE) {
+                    tooBigString = true;
+                } else {
+                    // Write back length
+                    itsPool[itsTop + 1] = (byte) (utfLen >>> 8);
+                    itsPool[itsTop + 2] = (byte) utfLen;
+
+                    itsTop = top;
+                    theIndex = itsTopIndex++;
+                    itsUtf8Hash.put(k, theIndex);
+                }
+            }
+            if (tooBigString) {
+                throw new IllegalArgumentException("Too big string");
+            }
+        }
+        return (short) theIndex;
+    }
+
+    private short addNameAndType(String name, String type) {
+        short nameIndex = addUtf8(name);
+        short typeIndex = addUtf8(type);
+        ensure(5);
+        itsPool[itsTop++] = CONSTANT_NameAndType;
+        itsTop = ClassFileWriter.putInt16(nameIndex, itsPool, itsTop);
+        itsTop = ClassFileWriter.putInt16(typeIndex, itsPool, itsTop);
+        return (short) (itsTopIndex++);
+    }
+
+    short addClass(String className) {
+        int theIndex = itsClassHash.get(className);
+        if (theIndex == -1) {
+            String slashed = className;
+            if (className.indexOf('.') > 0) {
+                slashed = ClassFileWriter.getSlashedForm(className);
+                theIndex = itsClassHash.get(slashed);
+                if (theIndex != -1) {
+                    itsClassHash.put(className, theIndex);
+                }
+            }
+            if (theIndex == -1) {
+                int utf8Index = addUtf8(slashed);
+                ensure(3);
+                itsPool[itsTop++] = CONSTANT_Class;
+                itsTop = ClassFileWriter.putInt16(utf8Index, itsPool, itsTop);
+                theIndex = itsTopIndex++;
+                itsClassHash.put(slashed, theIndex);
+                setConstantData(theIndex, CONSTANT_Class, slashed);
+                if (className != slashed) {
+                    itsClassHash.put(className, theIndex);
+                }
+            }
+        }
+        return (short) theIndex;
+    }
+
+    short addFieldRef(String className, String fieldName, String fieldType) {
+        FieldOrMethodRef ref = new FieldOrMethodRef(className, fieldName, fieldType);
+
+        int theIndex = itsFieldRefHash.get(ref);
+        if (theIndex == -1) {
+            short ntIndex = addNameAndType(fieldName, fieldType);
+            short classIndex = addClass(className);
+            ensure(5);
+            itsPool[itsTop++] = CONSTANT_Fieldref;
+            itsTop = ClassFileWriter.putInt16(classIndex, itsPool, itsTop);
+            itsTop = ClassFileWriter.putInt16(ntIndex, itsPool, itsTop);
+            theIndex = itsTopIndex++;
+            itsFieldRefHash.put(ref, theIndex);
+            setConstantData(theIndex, CONSTANT_Fieldref, ref);
+        }
+        return (short) theIndex;
+    }
+
+    short addMethodRef(String className, String methodName, String methodType) {
+        FieldOrMethodRef ref = new FieldOrMethodRef(className, methodName, methodType);
+
+        int theIndex = itsMethodRefHash.get(ref);
+        if (theIndex == -1) {
+            short ntIndex = addNameAndType(methodName, methodType);
+            short classIndex = addClass(className);
+            ensure(5);
+            itsPool[itsTop++] = CONSTANT_Methodref;
+            itsTop = ClassFileWriter.putInt16(classIndex, itsPool, itsTop);
+            itsTop = ClassFileWriter.putInt16(ntIndex, itsPool, itsTop);
+            theIndex = itsTopIndex++;
+            itsMethodRefHash.put(ref, theIndex);
+            setConstantData(theIndex, CONSTANT_Methodref, ref);
+        }
+        return (short) theIndex;
+    }
+
+    short addInterfaceMethodRef(String className, String methodName, String methodType) {
+        short ntIndex = addNameAndType(methodName, methodType);
+        short classIndex = addClass(className);
+        ensure(5);
+        itsPool[itsTop++] = CONSTANT_InterfaceMethodref;
+        itsTop = ClassFileWriter.putInt16(classIndex, itsPool, itsTop);
+        itsTop = ClassFileWriter.putInt16(ntIndex, itsPool, itsTop);
+        setConstantData(itsTopIndex, CONSTANT_InterfaceMethodref,
+                new FieldOrMethodRef(className, methodName, methodType));
+        return (short) (itsTopIndex++);
+    }
+
+    private void setConstantType(int index, byte type) {
+        if (index >= itsPoolTypes.length) {
+            itsPoolTypes = Arrays.copyOf(itsPoolTypes, Math.max(index + 1, itsPoolTypes.length * 2));
+        }
+        itsPoolTypes[index] = type;
+    }
+
+    private void setConstantData(int index, byte type, Object data) {
+        setConstantType(index, type);
+        if (index >= itsConstantData.length) {
+            itsConstantData = Arrays.copyOf(itsConstantData, Math.max(index + 1, itsConstantData.length * 2));
+        }
+        itsConstantData[index] = data;
+    }
+
+    /**
+     * The tag of the constant at the given index, or zero if the constant
+     * is not a class, field, method or loadable constant.
+     */
+    byte getConstantType(int index) {
+        return (index >= 0 && index < itsPoolTypes.length) ? itsPoolTypes[index] : 0;
+    }
+
+    /**
+     * The slashed class name of a class constant, or the
+     * <code>FieldOrMethodRef</code> of a field or method constant.
+     */
+    Object getConstantData(int index) {
+        return (index >= 0 && index < itsConstantData.length) ? itsConstantData[index] : null;
+    }
+
+    void ensure(int howMuch) {
+        if (itsTop + howMuch > itsPool.length) {
+            int newCapacity = itsPool.length * 2;
+            if (itsTop + howMuch > newCapacity) {
+                newCapacity = itsTop + howMuch;
+            }
+            byte[] tmp = new byte[newCapacity];
+            System.arraycopy(itsPool, 0, tmp, 0, itsTop);
+            itsPool = tmp;
+        }
+    }
+
+    private ClassFileWriter cfw;
+
+    private static final int MAX_UTF_ENCODING_SIZE = 65535;
+
+    private IntIntMap itsStringConstHash = new IntIntMap();
+    private IntIntMap itsIntegerHash = new IntIntMap();
+    private IntIntMap itsFloatHash = new IntIntMap();
+    private LongIntMap itsLongHash = new LongIntMap();
+    private LongIntMap itsDoubleHash = new LongIntMap();
+    private ObjToIntMap itsUtf8Hash = new ObjToIntMap();
+    private ObjToIntMap itsFieldRefHash = new ObjToIntMap();
+    private ObjToIntMap itsMethodRefHash = new ObjToIntMap();
+    private ObjToIntMap itsClassHash = new ObjToIntMap();
+
+    /** The tag of each class, field, method or loadable constant, indexed by its position in the pool. */
+    private byte[] itsPoolTypes = new byte[64];
+
+    /** The class name or FieldOrMethodRef of each class, field or method constant. */
+    private Object[] itsConstantData = new Object[64];
+
+    private int itsTop;
+    private int itsTopIndex;
+    private byte itsPool[];
+}
+
+/*
+ * Maps int keys to constant pool indexes using open addressing.
+ * Indexes are always positive, so a zero value marks an empty slot.
+ */
+final class IntIntMap {
+    private int[] keys = new int[16];
+    private int[] values = new int[16];
+    private int size;
+
+    /* The index for the key, or -1 if there is none. */
+    int get(int key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (values[slot] != 0) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    void put(int key, int value) {
+        if ((size + 1) * 2 > keys.length) {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != 0) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (values[slot] != 0) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+    }
+
+    void clear() {
+        if (size > 0) {
+            Arrays.fill(values, 0);
+            size = 0;
+        }
+    }
+
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
+
+/*
+ * Maps long keys to constant pool indexes using open addressing.
+ */
+final class LongIntMap {
+    private long[] keys = new long[16];
+    private int[] values = new int[16];
+    private int size;
+
+    /* The index for the key, or -1 if there is none. */
+    int get(long key) {
+        int mask = keys.length - 1;
+        int slot = IntIntMap.hash((int) (key ^ (key >>> 32))) & mask;
+        while (values[slot] != 0) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    void put(long key, int value) {
+        if ((size + 1) * 2 > keys.length) {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != 0) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+        int mask = keys.length - 1;
+        int slot = IntIntMap.hash((int) (key ^ (key >>> 32))) & mask;
+        while (values[slot] != 0) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+    }
+
+    void clear() {
+        if (size > 0) {
+            Arrays.fill(values, 0);
+            size = 0;
+        }
+    }
+}
+
+/*
+ * Maps names and references to constant pool indexes using open addressing,
+ * so that an index is not boxed when it is stored or found.
+ */
+final class ObjToIntMap {
+    private Object[] keys = new Object[16];
+    private int[] values = new int[16];
+    private int size;
+
+    /* The index for the key, or -1 if there is none. */
+    int get(Object key) {
+        int mask = keys.length - 1;
+        int slot = IntIntMap.hash(key.hashCode()) & mask;
+        while (keys[slot] != null) {
+            if (keys[slot].equals(key)) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    void put(Object key, int value) {
+        if ((size + 1) * 2 > keys.length) {
+            Object[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new Object[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+        int mask = keys.length - 1;
+        int slot = IntIntMap.hash(key.hashCode()) & mask;
+        while (keys[slot] != null) {
+            if (keys[slot].equals(key)) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+    }
+
+    void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, null);
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,503 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.mozilla.classfile;
+
+/**
+ * PeepholeOptimizer
+ *
+ * Removes redundant instructions from the byte-code of a method after the
+ * label fix-ups have been applied. The code is generated naively from the
+ * sequence of calls that built it, leaving short runs of instructions that
+ * can be replaced by fewer or shorter ones:
+ * <ul>
+ * <li>a <code>goto</code> to the next instruction is removed;</li>
+ * <li>a jump to a <code>goto</code> is redirected to its final target;</li>
+ * <li>a conditional branch over a <code>goto</code> becomes the inverted
+ * branch to the target of the <code>goto</code>;</li>
+ * <li>a comparison with a pushed <code>0</code>, <code>1</code> or
+ * <code>null</code> becomes a comparison with zero or null;</li>
+ * <li>a repeated <code>iconst_1, ixor</code> negation is removed;</li>
+ * <li><code>dup, store, pop</code> becomes a single store;</li>
+ * <li>a load or constant that is immediately popped is removed;</li>
+ * <li>a store followed by a load of the same local becomes
+ * <code>dup, store</code>.</li>
+ * </ul>
+ * Only the first instruction of a pattern may be the target of a jump, the
+ * position of a label or the bounds of an exception handler, so that the
+ * code is entered in the same state as before.
+ * <p>
+ * Each call to <code>optimize</code> makes a single pass over the code.
+ * The caller copies the new code with <code>rewrite</code> and moves its
+ * labels, line numbers and local variable ranges using <code>getNewPC</code>.
+ * A pass is abandoned if a branch would no longer reach its target or an
+ * exception handler would cover no code.
+ */
+final class PeepholeOptimizer {
+
+    /** The largest number of gotos followed when redirecting a jump. */
+    private static final int MAX_JUMP_CHAIN = 8;
+
+    /**
+     * Prepare to optimize the method just completed.
+     *
+     * @param code
+     *            the byte-code of the method, after label fix-ups
+     * @param codeLength
+     *            the length of the byte-code
+     * @param labels
+     *            the program counter of each label, or -1 if not placed
+     * @param labelCount
+     *            the number of labels
+     * @param exceptionTable
+     *            the exception table, four ints per entry:
+     *            start_pc, end_pc, handler_pc and catch_type
+     */
+    PeepholeOptimizer(byte[] code, int codeLength, int[] labels, int labelCount, int[] exceptionTable) {
+        this.code = code;
+        this.codeLength = codeLength;
+        this.exceptionTable = exceptionTable;
+        boundary = new boolean[codeLength + 1];
+        removed = new boolean[codeLength];
+        opcodes = new int[codeLength];
+        targets = new int[codeLength];
+        prefix = new int[codeLength];
+        for (int i = 0; i < labelCount; i++) {
+            if (labels[i] != -1) {
+                boundary[labels[i]] = true;
+            }
+        }
+        for (int i = 0; i < exceptionTable.length; i += 4) {
+            boundary[exceptionTable[i]] = true;
+            boundary[exceptionTable[i + 1]] = true;
+            boundary[exceptionTable[i + 2]] = true;
+        }
+        findJumpTargets();
+    }
+
+    /*
+     * Marks the targets of jumps and the return addresses of subroutine calls.
+     */
+    private void findJumpTargets() {
+        for (int pc = 0; pc < codeLength; pc += ClassFileWriter.instructionLength(code, pc)) {
+            int opcode = opcode(pc);
+            opcodes[pc] = opcode;
+            if (opcode == ByteCode.TABLESWITCH || opcode == ByteCode.LOOKUPSWITCH) {
+                int base = (pc + 4) & ~3;
+                boundary[pc + ClassFileWriter.getInt32(code, base)] = true;
+                if (opcode == ByteCode.TABLESWITCH) {
+                    int count = ClassFileWriter.getInt32(code, base + 8) - ClassFileWriter.getInt32(code, base + 4) + 1;
+                    for (int i = 0; i < count; i++) {
+                        boundary[pc + ClassFileWriter.getInt32(code, base + 12 + 4 * i)] = true;
+                    }
+                } else {
+                    int count = ClassFileWriter.getInt32(code, base + 4);
+                    for (int i = 0; i < count; i++) {
+                        boundary[pc + ClassFileWriter.getInt32(code, base + 12 + 8 * i)] = true;
+                    }
+                }
+            } else if (opcode == ByteCode.GOTO_W || opcode == ByteCode.JSR_W) {
+                boundary[pc + ClassFileWriter.getInt32(code, pc + 1)] = true;
+                if (opcode == ByteCode.JSR_W) {
+                    boundary[pc + 5] = true;
+                }
+            } else if (ClassFileWriter.isJumpOpcode(opcode)) {
+                targets[pc] = pc + (short) ((code[pc + 1] << 8) | (code[pc + 2] & 0xFF));
+                boundary[targets[pc]] = true;
+                if (opcode == ByteCode.JSR) {
+                    boundary[pc + 3] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes a single pass over the code, replacing patterns of redundant instructions.
+     *
+     * @return true if the code can be rewritten with fewer or shorter instructions
+     */
+    boolean optimize() {
+        boolean changed = false;
+        int pc = 0;
+        while (pc < codeLength) {
+            int length = replace(pc);
+            if (length > 0) {
+                changed = true;
+                pc += length;
+            } else {
+                pc += ClassFileWriter.instructionLength(code, pc);
+            }
+        }
+        return changed && layout();
+    }
+
+    /*
+     * Replaces a pattern of instructions starting at pc.
+     * Returns the number of bytes of code covered by the pattern, or zero if there is no match.
+     */
+    private int replace(int pc) {
+        int opcode = opcode(pc);
+        int next = pc + ClassFileWriter.instructionLength(code, pc);
+        int nextOpcode = (next < codeLength && !boundary[next]) ? opcode(next) : -1;
+
+        if (opcode == ByteCode.GOTO) {
+            int target = followJumps(pc, targets[pc]);
+            if (target == next) {
+                removed[pc] = true;
+                return next - pc;
+            } else if (target != targets[pc]) {
+                targets[pc] = target;
+                return next - pc;
+            }
+        } else if (isConditional(opcode)) {
+            if (nextOpcode == ByteCode.GOTO && targets[pc] == next + 3) {
+                // Branch over a goto.
+                opcodes[pc] = ClassFileWriter.invertBranch(opcode);
+                targets[pc] = followJumps(pc, targets[next]);
+                removed[next] = true;
+                return next + 3 - pc;
+            }
+            int target = followJumps(pc, targets[pc]);
+            if (target != targets[pc]) {
+                targets[pc] = target;
+                return next - pc;
+            }
+        } else if (isCompare(nextOpcode) && compareWithZero(opcode, nextOpcode) != -1) {
+            removed[pc] = true;
+            opcodes[next] = compareWithZero(opcode, nextOpcode);
+            return next + 3 - pc;
+        } else if (opcode == ByteCode.ICONST_1 && nextOpcode == ByteCode.IXOR) {
+            int after = next + 1;
+            if (after + 1 < codeLength && opcode(after) == ByteCode.ICONST_1 && opcode(after + 1) == ByteCode.IXOR
+                    && !boundary[after] && !boundary[after + 1]) {
+                // Double negation.
+                removed[pc] = removed[next] = removed[after] = removed[after + 1] = true;
+                return 4;
+            }
+        } else if ((opcode == ByteCode.DUP || opcode == ByteCode.DUP2) && storeKind(nextOpcode) != -1) {
+            int after = next + ClassFileWriter.instructionLength(code, next);
+            int size = (opcode == ByteCode.DUP) ? 1 : 2;
+            if (after < codeLength && !boundary[after] && slotSize(storeKind(nextOpcode)) == size
+                    && opcode(after) == ((size == 1) ? ByteCode.POP : ByteCode.POP2)) {
+                removed[pc] = removed[after] = true;
+                return after + 1 - pc;
+            }
+        } else if (pushSize(opcode) != 0 && (nextOpcode == ByteCode.POP || nextOpcode == ByteCode.POP2)) {
+            if (pushSize(opcode) == ((nextOpcode == ByteCode.POP) ? 1 : 2)) {
+                removed[pc] = removed[next] = true;
+                return next + 1 - pc;
+            }
+        } else if (storeKind(opcode) != -1 && loadKind(nextOpcode) == storeKind(opcode)
+                && localSlot(next) == localSlot(pc)) {
+            // Keep a copy of the stored value rather than load it again.
+            int size = slotSize(storeKind(opcode));
+            prefix[pc] = (size == 1) ? ByteCode.DUP : ByteCode.DUP2;
+            removed[next] = true;
+            stackIncrease = Math.max(stackIncrease, size);
+            return next + ClassFileWriter.instructionLength(code, next) - pc;
+        }
+        return 0;
+    }
+
+    /*
+     * Follows a chain of gotos from the target of a jump, provided the final target is within reach.
+     */
+    private int followJumps(int pc, int target) {
+        int result = target;
+        for (int i = 0; i < MAX_JUMP_CHAIN && result < codeLength && opcode(result) == ByteCode.GOTO; i++) {
+            int next = targets[result];
+            if (next == result || next == target) {
+                break; // An infinite loop
+            }
+            result = next;
+        }
+        int offset = result - pc;
+        return ((short) offset == offset) ? result : target;
+    }
+
+    /*
+     * Calculates the new position of each instruction and checks that the branches and
+     * exception handlers are still valid.
+     */
+    private boolean layout() {
+        newPC = new int[codeLength + 1];
+        int at = 0;
+        for (int pc = 0; pc < codeLength; pc += ClassFileWriter.instructionLength(code, pc)) {
+            newPC[pc] = at;
+            if (!removed[pc]) {
+                at += newInstructionLength(pc, at);
+            }
+        }
+        newPC[codeLength] = at;
+        newLength = at;
+
+        for (int pc = 0; pc < codeLength; pc += ClassFileWriter.instructionLength(code, pc)) {
+            if (!removed[pc] && isShortJump(opcodes[pc])) {
+                int offset = newPC[targets[pc]] - newPC[pc];
+                if ((short) offset != offset) {
+                    return false;
+                }
+            }
+        }
+        for (int i = 0; i < exceptionTable.length; i += 4) {
+            if (newPC[exceptionTable[i]] >= newPC[exceptionTable[i + 1]]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int newInstructionLength(int pc, int newPC) {
+        int opcode = opcode(pc);
+        int length = ClassFileWriter.instructionLength(code, pc);
+        if (opcode == ByteCode.TABLESWITCH || opcode == ByteCode.LOOKUPSWITCH) {
+            // The padding after the opcode aligns the operands to a multiple of four.
+            int padding = ((pc + 4) & ~3) - (pc + 1);
+            int newPadding = ((newPC + 4) & ~3) - (newPC + 1);
+            return length - padding + newPadding;
+        }
+        return (prefix[pc] != 0) ? length + 1 : length;
+    }
+
+    /**
+     * Copies the optimized code into the given buffer.
+     *
+     * @param out
+     *            a buffer at least as long as <code>getNewLength()</code>
+     * @return the length of the optimized code
+     */
+    int rewrite(byte[] out) {
+        for (int pc = 0; pc < codeLength; pc += ClassFileWriter.instructionLength(code, pc)) {
+            if (removed[pc]) {
+                continue;
+            }
+            int opcode = opcodes[pc];
+            int at = newPC[pc];
+            if (prefix[pc] != 0) {
+                out[at++] = (byte) prefix[pc];
+            }
+            if (opcode == ByteCode.TABLESWITCH || opcode == ByteCode.LOOKUPSWITCH) {
+                int base = (pc + 4) & ~3;
+                int newBase = (at + 4) & ~3;
+                out[at] = (byte) opcode;
+                for (int i = at + 1; i < newBase; i++) {
+                    out[i] = 0;
+                }
+                System.arraycopy(code, base, out, newBase, pc + ClassFileWriter.instructionLength(code, pc) - base);
+                ClassFileWriter.putInt32(newPC[pc + ClassFileWriter.getInt32(code, base)] - at, out, newBase);
+                if (opcode == ByteCode.TABLESWITCH) {
+                    int count = ClassFileWriter.getInt32(code, base + 8) - ClassFileWriter.getInt32(code, base + 4) + 1;
+                    for (int i = 0; i < count; i++) {
+                        int site = base + 12 + 4 * i;
+                        ClassFileWriter.putInt32(newPC[pc + ClassFileWriter.getInt32(code, site)] - at, out,
+                                newBase + 12 + 4 * i);
+                    }
+                } else {
+                    int count = ClassFileWriter.getInt32(code, base + 4);
+                    for (int i = 0; i < count; i++) {
+                        int site = base + 12 + 8 * i;
+                        ClassFileWriter.putInt32(newPC[pc + ClassFileWriter.getInt32(code, site)] - at, out,
+                                newBase + 12 + 8 * i);
+                    }
+                }
+            } else if (opcode == ByteCode.GOTO_W || opcode == ByteCode.JSR_W) {
+                out[at] = (byte) opcode;
+                ClassFileWriter.putInt32(newPC[pc + ClassFileWriter.getInt32(code, pc + 1)] - at, out, at + 1);
+            } else if (isShortJump(opcode)) {
+                out[at] = (byte) opcode;
+                ClassFileWriter.putInt16(newPC[targets[pc]] - at, out, at + 1);
+            } else {
+                System.arraycopy(code, pc, out, at, ClassFileWriter.instructionLength(code, pc));
+            }
+        }
+        return newLength;
+    }
+
+    /**
+     * The length of the code once it has been rewritten.
+     */
+    int getNewLength() {
+        return newLength;
+    }
+
+    /**
+     * The new position of each instruction, indexed by its position in the original code.
+     * A removed instruction is mapped to the position of the instruction that follows it.
+     */
+    int[] getNewPC() {
+        return newPC;
+    }
+
+    /**
+     * The number of extra stack slots needed by the duplicated values.
+     */
+    int getStackIncrease() {
+        return stackIncrease;
+    }
+
+    private int opcode(int pc) {
+        return code[pc] & 0xFF;
+    }
+
+    private static boolean isShortJump(int opcode) {
+        return ClassFileWriter.isJumpOpcode(opcode) && opcode != ByteCode.GOTO_W && opcode != ByteCode.JSR_W;
+    }
+
+    private static boolean isConditional(int opcode) {
+        return isShortJump(opcode) && opcode != ByteCode.GOTO && opcode != ByteCode.JSR;
+    }
+
+    private static boolean isCompare(int opcode) {
+        return (opcode >= ByteCode.IF_ICMPEQ && opcode <= ByteCode.IF_ACMPNE);
+    }
+
+    /*
+     * The branch that compares the value below a pushed constant with zero or null,
+     * or -1 if there is no equivalent.
+     */
+    private static int compareWithZero(int constant, int compare) {
+        if (constant == ByteCode.ICONST_0) {
+            switch (compare) {
+            case ByteCode.IF_ICMPEQ:
+                return ByteCode.IFEQ;
+            case ByteCode.IF_ICMPNE:
+                return ByteCode.IFNE;
+            case ByteCode.IF_ICMPLT:
+                return ByteCode.IFLT;
+            case ByteCode.IF_ICMPGE:
+                return ByteCode.IFGE;
+            case ByteCode.IF_ICMPGT:
+                return ByteCode.IFGT;
+            case ByteCode.IF_ICMPLE:
+                return ByteCode.IFLE;
+            }
+        } else if (constant == ByteCode.ICONST_1) {
+            // x >= 1 is x > 0 and x < 1 is x <= 0
+            if (compare == ByteCode.IF_ICMPGE) {
+                return ByteCode.IFGT;
+            } else if (compare == ByteCode.IF_ICMPLT) {
+                return ByteCode.IFLE;
+            }
+        } else if (constant == ByteCode.ACONST_NULL) {
+            if (compare == ByteCode.IF_ACMPEQ) {
+                return ByteCode.IFNULL;
+            } else if (compare == ByteCode.IF_ACMPNE) {
+                return ByteCode.IFNONNULL;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * The kind of local variable stored by the opcode: 0 int, 1 long, 2 float, 3 double
+     * and 4 reference, or -1 if the opcode is not a store.
+     */
+    private static int storeKind(int opcode) {
+        if (opcode >= ByteCode.ISTORE && opcode <= ByteCode.ASTORE) {
+            return opcode - ByteCode.ISTORE;
+        } else if (opcode >= ByteCode.ISTORE_0 && opcode <= ByteCode.ASTORE_3) {
+            return (opcode - ByteCode.ISTORE_0) / 4;
+        }
+        return -1;
+    }
+
+    /*
+     * The kind of local variable loaded by the opcode, or -1 if the opcode is not a load.
+     */
+    private static int loadKind(int opcode) {
+        if (opcode >= ByteCode.ILOAD && opcode <= ByteCode.ALOAD) {
+            return opcode - ByteCode.ILOAD;
+        } else if (opcode >= ByteCode.ILOAD_0 && opcode <= ByteCode.ALOAD_3) {
+            return (opcode - ByteCode.ILOAD_0) / 4;
+        }
+        return -1;
+    }
+
+    private int localSlot(int pc) {
+        int opcode = opcode(pc);
+        if (opcode >= ByteCode.ILOAD_0 && opcode <= ByteCode.ALOAD_3) {
+            return (opcode - ByteCode.ILOAD_0) % 4;
+        } else if (opcode >= ByteCode.ISTORE_0 && opcode <= ByteCode.ASTORE_3) {
+            return (opcode - ByteCode.ISTORE_0) % 4;
+        }
+        return code[pc + 1] & 0xFF;
+    }
+
+    private static int slotSize(int kind) {
+        return (kind == 1 || kind == 3) ? 2 : 1;
+    }
+
+    /*
+     * The number of stack slots pushed by a load or constant that has no other effect,
+     * or zero for any other opcode.
+     */
+    private static int pushSize(int opcode) {
+        if (loadKind(opcode) != -1) {
+            return slotSize(loadKind(opcode));
+        }
+        switch (opcode) {
+        case ByteCode.LCONST_0:
+        case ByteCode.LCONST_1:
+        case ByteCode.DCONST_0:
+        case ByteCode.DCONST_1:
+            return 2;
+        case ByteCode.BIPUSH:
+        case ByteCode.SIPUSH:
+            return 1;
+        default:
+            return (opcode >= ByteCode.ACONST_NULL && opcode <= ByteCode.DCONST_1) ? 1 : 0;
+        }
+    }
+
+    private final byte[] code;
+    private final int codeLength;
+    private final int[] exceptionTable;
+
+    /** Instructions that may be entered other than by falling through from the previous instruction. */
+    private final boolean[] boundary;
+    /** Instructions that have been removed. */
+    private final boolean[] removed;
+    /** The opcode of each instruction, which may be replaced by an equivalent branch. */
+    private final int[] opcodes;
+    /** The target of each branch with a 16 bit offset, which may be redirected. */
+    private final int[] targets;
+    /** A <code>dup</code> or <code>dup2</code> to be inserted before each instruction, or zero. */
+    private final int[] prefix;
+    private int[] newPC;
+    private int newLength;
+    private int stackIncrease = 0;
+}
@@ -35,12 +35,17 @@ import java.io.InputStream;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.security.ProtectionDomain;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SimpleClassLoader extends ClassLoader
 {
-    private Map<String, Class<?>> localClasses = new HashMap<String, Class<?>>();
+    static {
+        // Classes may be defined by several compiling threads at the same time.
+        registerAsParallelCapable();
+    }
+
+    private Map<String, Class<?>> localClasses = new ConcurrentHashMap<String, Class<?>>();
     private File classesDir = null;
     
     public SimpleClassLoader()
@@ -78,12 +83,15 @@ public class SimpleClassLoader extends ClassLoader
         int index = className.lastIndexOf('.');
         if (index > -1) {
             String packageName = className.substring(0, index);
-            pkg = getPackage(packageName);
-            if (pkg == null) {
-                pkg = definePackage(packageName, null, null, null, null, null, null, null);
-            }
-            if (pkg == null) {
-                throw new IllegalStateException("Could not find of create package: " + packageName);
+            while (pkg == null) {
+                pkg = getPackage(packageName);
+                if (pkg == null) {
+                    try {
+                        pkg = definePackage(packageName, null, null, null, null, null, null, null);
+                    } catch (IllegalArgumentException ex) {
+                        // Another thread defined the package first, so look it up again.
+                    }
+                }
             }
         }
         return pkg;
@@ -0,0 +1,1373 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.mozilla.classfile;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * StackMapTable
+ *
+ * Computes the StackMapTable attribute of a method from its byte-code.
+ * Class files of version 50 and later are checked by the type checking
+ * verifier, which requires a frame describing the types of the local
+ * variables and operand stack at the start of each basic block that is
+ * entered other than by falling through.
+ * <p>
+ * The types are inferred by flowing the types through the basic blocks
+ * until nothing changes. Blocks that cannot be reached are replaced by
+ * <code>nop ... athrow</code> and removed from the exception table,
+ * as the verifier still checks unreachable code.
+ * <p>
+ * Each verification type is packed into an int, the tag in the low
+ * byte and the constant pool index of an <code>OBJECT</code> or the
+ * offset of the <code>new</code> of an <code>UNINITIALIZED</code> in the
+ * upper bits. Long and double values occupy two slots, the second slot
+ * holding <code>TOP</code>.
+ */
+final class StackMapTable {
+
+    // verification_type_info tags
+    static final int TOP = 0, INTEGER = 1, FLOAT = 2, DOUBLE = 3, LONG = 4, NULL = 5, UNINITIALIZED_THIS = 6,
+            OBJECT = 7, UNINITIALIZED = 8;
+
+    // frame types
+    private static final int SAME_LOCALS_1_STACK_ITEM = 64, SAME_LOCALS_1_STACK_ITEM_EXTENDED = 247,
+            SAME_FRAME_EXTENDED = 251, FULL_FRAME = 255;
+
+    /**
+     * Prepare to compute the frames for the method just completed.
+     *
+     * @param cfw
+     *            the writer of the class, used to find common super classes
+     * @param pool
+     *            the constant pool of the class
+     * @param code
+     *            the byte-code of the method, after label fix-ups
+     * @param codeLength
+     *            the length of the byte-code
+     * @param exceptionTable
+     *            the exception table, four ints per entry:
+     *            start_pc, end_pc, handler_pc and catch_type
+     * @param maxLocals
+     *            the number of local variable slots
+     * @param className
+     *            the name of the class being generated
+     * @param methodName
+     *            the name of the method
+     * @param methodType
+     *            the descriptor of the method
+     * @param methodFlags
+     *            the access flags of the method
+     */
+    StackMapTable(ClassFileWriter cfw, ConstantPool pool, byte[] code, int codeLength, int[] exceptionTable,
+            int maxLocals, String className, String methodName, String methodType, int methodFlags) {
+        this.cfw = cfw;
+        this.pool = pool;
+        this.code = code;
+        this.codeLength = codeLength;
+        this.exceptionTable = exceptionTable;
+        this.className = ClassFileWriter.getSlashedForm(className);
+        this.methodName = methodName;
+        this.methodType = methodType;
+        this.methodFlags = methodFlags;
+        this.maxLocals = maxLocals;
+    }
+
+    /**
+     * Computes the frames for the method.
+     * <p>
+     * Dead code in the byte-code buffer is overwritten and the exception
+     * table is adjusted accordingly.
+     */
+    void compute() {
+        int[] initialLocals = initialLocals();
+        locals = new int[initialLocals.length];
+        stack = new int[8];
+        findBlocks();
+
+        blockLocals = new int[blockCount][];
+        blockStack = new int[blockCount][];
+        worklist = new int[blockCount];
+        onWorklist = new boolean[blockCount];
+        System.arraycopy(initialLocals, 0, locals, 0, locals.length);
+        stackTop = 0;
+        mergeInto(0);
+        initialFrame = compressLocals(initialLocals);
+
+        while (worklistTop > 0) {
+            int block = worklist[--worklistTop];
+            onWorklist[block] = false;
+            executeBlock(block);
+        }
+
+        removeDeadCode(initialLocals.length);
+    }
+
+    /**
+     * The exception table after any dead code has been removed.
+     */
+    int[] getExceptionTable() {
+        return exceptionTable;
+    }
+
+    /**
+     * The operand stack required by the method, which is at least one if
+     * dead code was replaced by <code>athrow</code>.
+     */
+    int getMaxStack(int maxStack) {
+        return (hasDeadCode && maxStack < 1) ? 1 : maxStack;
+    }
+
+    /**
+     * The number of frames to be written.
+     */
+    int getFrameCount() {
+        int count = 0;
+        for (int i = 0; i < blockCount; i++) {
+            if (isFrameRequired(i))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Writes the complete StackMapTable attribute, including the attribute
+     * name and length.
+     *
+     * @return the bytes of the attribute
+     */
+    byte[] toAttribute() {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        int[] previous = initialFrame;
+        int previousPC = -1;
+        int count = 0;
+        for (int i = 0; i < blockCount; i++) {
+            if (!isFrameRequired(i))
+                continue;
+            int pc = blockStart[i];
+            int[] frameLocals = compressLocals(blockLocals[i]);
+            int[] frameStack = compressStack(blockStack[i], blockStack[i].length);
+            writeFrame(frames, pc - previousPC - 1, previous, frameLocals, frameStack);
+            previous = frameLocals;
+            previousPC = pc;
+            count++;
+        }
+
+        byte[] entries = frames.toByteArray();
+        byte[] attribute = new byte[2 + 4 + 2 + entries.length];
+        int index = ClassFileWriter.putInt16(pool.addUtf8("StackMapTable"), attribute, 0);
+        index = ClassFileWriter.putInt32(2 + entries.length, attribute, index);
+        index = ClassFileWriter.putInt16(count, attribute, index);
+        System.arraycopy(entries, 0, attribute, index, entries.length);
+        return attribute;
+    }
+
+    private boolean isFrameRequired(int block) {
+        return frameRequired[block] && blockLocals[block] != null;
+    }
+
+    // ---------------------------------------------------------------------
+    // Basic blocks
+
+    private void findBlocks() {
+        boolean[] leader = new boolean[codeLength + 1];
+        boolean[] target = new boolean[codeLength + 1];
+        leader[0] = true;
+        int pc = 0;
+        while (pc < codeLength) {
+            int opcode = code[pc] & 0xFF;
+            int next = pc + ClassFileWriter.instructionLength(code, pc);
+            switch (opcode) {
+            case ByteCode.IFEQ:
+            case ByteCode.IFNE:
+            case ByteCode.IFLT:
+            case ByteCode.IFGE:
+            case ByteCode.IFGT:
+            case ByteCode.IFLE:
+            case ByteCode.IF_ICMPEQ:
+            case ByteCode.IF_ICMPNE:
+            case ByteCode.IF_ICMPLT:
+            case ByteCode.IF_ICMPGE:
+            case ByteCode.IF_ICMPGT:
+            case ByteCode.IF_ICMPLE:
+            case ByteCode.IF_ACMPEQ:
+            case ByteCode.IF_ACMPNE:
+            case ByteCode.IFNULL:
+            case ByteCode.IFNONNULL:
+                markTarget(leader, target, pc + getInt16(pc + 1));
+                leader[next] = true;
+                break;
+            case ByteCode.GOTO:
+                markTarget(leader, target, pc + getInt16(pc + 1));
+                leader[next] = target[next] = true;
+                break;
+            case ByteCode.GOTO_W:
+                markTarget(leader, target, pc + getInt32(pc + 1));
+                leader[next] = target[next] = true;
+                break;
+            case ByteCode.TABLESWITCH: {
+                int base = (pc + 4) & ~3;
+                markTarget(leader, target, pc + getInt32(base));
+                int low = getInt32(base + 4);
+                int high = getInt32(base + 8);
+                for (int i = 0; i <= high - low; i++) {
+                    markTarget(leader, target, pc + getInt32(base + 12 + 4 * i));
+                }
+                leader[next] = target[next] = true;
+                break;
+            }
+            case ByteCode.LOOKUPSWITCH: {
+                int base = (pc + 4) & ~3;
+                markTarget(leader, target, pc + getInt32(base));
+                int npairs = getInt32(base + 4);
+                for (int i = 0; i < npairs; i++) {
+                    markTarget(leader, target, pc + getInt32(base + 12 + 8 * i));
+                }
+                leader[next] = target[next] = true;
+                break;
+            }
+            case ByteCode.IRETURN:
+            case ByteCode.LRETURN:
+            case ByteCode.FRETURN:
+            case ByteCode.DRETURN:
+            case ByteCode.ARETURN:
+            case ByteCode.RETURN:
+            case ByteCode.ATHROW:
+                leader[next] = target[next] = true;
+                break;
+            case ByteCode.JSR:
+            case ByteCode.JSR_W:
+            case ByteCode.RET:
+                throw new ClassFileWriter.ClassFileFormatException(
+                        "JSR and RET are not permitted in class files with StackMapTable frames");
+            case ByteCode.WIDE:
+                if ((code[pc + 1] & 0xFF) == ByteCode.RET)
+                    throw new ClassFileWriter.ClassFileFormatException(
+                            "JSR and RET are not permitted in class files with StackMapTable frames");
+                break;
+            }
+            pc = next;
+        }
+        if (pc != codeLength)
+            throw new IllegalStateException("Last instruction overruns the code");
+        for (int i = 0; i < exceptionTable.length; i += 4) {
+            markTarget(leader, target, exceptionTable[i + 2]);
+        }
+
+        blockOf = new int[codeLength];
+        blockStart = new int[codeLength];
+        frameRequired = new boolean[codeLength];
+        blockCount = 0;
+        for (pc = 0; pc < codeLength; pc++) {
+            if (leader[pc]) {
+                blockOf[pc] = blockCount;
+                frameRequired[blockCount] = target[pc];
+                blockStart[blockCount++] = pc;
+            } else {
+                blockOf[pc] = -1;
+            }
+        }
+    }
+
+    private void markTarget(boolean[] leader, boolean[] target, int pc) {
+        if (pc < 0 || pc >= codeLength)
+            throw new IllegalStateException("Branch target " + pc + " is outside the code");
+        leader[pc] = true;
+        target[pc] = true;
+    }
+
+    private int blockEnd(int block) {
+        return (block + 1 < blockCount) ? blockStart[block + 1] : codeLength;
+    }
+
+    private void executeBlock(int block) {
+        int[] entryLocals = blockLocals[block];
+        System.arraycopy(entryLocals, 0, locals, 0, entryLocals.length);
+        int[] entryStack = blockStack[block];
+        stackTop = 0;
+        for (int i = 0; i < entryStack.length; i++) {
+            push(entryStack[i]);
+        }
+
+        int pc = blockStart[block];
+        int end = blockEnd(block);
+        while (pc < end) {
+            int opcode = code[pc] & 0xFF;
+            mergeHandlers(pc);
+            execute(pc, opcode);
+            if (isUnconditional(opcode))
+                return;
+            mergeHandlers(pc);
+            pc += ClassFileWriter.instructionLength(code, pc);
+        }
+        if (pc >= codeLength)
+            throw new IllegalStateException("Execution falls off the end of the code");
+        flowTo(pc);
+    }
+
+    private static boolean isUnconditional(int opcode) {
+        switch (opcode) {
+        case ByteCode.GOTO:
+        case ByteCode.GOTO_W:
+        case ByteCode.TABLESWITCH:
+        case ByteCode.LOOKUPSWITCH:
+        case ByteCode.IRETURN:
+        case ByteCode.LRETURN:
+        case ByteCode.FRETURN:
+        case ByteCode.DRETURN:
+        case ByteCode.ARETURN:
+        case ByteCode.RETURN:
+        case ByteCode.ATHROW:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Merges the current local variables into each exception handler
+     * that covers the given instruction.
+     */
+    private void mergeHandlers(int pc) {
+        for (int i = 0; i < exceptionTable.length; i += 4) {
+            if (exceptionTable[i] <= pc && pc < exceptionTable[i + 1]) {
+                int[] saved = saveStack();
+                int catchType = exceptionTable[i + 3];
+                stackTop = 0;
+                push(catchType == 0 ? objectType("java/lang/Throwable") : (catchType << 8) | OBJECT);
+                flowTo(exceptionTable[i + 2]);
+                restoreStack(saved);
+            }
+        }
+    }
+
+    private int[] saveStack() {
+        int[] saved = new int[stackTop];
+        System.arraycopy(stack, 0, saved, 0, stackTop);
+        return saved;
+    }
+
+    private void restoreStack(int[] saved) {
+        System.arraycopy(saved, 0, stack, 0, saved.length);
+        stackTop = saved.length;
+    }
+
+    private void flowTo(int pc) {
+        mergeInto(blockOf[pc]);
+    }
+
+    /**
+     * Merges the current state into the entry state of a block and
+     * schedules the block to be executed if its entry state changed.
+     */
+    private void mergeInto(int block) {
+        boolean changed = false;
+        int[] entryLocals = blockLocals[block];
+        if (entryLocals == null) {
+            blockLocals[block] = locals.clone();
+            blockStack[block] = saveStack();
+            changed = true;
+        } else {
+            for (int i = 0; i < entryLocals.length; i++) {
+                int type = mergeTypes(entryLocals[i], locals[i]);
+                if (type != entryLocals[i]) {
+                    entryLocals[i] = type;
+                    changed = true;
+                }
+            }
+            int[] entryStack = blockStack[block];
+            if (entryStack.length != stackTop)
+                throw new IllegalStateException("Inconsistent stack height at offset " + blockStart[block]
+                        + " in method " + methodName + ": " + entryStack.length + " != " + stackTop);
+            for (int i = 0; i < entryStack.length; i++) {
+                int type = mergeTypes(entryStack[i], stack[i]);
+                if (type == TOP && entryStack[i] != TOP)
+                    throw new IllegalStateException("Inconsistent stack types at offset " + blockStart[block]
+                            + " in method " + methodName);
+                if (type != entryStack[i]) {
+                    entryStack[i] = type;
+                    changed = true;
+                }
+            }
+        }
+        if (changed && !onWorklist[block]) {
+            onWorklist[block] = true;
+            worklist[worklistTop++] = block;
+        }
+    }
+
+    private int mergeTypes(int current, int incoming) {
+        if (current == incoming)
+            return current;
+        if (isReference(current) && isReference(incoming)) {
+            if ((current & 0xFF) == NULL)
+                return incoming;
+            if ((incoming & 0xFF) == NULL)
+                return current;
+            return objectType(getCommonSuperClass(getClassName(current), getClassName(incoming)));
+        }
+        return TOP;
+    }
+
+    private static boolean isReference(int type) {
+        int tag = type & 0xFF;
+        return tag == OBJECT || tag == NULL;
+    }
+
+    private String getCommonSuperClass(String type1, String type2) {
+        if (type1.charAt(0) == '[' || type2.charAt(0) == '[') {
+            if (type1.charAt(0) == '[' && type2.charAt(0) == '[') {
+                String component1 = type1.substring(1);
+                String component2 = type2.substring(1);
+                if (isReferenceDescriptor(component1) && isReferenceDescriptor(component2)) {
+                    String common = getCommonSuperClass(descriptorToClassName(component1),
+                            descriptorToClassName(component2));
+                    return "[" + classNameToDescriptor(common);
+                }
+            }
+            return "java/lang/Object";
+        }
+        return cfw.getCommonSuperClass(type1, type2);
+    }
+
+    private static boolean isReferenceDescriptor(String descriptor) {
+        char ch = descriptor.charAt(0);
+        return ch == 'L' || ch == '[';
+    }
+
+    private static String descriptorToClassName(String descriptor) {
+        return (descriptor.charAt(0) == 'L') ? descriptor.substring(1, descriptor.length() - 1) : descriptor;
+    }
+
+    private static String classNameToDescriptor(String className) {
+        return (className.charAt(0) == '[') ? className : "L" + className + ";";
+    }
+
+    // ---------------------------------------------------------------------
+    // Dead code
+
+    /**
+     * Replaces each run of unreachable blocks with <code>nop ... athrow</code>,
+     * gives it a frame with no locals and a <code>Throwable</code> on the
+     * stack, and removes it from the ranges in the exception table.
+     */
+    private void removeDeadCode(int localsLength) {
+        int[] deadRanges = new int[blockCount * 2];
+        int deadCount = 0;
+        for (int block = 0; block < blockCount; block++) {
+            if (blockLocals[block] != null)
+                continue;
+            int first = block;
+            while (block + 1 < blockCount && blockLocals[block + 1] == null) {
+                frameRequired[++block] = false;
+            }
+            int start = blockStart[first];
+            int end = blockEnd(block);
+            for (int pc = start; pc < end - 1; pc++) {
+                code[pc] = (byte) ByteCode.NOP;
+            }
+            code[end - 1] = (byte) ByteCode.ATHROW;
+            blockLocals[first] = new int[localsLength];
+            blockStack[first] = new int[] { objectType("java/lang/Throwable") };
+            frameRequired[first] = true;
+            deadRanges[deadCount++] = start;
+            deadRanges[deadCount++] = end;
+        }
+        if (deadCount == 0)
+            return;
+        hasDeadCode = true;
+
+        int[] table = new int[exceptionTable.length * 2 + deadCount * 2];
+        int top = 0;
+        for (int i = 0; i < exceptionTable.length; i += 4) {
+            int start = exceptionTable[i];
+            int end = exceptionTable[i + 1];
+            for (int j = 0; j < deadCount; j += 2) {
+                int deadStart = deadRanges[j];
+                int deadEnd = deadRanges[j + 1];
+                if (deadEnd <= start || deadStart >= end)
+                    continue;
+                if (deadStart > start)
+                    top = addException(table, top, start, deadStart, i);
+                start = Math.max(start, deadEnd);
+            }
+            if (start < end)
+                top = addException(table, top, start, end, i);
+        }
+        exceptionTable = new int[top];
+        System.arraycopy(table, 0, exceptionTable, 0, top);
+    }
+
+    private int addException(int[] table, int top, int start, int end, int entry) {
+        table[top++] = start;
+        table[top++] = end;
+        table[top++] = exceptionTable[entry + 2];
+        table[top++] = exceptionTable[entry + 3];
+        return top;
+    }
+
+    // ---------------------------------------------------------------------
+    // Type inference
+
+    private void execute(int pc, int opcode) {
+        int type;
+        FieldOrMethodRef ref;
+        switch (opcode) {
+        case ByteCode.NOP:
+        case ByteCode.INEG:
+        case ByteCode.LNEG:
+        case ByteCode.FNEG:
+        case ByteCode.DNEG:
+        case ByteCode.I2B:
+        case ByteCode.I2C:
+        case ByteCode.I2S:
+        case ByteCode.IINC:
+        case ByteCode.GOTO:
+        case ByteCode.GOTO_W:
+        case ByteCode.RETURN:
+        case ByteCode.ATHROW:
+            break;
+        case ByteCode.ACONST_NULL:
+            push(NULL);
+            break;
+        case ByteCode.ICONST_M1:
+        case ByteCode.ICONST_0:
+        case ByteCode.ICONST_1:
+        case ByteCode.ICONST_2:
+        case ByteCode.ICONST_3:
+        case ByteCode.ICONST_4:
+        case ByteCode.ICONST_5:
+        case ByteCode.BIPUSH:
+        case ByteCode.SIPUSH:
+        case ByteCode.ILOAD:
+        case ByteCode.ILOAD_0:
+        case ByteCode.ILOAD_1:
+        case ByteCode.ILOAD_2:
+        case ByteCode.ILOAD_3:
+            push(INTEGER);
+            break;
+        case ByteCode.LCONST_0:
+        case ByteCode.LCONST_1:
+        case ByteCode.LLOAD:
+        case ByteCode.LLOAD_0:
+        case ByteCode.LLOAD_1:
+        case ByteCode.LLOAD_2:
+        case ByteCode.LLOAD_3:
+            push2(LONG);
+            break;
+        case ByteCode.FCONST_0:
+        case ByteCode.FCONST_1:
+        case ByteCode.FCONST_2:
+        case ByteCode.FLOAD:
+        case ByteCode.FLOAD_0:
+        case ByteCode.FLOAD_1:
+        case ByteCode.FLOAD_2:
+        case ByteCode.FLOAD_3:
+            push(FLOAT);
+            break;
+        case ByteCode.DCONST_0:
+        case ByteCode.DCONST_1:
+        case ByteCode.DLOAD:
+        case ByteCode.DLOAD_0:
+        case ByteCode.DLOAD_1:
+        case ByteCode.DLOAD_2:
+        case ByteCode.DLOAD_3:
+            push2(DOUBLE);
+            break;
+        case ByteCode.LDC:
+            pushConstant(code[pc + 1] & 0xFF);
+            break;
+        case ByteCode.LDC_W:
+        case ByteCode.LDC2_W:
+            pushConstant(getUInt16(pc + 1));
+            break;
+        case ByteCode.ALOAD:
+            push(locals[code[pc + 1] & 0xFF]);
+            break;
+        case ByteCode.ALOAD_0:
+        case ByteCode.ALOAD_1:
+        case ByteCode.ALOAD_2:
+        case ByteCode.ALOAD_3:
+            push(locals[opcode - ByteCode.ALOAD_0]);
+            break;
+        case ByteCode.IALOAD:
+        case ByteCode.BALOAD:
+        case ByteCode.CALOAD:
+        case ByteCode.SALOAD:
+            pop(2);
+            push(INTEGER);
+            break;
+        case ByteCode.LALOAD:
+            pop(2);
+            push2(LONG);
+            break;
+        case ByteCode.FALOAD:
+            pop(2);
+            push(FLOAT);
+            break;
+        case ByteCode.DALOAD:
+            pop(2);
+            push2(DOUBLE);
+            break;
+        case ByteCode.AALOAD:
+            pop(1);
+            push(componentType(pop()));
+            break;
+        case ByteCode.ISTORE:
+        case ByteCode.FSTORE:
+        case ByteCode.ASTORE:
+            setLocal(code[pc + 1] & 0xFF, pop());
+            break;
+        case ByteCode.LSTORE:
+        case ByteCode.DSTORE:
+            pop(1);
+            setLocal2(code[pc + 1] & 0xFF, pop());
+            break;
+        case ByteCode.ISTORE_0:
+        case ByteCode.ISTORE_1:
+        case ByteCode.ISTORE_2:
+        case ByteCode.ISTORE_3:
+            setLocal(opcode - ByteCode.ISTORE_0, pop());
+            break;
+        case ByteCode.FSTORE_0:
+        case ByteCode.FSTORE_1:
+        case ByteCode.FSTORE_2:
+        case ByteCode.FSTORE_3:
+            setLocal(opcode - ByteCode.FSTORE_0, pop());
+            break;
+        case ByteCode.ASTORE_0:
+        case ByteCode.ASTORE_1:
+        case ByteCode.ASTORE_2:
+        case ByteCode.ASTORE_3:
+            setLocal(opcode - ByteCode.ASTORE_0, pop());
+            break;
+        case ByteCode.LSTORE_0:
+        case ByteCode.LSTORE_1:
+        case ByteCode.LSTORE_2:
+        case ByteCode.LSTORE_3:
+            pop(1);
+            setLocal2(opcode - ByteCode.LSTORE_0, pop());
+            break;
+        case ByteCode.DSTORE_0:
+        case ByteCode.DSTORE_1:
+        case ByteCode.DSTORE_2:
+        case ByteCode.DSTORE_3:
+            pop(1);
+            setLocal2(opcode - ByteCode.DSTORE_0, pop());
+            break;
+        case ByteCode.IASTORE:
+        case ByteCode.BASTORE:
+        case ByteCode.CASTORE:
+        case ByteCode.SASTORE:
+        case ByteCode.FASTORE:
+        case ByteCode.AASTORE:
+            pop(3);
+            break;
+        case ByteCode.LASTORE:
+        case ByteCode.DASTORE:
+            pop(4);
+            break;
+        case ByteCode.POP:
+        case ByteCode.MONITORENTER:
+        case ByteCode.MONITOREXIT:
+        case ByteCode.IRETURN:
+        case ByteCode.FRETURN:
+        case ByteCode.ARETURN:
+        case ByteCode.TABLESWITCH:
+        case ByteCode.LOOKUPSWITCH:
+            pop(1);
+            break;
+        case ByteCode.POP2:
+        case ByteCode.LRETURN:
+        case ByteCode.DRETURN:
+            pop(2);
+            break;
+        case ByteCode.DUP:
+            type = pop();
+            push(type);
+            push(type);
+            break;
+        case ByteCode.DUP_X1: {
+            int v1 = pop(), v2 = pop();
+            push(v1);
+            push(v2);
+            push(v1);
+            break;
+        }
+        case ByteCode.DUP_X2: {
+            int v1 = pop(), v2 = pop(), v3 = pop();
+            push(v1);
+            push(v3);
+            push(v2);
+            push(v1);
+            break;
+        }
+        case ByteCode.DUP2: {
+            int v1 = pop(), v2 = pop();
+            push(v2);
+            push(v1);
+            push(v2);
+            push(v1);
+            break;
+        }
+        case ByteCode.DUP2_X1: {
+            int v1 = pop(), v2 = pop(), v3 = pop();
+            push(v2);
+            push(v1);
+            push(v3);
+            push(v2);
+            push(v1);
+            break;
+        }
+        case ByteCode.DUP2_X2: {
+            int v1 = pop(), v2 = pop(), v3 = pop(), v4 = pop();
+            push(v2);
+            push(v1);
+            push(v4);
+            push(v3);
+            push(v2);
+            push(v1);
+            break;
+        }
+        case ByteCode.SWAP: {
+            int v1 = pop(), v2 = pop();
+            push(v1);
+            push(v2);
+            break;
+        }
+        case ByteCode.IADD:
+        case ByteCode.ISUB:
+        case ByteCode.IMUL:
+        case ByteCode.IDIV:
+        case ByteCode.IREM:
+        case ByteCode.ISHL:
+        case ByteCode.ISHR:
+        case ByteCode.IUSHR:
+        case ByteCode.IAND:
+        case ByteCode.IOR:
+        case ByteCode.IXOR:
+        case ByteCode.FCMPL:
+        case ByteCode.FCMPG:
+            pop(2);
+            push(INTEGER);
+            break;
+        case ByteCode.LADD:
+        case ByteCode.LSUB:
+        case ByteCode.LMUL:
+        case ByteCode.LDIV:
+        case ByteCode.LREM:
+        case ByteCode.LAND:
+        case ByteCode.LOR:
+        case ByteCode.LXOR:
+            pop(4);
+            push2(LONG);
+            break;
+        case ByteCode.LSHL:
+        case ByteCode.LSHR:
+        case ByteCode.LUSHR:
+            pop(3);
+            push2(LONG);
+            break;
+        case ByteCode.FADD:
+        case ByteCode.FSUB:
+        case ByteCode.FMUL:
+        case ByteCode.FDIV:
+        case ByteCode.FREM:
+            pop(2);
+            push(FLOAT);
+            break;
+        case ByteCode.DADD:
+        case ByteCode.DSUB:
+        case ByteCode.DMUL:
+        case ByteCode.DDIV:
+        case ByteCode.DREM:
+            pop(4);
+            push2(DOUBLE);
+            break;
+        case ByteCode.I2L:
+        case ByteCode.F2L:
+            pop(1);
+            push2(LONG);
+            break;
+        case ByteCode.I2F:
+            pop(1);
+            push(FLOAT);
+            break;
+        case ByteCode.I2D:
+        case ByteCode.F2D:
+            pop(1);
+            push2(DOUBLE);
+            break;
+        case ByteCode.L2I:
+        case ByteCode.D2I:
+            pop(2);
+            push(INTEGER);
+            break;
+        case ByteCode.L2F:
+        case ByteCode.D2F:
+            pop(2);
+            push(FLOAT);
+            break;
+        case ByteCode.L2D:
+            pop(2);
+            push2(DOUBLE);
+            break;
+        case ByteCode.D2L:
+            pop(2);
+            push2(LONG);
+            break;
+        case ByteCode.F2I:
+            pop(1);
+            push(INTEGER);
+            break;
+        case ByteCode.LCMP:
+        case ByteCode.DCMPL:
+        case ByteCode.DCMPG:
+            pop(4);
+            push(INTEGER);
+            break;
+        case ByteCode.IFEQ:
+        case ByteCode.IFNE:
+        case ByteCode.IFLT:
+        case ByteCode.IFGE:
+        case ByteCode.IFGT:
+        case ByteCode.IFLE:
+        case ByteCode.IFNULL:
+        case ByteCode.IFNONNULL:
+            pop(1);
+            break;
+        case ByteCode.IF_ICMPEQ:
+        case ByteCode.IF_ICMPNE:
+        case ByteCode.IF_ICMPLT:
+        case ByteCode.IF_ICMPGE:
+        case ByteCode.IF_ICMPGT:
+        case ByteCode.IF_ICMPLE:
+        case ByteCode.IF_ACMPEQ:
+        case ByteCode.IF_ACMPNE:
+            pop(2);
+            break;
+        case ByteCode.GETSTATIC:
+            ref = (FieldOrMethodRef) pool.getConstantData(getUInt16(pc + 1));
+            pushDescriptor(ref.getType(), 0);
+            break;
+        case ByteCode.PUTSTATIC:
+            ref = (FieldOrMethodRef) pool.getConstantData(getUInt16(pc + 1));
+            pop(descriptorSize(ref.getType(), 0));
+            break;
+        case ByteCode.GETFIELD:
+            ref = (FieldOrMethodRef) pool.getConstantData(getUInt16(pc + 1));
+            pop(1);
+            pushDescriptor(ref.getType(), 0);
+            break;
+        case ByteCode.PUTFIELD:
+            ref = (FieldOrMethodRef) pool.getConstantData(getUInt16(pc + 1));
+            pop(descriptorSize(ref.getType(), 0) + 1);
+            break;
+        case ByteCode.INVOKEVIRTUAL:
+        case ByteCode.INVOKESPECIAL:
+        case ByteCode.INVOKESTATIC:
+        case ByteCode.INVOKEINTERFACE: {
+            ref = (FieldOrMethodRef) pool.getConstantData(getUInt16(pc + 1));
+            String descriptor = ref.getType();
+            int rightParenthesis = descriptor.indexOf(')');
+            for (int i = 1; i < rightParenthesis; i = nextDescriptor(descriptor, i)) {
+                pop(descriptorSize(descriptor, i));
+            }
+            if (opcode != ByteCode.INVOKESTATIC) {
+                int receiver = pop();
+                if (opcode == ByteCode.INVOKESPECIAL && "<init>".equals(ref.getName()))
+                    initialize(receiver);
+            }
+            pushDescriptor(descriptor, rightParenthesis + 1);
+            break;
+        }
+        case ByteCode.NEW:
+            push((pc << 8) | UNINITIALIZED);
+            break;
+        case ByteCode.NEWARRAY:
+            pop(1);
+            push(objectType(primitiveArrayName(code[pc + 1])));
+            break;
+        case ByteCode.ANEWARRAY: {
+            pop(1);
+            String name = getClassName((getUInt16(pc + 1) << 8) | OBJECT);
+            push(objectType("[" + classNameToDescriptor(name)));
+            break;
+        }
+        case ByteCode.ARRAYLENGTH:
+        case ByteCode.INSTANCEOF:
+            pop(1);
+            push(INTEGER);
+            break;
+        case ByteCode.CHECKCAST:
+            pop(1);
+            push((getUInt16(pc + 1) << 8) | OBJECT);
+            break;
+        case ByteCode.MULTIANEWARRAY:
+            pop(code[pc + 3] & 0xFF);
+            push((getUInt16(pc + 1) << 8) | OBJECT);
+            break;
+        case ByteCode.WIDE:
+            executeWide(getUInt16(pc + 2), code[pc + 1] & 0xFF);
+            break;
+        default:
+            throw new IllegalStateException("Unexpected opcode " + ClassFileWriter.bytecodeStr(opcode)
+                    + " at offset " + pc);
+        }
+
+        switch (opcode) {
+        case ByteCode.IFEQ:
+        case ByteCode.IFNE:
+        case ByteCode.IFLT:
+        case ByteCode.IFGE:
+        case ByteCode.IFGT:
+        case ByteCode.IFLE:
+        case ByteCode.IF_ICMPEQ:
+        case ByteCode.IF_ICMPNE:
+        case ByteCode.IF_ICMPLT:
+        case ByteCode.IF_ICMPGE:
+        case ByteCode.IF_ICMPGT:
+        case ByteCode.IF_ICMPLE:
+        case ByteCode.IF_ACMPEQ:
+        case ByteCode.IF_ACMPNE:
+        case ByteCode.IFNULL:
+        case ByteCode.IFNONNULL:
+        case ByteCode.GOTO:
+            flowTo(pc + getInt16(pc + 1));
+            break;
+        case ByteCode.GOTO_W:
+            flowTo(pc + getInt32(pc + 1));
+            break;
+        case ByteCode.TABLESWITCH: {
+            int base = (pc + 4) & ~3;
+            flowTo(pc + getInt32(base));
+            int low = getInt32(base + 4);
+            int high = getInt32(base + 8);
+            for (int i = 0; i <= high - low; i++) {
+                flowTo(pc + getInt32(base + 12 + 4 * i));
+            }
+            break;
+        }
+        case ByteCode.LOOKUPSWITCH: {
+            int base = (pc + 4) & ~3;
+            flowTo(pc + getInt32(base));
+            int npairs = getInt32(base + 4);
+            for (int i = 0; i < npairs; i++) {
+                flowTo(pc + getInt32(base + 12 + 8 * i));
+            }
+            break;
+        }
+        }
+    }
+
+    private void executeWide(int index, int opcode) {
+        switch (opcode) {
+        case ByteCode.ILOAD:
+            push(INTEGER);
+            break;
+        case ByteCode.FLOAD:
+            push(FLOAT);
+            break;
+        case ByteCode.LLOAD:
+            push2(LONG);
+            break;
+        case ByteCode.DLOAD:
+            push2(DOUBLE);
+            break;
+        case ByteCode.ALOAD:
+            push(locals[index]);
+            break;
+        case ByteCode.ISTORE:
+        case ByteCode.FSTORE:
+        case ByteCode.ASTORE:
+            setLocal(index, pop());
+            break;
+        case ByteCode.LSTORE:
+        case ByteCode.DSTORE:
+            pop(1);
+            setLocal2(index, pop());
+            break;
+        case ByteCode.IINC:
+            break;
+        default:
+            throw new IllegalStateException("Unexpected wide opcode " + ClassFileWriter.bytecodeStr(opcode));
+        }
+    }
+
+    /**
+     * Replaces an uninitialized type with the initialized class type after
+     * a call to its constructor.
+     */
+    private void initialize(int receiver) {
+        int type;
+        int tag = receiver & 0xFF;
+        if (tag == UNINITIALIZED_THIS) {
+            type = objectType(className);
+        } else if (tag == UNINITIALIZED) {
+            int newPC = receiver >>> 8;
+            type = (getUInt16(newPC + 1) << 8) | OBJECT;
+        } else {
+            return;
+        }
+        for (int i = 0; i < locals.length; i++) {
+            if (locals[i] == receiver)
+                locals[i] = type;
+        }
+        for (int i = 0; i < stackTop; i++) {
+            if (stack[i] == receiver)
+                stack[i] = type;
+        }
+    }
+
+    private void pushConstant(int index) {
+        switch (pool.getConstantType(index)) {
+        case ConstantPool.CONSTANT_Integer:
+            push(INTEGER);
+            break;
+        case ConstantPool.CONSTANT_Float:
+            push(FLOAT);
+            break;
+        case ConstantPool.CONSTANT_Long:
+            push2(LONG);
+            break;
+        case ConstantPool.CONSTANT_Double:
+            push2(DOUBLE);
+            break;
+        case ConstantPool.CONSTANT_String:
+            push(objectType("java/lang/String"));
+            break;
+        case ConstantPool.CONSTANT_Class:
+            push(objectType("java/lang/Class"));
+            break;
+        default:
+            throw new IllegalStateException("Bad constant pool index for ldc: " + index);
+        }
+    }
+
+    private int componentType(int arrayType) {
+        if ((arrayType & 0xFF) != OBJECT)
+            return arrayType;
+        String name = getClassName(arrayType);
+        if (name.charAt(0) != '[')
+            return TOP;
+        return descriptorType(name, 1, name.length());
+    }
+
+    private static String primitiveArrayName(int atype) {
+        switch (atype) {
+        case ByteCode.T_BOOLEAN:
+            return "[Z";
+        case ByteCode.T_CHAR:
+            return "[C";
+        case ByteCode.T_FLOAT:
+            return "[F";
+        case ByteCode.T_DOUBLE:
+            return "[D";
+        case ByteCode.T_BYTE:
+            return "[B";
+        case ByteCode.T_SHORT:
+            return "[S";
+        case ByteCode.T_INT:
+            return "[I";
+        case ByteCode.T_LONG:
+            return "[J";
+        }
+        throw new IllegalStateException("Bad array type: " + atype);
+    }
+
+    // ---------------------------------------------------------------------
+    // Descriptors
+
+    private int[] initialLocals() {
+        int size = 0;
+        if ((methodFlags & ByteCode.ACC_STATIC) == 0)
+            size++;
+        int rightParenthesis = methodType.indexOf(')');
+        for (int i = 1; i < rightParenthesis; i = nextDescriptor(methodType, i)) {
+            size += descriptorSize(methodType, i);
+        }
+        int[] initial = new int[Math.max(size, maxLocals)];
+        int slot = 0;
+        if ((methodFlags & ByteCode.ACC_STATIC) == 0) {
+            if ("<init>".equals(methodName) && !"java/lang/Object".equals(className))
+                initial[slot++] = UNINITIALIZED_THIS;
+            else
+                initial[slot++] = objectType(className);
+        }
+        for (int i = 1; i < rightParenthesis; i = nextDescriptor(methodType, i)) {
+            int type = descriptorType(methodType, i, nextDescriptor(methodType, i));
+            initial[slot++] = type;
+            if (type == LONG || type == DOUBLE)
+                initial[slot++] = TOP;
+        }
+        return initial;
+    }
+
+    private static int nextDescriptor(String descriptor, int start) {
+        int end = start;
+        while (descriptor.charAt(end) == '[')
+            end++;
+        if (descriptor.charAt(end) == 'L')
+            end = descriptor.indexOf(';', end);
+        return end + 1;
+    }
+
+    private static int descriptorSize(String descriptor, int start) {
+        switch (descriptor.charAt(start)) {
+        case 'V':
+            return 0;
+        case 'J':
+        case 'D':
+            return 2;
+        default:
+            return 1;
+        }
+    }
+
+    private int descriptorType(String descriptor, int start, int end) {
+        switch (descriptor.charAt(start)) {
+        case 'Z':
+        case 'B':
+        case 'C':
+        case 'S':
+        case 'I':
+            return INTEGER;
+        case 'F':
+            return FLOAT;
+        case 'J':
+            return LONG;
+        case 'D':
+            return DOUBLE;
+        case 'L':
+            return objectType(descriptor.substring(start + 1, end - 1));
+        case '[':
+            return objectType(descriptor.substring(start, end));
+        }
+        throw new IllegalArgumentException("Bad type descriptor: " + descriptor);
+    }
+
+    private void pushDescriptor(String descriptor, int start) {
+        if (descriptor.charAt(start) == 'V')
+            return;
+        int type = descriptorType(descriptor, start, descriptor.length());
+        if (type == LONG || type == DOUBLE)
+            push2(type);
+        else
+            push(type);
+    }
+
+    private int objectType(String name) {
+        return (pool.addClass(name) << 8) | OBJECT;
+    }
+
+    private String getClassName(int type) {
+        return (String) pool.getConstantData(type >>> 8);
+    }
+
+    // ---------------------------------------------------------------------
+    // Locals and stack
+
+    private void setLocal(int index, int type) {
+        if (index > 0 && (locals[index - 1] == LONG || locals[index - 1] == DOUBLE))
+            locals[index - 1] = TOP;
+        locals[index] = type;
+    }
+
+    private void setLocal2(int index, int type) {
+        setLocal(index, type);
+        locals[index + 1] = TOP;
+    }
+
+    private void push(int type) {
+        if (stackTop == stack.length) {
+            int[] tmp = new int[stack.length * 2];
+            System.arraycopy(stack, 0, tmp, 0, stackTop);
+            stack = tmp;
+        }
+        stack[stackTop++] = type;
+    }
+
+    private void push2(int type) {
+        push(type);
+        push(TOP);
+    }
+
+    private int pop() {
+        if (stackTop == 0)
+            throw new IllegalStateException("Stack underflow in method " + methodName);
+        return stack[--stackTop];
+    }
+
+    private void pop(int count) {
+        if (stackTop < count)
+            throw new IllegalStateException("Stack underflow in method " + methodName);
+        stackTop -= count;
+    }
+
+    private int getUInt16(int offset) {
+        return ((code[offset] & 0xFF) << 8) | (code[offset + 1] & 0xFF);
+    }
+
+    private int getInt16(int offset) {
+        return (short) getUInt16(offset);
+    }
+
+    private int getInt32(int offset) {
+        return ClassFileWriter.getInt32(code, offset);
+    }
+
+    // ---------------------------------------------------------------------
+    // Frame compression
+
+    private static int[] compressLocals(int[] types) {
+        int length = types.length;
+        while (length > 0 && types[length - 1] == TOP)
+            length--;
+        return compressStack(types, length);
+    }
+
+    private static int[] compressStack(int[] types, int length) {
+        int count = 0;
+        for (int i = 0; i < length; i++, count++) {
+            if (types[i] == LONG || types[i] == DOUBLE)
+                i++;
+        }
+        int[] compressed = new int[count];
+        count = 0;
+        for (int i = 0; i < length; i++) {
+            compressed[count++] = types[i];
+            if (types[i] == LONG || types[i] == DOUBLE)
+                i++;
+        }
+        return compressed;
+    }
+
+    private static boolean startsWith(int[] types, int[] prefix) {
+        if (prefix.length > types.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (types[i] != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static void writeFrame(ByteArrayOutputStream out, int offsetDelta, int[] previous, int[] frameLocals,
+            int[] frameStack) {
+        int diff = frameLocals.length - previous.length;
+        if (frameStack.length == 0 && diff == 0 && startsWith(frameLocals, previous)) {
+            if (offsetDelta < 64) {
+                out.write(offsetDelta);
+            } else {
+                out.write(SAME_FRAME_EXTENDED);
+                writeUInt16(out, offsetDelta);
+            }
+        } else if (frameStack.length == 1 && diff == 0 && startsWith(frameLocals, previous)) {
+            if (offsetDelta < 64) {
+                out.write(SAME_LOCALS_1_STACK_ITEM + offsetDelta);
+            } else {
+                out.write(SAME_LOCALS_1_STACK_ITEM_EXTENDED);
+                writeUInt16(out, offsetDelta);
+            }
+            writeType(out, frameStack[0]);
+        } else if (frameStack.length == 0 && diff < 0 && diff >= -3 && startsWith(previous, frameLocals)) {
+            // chop_frame
+            out.write(SAME_FRAME_EXTENDED + diff);
+            writeUInt16(out, offsetDelta);
+        } else if (frameStack.length == 0 && diff > 0 && diff <= 3 && startsWith(frameLocals, previous)) {
+            // append_frame
+            out.write(SAME_FRAME_EXTENDED + diff);
+            writeUInt16(out, offsetDelta);
+            for (int i = previous.length; i < frameLocals.length; i++) {
+                writeType(out, frameLocals[i]);
+            }
+        } else {
+            out.write(FULL_FRAME);
+            writeUInt16(out, offsetDelta);
+            writeUInt16(out, frameLocals.length);
+            for (int i = 0; i < frameLocals.length; i++) {
+                writeType(out, frameLocals[i]);
+            }
+            writeUInt16(out, frameStack.length);
+            for (int i = 0; i < frameStack.length; i++) {
+                writeType(out, frameStack[i]);
+            }
+        }
+    }
+
+    private static void writeType(ByteArrayOutputStream out, int type) {
+        int tag = type & 0xFF;
+        out.write(tag);
+        if (tag == OBJECT || tag == UNINITIALIZED)
+            writeUInt16(out, type >>> 8);
+    }
+
+    private static void writeUInt16(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private final ClassFileWriter cfw;
+    private final ConstantPool pool;
+    private final byte[] code;
+    private final int codeLength;
+    private int[] exceptionTable;
+    private final String className;
+    private final String methodName;
+    private final String methodType;
+    private final int methodFlags;
+    private final int maxLocals;
+
+    private int[] initialFrame;
+    private boolean hasDeadCode;
+
+    private int blockCount;
+    private int[] blockStart;
+    private int[] blockOf;
+    private boolean[] frameRequired;
+    private int[][] blockLocals;
+    private int[][] blockStack;
+
+    private int[] worklist;
+    private int worklistTop;
+    private boolean[] onWorklist;
+
+    private int[] locals;
+    private int[] stack;
+    private int stackTop;
+}
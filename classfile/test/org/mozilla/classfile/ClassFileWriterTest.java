@@ -27,6 +27,9 @@
 
 package org.mozilla.classfile;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class ClassFileWriterTest extends ClassFileWriterTestCase
 {
@@ -158,4 +161,107 @@ public class ClassFileWriterTest extends ClassFileWriterTestCase
         sid = getIntField(myClass, null, "sid");
         assertEquals("myObj.id should be 3", 3, sid);
     }
+
+    void generateIdClass(ClassFileWriter cfw, int value)
+    {
+        cfw.addField("id", "I", ClassFileWriter.ACC_PUBLIC);
+        cfw.startMethod("<init>", "()V", ClassFileWriter.ACC_PUBLIC);
+        cfw.addLoadThis();
+        cfw.addInvoke(ByteCode.INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        cfw.addLoadThis();
+        cfw.addPush(value);
+        cfw.add(ByteCode.PUTFIELD, cfw.getClassName(), "id", "I");
+        cfw.add(ByteCode.RETURN);
+        cfw.stopMethod((short) 1);
+    }
+
+    public void testResetWriter() throws Exception
+    {
+        ClassFileWriter cfw = new ClassFileWriter("FirstClass", "java/lang/Object", "FirstClass.java");
+        cfw.addInterface("java/lang/Runnable");
+        generateIdClass(cfw, 1);
+        byte[] first = cfw.toByteArray();
+
+        cfw.reset("SecondClass", "java/lang/Object", null);
+        generateIdClass(cfw, 2);
+        byte[] second = cfw.toByteArray();
+
+        ClassFileWriter fresh = new ClassFileWriter("SecondClass", "java/lang/Object", null);
+        generateIdClass(fresh, 2);
+        assertTrue("Reset writer should match a new writer", Arrays.equals(fresh.toByteArray(), second));
+
+        Class firstClass = defineClass("FirstClass", first);
+        assertEquals("FirstClass.id", 1, getIntField(firstClass, firstClass.newInstance(), "id"));
+        Class secondClass = defineClass("SecondClass", second);
+        assertEquals("SecondClass.id", 2, getIntField(secondClass, secondClass.newInstance(), "id"));
+    }
+
+    public void testResetKeepsSettings() throws Exception
+    {
+        ClassFileWriter cfw = new ClassFileWriter("FirstClass", "java/lang/Object", "FirstClass.java");
+        cfw.setMajorVersion(ClassFileWriter.MAJOR_VERSION_JAVA_8);
+        cfw.setOptimizeCode(true);
+        generateIdClass(cfw, 1);
+        cfw.toByteArray();
+
+        cfw.reset("SecondClass", "java/lang/Object", null);
+        assertEquals("Major version", ClassFileWriter.MAJOR_VERSION_JAVA_8, cfw.getMajorVersion());
+        assertTrue("Optimize code", cfw.isOptimizeCode());
+    }
+
+    public void testResetAfterAbstractMethod() throws Exception
+    {
+        ClassFileWriter cfw = new ClassFileWriter("MyClass", "java/lang/Object", "MyClass.java");
+        cfw.setFlags((short) (ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_ABSTRACT));
+        cfw.startMethod("run", "()V", (short) (ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_ABSTRACT));
+        cfw.toByteArray();
+
+        cfw.reset("SecondClass", "java/lang/Object", null);
+        generateIdClass(cfw, 2);
+        Class secondClass = defineClass("SecondClass", cfw.toByteArray());
+        assertEquals("SecondClass.id", 2, getIntField(secondClass, secondClass.newInstance(), "id"));
+    }
+
+    public void testResetDuringMethod() throws Exception
+    {
+        ClassFileWriter cfw = new ClassFileWriter("MyClass", "java/lang/Object", "MyClass.java");
+        cfw.startMethod("<init>", "()V", ClassFileWriter.ACC_PUBLIC);
+        try {
+            cfw.reset("Other", "java/lang/Object", null);
+            fail("Should throw IllegalStateException");
+        } catch (IllegalStateException ex) {
+            assertEquals("Method <init> has not been stopped", ex.getMessage());
+        }
+    }
+
+    public void testWriteStreams() throws Exception
+    {
+        ClassFileWriter cfw = new ClassFileWriter("MyClass", "java/lang/Object", "MyClass.java");
+        cfw.addInterface("java/lang/Runnable");
+        generateIdClass(cfw, 3);
+        cfw.startMethod("run", "()V", (short) (ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_ABSTRACT));
+        cfw.stopMethod((short) 1);
+        byte[] expected = cfw.toByteArray();
+        assertEquals("Class file size", expected.length, cfw.getClassFileSize());
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        cfw.write(output);
+        assertTrue("OutputStream", Arrays.equals(expected, output.toByteArray()));
+
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length + 4);
+        buffer.putInt(0xCAFE);
+        cfw.write(buffer);
+        assertEquals("Position", expected.length + 4, buffer.position());
+        byte[] written = new byte[expected.length];
+        buffer.position(4);
+        buffer.get(written);
+        assertTrue("ByteBuffer", Arrays.equals(expected, written));
+
+        try {
+            cfw.write(ByteBuffer.allocate(expected.length - 1));
+            fail("Should throw BufferOverflowException");
+        } catch (java.nio.BufferOverflowException ex) {
+            // expected
+        }
+    }
 }
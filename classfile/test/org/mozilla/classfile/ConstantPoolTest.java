@@ -0,0 +1,99 @@
+// Copyright (c) 2010, Donald Strong.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+
+package org.mozilla.classfile;
+
+import junit.framework.TestCase;
+
+public class ConstantPoolTest extends TestCase
+{
+    ClassFileWriter cfw = new ClassFileWriter("MyClass", "java/lang/Object", null);
+    ConstantPool pool = new ConstantPool(cfw);
+
+    public void testNumericConstantsAreShared()
+    {
+        int first = pool.addConstant(100000);
+        int size = pool.getWriteSize();
+        assertEquals("int", first, pool.addConstant(100000));
+        assertEquals("Pool should not grow", size, pool.getWriteSize());
+        assertTrue("Different int", first != pool.addConstant(100001));
+
+        int longIndex = pool.addConstant(100000L);
+        assertTrue("long is not int", longIndex != first);
+        assertEquals("long", longIndex, pool.addConstant(100000L));
+
+        int floatIndex = pool.addConstant(1.5f);
+        assertEquals("float", floatIndex, pool.addConstant(1.5f));
+        assertTrue("Negative zero float", pool.addConstant(0.0f) != pool.addConstant(-0.0f));
+        assertEquals("NaN float", pool.addConstant(Float.NaN), pool.addConstant(Float.NaN));
+
+        int doubleIndex = pool.addConstant(1.5d);
+        assertEquals("double", doubleIndex, pool.addConstant(1.5d));
+        assertTrue("Negative zero double", pool.addConstant(0.0d) != pool.addConstant(-0.0d));
+        assertEquals("Type", ConstantPool.CONSTANT_Double, pool.getConstantType(doubleIndex));
+    }
+
+    public void testWideConstantsTakeTwoEntries()
+    {
+        int longIndex = pool.addConstant(1L);
+        int next = pool.addConstant(2);
+        assertEquals("long uses two entries", longIndex + 2, next);
+        int doubleIndex = pool.addConstant(1.0d);
+        assertEquals("double uses two entries", doubleIndex + 2, pool.addConstant(3));
+    }
+
+    public void testManyConstants()
+    {
+        int[] indexes = new int[1000];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = pool.addConstant(i * 7919);
+            pool.addUtf8("name" + i);
+        }
+        for (int i = 0; i < indexes.length; i++) {
+            assertEquals("int " + i, indexes[i], pool.addConstant(i * 7919));
+            assertEquals("Type", ConstantPool.CONSTANT_Integer, pool.getConstantType(indexes[i]));
+        }
+    }
+
+    public void testReferencesAndReset()
+    {
+        short classIndex = pool.addClass("java.lang.String");
+        assertEquals("Dotted and slashed names", classIndex, pool.addClass("java/lang/String"));
+        assertEquals("Data", "java/lang/String", pool.getConstantData(classIndex));
+        short fieldIndex = pool.addFieldRef("MyClass", "id", "I");
+        assertEquals("Field", fieldIndex, pool.addFieldRef("MyClass", "id", "I"));
+        assertEquals("Type", ConstantPool.CONSTANT_Fieldref, pool.getConstantType(fieldIndex));
+        int stringIndex = pool.addConstant("Hello");
+        assertEquals("String", stringIndex, pool.addConstant("Hello"));
+
+        pool.reset();
+        assertEquals("Empty pool", 2, pool.getWriteSize());
+        assertEquals("Type after reset", 0, pool.getConstantType(fieldIndex));
+        assertEquals("Data after reset", null, pool.getConstantData(classIndex));
+        assertEquals("First index after reset", 1, pool.addConstant(42));
+    }
+}
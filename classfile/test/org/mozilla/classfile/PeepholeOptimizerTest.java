@@ -0,0 +1,284 @@
+// Copyright (c) 2010, Donald Strong.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+
+package org.mozilla.classfile;
+
+public class PeepholeOptimizerTest extends ClassFileWriterTestCase
+{
+    ClassFileWriter cfw;
+
+    public interface Unary
+    {
+        int unary(int a);
+    }
+
+    public void startClass(String className, int majorVersion) throws Exception
+    {
+        cfw = new ClassFileWriter(className, "java/lang/Object", className + ".java");
+        cfw.setMajorVersion(majorVersion);
+        cfw.setOptimizeCode(true);
+        cfw.addInterface("org/mozilla/classfile/PeepholeOptimizerTest$Unary");
+        cfw.startMethod("<init>", "()V", ClassFileWriter.ACC_PUBLIC);
+        cfw.addLoadThis();
+        cfw.addInvoke(ByteCode.INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        cfw.add(ByteCode.RETURN);
+        cfw.stopMethod((short) 1);
+        cfw.startMethod("unary", "(I)I", ClassFileWriter.ACC_PUBLIC);
+    }
+
+    Unary createUnary(String className, short maxLocals) throws Exception
+    {
+        cfw.stopMethod(maxLocals);
+        Class myClass = defineClass(className, cfw.toByteArray());
+        return (Unary) myClass.newInstance();
+    }
+
+    // return a;
+    public void testGotoNextInstruction() throws Exception
+    {
+        startClass("GotoNext", ClassFileWriter.MAJOR_VERSION_JAVA_8);
+        int next = cfw.acquireLabel();
+        cfw.addILoad(1);
+        cfw.add(ByteCode.GOTO, next);
+        cfw.markLabel(next);
+        cfw.add(ByteCode.IRETURN);
+        Unary exec = createUnary("GotoNext", (short) 2);
+        assertEquals("unary(7)", 7, exec.unary(7));
+        assertEquals("Bytes saved", 3, cfw.getBytesSaved());
+    }
+
+    // if (a != 0) return 1; else return 2;
+    public void testBranchOverGoto() throws Exception
+    {
+        startClass("BranchOverGoto", ClassFileWriter.MAJOR_VERSION_JAVA_1);
+        int one = cfw.acquireLabel();
+        int two = cfw.acquireLabel();
+        cfw.addILoad(1);
+        cfw.add(ByteCode.IFNE, one);
+        cfw.add(ByteCode.GOTO, two);
+        cfw.markLabel(one);
+        cfw.addPush(1);
+        cfw.add(ByteCode.IRETURN);
+        cfw.markLabel(two, (short) 0);
+        cfw.addPush(2);
+        cfw.add(ByteCode.IRETURN);
+        Unary exec = createUnary("BranchOverGoto", (short) 2);
+        assertEquals("unary(3)", 1, exec.unary(3));
+        assertEquals("unary(0)", 2, exec.unary(0));
+        assertEquals("Bytes saved", 3, cfw.getBytesSaved());
+    }
+
+    // The branch to a goto is redirected, then the goto falls through to its target and is removed.
+    public void testJumpToJump() throws Exception
+    {
+        startClass("JumpToJump", ClassFileWriter.MAJOR_VERSION_JAVA_8);
+        int zero = cfw.acquireLabel();
+        int done = cfw.acquireLabel();
+        cfw.addILoad(1);
+        cfw.add(ByteCode.IFEQ, zero);
+        cfw.addPush(1);
+        cfw.add(ByteCode.IRETURN);
+        cfw.markLabel(zero, (short) 0);
+        cfw.add(ByteCode.GOTO, done);
+        cfw.markLabel(done, (short) 0);
+        cfw.addPush(2);
+        cfw.add(ByteCode.IRETURN);
+        Unary exec = createUnary("JumpToJump", (short) 2);
+        assertEquals("unary(3)", 1, exec.unary(3));
+        assertEquals("unary(0)", 2, exec.unary(0));
+        assertEquals("Bytes saved", 3, cfw.getBytesSaved());
+    }
+
+    // if (a > 0) return 1; if (a < 1) return 2;
+    public void testCompareWithZero() throws Exception
+    {
+        startClass("CompareWithZero", ClassFileWriter.MAJOR_VERSION_JAVA_8);
+        int positive = cfw.acquireLabel();
+        int notPositive = cfw.acquireLabel();
+        cfw.addILoad(1);
+        cfw.addPush(0);
+        cfw.add(ByteCode.IF_ICMPGT, positive);
+        cfw.addILoad(1);
+        cfw.addPush(1);
+        cfw.add(ByteCode.IF_ICMPLT, notPositive);
+        cfw.addPush(0);
+        cfw.add(ByteCode.IRETURN);
+        cfw.markLabel(positive, (short) 0);
+        cfw.addPush(1);
+        cfw.add(ByteCode.IRETURN);
+        cfw.markLabel(notPositive, (short) 0);
+        cfw.addPush(2);
+        cfw.add(ByteCode.IRETURN);
+        Unary exec = createUnary("CompareWithZero", (short) 2);
+        assertEquals("unary(5)", 1, exec.unary(5));
+        assertEquals("unary(0)", 2, exec.unary(0));
+        assertEquals("unary(-5)", 2, exec.unary(-5));
+        assertEquals("Bytes saved", 2, cfw.getBytesSaved());
+    }
+
+    // return !!a;
+    public void testDoubleNegation() throws Exception
+    {
+        startClass("DoubleNegation", ClassFileWriter.MAJOR_VERSION_JAVA_1);
+        cfw.addILoad(1);
+        cfw.addPush(1);
+        cfw.add(ByteCode.IXOR);
+        cfw.addPush(1);
+        cfw.add(ByteCode.IXOR);
+        cfw.add(ByteCode.IRETURN);
+        Unary exec = createUnary("DoubleNegation", (short) 2);
+        assertEquals("unary(6)", 6, exec.unary(6));
+        assertEquals("Bytes saved", 4, cfw.getBytesSaved());
+    }
+
+    // b = a; a; 0L; return b;
+    public void testStoreAndPop() throws Exception
+    {
+        startClass("StoreAndPop", ClassFileWriter.MAJOR_VERSION_JAVA_8);
+        cfw.addILoad(1);
+        cfw.add(ByteCode.DUP);
+        cfw.addIStore(2);
+        cfw.add(ByteCode.POP);
+        cfw.addILoad(1);
+        cfw.add(ByteCode.POP);
+        cfw.add(ByteCode.LCONST_0);
+        cfw.add(ByteCode.POP2);
+        cfw.addILoad(2);
+        cfw.add(ByteCode.IRETURN);
+        Unary exec = createUnary("StoreAndPop", (short) 3);
+        assertEquals("unary(4)", 4, exec.unary(4));
+        assertEquals("Bytes saved", 6, cfw.getBytesSaved());
+    }
+
+    // b = a + 1; return b;
+    public void testStoreThenLoad() throws Exception
+    {
+        startClass("StoreThenLoad", ClassFileWriter.MAJOR_VERSION_JAVA_1);
+        cfw.addILoad(1);
+        cfw.addPush(1);
+        cfw.add(ByteCode.IADD);
+        cfw.addIStore(5);
+        cfw.addILoad(5);
+        cfw.add(ByteCode.IRETURN);
+        Unary exec = createUnary("StoreThenLoad", (short) 6);
+        assertEquals("unary(4)", 5, exec.unary(4));
+        assertEquals("Bytes saved", 1, cfw.getBytesSaved());
+    }
+
+    // The compare is the target of a jump with two values on the stack, so the constant is kept.
+    public void testJumpTargetNotCombined() throws Exception
+    {
+        startClass("JumpTarget", ClassFileWriter.MAJOR_VERSION_JAVA_8);
+        int positive = cfw.acquireLabel();
+        int compare = cfw.acquireLabel();
+        int equal = cfw.acquireLabel();
+        cfw.addILoad(1);
+        cfw.add(ByteCode.IFGE, positive);
+        cfw.addILoad(1);
+        cfw.addPush(5);
+        cfw.add(ByteCode.GOTO, compare);
+        cfw.markLabel(positive, (short) 0);
+        cfw.addILoad(1);
+        cfw.addPush(0);
+        cfw.markLabel(compare);
+        cfw.add(ByteCode.IF_ICMPEQ, equal);
+        cfw.addPush(1);
+        cfw.add(ByteCode.IRETURN);
+        cfw.markLabel(equal, (short) 0);
+        cfw.addPush(2);
+        cfw.add(ByteCode.IRETURN);
+        Unary exec = createUnary("JumpTarget", (short) 2);
+        assertEquals("unary(0)", 2, exec.unary(0));
+        assertEquals("unary(3)", 1, exec.unary(3));
+        assertEquals("unary(-1)", 1, exec.unary(-1));
+        assertEquals("Bytes saved", 0, cfw.getBytesSaved());
+    }
+
+    // An exception handler must cover at least one instruction, so the pass is abandoned.
+    public void testExceptionRangeKept() throws Exception
+    {
+        startClass("ExceptionRange", ClassFileWriter.MAJOR_VERSION_JAVA_8);
+        int start = cfw.acquireLabel();
+        int end = cfw.acquireLabel();
+        int handler = cfw.acquireLabel();
+        int done = cfw.acquireLabel();
+        cfw.markLabel(start);
+        cfw.addILoad(1);
+        cfw.add(ByteCode.POP);
+        cfw.markLabel(end);
+        cfw.add(ByteCode.GOTO, done);
+        cfw.markLabel(handler, (short) 1);
+        cfw.add(ByteCode.POP);
+        cfw.markLabel(done, (short) 0);
+        cfw.addILoad(1);
+        cfw.add(ByteCode.IRETURN);
+        cfw.addExceptionHandler(start, end, handler, "java/lang/RuntimeException");
+        Unary exec = createUnary("ExceptionRange", (short) 2);
+        assertEquals("unary(8)", 8, exec.unary(8));
+        assertEquals("Bytes saved", 0, cfw.getBytesSaved());
+    }
+
+    // Removing code before a switch changes its padding.
+    public void testSwitchMoved() throws Exception
+    {
+        startClass("SwitchMoved", ClassFileWriter.MAJOR_VERSION_JAVA_8);
+        int next = cfw.acquireLabel();
+        int end = cfw.acquireLabel();
+        cfw.addILoad(1);
+        cfw.add(ByteCode.GOTO, next);
+        cfw.markLabel(next);
+        int startSwitch = cfw.addTableSwitch(0, 1);
+        cfw.markTableSwitchCase(startSwitch, 0);
+        cfw.addPush(10);
+        cfw.add(ByteCode.GOTO, end);
+        cfw.markTableSwitchCase(startSwitch, 1);
+        cfw.addPush(11);
+        cfw.add(ByteCode.GOTO, end);
+        cfw.markTableSwitchDefault(startSwitch);
+        cfw.addPush(-1);
+        cfw.markLabel(end);
+        cfw.add(ByteCode.IRETURN);
+        Unary exec = createUnary("SwitchMoved", (short) 2);
+        assertEquals("unary(0)", 10, exec.unary(0));
+        assertEquals("unary(1)", 11, exec.unary(1));
+        assertEquals("unary(2)", -1, exec.unary(2));
+        assertTrue("Bytes saved", cfw.getBytesSaved() > 0);
+    }
+
+    public void testNotOptimizedByDefault() throws Exception
+    {
+        cfw = new ClassFileWriter("Plain", "java/lang/Object", "Plain.java");
+        assertFalse("Optimize by default", cfw.isOptimizeCode());
+        cfw.startMethod("run", "()V", (short) (ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC));
+        int next = cfw.acquireLabel();
+        cfw.add(ByteCode.GOTO, next);
+        cfw.markLabel(next);
+        cfw.add(ByteCode.RETURN);
+        cfw.stopMethod((short) 0);
+        assertEquals("Bytes saved", 0, cfw.getBytesSaved());
+    }
+}
@@ -0,0 +1,342 @@
+// Copyright (c) 2010, Donald Strong.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+
+package org.mozilla.classfile;
+
+public class StackMapTableTest extends ClassFileWriterTestCase
+{
+    ClassFileWriter cfw;
+
+    public interface Unary
+    {
+        int unary(int a);
+    }
+
+    public interface UnaryObject
+    {
+        Object unary(int a);
+    }
+
+    public void startClass(String className, String iface) throws Exception
+    {
+        // Generate Class
+        cfw = new ClassFileWriter(className, "java/lang/Object", className + ".java");
+        cfw.setMajorVersion(ClassFileWriter.MAJOR_VERSION_JAVA_8);
+        cfw.addInterface(iface);
+    }
+
+    // Generate default constructor
+    public void defaultConstructor() throws Exception
+    {
+        cfw.startMethod("<init>", "()V", ClassFileWriter.ACC_PUBLIC);
+        cfw.addLoadThis();
+        cfw.addInvoke(ByteCode.INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        cfw.add(ByteCode.RETURN);
+        cfw.stopMethod((short) 1);
+    }
+
+    public static final String ILLEGAL_ARGUMENT_EXCEPTION = "java/lang/IllegalArgumentException";
+
+    public void testClassFileVersion() throws Exception
+    {
+        cfw = new ClassFileWriter("MyClass", "java/lang/Object", null);
+        byte [] classBytes = cfw.toByteArray();
+        assertEquals("Default minor version", 3, classBytes[5]);
+        assertEquals("Default major version", 45, classBytes[7]);
+
+        cfw.setMajorVersion(ClassFileWriter.MAJOR_VERSION_JAVA_17);
+        classBytes = cfw.toByteArray();
+        assertEquals("Minor version", 0, classBytes[5]);
+        assertEquals("Major version", 61, classBytes[7]);
+
+        try {
+            cfw.setMajorVersion(44);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {}
+    }
+
+    public void testIfElseBranch() throws Exception
+    {
+        startClass("MyClass", "org/mozilla/classfile/StackMapTableTest$Unary");
+        defaultConstructor();
+        cfw.startMethod("unary", "(I)I", (short) (ClassFileWriter.ACC_PUBLIC));
+
+        int endIf = cfw.acquireLabel();
+        int endElse = cfw.acquireLabel();
+
+        // IF $1 == 0 GOTO endIf
+        cfw.addILoad(1);
+        cfw.add(ByteCode.IFEQ, endIf);
+
+        // SET $2 = 2
+        cfw.addPush(2);
+        cfw.addIStore(2);
+
+        // ELSE
+        cfw.add(ByteCode.GOTO, endElse);
+        cfw.markLabel(endIf);
+
+        // SET $2 = 3
+        cfw.addPush(3);
+        cfw.addIStore(2);
+
+        // ENDIF
+        cfw.markLabel(endElse);
+
+        // RETURN $2
+        cfw.addILoad(2);
+        cfw.add(ByteCode.IRETURN);
+
+        cfw.stopMethod((short) 3);
+
+        Class myClass = defineClass("MyClass", cfw.toByteArray());
+        Unary exec = (Unary)myClass.newInstance();
+
+        assertEquals("Wrong value for exec.unary()", 3, exec.unary(0));
+        assertEquals("Wrong value for exec.unary()", 2, exec.unary(1));
+    }
+
+    public void testWhileLongLoop() throws Exception
+    {
+        startClass("MyClass", "org/mozilla/classfile/StackMapTableTest$Unary");
+        defaultConstructor();
+        cfw.startMethod("unary", "(I)I", (short) (ClassFileWriter.ACC_PUBLIC));
+
+        // long $2 = 0;
+        cfw.addPush(0L);
+        cfw.addLStore(2);
+
+        int beginWhile = cfw.acquireLabel();
+        int condWhile = cfw.acquireLabel();
+
+        cfw.add(ByteCode.GOTO, condWhile);
+        cfw.markLabel(beginWhile);
+
+        // $2 = $2 + $1
+        cfw.addLLoad(2);
+        cfw.addILoad(1);
+        cfw.add(ByteCode.I2L);
+        cfw.add(ByteCode.LADD);
+        cfw.addLStore(2);
+        cfw.add(ByteCode.IINC, 1, -1);
+
+        // WHILE ($1 > 0)
+        cfw.markLabel(condWhile);
+        cfw.addILoad(1);
+        cfw.add(ByteCode.IFGT, beginWhile);
+
+        // RETURN (int)$2
+        cfw.addLLoad(2);
+        cfw.add(ByteCode.L2I);
+        cfw.add(ByteCode.IRETURN);
+
+        cfw.stopMethod((short) 4);
+
+        Class myClass = defineClass("MyClass", cfw.toByteArray());
+        Unary exec = (Unary)myClass.newInstance();
+
+        assertEquals("Wrong value for exec.unary()", 15, exec.unary(5));
+        assertEquals("Wrong value for exec.unary()", 0, exec.unary(0));
+    }
+
+    public void testTableSwitch() throws Exception
+    {
+        startClass("MyClass", "org/mozilla/classfile/StackMapTableTest$Unary");
+        defaultConstructor();
+        cfw.startMethod("unary", "(I)I", (short) (ClassFileWriter.ACC_PUBLIC));
+
+        cfw.addILoad(1);
+        int startSwitch = cfw.addTableSwitch(0, 2);
+        int endlabel = cfw.acquireLabel();
+
+        cfw.markTableSwitchCase(startSwitch, 0);
+        cfw.add(ByteCode.ICONST_1);
+        cfw.addIStore(2);
+        cfw.add(ByteCode.GOTO, endlabel);
+
+        cfw.markTableSwitchCase(startSwitch, 1);
+        cfw.add(ByteCode.ICONST_2);
+        cfw.addIStore(2);
+        cfw.add(ByteCode.GOTO, endlabel);
+
+        cfw.markTableSwitchCase(startSwitch, 2);
+        cfw.add(ByteCode.ICONST_3);
+        cfw.addIStore(2);
+        cfw.add(ByteCode.GOTO, endlabel);
+
+        cfw.markTableSwitchDefault(startSwitch);
+        cfw.add(ByteCode.ICONST_0);
+        cfw.addIStore(2);
+
+        cfw.markLabel(endlabel);
+        cfw.addILoad(2);
+        cfw.add(ByteCode.IRETURN);
+
+        cfw.stopMethod((short) 3);
+
+        Class myClass = defineClass("MyClass", cfw.toByteArray());
+        Unary exec = (Unary)myClass.newInstance();
+
+        assertEquals("Wrong value for exec.unary()", 1, exec.unary(0));
+        assertEquals("Wrong value for exec.unary()", 3, exec.unary(2));
+        assertEquals("Wrong value for exec.unary()", 0, exec.unary(7));
+    }
+
+    public void testMergeReferenceTypes() throws Exception
+    {
+        startClass("MyClass", "org/mozilla/classfile/StackMapTableTest$UnaryObject");
+        defaultConstructor();
+        cfw.startMethod("unary", "(I)Ljava/lang/Object;", (short) (ClassFileWriter.ACC_PUBLIC));
+
+        int elseLabel = cfw.acquireLabel();
+        int endIf = cfw.acquireLabel();
+
+        // $2 = ($1 == 0) ? new Integer($1) : new Long($1);
+        cfw.addILoad(1);
+        cfw.add(ByteCode.IFNE, elseLabel);
+        cfw.add(ByteCode.NEW, "java/lang/Integer");
+        cfw.add(ByteCode.DUP);
+        cfw.addILoad(1);
+        cfw.addInvoke(ByteCode.INVOKESPECIAL, "java/lang/Integer", "<init>", "(I)V");
+        cfw.add(ByteCode.GOTO, endIf);
+        cfw.markLabel(elseLabel);
+        cfw.add(ByteCode.NEW, "java/lang/Long");
+        cfw.add(ByteCode.DUP);
+        cfw.addILoad(1);
+        cfw.add(ByteCode.I2L);
+        cfw.addInvoke(ByteCode.INVOKESPECIAL, "java/lang/Long", "<init>", "(J)V");
+        cfw.markLabel(endIf);
+        cfw.addAStore(2);
+
+        // Requires the common super class java/lang/Number
+        cfw.addALoad(2);
+        cfw.addInvoke(ByteCode.INVOKEVIRTUAL, "java/lang/Number", "intValue", "()I");
+        cfw.add(ByteCode.POP);
+        cfw.addALoad(2);
+        cfw.add(ByteCode.ARETURN);
+
+        cfw.stopMethod((short) 3);
+
+        Class myClass = defineClass("MyClass", cfw.toByteArray());
+        UnaryObject exec = (UnaryObject)myClass.newInstance();
+
+        assertEquals("Wrong value for exec.unary()", Integer.valueOf(0), exec.unary(0));
+        assertEquals("Wrong value for exec.unary()", Long.valueOf(3), exec.unary(3));
+    }
+
+    public void testUninitializedAcrossBranch() throws Exception
+    {
+        startClass("MyClass", "org/mozilla/classfile/StackMapTableTest$UnaryObject");
+        defaultConstructor();
+        cfw.startMethod("unary", "(I)Ljava/lang/Object;", (short) (ClassFileWriter.ACC_PUBLIC));
+
+        int elseLabel = cfw.acquireLabel();
+        int endIf = cfw.acquireLabel();
+
+        // return new StringBuilder(($1 == 0) ? "zero" : "other");
+        cfw.add(ByteCode.NEW, "java/lang/StringBuilder");
+        cfw.add(ByteCode.DUP);
+        cfw.addILoad(1);
+        cfw.add(ByteCode.IFNE, elseLabel);
+        cfw.addPush("zero");
+        cfw.add(ByteCode.GOTO, endIf);
+        cfw.markLabel(elseLabel, (short)2);
+        cfw.addPush("other");
+        cfw.markLabel(endIf);
+        cfw.addInvoke(ByteCode.INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "(Ljava/lang/String;)V");
+        cfw.add(ByteCode.ARETURN);
+
+        cfw.stopMethod((short) 2);
+
+        Class myClass = defineClass("MyClass", cfw.toByteArray());
+        UnaryObject exec = (UnaryObject)myClass.newInstance();
+
+        assertEquals("Wrong value for exec.unary()", "zero", exec.unary(0).toString());
+        assertEquals("Wrong value for exec.unary()", "other", exec.unary(1).toString());
+    }
+
+    public void testTryCatchWithDeadCode() throws Exception
+    {
+        startClass("MyClass", "org/mozilla/classfile/StackMapTableTest$Unary");
+        defaultConstructor();
+        cfw.startMethod("unary", "(I)I", (short) (ClassFileWriter.ACC_PUBLIC));
+
+        int startTryBlock = cfw.acquireLabel();
+        int endTryBlock = cfw.acquireLabel();
+        int catchBlock = cfw.acquireLabel();
+
+        // try {
+        cfw.markLabel(startTryBlock);
+        cfw.addILoad(1);
+        cfw.add(ByteCode.IFNE, endTryBlock);
+        //     throw new IllegalArgumentException();
+        cfw.add(ByteCode.NEW, ILLEGAL_ARGUMENT_EXCEPTION);
+        cfw.add(ByteCode.DUP);
+        cfw.addInvoke(ByteCode.INVOKESPECIAL, ILLEGAL_ARGUMENT_EXCEPTION, "<init>", "()V");
+        cfw.add(ByteCode.ATHROW);
+        //     return 2; (unreachable)
+        cfw.addPush(2);
+        cfw.add(ByteCode.IRETURN);
+        cfw.markLabel(endTryBlock);
+        // } catch (IllegalArgumentException ex) {
+        cfw.addExceptionHandler(startTryBlock, endTryBlock, catchBlock, ILLEGAL_ARGUMENT_EXCEPTION);
+        cfw.addPush(1);
+        cfw.add(ByteCode.IRETURN);
+        cfw.markHandler(catchBlock);
+        cfw.addAStore(2);
+        cfw.addPush(5);
+        cfw.add(ByteCode.IRETURN);
+        // }
+        // Unreachable code at the end of the method.
+        cfw.add(ByteCode.NOP);
+
+        cfw.stopMethod((short) 3);
+
+        Class myClass = defineClass("MyClass", cfw.toByteArray());
+        Unary exec = (Unary)myClass.newInstance();
+
+        assertEquals("Wrong value for exec.unary()", 5, exec.unary(0));
+        assertEquals("Wrong value for exec.unary()", 1, exec.unary(1));
+    }
+
+    public void testSubroutineNotAllowed() throws Exception
+    {
+        startClass("MyClass", "org/mozilla/classfile/StackMapTableTest$Unary");
+        cfw.startMethod("unary", "(I)I", (short) (ClassFileWriter.ACC_PUBLIC));
+        int subroutine = cfw.acquireLabel();
+        cfw.add(ByteCode.JSR, subroutine);
+        cfw.addILoad(1);
+        cfw.add(ByteCode.IRETURN);
+        cfw.markLabel(subroutine);
+        cfw.addAStore(2);
+        cfw.add(ByteCode.RET, 2);
+        try {
+            cfw.stopMethod((short) 3);
+            fail("Expected ClassFileFormatException");
+        } catch (ClassFileWriter.ClassFileFormatException ex) {}
+    }
+}
@@ -0,0 +1,173 @@
+// Copyright (c) 2010, Donald Strong.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+
+package org.mozilla.classfile;
+
+public class WideBranchTest extends ClassFileWriterTestCase
+{
+    ClassFileWriter cfw;
+
+    public interface Unary
+    {
+        int unary(int a);
+    }
+
+    public void startClass(String className, int majorVersion) throws Exception
+    {
+        cfw = new ClassFileWriter(className, "java/lang/Object", className + ".java");
+        cfw.setMajorVersion(majorVersion);
+        cfw.addInterface("org/mozilla/classfile/WideBranchTest$Unary");
+        cfw.startMethod("<init>", "()V", ClassFileWriter.ACC_PUBLIC);
+        cfw.addLoadThis();
+        cfw.addInvoke(ByteCode.INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        cfw.add(ByteCode.RETURN);
+        cfw.stopMethod((short) 1);
+    }
+
+    void padding(int size)
+    {
+        for (int i = 0; i < size; i++) {
+            cfw.add(ByteCode.NOP);
+        }
+    }
+
+    Unary createUnary(String className) throws Exception
+    {
+        Class myClass = defineClass(className, cfw.toByteArray());
+        return (Unary) myClass.newInstance();
+    }
+
+    // if (a == 0) return 2; else return 1;
+    void forwardBranch(String className, int majorVersion) throws Exception
+    {
+        startClass(className, majorVersion);
+        cfw.startMethod("unary", "(I)I", ClassFileWriter.ACC_PUBLIC);
+        int zero = cfw.acquireLabel();
+        cfw.addILoad(1);
+        cfw.add(ByteCode.IFEQ, zero);
+        cfw.addPush(1);
+        padding(40000);
+        cfw.add(ByteCode.IRETURN);
+        cfw.markLabel(zero, (short) 0);
+        cfw.addPush(2);
+        cfw.add(ByteCode.IRETURN);
+        cfw.stopMethod((short) 2);
+    }
+
+    public void testForwardConditionalBranch() throws Exception
+    {
+        forwardBranch("ForwardBranch", ClassFileWriter.MAJOR_VERSION_JAVA_1);
+        Unary exec = createUnary("ForwardBranch");
+        assertEquals("unary(0)", 2, exec.unary(0));
+        assertEquals("unary(5)", 1, exec.unary(5));
+    }
+
+    public void testForwardBranchWithFrames() throws Exception
+    {
+        forwardBranch("ForwardFrames", ClassFileWriter.MAJOR_VERSION_JAVA_8);
+        Unary exec = createUnary("ForwardFrames");
+        assertEquals("unary(0)", 2, exec.unary(0));
+        assertEquals("unary(5)", 1, exec.unary(5));
+    }
+
+    // int n = 0; while (a > 0) {a--; n += 3;} return n;
+    public void testBackwardGoto() throws Exception
+    {
+        startClass("BackwardGoto", ClassFileWriter.MAJOR_VERSION_JAVA_8);
+        cfw.startMethod("unary", "(I)I", ClassFileWriter.ACC_PUBLIC);
+        cfw.addPush(0);
+        cfw.addIStore(2);
+        int loop = cfw.acquireLabel();
+        int done = cfw.acquireLabel();
+        cfw.markLabel(loop);
+        cfw.addILoad(1);
+        cfw.add(ByteCode.IFLE, done);
+        cfw.add(ByteCode.IINC, 1, -1);
+        padding(35000);
+        cfw.add(ByteCode.IINC, 2, 3);
+        cfw.add(ByteCode.GOTO, loop);
+        cfw.markLabel(done);
+        cfw.addILoad(2);
+        cfw.add(ByteCode.IRETURN);
+        cfw.stopMethod((short) 3);
+
+        Unary exec = createUnary("BackwardGoto");
+        assertEquals("unary(0)", 0, exec.unary(0));
+        assertEquals("unary(4)", 12, exec.unary(4));
+    }
+
+    // Widening the first branch moves the switch, so its padding must change.
+    public void testSwitchAfterWideBranch() throws Exception
+    {
+        startClass("SwitchAfterWide", ClassFileWriter.MAJOR_VERSION_JAVA_8);
+        cfw.startMethod("unary", "(I)I", ClassFileWriter.ACC_PUBLIC);
+        int negative = cfw.acquireLabel();
+        int end = cfw.acquireLabel();
+        cfw.addILoad(1);
+        cfw.add(ByteCode.IFLT, negative);
+        cfw.addILoad(1);
+        int startSwitch = cfw.addTableSwitch(0, 2);
+        cfw.markTableSwitchCase(startSwitch, 0);
+        cfw.addPush(10);
+        cfw.add(ByteCode.GOTO, end);
+        cfw.markTableSwitchCase(startSwitch, 1);
+        cfw.addPush(11);
+        cfw.add(ByteCode.GOTO, end);
+        cfw.markTableSwitchCase(startSwitch, 2);
+        cfw.addPush(12);
+        cfw.add(ByteCode.GOTO, end);
+        cfw.markTableSwitchDefault(startSwitch);
+        cfw.addPush(13);
+        cfw.add(ByteCode.GOTO, end);
+        cfw.markLabel(negative, (short) 0);
+        padding(33000);
+        cfw.addPush(-1);
+        cfw.markLabel(end, (short) 1);
+        cfw.add(ByteCode.IRETURN);
+        cfw.stopMethod((short) 2);
+
+        Unary exec = createUnary("SwitchAfterWide");
+        assertEquals("unary(0)", 10, exec.unary(0));
+        assertEquals("unary(1)", 11, exec.unary(1));
+        assertEquals("unary(2)", 12, exec.unary(2));
+        assertEquals("unary(7)", 13, exec.unary(7));
+        assertEquals("unary(-3)", -1, exec.unary(-3));
+    }
+
+    public void testInvertBranch() throws Exception
+    {
+        assertEquals(ByteCode.IFNE, ClassFileWriter.invertBranch(ByteCode.IFEQ));
+        assertEquals(ByteCode.IF_ICMPLE, ClassFileWriter.invertBranch(ByteCode.IF_ICMPGT));
+        assertEquals(ByteCode.IFNULL, ClassFileWriter.invertBranch(ByteCode.IFNONNULL));
+        try {
+            ClassFileWriter.invertBranch(ByteCode.GOTO);
+            fail("Should throw IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            assertEquals("Not a conditional branch: goto", ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,488 @@
+// Copyright (c) 2010, Donald Strong.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+
+package au.com.illyrian.classmaker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mozilla.classfile.ClassFileWriter;
+
+import au.com.illyrian.classmaker.converters.AssignmentConversion;
+import au.com.illyrian.classmaker.converters.CastingConversion;
+import au.com.illyrian.classmaker.converters.MethodInvocationConversion;
+import au.com.illyrian.classmaker.converters.NumericPromotion;
+import au.com.illyrian.classmaker.converters.StringConversion;
+
+/**
+ * A persistent cache of generated classes on disk.
+ * <br/>
+ * Each entry is keyed by a hash of everything that determines the generated bytes;
+ * the name of the class, the text of the source, the version of the compiler and
+ * the signatures of the types that the source refers to.
+ * A compiler creates a <code>Key</code>, asks the cache for the class bytes and only
+ * parses and generates the class if they are not found.
+ * <pre>
+ *    ClassCache.Key key = cache.createKey("au.com.illyrian.MyParser");
+ *    key.add(sourceText);
+ *    key.addType(MyParserBase.class);
+ *    byte[] classBytes = cache.load(key);
+ * </pre>
+ * A changed source simply hashes to a new entry, so old entries are removed when a class is stored.
+ * The name of each class file starts with the generator version; files written by another
+ * version can never be loaded, so they are deleted. The least recently used entries are
+ * then deleted until the cache holds no more than <code>getMaxEntries()</code> classes.
+ *
+ * @author dstrong
+ */
+public class ClassCache
+{
+    /** Names the code generator. The generator version also hashes the generator classes. */
+    public static final String COMPILER_VERSION = "ClassMaker-1.0";
+
+    /** The classes whose code determines the generated bytes. */
+    private static final Class<?>[] GENERATOR_CLASSES = {
+        ClassMaker.class, ClassMakerCode.class, ClassMakerFactory.class, ClassGenerator.class,
+        ConstantFolding.class, StatementManager.class, CallStackMaker.class,
+        AssignmentConversion.class, CastingConversion.class, MethodInvocationConversion.class,
+        NumericPromotion.class, StringConversion.class, ClassFileWriter.class
+    };
+
+    /** The package private classes of the class file writer that determine the generated bytes. */
+    private static final String[] CLASSFILE_CLASSES = {
+        "ConstantPool", "FieldOrMethodRef", "StackMapTable", "PeepholeOptimizer"
+    };
+
+    private static String generatorVersion = null;
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    /** The number of characters of the generator version at the start of each file name. */
+    private static final int VERSION_PREFIX_LENGTH = 16;
+
+    /** The default maximum number of classes held in the cache. */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private final File cacheDir;
+
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    /** Lookups answered from the cache. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** Lookups that were not found in the cache. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache of generated classes in the given directory.
+     * @param cacheDir the directory that holds the cached class files
+     */
+    public ClassCache(File cacheDir)
+    {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * The directory that holds the cached class files.
+     * @return the cache directory
+     */
+    public File getCacheDir()
+    {
+        return cacheDir;
+    }
+
+    /**
+     * Sets the maximum number of classes held in the cache.
+     * @param maxEntries the number of classes kept when a class is stored
+     */
+    public void setMaxEntries(int maxEntries)
+    {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * The maximum number of classes held in the cache.
+     * @return the number of classes kept when a class is stored
+     */
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    /**
+     * Creates a key for a generated class.
+     * The key includes the class name and the generator version; callers add the
+     * source text and referenced types.
+     * @param className the fully qualified name of the generated class
+     * @return a new key
+     */
+    public Key createKey(String className)
+    {
+        Key key = new Key(className);
+        key.add(getGeneratorVersion());
+        return key;
+    }
+
+    /**
+     * Identifies the code generator.
+     * <br/>
+     * The version is a hash of <code>COMPILER_VERSION</code> and the class files of the
+     * generator, so cached classes are not reused after the generator is rebuilt.
+     * @return the generator version as a string of hexadecimal digits
+     */
+    public static synchronized String getGeneratorVersion()
+    {
+        if (generatorVersion == null) {
+            Key version = new Key(COMPILER_VERSION);
+            for (Class<?> javaClass : GENERATOR_CLASSES) {
+                String name = javaClass.getName();
+                version.add(name);
+                version.addBytes(getClassBytes(javaClass, name.substring(name.lastIndexOf('.') + 1)));
+            }
+            for (String simpleName : CLASSFILE_CLASSES) {
+                version.add(simpleName);
+                version.addBytes(getClassBytes(ClassFileWriter.class, simpleName));
+            }
+            generatorVersion = version.toString();
+        }
+        return generatorVersion;
+    }
+
+    /**
+     * Reads the class file of a class in the same package as a loaded class.
+     * @param javaClass a loaded class in the package
+     * @param simpleName the simple name of the class to be read
+     * @return the class file bytes or null if they are not available from the class loader
+     */
+    static byte[] getClassBytes(Class<?> javaClass, String simpleName)
+    {
+        InputStream input = javaClass.getResourceAsStream(simpleName + CLASS_SUFFIX);
+        if (input == null) {
+            return null;
+        }
+        try {
+            try {
+                return readBytes(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Loads the bytes of a cached class.
+     * @param key the key describing the generated class
+     * @return the class bytes or null if the class is not in the cache
+     */
+    public byte[] load(Key key)
+    {
+        File classFile = getClassFile(key);
+        if (classFile.exists()) {
+            try {
+                InputStream input = new FileInputStream(classFile);
+                try {
+                    byte[] classBytes = readBytes(input);
+                    hits.incrementAndGet();
+                    // Recently used entries are the last to be evicted.
+                    classFile.setLastModified(System.currentTimeMillis());
+                    return classBytes;
+                } finally {
+                    input.close();
+                }
+            } catch (IOException ex) {
+                // Treat an unreadable entry as missing; it will be written again.
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Saves the bytes of a generated class in the cache.
+     * <br/>
+     * The bytes are written to a temporary file which is then renamed, so a concurrent
+     * reader never sees a partial class file. A failure to write the cache is not an
+     * error; the class will be generated again next time.
+     * Stale and least recently used entries are then evicted.
+     * @param key the key describing the generated class
+     * @param classBytes the generated class bytes
+     * @return true if the class was saved
+     */
+    public boolean store(Key key, byte[] classBytes)
+    {
+        File classFile = getClassFile(key);
+        File tempFile = null;
+        try {
+            if (!cacheDir.exists() && !cacheDir.mkdirs() && !cacheDir.exists()) {
+                return false;
+            }
+            tempFile = File.createTempFile(key.toString(), ".tmp", cacheDir);
+            OutputStream output = new FileOutputStream(tempFile);
+            try {
+                output.write(classBytes);
+            } finally {
+                output.close();
+            }
+            if (tempFile.renameTo(classFile) || classFile.exists()) {
+                evict();
+                return true;
+            }
+        } catch (IOException ex) {
+            // Fall through and discard the temporary file.
+        } finally {
+            if (tempFile != null && tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The file that holds the cached class for the given key.
+     * @param key the key describing the generated class
+     * @return the class file within the cache directory
+     */
+    public File getClassFile(Key key)
+    {
+        return new File(cacheDir, getVersionPrefix() + key.toString() + CLASS_SUFFIX);
+    }
+
+    private static String getVersionPrefix()
+    {
+        return getGeneratorVersion().substring(0, VERSION_PREFIX_LENGTH) + "-";
+    }
+
+    /**
+     * Deletes the classes written by other versions of the generator and then the least
+     * recently used classes, until no more than <code>getMaxEntries()</code> remain.
+     * Temporary files being written by other threads are left alone.
+     */
+    void evict()
+    {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        String prefix = getVersionPrefix();
+        List<File> entries = new ArrayList<File>();
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(CLASS_SUFFIX)) {
+                continue;
+            } else if (name.startsWith(prefix)) {
+                entries.add(file);
+            } else {
+                file.delete();
+            }
+        }
+        if (entries.size() > maxEntries) {
+            Collections.sort(entries, new Comparator<File>() {
+                public int compare(File file1, File file2)
+                {
+                    return Long.compare(file1.lastModified(), file2.lastModified());
+                }
+            });
+            for (File file : entries.subList(0, entries.size() - maxEntries)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * The number of lookups that found a cached class.
+     * @return the number of cache hits
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * The number of lookups that did not find a cached class.
+     * @return the number of cache misses
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    static byte[] readBytes(InputStream input) throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * A content hash of everything that determines the bytes of a generated class.
+     */
+    public static class Key
+    {
+        private final String className;
+        private final MessageDigest digest;
+        private String hash = null;
+
+        Key(String className)
+        {
+            this.className = className;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException("SHA-256 is not available", ex);
+            }
+            add(className);
+        }
+
+        /**
+         * The fully qualified name of the generated class.
+         * @return the class name
+         */
+        public String getClassName()
+        {
+            return className;
+        }
+
+        /**
+         * Adds a string, such as the source text or a compiler option, to the key.
+         * @param value the string to be hashed; may be null
+         * @return this key
+         */
+        public Key add(String value)
+        {
+            if (hash != null) {
+                throw new IllegalStateException("Cannot change a key after it has been used");
+            }
+            try {
+                if (value != null) {
+                    digest.update(value.getBytes("UTF-8"));
+                }
+                digest.update((byte)0);
+            } catch (UnsupportedEncodingException ex) {
+                throw new IllegalStateException("UTF-8 is not available", ex);
+            }
+            return this;
+        }
+
+        /**
+         * Adds raw bytes, such as the contents of a class file, to the key.
+         * @param bytes the bytes to be hashed; may be null
+         * @return this key
+         */
+        public Key addBytes(byte[] bytes)
+        {
+            if (hash != null) {
+                throw new IllegalStateException("Cannot change a key after it has been used");
+            }
+            if (bytes != null) {
+                digest.update(bytes);
+            }
+            digest.update((byte)0);
+            return this;
+        }
+
+        /**
+         * Adds the signature of a referenced type to the key.
+         * <br/>
+         * The signature includes the declared constructors, methods and fields of the type
+         * and of each of its superclasses, so recompiling an inherited type changes the key.
+         * @param javaClass the referenced type
+         * @return this key
+         */
+        public Key addType(Class<?> javaClass)
+        {
+            for (Class<?> type = javaClass; type != null && type != Object.class; type = type.getSuperclass()) {
+                addDeclaredMembers(type);
+            }
+            return this;
+        }
+
+        private void addDeclaredMembers(Class<?> javaClass)
+        {
+            add(javaClass.getName());
+            Constructor<?>[] constructors = javaClass.getDeclaredConstructors();
+            Method[] methods = javaClass.getDeclaredMethods();
+            Field[] fields = javaClass.getDeclaredFields();
+            String[] members = new String[constructors.length + methods.length + fields.length];
+            int index = 0;
+            for (Constructor<?> constructor : constructors) {
+                members[index++] = constructor.toGenericString();
+            }
+            for (Method method : methods) {
+                members[index++] = method.toGenericString();
+            }
+            for (Field field : fields) {
+                members[index++] = field.toGenericString();
+            }
+            // Reflection does not return members in a fixed order.
+            Arrays.sort(members);
+            for (String member : members) {
+                add(member);
+            }
+        }
+
+        /**
+         * The hash of the key as a string of hexadecimal digits.
+         * No more values may be added once the hash has been calculated.
+         */
+        public String toString()
+        {
+            if (hash == null) {
+                byte[] bytes = digest.digest();
+                StringBuilder buf = new StringBuilder(bytes.length * 2);
+                for (byte b : bytes) {
+                    buf.append(Character.forDigit((b >> 4) & 0xF, 16));
+                    buf.append(Character.forDigit(b & 0xF, 16));
+                }
+                hash = buf.toString();
+            }
+            return hash;
+        }
+    }
+}
@@ -27,6 +27,7 @@
 
 package au.com.illyrian.classmaker;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -63,7 +64,20 @@ public class ClassGenerator implements ClassMakerConstants {
     private short maxLocalSlots = 0;
 
     /* The ClassFileWriter instance that is used to generate byte-code for the class. */
-    private final ClassFileWriter cfw;
+    private ClassFileWriter cfw;
+
+    /* The class file and its name, kept once the ClassFileWriter has been released. */
+    private byte[] classBytes = null;
+    private String className = null;
+    private int bytesSaved = 0;
+
+    /* The writers released on each thread, ready to generate another class. */
+    private static final int WRITER_POOL_SIZE = 4;
+    private static final ThreadLocal<Vector<GeneratorClassFileWriter>> WRITERS = new ThreadLocal<Vector<GeneratorClassFileWriter>>() {
+        protected Vector<GeneratorClassFileWriter> initialValue() {
+            return new Vector<GeneratorClassFileWriter>(WRITER_POOL_SIZE);
+        }
+    };
 
     //private final ClassMaker maker;
 
@@ -71,6 +85,13 @@ public class ClassGenerator implements ClassMakerConstants {
     private int previousLineNumber = 0;
     private SourceLine sourceLine;
 
+    /* The most recently pushed constants and the code offsets of their pushes, most recent last. */
+    private static final int MAX_RECENT_CONSTANTS = 8;
+    private final Value[] recentConstants = new Value[MAX_RECENT_CONSTANTS];
+    private final int[] recentStarts = new int[MAX_RECENT_CONSTANTS];
+    private final int[] recentEnds = new int[MAX_RECENT_CONSTANTS];
+    private int recentTop = 0;
+
     //#################### Constructors #################
 
     public ClassGenerator(ClassMaker maker) {
@@ -82,17 +103,90 @@ public class ClassGenerator implements ClassMakerConstants {
 
     /**
      * Creates an instance of the ClassFileWriter if one has not been set.
+     * </br>
+     * A writer released by a previous generator on this thread is reset and reused.
      * 
      * @return a ClassFileWriter instance
      */
     protected ClassFileWriter createClassFileWriter(ClassMaker maker) {
-        String className = maker.getClassType().getName();
-        String extendsClassName = maker.getExtendsType().getName();
+        String className = toSlashName(maker.getClassType().getName());
+        String extendsClassName = toSlashName(maker.getExtendsType().getName());
         String sourceFile = maker.getSourceLine().getFilename();
-        ClassFileWriter writer = new ClassFileWriter(toSlashName(className), toSlashName(extendsClassName), sourceFile);
+        ClassMakerFactory factory = maker.getFactory();
+        Vector<GeneratorClassFileWriter> pool = WRITERS.get();
+        GeneratorClassFileWriter writer;
+        if (pool.isEmpty()) {
+            writer = new GeneratorClassFileWriter(className, extendsClassName, sourceFile);
+        } else {
+            writer = pool.remove(pool.size() - 1);
+            writer.reset(className, extendsClassName, sourceFile);
+        }
+        writer.factory = factory;
+        writer.setMajorVersion(factory.getClassFileVersion());
+        writer.setOptimizeCode(factory.isOptimizeCode());
         return writer;
     }
 
+    /**
+     * Generates the class file and returns the <code>ClassFileWriter</code> to a pool
+     * for the current thread, so the next class generated on this thread reuses its buffers.
+     * </br>
+     * The class file is kept, so it can still be saved once the writer has been released.
+     */
+    public void releaseClassFileWriter() {
+        if (classBytes != null) {
+            return;
+        }
+        classBytes = toByteArray();
+        className = cfw.getClassName();
+        bytesSaved = cfw.getBytesSaved();
+        if (cfw instanceof GeneratorClassFileWriter) {
+            GeneratorClassFileWriter writer = (GeneratorClassFileWriter)cfw;
+            writer.factory = null;
+            Vector<GeneratorClassFileWriter> pool = WRITERS.get();
+            if (pool.size() < WRITER_POOL_SIZE) {
+                pool.add(writer);
+            }
+        }
+        cfw = null;
+    }
+
+    /**
+     * A <code>ClassFileWriter</code> that finds super classes using the types known to a factory.
+     */
+    static class GeneratorClassFileWriter extends ClassFileWriter {
+        ClassMakerFactory factory;
+
+        GeneratorClassFileWriter(String className, String superClassName, String sourceFileName) {
+            super(className, superClassName, sourceFileName);
+        }
+
+        @Override
+        protected String getSuperClassName(String slashName) {
+            return findSuperClassName(factory, slashName);
+        }
+    }
+
+    /**
+     * Finds the super class of a class using the types known to the factory.
+     * </br>
+     * This allows the StackMapTable frames to refer to classes that are being
+     * generated at the same time and have not been loaded.
+     * 
+     * @param factory the factory that knows the types
+     * @param slashName the name of the class with slashes separating the package names
+     * @return the name of the super class with slashes, or null if it is an interface or not known
+     */
+    static String findSuperClassName(ClassMakerFactory factory, String slashName) {
+        Type type = factory.stringToType(slashName.replace('/', '.'));
+        ClassType classType = (type == null) ? null : type.toClass();
+        if (classType == null || classType.isInterface()) {
+            return null;
+        }
+        ClassType extendsType = classType.getExtendsType();
+        return (extendsType == null) ? null : toSlashName(extendsType.getName());
+    }
+
     public void setClassModifiers(int modifiers) {
         // Setting the Super bit is required for class files after Java 1.2.
         cfw.setFlags((short) (modifiers | MASK_SUPER));
@@ -113,7 +207,7 @@ public class ClassGenerator implements ClassMakerConstants {
     }
 
     public boolean isDebugCode() {
-        if (getClassFileWriter() != null)
+        if (cfw != null)
             return cfw.isDebugCode();
         return false;
     }
@@ -517,8 +611,9 @@ public class ClassGenerator implements ClassMakerConstants {
         if (isDebugCode()) {
             setDebugComment("Literal(" + value + ");");
         }
+        int startPC = cfw.getCurrentCodeOffset();
         cfw.addPush(value);
-        return ClassMakerFactory.DOUBLE_TYPE.getValue();
+        return pushedConstant(ClassMakerFactory.DOUBLE_TYPE, Double.valueOf(value), startPC);
     }
 
     /**
@@ -532,8 +627,9 @@ public class ClassGenerator implements ClassMakerConstants {
         if (isDebugCode()) {
             setDebugComment("Literal(" + value + ");");
         }
+        int startPC = cfw.getCurrentCodeOffset();
         cfw.addPush(value);
-        return ClassMakerFactory.FLOAT_TYPE.getValue();
+        return pushedConstant(ClassMakerFactory.FLOAT_TYPE, Float.valueOf(value), startPC);
     }
 
     /**
@@ -547,8 +643,9 @@ public class ClassGenerator implements ClassMakerConstants {
         if (isDebugCode()) {
             setDebugComment("Literal(" + value + ");");
         }
+        int startPC = cfw.getCurrentCodeOffset();
         cfw.addPush(value);
-        return ClassMakerFactory.LONG_TYPE.getValue();
+        return pushedConstant(ClassMakerFactory.LONG_TYPE, Long.valueOf(value), startPC);
     }
 
     /**
@@ -565,15 +662,18 @@ public class ClassGenerator implements ClassMakerConstants {
         if (isDebugCode()) {
             setDebugComment("Literal(" + value + ");");
         }
+        int startPC = cfw.getCurrentCodeOffset();
         cfw.addPush(value);
         // Return the most specific type.
         // This will be promoted to an INT by numeric promotion.
+        Type type;
         if (Byte.MIN_VALUE <= value && value <= Byte.MAX_VALUE)
-            return ClassMakerFactory.BYTE_TYPE.getValue();
+            type = ClassMakerFactory.BYTE_TYPE;
         else if (Short.MIN_VALUE <= value && value <= Short.MAX_VALUE)
-            return ClassMakerFactory.SHORT_TYPE.getValue();
+            type = ClassMakerFactory.SHORT_TYPE;
         else
-            return ClassMakerFactory.INT_TYPE.getValue();
+            type = ClassMakerFactory.INT_TYPE;
+        return pushedConstant(type, Integer.valueOf(value), startPC);
     }
 
     /**
@@ -587,8 +687,9 @@ public class ClassGenerator implements ClassMakerConstants {
         if (isDebugCode()) {
             setDebugComment("Literal(\'" + value + "\');");
         }
+        int startPC = cfw.getCurrentCodeOffset();
         cfw.addPush(value);
-        return ClassMakerFactory.CHAR_TYPE.getValue();
+        return pushedConstant(ClassMakerFactory.CHAR_TYPE, Integer.valueOf(value), startPC);
     }
 
     /**
@@ -602,8 +703,9 @@ public class ClassGenerator implements ClassMakerConstants {
         if (isDebugCode()) {
             setDebugComment("Literal(" + value + ");");
         }
+        int startPC = cfw.getCurrentCodeOffset();
         cfw.add(ByteCode.BIPUSH, value); // constant byte operand
-        return ClassMakerFactory.BYTE_TYPE.getValue();
+        return pushedConstant(ClassMakerFactory.BYTE_TYPE, Integer.valueOf(value), startPC);
     }
 
     /**
@@ -617,8 +719,9 @@ public class ClassGenerator implements ClassMakerConstants {
         if (isDebugCode()) {
             setDebugComment("Literal(" + value + ");");
         }
+        int startPC = cfw.getCurrentCodeOffset();
         cfw.add(ByteCode.SIPUSH, value); // constant short operand
-        return ClassMakerFactory.SHORT_TYPE.getValue();
+        return pushedConstant(ClassMakerFactory.SHORT_TYPE, Integer.valueOf(value), startPC);
     }
 
     /**
@@ -632,8 +735,9 @@ public class ClassGenerator implements ClassMakerConstants {
         if (isDebugCode()) {
             setDebugComment("Literal(" + value + ");");
         }
+        int startPC = cfw.getCurrentCodeOffset();
         cfw.addPush(value); // constant boolean operand
-        return ClassMakerFactory.BOOLEAN_TYPE.getValue();
+        return pushedConstant(ClassMakerFactory.BOOLEAN_TYPE, Boolean.valueOf(value), startPC);
     }
 
     /**
@@ -647,8 +751,104 @@ public class ClassGenerator implements ClassMakerConstants {
         if (isDebugCode()) {
             setDebugComment("Literal(" + value + ");");
         }
+        int startPC = cfw.getCurrentCodeOffset();
         cfw.addLoadConstant(value);
-        return ClassMakerFactory.STRING_TYPE.getValue();
+        return pushedConstant(ClassMakerFactory.STRING_TYPE, value, startPC);
+    }
+
+    // Constant folding
+    /*
+     * Records the constant pushed by the code from the given offset to the current offset.
+     */
+    private Value pushedConstant(Type type, Object constant, int startPC) {
+        Value value = new Value(type, constant);
+        if (recentTop == MAX_RECENT_CONSTANTS) {
+            // Forget the oldest constant.
+            recentTop--;
+            System.arraycopy(recentConstants, 1, recentConstants, 0, recentTop);
+            System.arraycopy(recentStarts, 1, recentStarts, 0, recentTop);
+            System.arraycopy(recentEnds, 1, recentEnds, 0, recentTop);
+        }
+        recentConstants[recentTop] = value;
+        recentStarts[recentTop] = startPC;
+        recentEnds[recentTop] = cfw.getCurrentCodeOffset();
+        recentTop++;
+        return value;
+    }
+
+    /**
+     * Tests whether the value is a constant that was pushed by the last code generated.
+     * 
+     * @param value
+     *            the value on top of the stack
+     * @return true if the value is a constant that may be replaced
+     */
+    public boolean isPushedConstant(Value value) {
+        int top = recentTop - 1;
+        return top >= 0 && value != null && value == recentConstants[top]
+                && recentEnds[top] == cfw.getCurrentCodeOffset();
+    }
+
+    /**
+     * Tests whether the two values are constants that were pushed, one after the other,
+     * by the last code generated.
+     * 
+     * @param value1
+     *            the value below the top of the stack
+     * @param value2
+     *            the value on top of the stack
+     * @return true if both values are constants that may be replaced
+     */
+    public boolean isPushedConstants(Value value1, Value value2) {
+        int top = recentTop - 1;
+        return isPushedConstant(value2) && top >= 1 && value1 != null && value1 == recentConstants[top - 1]
+                && recentEnds[top - 1] == recentStarts[top];
+    }
+
+    /**
+     * Replaces the code that pushed the most recent constants with code that pushes a single constant.
+     * </br>
+     * The replaced constants must have been tested with <code>isPushedConstant</code>
+     * or <code>isPushedConstants</code>.
+     * 
+     * @param count
+     *            the number of constants to replace, either one or two
+     * @param type
+     *            the type of the new constant
+     * @param constant
+     *            the new constant
+     * @return the value of the new constant or null if the code could not be replaced
+     */
+    public Value replaceConstants(int count, Type type, Object constant) {
+        int first = recentTop - count;
+        int startPC = recentStarts[first];
+        if (constant instanceof String && !cfw.isUnderStringSizeLimit((String) constant)) {
+            return null;
+        }
+        if (!cfw.removeCode(startPC)) {
+            return null;
+        }
+        for (int i = first; i < recentTop; i++) {
+            cfw.adjustStackTop(-recentConstants[i].getType().getSlotSize());
+            recentConstants[i] = null;
+        }
+        recentTop = first;
+        if (isDebugCode()) {
+            setDebugComment("Constant(" + constant + ");");
+        }
+        if (constant instanceof String)
+            cfw.addLoadConstant((String) constant);
+        else if (constant instanceof Boolean)
+            cfw.addPush(((Boolean) constant).booleanValue());
+        else if (constant instanceof Long)
+            cfw.addPush(((Long) constant).longValue());
+        else if (constant instanceof Float)
+            cfw.addPush(((Float) constant).floatValue());
+        else if (constant instanceof Double)
+            cfw.addPush(((Double) constant).doubleValue());
+        else
+            cfw.addPush(((Integer) constant).intValue());
+        return pushedConstant(type, constant, startPC);
     }
 
     //#################### Getters and Setters ######################
@@ -1944,6 +2144,9 @@ public class ClassGenerator implements ClassMakerConstants {
         if (isPrimitive(arrayOfType)) {
             byte elementType = typeToArrayElement(arrayOfType.toPrimitive());
             cfw.add(ByteCode.NEWARRAY, elementType);
+        } else if (isArray(arrayOfType)) {
+            // An array of arrays is created using the signature of the inner array.
+            cfw.add(ByteCode.ANEWARRAY, arrayOfType.getSignature());
         } else if (isClass(arrayOfType)) {
             String className = arrayOfType.getName();
             cfw.add(ByteCode.ANEWARRAY, className);
@@ -2179,6 +2382,19 @@ public class ClassGenerator implements ClassMakerConstants {
         cfw.add(ByteCode.RET, returnAddress);
     }
 
+    /**
+     * Copies an inlined finally block to the current location.
+     * 
+     * @param startLabel the label at the start of the finally block
+     * @param endLabel the label at the end of the finally block
+     */
+    void copyFinallyBlock(int startLabel, int endLabel) {
+        if (cfw.isDebugCode()) {
+            cfw.setDebugComment("copy of finally block");
+        }
+        cfw.addCodeCopy(startLabel, endLabel);
+    }
+
     /**
      * Pops a value off the program stack.
      * </br>
@@ -2430,13 +2646,27 @@ public class ClassGenerator implements ClassMakerConstants {
     }
 
     public String getClassName() {
-        return cfw.getClassName();
+        return (cfw == null) ? className : cfw.getClassName();
     }
 
     public byte[] toByteArray() {
+        if (classBytes != null)
+            return classBytes;
+        if (cfw.isOptimizeCode() && log.isLoggable(Level.FINE))
+            log.fine("Peephole optimizer saved " + cfw.getBytesSaved() + " bytes in " + cfw.getClassName());
         return cfw.toByteArray();
     }
 
+    /**
+     * The number of bytes of code removed by the peephole optimizer from the
+     * methods generated so far.
+     * 
+     * @return the number of bytes saved, or zero if code is not optimized
+     */
+    public int getBytesSaved() {
+        return (cfw == null) ? bytesSaved : cfw.getBytesSaved();
+    }
+
     /**
      * Saves the class to the given output folder. <br/>
      * The class will be placed in the appropriate path corresponding to the
@@ -2449,16 +2679,21 @@ public class ClassGenerator implements ClassMakerConstants {
      * @return a File referring to the saved class file
      */
     public File saveClass(File classesDir) throws IOException {
-        ClassFileWriter cfw = getClassFileWriter();
         String className = getClassName() + ".class";
         File classFile = new File(classesDir, className);
         File packageFile = classFile.getParentFile();
         if (!packageFile.exists()) {
             packageFile.mkdirs();
         }
-        FileOutputStream output = new FileOutputStream(classFile);
-        cfw.write(output);
-        output.close();
+        BufferedOutputStream output = new BufferedOutputStream(new FileOutputStream(classFile));
+        try {
+            if (classBytes != null)
+                output.write(classBytes);
+            else
+                cfw.write(output);
+        } finally {
+            output.close();
+        }
 
         return classFile;
     }
@@ -2485,7 +2720,7 @@ public class ClassGenerator implements ClassMakerConstants {
     public String toString() {
         StringBuffer buf = new StringBuffer();
         buf.append("ClassGenerator(");
-        buf.append(cfw.getClassName());
+        buf.append(getClassName());
         if (sourceLine != null)
             buf.append(", ").append(sourceLine.getFilename()).append(":").append(sourceLine.getLineNumber());
         buf.append(')');
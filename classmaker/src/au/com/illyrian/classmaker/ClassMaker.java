@@ -32,6 +32,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.reflect.Modifier;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Vector;
 import java.util.logging.Level;
@@ -174,6 +175,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
     /** Constant for the name of a constructor method */
     public static final String INIT = "<init>";
 
+    /** Indicates that the pass of the factory applies to this class. */
+    private static final int FACTORY_PASS = Integer.MIN_VALUE;
+
     // External references
     /** The super type of this type. */
     private ClassType extendsType = null;
@@ -186,6 +190,8 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
     private Vector<MakerMethod> methods = new Vector<MakerMethod>();
     /** A list of member fields in the class being generated. */
     private Vector<MakerField> fieldTable = new Vector<MakerField>();
+    /** Member fields of the generated class indexed by name */
+    private HashMap<String, MakerField> fieldMap = new HashMap<String, MakerField>();
     /** A list of local variables in the class being generated. */
     private LocalFieldList localFields = null;
     /**
@@ -201,6 +207,18 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
     private boolean hasConstructor = false;
     /** Indicates that the previous statement was a call to Return(). */
     private boolean followsReturn = false;
+    /** The number of helper methods created by splitting each method, by the name of the method. */
+    private HashMap<String, Integer> splitMethodCounts = new HashMap<String, Integer>();
+    /** The name of the method being split into helper methods, or null. */
+    private String splitMethodName = null;
+    /** The code offset at the previous point where the method could have been split. */
+    private int splitCheckOffset = 0;
+    /** The largest amount of code generated between two points where the method could be split. */
+    private int largestSplitStep = 0;
+    /** The key used to save the generated class in the class cache. */
+    private ClassCache.Key cacheKey = null;
+    /** The pass of the compilation that generates this class. */
+    private volatile int pass = FACTORY_PASS;
 
     /** The fully qualified name of the package */
     String packageName = null;
@@ -420,7 +438,7 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
      * @return the ClassType of the generated class
      */
     protected MakerClassType defaultThisClass() {
-        MakerClassType classType = new MakerClassType(this);
+        MakerClassType classType = new MakerClassType(this, Collections.unmodifiableMap(fieldMap));
         classType.setModifiers(classModifiers);
         getFactory().addType(classType);
         getFactory().addClassMaker(this);
@@ -485,6 +503,7 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
             throw createException("ClassMaker.ToLateToExtendTheClass");
         }
         this.extendsType = superType;
+        methodsChanged();
     }
     
     public ClassType defaultExtendsType() {
@@ -610,6 +629,7 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         }
         if (getPass() != SECOND_PASS) {
             interfaces.add(classType);
+            methodsChanged();
         }
     }
 
@@ -820,10 +840,30 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
      * <li><code>ClassMaker.FIRST_PASS</code></li>
      * <li><code>ClassMaker.SECOND_PASS</code></li>
      * </ul>
-     * The default is <code>ClassMaker.ONE_PASS</code>.
+     * The default is the pass of the factory.
      */
     public int getPass() {
-        return getFactory().getPass();
+        return (pass == FACTORY_PASS) ? getFactory().getPass() : pass;
+    }
+
+    /**
+     * Set the current pass for the class generator of this class.
+     * </br>
+     * The pass is held by this <code>ClassMaker</code> rather than the factory,
+     * so classes may be generated by independent compilations, on any thread,
+     * while they share the factory and its types.
+     * The following are valid options.
+     * <ul>
+     * <li><code>ClassMaker.ONE_PASS</code></li>
+     * <li><code>ClassMaker.FIRST_PASS</code></li>
+     * <li><code>ClassMaker.SECOND_PASS</code></li>
+     * </ul>
+     * 
+     * @param pass
+     *            the pass for the class generator
+     */
+    public void setPass(int pass) {
+        this.pass = pass;
     }
 
     //################# Class Loader methods ##############
@@ -843,12 +883,38 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         }
         defineClassType(getClassType().getExtendsType());
         defineInterfaces(this.getDeclaredInterfaces());
+        byte[] classBytes = getGen().toByteArray();
+        ClassCache cache = getFactory().getClassCache();
+        if (cache != null && cacheKey != null) {
+            cache.store(cacheKey, classBytes);
+        }
         @SuppressWarnings("unchecked")
-        Class<T> thisClass = (Class<T>)getFactory().getClassLoader().defineClass(getGen().getClassName(), getGen().toByteArray());
+        Class<T> thisClass = (Class<T>)getFactory().getClassLoader().defineClass(getGen().getClassName(), classBytes);
         thisClassType.setJavaClass(thisClass);
+        getGen().releaseClassFileWriter();
         return thisClass;
     }
 
+    /**
+     * Sets the key used to save this class in the factory <code>ClassCache</code>.
+     * </br>
+     * The class bytes are saved in the cache when the class is defined.
+     * 
+     * @param key a key created by <code>ClassMakerFactory.createCacheKey</code>
+     */
+    public void setCacheKey(ClassCache.Key key) {
+        cacheKey = key;
+    }
+
+    /**
+     * The key used to save this class in the factory <code>ClassCache</code>.
+     * 
+     * @return the cache key or null if the class is not cached
+     */
+    public ClassCache.Key getCacheKey() {
+        return cacheKey;
+    }
+
     private void defineInterfaces(ClassType[] interfaces) {
         for (ClassType type : interfaces) {
             defineClassType(type);
@@ -1119,8 +1185,7 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
      * @return a <code>MakerMethod</code> which represents the resolved method
      */
     MakerMethod resolveConstructor(ClassType classType, CallStack actualParameters) {
-        MakerMethod[] constructors = classType.getConstructors();
-        return getFactory().getMethodResolver().resolveMethod(this, constructors, INIT, actualParameters);
+        return getFactory().getMethodResolver().resolveMethod(this, classType, INIT, actualParameters);
     }
 
     /**
@@ -1138,8 +1203,7 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
      * @return a <code>MakerMethod</code> which represents the resolved method
      */
     public MakerMethod resolveMethod(ClassType classType, String name, CallStack actualParameters) {
-        MakerMethod[] methods = classType.getMethods(name);
-        return getFactory().getMethodResolver().resolveMethod(this, methods, name, actualParameters);
+        return getFactory().getMethodResolver().resolveMethod(this, classType, name, actualParameters);
     }
 
     //################### Methods #####################
@@ -1264,6 +1328,110 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         // Exit method.
         method = null;
         localFields = null;
+        splitMethodName = null;
+        splitCheckOffset = 0;
+        largestSplitStep = 0;
+    }
+
+    /*
+     * Whether the method should be continued in a helper method.
+     * Only a statement in the outermost block of the method body may end the method,
+     * as no jumps or exception handlers span it.
+     * The method is split before the limit would be crossed, leaving room for the call
+     * to the helper method and for the largest run of statements seen so far.
+     */
+    private boolean isSplitPoint() {
+        int limit = getFactory().getMethodSizeLimit();
+        if (limit <= 0 || method == null || followsReturn || method.getName().startsWith("<")) {
+            return false; // Constructors may assign final fields so are never split.
+        }
+        if (!(statementManager.topStatement() instanceof MethodBodyStatement) || getGen() == null) {
+            return false;
+        }
+        int offset = getProgramCounter();
+        largestSplitStep = Math.max(largestSplitStep, offset - splitCheckOffset);
+        splitCheckOffset = offset;
+        // The locals that are in scope are passed to the helper method.
+        int slots = method.isStatic() ? 0 : getClassType().getSlotSize();
+        for (MakerField local : localFields.getMakerFields()) {
+            if (local.isInScope()) {
+                if (local.getName() == null) {
+                    return false; // Anonymous locals may be referred to by the next statement.
+                }
+                slots += local.getType().getSlotSize();
+            }
+        }
+        // Each load takes at most two bytes; then the invoke, the return and a trailing nop.
+        int headroom = largestSplitStep + 2 * slots + 5;
+        return offset + headroom > limit && slots <= 255;
+    }
+
+    /**
+     * Continues the method currently being generated in a new helper method.
+     * <br/>
+     * The current method calls a private synthetic method, passing <code>this</code>
+     * and the locals that are in scope, and returns its result.
+     * Code for the following statements is generated into the helper method, where the
+     * locals are formal parameters with the same names.
+     */
+    void splitMethod() throws ClassMakerException {
+        Vector<MakerField> locals = new Vector<MakerField>();
+        for (MakerField local : localFields.getMakerFields()) {
+            if (local.isInScope()) {
+                locals.add(local);
+            }
+        }
+        // The locals become the formal parameters of the helper method.
+        LocalFieldList helperFields = new LocalFieldList(getGen());
+        helperFields.incLocalSlots(method.isStatic() ? 0 : getClassType().getSlotSize());
+        for (MakerField local : locals) {
+            helperFields.addLocalField(local.getName(), local.getType(), local.getModifiers(), 1, 0);
+        }
+        Type returnType = method.getReturnType();
+        short modifiers = (short) (ACC_PRIVATE | ACC_SYNTHETIC | (method.isStatic() ? ACC_STATIC : 0));
+        // Helper methods are numbered from the name of the method being split.
+        if (splitMethodName == null) {
+            splitMethodName = method.getName();
+        }
+        Integer count = splitMethodCounts.get(splitMethodName);
+        int part = (count == null) ? 1 : count.intValue() + 1;
+        splitMethodCounts.put(splitMethodName, Integer.valueOf(part));
+        String name = splitMethodName + "$part" + part;
+        MakerMethod helper = new MakerMethod(getClassType(), name, returnType, modifiers);
+        helper.setFormalTypes(helperFields.createFormalParameters());
+        helper.setFormalFields(helperFields.getMakerFields());
+
+        // Call the helper method and return its result.
+        if (isDebugCode())
+            setDebugComment("splitMethod(" + name + ")");
+        if (!method.isStatic()) {
+            getGen().loadThis();
+        }
+        for (MakerField local : locals) {
+            getGen().loadLocal(local);
+        }
+        if (method.isStatic()) {
+            getGen().invokeStatic(getClassType().getName(), helper);
+        } else {
+            getGen().invokeSpecial(getClassType(), helper);
+        }
+        if (ClassMakerFactory.VOID_TYPE.equals(returnType)) {
+            getGen().Return();
+        } else {
+            getGen().Return(returnType);
+        }
+        localFields.exitScope(1, getProgramCounter());
+        getGen().endMethod(getLocalFields());
+
+        // Continue in the helper method.
+        localFields = helperFields;
+        method = helper;
+        getGen().beginMethod(method, getClassSignature());
+        for (MakerField local : localFields.getMakerFields()) {
+            getGen().addToScope(local, 1);
+        }
+        followsReturn = false;
+        splitCheckOffset = getProgramCounter();
     }
 
     /**
@@ -1374,6 +1542,7 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         } else {
             methods.add(method);
         }
+        methodsChanged();
     }
 
     /**
@@ -1390,6 +1559,18 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         } else {
             methods.remove(method);
         }
+        methodsChanged();
+    }
+
+    /**
+     * Records that the methods or parents of the generated class have changed.
+     * </br>
+     * Methods collected from or resolved against the type of the class are recalculated.
+     */
+    void methodsChanged() {
+        if (thisClassType != null) {
+            thisClassType.methodsChanged();
+        }
     }
 
     /**
@@ -1631,9 +1812,8 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
             setDebugComment("Return();");
         }
 
-        // Call any finally subroutines before returning
         Statement stmt = statementManager.topStatement();
-        if (stmt == null || stmt.jumpToTarget(RETURN, null) == null) {
+        if (stmt == null) {
             throw createException("ClassMaker.ReturnWhileNotInAMethod");
         }
         if (!ClassMakerFactory.VOID_TYPE.equals(method.getReturnType())) {
@@ -1641,7 +1821,15 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
                     .getName());
         }
         markLineNumber(); // possibly add a new line number entry.
-        getGen().Return();
+        // Call any finally subroutines before returning
+        Statement target = stmt.jumpToTarget(RETURN, null);
+        if (target == null) {
+            throw createException("ClassMaker.ReturnWhileNotInAMethod");
+        }
+        // An inlined finally block completes the return after it has been executed.
+        if (target instanceof MethodBodyStatement) {
+            getGen().Return();
+        }
 
         // Indicate that return has been called.
         // This flag is reset by markLineNumber();
@@ -1663,9 +1851,8 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         if (isDebugCode()) {
             setDebugComment("Return(" + value + ");");
         }
-        // Call any finally subroutines before returning
         Statement stmt = statementManager.topStatement();
-        if (stmt == null || stmt.jumpToTarget(RETURN, null) == null) {
+        if (stmt == null) {
             throw createException("ClassMaker.ReturnWhileNotInAMethod");
         }
         if (ClassMakerFactory.VOID_TYPE.equals(method.getReturnType())) {
@@ -1684,7 +1871,15 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
             throw createException("ClassMaker.MethodReturnsTypeSoCannotReturnType_3", method.getName(),
                     returnType.getName(), type.getName());
         }
-        getGen().Return(type);
+        // Call any finally subroutines before returning
+        Statement target = stmt.jumpToTarget(RETURN, null);
+        if (target == null) {
+            throw createException("ClassMaker.ReturnWhileNotInAMethod");
+        }
+        // An inlined finally block completes the return after it has been executed.
+        if (target instanceof MethodBodyStatement) {
+            getGen().Return(type);
+        }
 
         // Indicate that return has been called.
         // This flag is reset by markLineNumber();
@@ -2474,13 +2669,7 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
      * @return the <code>MakerField</code> corresponding to the given name
      */
     private MakerField findMemberField(String name) {
-        for (int i = 0; i < fieldTable.size(); i++) {
-            MakerField field = fieldTable.get(i);
-            if (name.equals(field.getName())) {
-                return fieldTable.get(i);
-            }
-        }
-        return null;
+        return fieldMap.get(name);
     }
 
     /**
@@ -2500,6 +2689,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         MakerField field = new MakerField(getClassType(), name, type, modifiers);
         int index = fieldTable.size();
         fieldTable.add(field);
+        if (!fieldMap.containsKey(name)) {
+            fieldMap.put(name, field);
+        }
         return index;
     }
 
@@ -3034,11 +3226,17 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         markLineNumber(); // possibly add a new line number entry.
 
         if (isNumericType(op1) && isNumericType(op2)) {
+            Value folded = foldConstants(ConstantFolding.ADD, value1, value2);
+            if (folded != null)
+                return folded;
             if (getFactory().getNumericPromotion().isConvertable(op1, op2)) {
                 op1 = op2 = getFactory().getNumericPromotion().convertTo(this, op1, op2);
             }
             return getGen().primitiveAdd(op1.toPrimitive(), op2.toPrimitive()).getValue();
         } else if (getFactory().getStringConversion().isConvertable(op1, op2)) {
+            Value folded = foldConcatenation(value1, value2);
+            if (folded != null)
+                return folded;
             return getFactory().getStringConversion().convertTo(this, op1, op2).getValue();
         } else {
             throw createException("ClassMaker.CannotAddType_2", op1.getName(), op2.getName());
@@ -3078,6 +3276,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         Type op2 = value2.getType();
         markLineNumber(); // possibly add a new line number entry.
 
+        Value folded = foldConstants(ConstantFolding.SUBT, value1, value2);
+        if (folded != null)
+            return folded;
         if (getFactory().getNumericPromotion().isConvertable(op1, op2)) {
             op1 = op2 = getFactory().getNumericPromotion().convertTo(this, op1, op2);
         }
@@ -3124,6 +3325,12 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         }
         markLineNumber(); // possibly add a new line number entry.
 
+        Value folded = foldConstants(ConstantFolding.MULT, value1, value2);
+        if (folded != null)
+            return folded;
+        Value shifted = shiftForMultiply(value1, value2);
+        if (shifted != null)
+            return shifted;
         if (getFactory().getNumericPromotion().isConvertable(op1, op2)) {
             op1 = op2 = getFactory().getNumericPromotion().convertTo(this, op1, op2);
         }
@@ -3164,6 +3371,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         }
         Type op1 = value1.getType();
         Type op2 = value2.getType();
+        Value folded = foldConstants(ConstantFolding.DIV, value1, value2);
+        if (folded != null)
+            return folded;
         if (getFactory().getNumericPromotion().isConvertable(op1, op2)) {
             op1 = op2 = getFactory().getNumericPromotion().convertTo(this, op1, op2);
         }
@@ -3208,6 +3418,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         Type op2 = value2.getType();
         markLineNumber(); // possibly add a new line number entry.
 
+        Value folded = foldConstants(ConstantFolding.REM, value1, value2);
+        if (folded != null)
+            return folded;
         if (getFactory().getNumericPromotion().isConvertable(op1, op2)) {
             op1 = op2 = getFactory().getNumericPromotion().convertTo(this, op1, op2);
         }
@@ -3246,6 +3459,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         Type type = value.getType();
         markLineNumber(); // possibly add a new line number entry.
 
+        Value folded = foldConstant(ConstantFolding.NEG, value);
+        if (folded != null)
+            return folded;
         if (getFactory().getNumericPromotion().isConvertable(type)) {
             type = getFactory().getNumericPromotion().convertTo(this, type);
         }
@@ -3290,6 +3506,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         Type op2 = value2.getType();
         markLineNumber(); // possibly add a new line number entry.
 
+        Value folded = foldConstants(ConstantFolding.XOR, value1, value2);
+        if (folded != null)
+            return folded;
         if (getFactory().getNumericPromotion().isConvertable(op1, op2)) {
             op1 = op2 = getFactory().getNumericPromotion().convertTo(this, op1, op2);
         }
@@ -3331,6 +3550,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         }
         Type op1 = value1.getType();
         Type op2 = value2.getType();
+        Value folded = foldConstants(ConstantFolding.AND, value1, value2);
+        if (folded != null)
+            return folded;
         if (getFactory().getNumericPromotion().isConvertable(op1, op2)) {
             op1 = op2 = getFactory().getNumericPromotion().convertTo(this, op1, op2);
         }
@@ -3374,6 +3596,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         Type op2 = value2.getType();
         markLineNumber(); // possibly add a new line number entry.
 
+        Value folded = foldConstants(ConstantFolding.OR, value1, value2);
+        if (folded != null)
+            return folded;
         if (getFactory().getNumericPromotion().isConvertable(op1, op2)) {
             op1 = op2 = getFactory().getNumericPromotion().convertTo(this, op1, op2);
         }
@@ -3413,6 +3638,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         }
         Type op1 = value.getType();
         markLineNumber(); // possibly add a new line number entry.
+        Value folded = foldConstant(ConstantFolding.INV, value);
+        if (folded != null)
+            return folded;
         if (getFactory().getNumericPromotion().isConvertable(op1)) {
             op1 = getFactory().getNumericPromotion().convertTo(this, op1);
         }
@@ -3475,6 +3703,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         }
         markLineNumber(); // possibly add a new line number entry.
 
+        Value folded = foldConstants(ConstantFolding.SHL, value1, value2);
+        if (folded != null)
+            return folded;
         // Promote left and right operands independantly.
         if (getFactory().getNumericPromotion().isConvertable(op1)) {
             op1 = getFactory().getNumericPromotion().convertTo(this, op1);
@@ -3528,6 +3759,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         }
         markLineNumber(); // possibly add a new line number entry.
 
+        Value folded = foldConstants(ConstantFolding.SHR, value1, value2);
+        if (folded != null)
+            return folded;
         // Promote left and right operands independantly.
         if (getFactory().getNumericPromotion().isConvertable(op1)) {
             op1 = getFactory().getNumericPromotion().convertTo(this, op1);
@@ -3578,6 +3812,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         Type op2 = value2.getType();
         markLineNumber(); // possibly add a new line number entry.
 
+        Value folded = foldConstants(ConstantFolding.USHR, value1, value2);
+        if (folded != null)
+            return folded;
         // Promote left and right operands independantly.
         if (getFactory().getNumericPromotion().isConvertable(op1)) {
             op1 = getFactory().getNumericPromotion().convertTo(this, op1);
@@ -3626,6 +3863,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         }
         Type op1 = value1.getType();
         Type op2 = value2.getType();
+        Value folded = foldConstants(ConstantFolding.GT, value1, value2);
+        if (folded != null)
+            return folded;
         if (getFactory().getNumericPromotion().isConvertable(op1, op2)) {
             op1 = op2 = getFactory().getNumericPromotion().convertTo(this, op1, op2);
         }
@@ -3666,6 +3906,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         }
         Type op1 = value1.getType();
         Type op2 = value2.getType();
+        Value folded = foldConstants(ConstantFolding.GE, value1, value2);
+        if (folded != null)
+            return folded;
         if (getFactory().getNumericPromotion().isConvertable(op1, op2)) {
             op1 = op2 = getFactory().getNumericPromotion().convertTo(this, op1, op2);
         }
@@ -3708,6 +3951,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         Type op2 = value2.getType();
         markLineNumber(); // possibly add a new line number entry.
 
+        Value folded = foldConstants(ConstantFolding.LE, value1, value2);
+        if (folded != null)
+            return folded;
         if (getFactory().getNumericPromotion().isConvertable(op1, op2)) {
             op1 = op2 = getFactory().getNumericPromotion().convertTo(this, op1, op2);
         }
@@ -3749,6 +3995,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         Type op2 = value2.getType();
         markLineNumber(); // possibly add a new line number entry.
 
+        Value folded = foldConstants(ConstantFolding.LT, value1, value2);
+        if (folded != null)
+            return folded;
         if (getFactory().getNumericPromotion().isConvertable(op1, op2)) {
             op1 = op2 = getFactory().getNumericPromotion().convertTo(this, op1, op2);
         }
@@ -3789,6 +4038,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         Type op1 = value1.getType();
         Type op2 = value2.getType();
         markLineNumber(); // possibly add a new line number entry.
+        Value folded = foldConstants(ConstantFolding.EQ, value1, value2);
+        if (folded != null)
+            return folded;
         if (getFactory().getNumericPromotion().isConvertable(op1, op2)) {
             op1 = op2 = getFactory().getNumericPromotion().convertTo(this, op1, op2);
         }
@@ -3830,6 +4082,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         Type op1 = value1.getType();
         Type op2 = value2.getType();
         markLineNumber(); // possibly add a new line number entry.
+        Value folded = foldConstants(ConstantFolding.NE, value1, value2);
+        if (folded != null)
+            return folded;
         if (getFactory().getNumericPromotion().isConvertable(op1, op2)) {
             op1 = op2 = getFactory().getNumericPromotion().convertTo(this, op1, op2);
         }
@@ -3868,12 +4123,108 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
         Type op1 = value.getType();
         if (Type.isPrimitive(op1) && op1.toPrimitive().index == PrimitiveType.BOOLEAN_INDEX) {
             markLineNumber(); // possibly add a new line number entry.
+            Value folded = foldConstant(ConstantFolding.NOT, value);
+            if (folded != null)
+                return folded;
             return getGen().primitiveNot(op1);
         } else {
             throw createException("ClassMaker.CannotNotType_1", op1.getName());
         }
     }
 
+    //################# Constant folding ######################
+    /**
+     * Replaces a constant operand with the constant result of a unary operator.
+     * </br>
+     * The operand is only replaced if it was pushed by the code immediately before the operator.
+     * 
+     * @param operator
+     *            the operator from <code>ConstantFolding</code>
+     * @param value
+     *            the operand
+     * @return the constant result or null if the operand was not replaced
+     */
+    protected Value foldConstant(int operator, Value value) {
+        if (!getGen().isPushedConstant(value)) {
+            return null;
+        }
+        Object result = ConstantFolding.fold(operator, value);
+        return (result == null) ? null : getGen().replaceConstants(1, ConstantFolding.typeOf(result), result);
+    }
+
+    /**
+     * Replaces two constant operands with the constant result of a binary operator.
+     * </br>
+     * The operands are only replaced if they were pushed by the code immediately before the operator.
+     * 
+     * @param operator
+     *            the operator from <code>ConstantFolding</code>
+     * @param value1
+     *            the left operand
+     * @param value2
+     *            the right operand
+     * @return the constant result or null if the operands were not replaced
+     */
+    protected Value foldConstants(int operator, Value value1, Value value2) {
+        if (!getGen().isPushedConstants(value1, value2)) {
+            return null;
+        }
+        Object result = ConstantFolding.fold(operator, value1, value2);
+        return (result == null) ? null : getGen().replaceConstants(2, ConstantFolding.typeOf(result), result);
+    }
+
+    /**
+     * Replaces two constant operands with a constant <code>String</code> that concatenates them.
+     * 
+     * @param value1
+     *            the left operand
+     * @param value2
+     *            the right operand
+     * @return the concatenated constant or null if the operands were not replaced
+     */
+    protected Value foldConcatenation(Value value1, Value value2) {
+        if (!getGen().isPushedConstants(value1, value2)) {
+            return null;
+        }
+        String result = ConstantFolding.concatenate(value1, value2);
+        return getGen().replaceConstants(2, ClassMakerFactory.STRING_TYPE, result);
+    }
+
+    /**
+     * Multiplies an integer by a constant power of two with a left shift.
+     * </br>
+     * The constant must be the right operand and must have been pushed by the code
+     * immediately before the operator. The left operand must not need a conversion.
+     * 
+     * @param value1
+     *            the left operand
+     * @param value2
+     *            the constant right operand
+     * @return the type of the result or null if the multiplication was not replaced
+     */
+    protected Value shiftForMultiply(Value value1, Value value2) {
+        Type type = ConstantFolding.promote(value1.getType(), value2.getType());
+        if (type == null || !getGen().isPushedConstant(value2) || !type.equals(ConstantFolding.promote(value1.getType()))) {
+            return null;
+        }
+        long factor;
+        if (ClassMakerFactory.INT_TYPE.equals(type)) {
+            factor = ((Number) value2.getConstant()).intValue();
+        } else if (ClassMakerFactory.LONG_TYPE.equals(type)) {
+            factor = ((Number) value2.getConstant()).longValue();
+        } else {
+            return null;
+        }
+        if (factor < 2 || (factor & (factor - 1)) != 0) {
+            return null;
+        }
+        Integer bits = Integer.valueOf(Long.numberOfTrailingZeros(factor));
+        if (getGen().replaceConstants(1, ClassMakerFactory.INT_TYPE, bits) == null) {
+            return null;
+        }
+        return getGen().primitiveShiftLeft(type.toPrimitive(), ClassMakerFactory.INT_TYPE).getValue();
+    }
+
     //##################### Arrays ##########################
     /**
      * Checks that the array dimension is of an appropriate type.
@@ -4199,6 +4550,9 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
                 setDebugComment("Eval(" + type + ")");
             getGen().pop(type);
         }
+        if (isSplitPoint()) {
+            splitMethod();
+        }
     }
 
     //############# Increment & Decrement operators ###############
@@ -5416,11 +5770,33 @@ public class ClassMaker implements ClassMakerIfc, SourceLine, ClassMakerConstant
      *            type of value being stored.
      */
     protected MakerField storeAnonymousField(Type type) throws ClassMakerException {
-        MakerField local = getLocalFields().addLocalField(null, type, 0, getScopeLevel(), getProgramCounter());
+        return storeAnonymousField(type, getScopeLevel());
+    }
+
+    /**
+     * Stores a value in a nameless local variable that remains allocated until
+     * the given scope level ends.
+     * 
+     * @param type
+     *            type of value being stored.
+     * @param scopeLevel
+     *            the scope level of the local variable
+     */
+    MakerField storeAnonymousField(Type type, int scopeLevel) throws ClassMakerException {
+        MakerField local = getLocalFields().addLocalField(null, type, 0, scopeLevel, getProgramCounter());
         getGen().storeLocal(local);
         return local;
     }
 
+    /**
+     * The return type of the method currently being generated.
+     * 
+     * @return the declared return type of the method
+     */
+    Type getReturnType() {
+        return method.getReturnType();
+    }
+
     /**
      * Loads a value from a nameless local variable.
      * 
@@ -214,10 +214,10 @@ public abstract class ClassMakerCode extends ClassMaker
         {
             if (isTwoPass())
             {
-                getFactory().setPass(ClassMakerConstants.FIRST_PASS);
+                setPass(ClassMakerConstants.FIRST_PASS);
                 code();
                 super.EndClass();
-                getFactory().setPass(ClassMakerConstants.SECOND_PASS);
+                setPass(ClassMakerConstants.SECOND_PASS);
             }
             code();
             super.EndClass();
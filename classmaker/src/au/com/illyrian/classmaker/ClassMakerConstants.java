@@ -27,6 +27,8 @@ public interface ClassMakerConstants
     public static final short ACC_ABSTRACT = 0x0400;
     /** Bitmask for strict floating point class modifier */
     public static final short ACC_STRICTFP = 0x0800;
+    /** Bitmask for members that do not appear in the source code */
+    public static final short ACC_SYNTHETIC = 0x1000;
     /** Bitmask to test for package visibility. Alias for zero (0). */
     public static final short ACC_PACKAGE = 0;
 
@@ -60,4 +62,13 @@ public interface ClassMakerConstants
     /** Enumeration to indicate that byte-code generation is complete. */
     public static final int COMPLETED_PASS = -1;
 
+    /** Class file version 45.3, checked by the type inferencing verifier (default). */
+    public static final int CLASS_VERSION_JAVA_1 = 45;
+    /** Class file version 52.0 with StackMapTable frames, for Java 8 and later. */
+    public static final int CLASS_VERSION_JAVA_8 = 52;
+    /** Class file version 55.0 with StackMapTable frames, for Java 11 and later. */
+    public static final int CLASS_VERSION_JAVA_11 = 55;
+    /** Class file version 61.0 with StackMapTable frames, for Java 17 and later. */
+    public static final int CLASS_VERSION_JAVA_17 = 61;
+
 }
\ No newline at end of file
@@ -28,8 +28,12 @@
 package au.com.illyrian.classmaker;
 
 import java.lang.reflect.TypeVariable;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.mozilla.classfile.SimpleClassLoader;
 
@@ -72,9 +76,29 @@ import au.com.illyrian.classmaker.util.MakerUtil;
 public class ClassMakerFactory
 {
     private SimpleClassLoader loader = null;
-    private HashMap<String, Type>         typeMap = new HashMap<String, Type>();
-    private HashMap<String, GenericType>  genericMap = new HashMap<String, GenericType>();
-    private HashMap<String, ClassMaker>   classMakerMap = new HashMap<String, ClassMaker>();
+    private ConcurrentHashMap<String, Type>         typeMap = new ConcurrentHashMap<String, Type>();
+    private ConcurrentHashMap<String, GenericType>  genericMap = new ConcurrentHashMap<String, GenericType>();
+    private ConcurrentHashMap<String, ClassMaker>   classMakerMap = new ConcurrentHashMap<String, ClassMaker>();
+
+    /** The maximum number of class names remembered as missing from the class loader. */
+    public static final int MISSING_CLASS_CACHE_SIZE = 1024;
+
+    /** The largest method, in bytes of code, that the HotSpot JIT compiler will compile. */
+    public static final int DEFAULT_METHOD_SIZE_LIMIT = 8000;
+
+    /** Class names that the class loader could not find, with the least recently used discarded first. */
+    private final Map<String, Boolean> missingClasses = Collections.synchronizedMap(
+            new LinkedHashMap<String, Boolean>(64, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > MISSING_CLASS_CACHE_SIZE;
+                }
+            });
+
+    /** Lookups answered from the cache of missing class names. */
+    private final AtomicLong missingClassHits = new AtomicLong();
+
+    /** Lookups that were not found by the class loader and were added to the cache. */
+    private final AtomicLong missingClassMisses = new AtomicLong();
 
     /** An empty prototype array of <code>Type</code> that may be provided to <code>Collection.toArray(Object[])</code>. */
     public static final Type[] TYPE_ARRAY = new Type[0];
@@ -124,19 +148,34 @@ public class ClassMakerFactory
     public static final PrimitiveType BOOLEAN_TYPE = new PrimitiveType(PrimitiveType.BOOLEAN_INDEX, "boolean", "Z", boolean.class);
 
     /** Discriminator for anonymous classes */
-    private int anonomousClass = 0;
+    private final AtomicInteger anonomousClass = new AtomicInteger();
+
+    /** The current phase of a two pass class generation, for ClassMakers that do not have their own pass */
+    private volatile int generationPass = ClassMakerConstants.ONE_PASS;
+
+    /** The major version of the generated class files */
+    private volatile int classFileVersion = ClassMakerConstants.CLASS_VERSION_JAVA_1;
 
-    /** The current phase of a two pass class generation */
-    private int generationPass = ClassMakerConstants.ONE_PASS;
+    /** Whether finally blocks are inlined rather than called as subroutines */
+    private volatile boolean inlineFinally = false;
+
+    /** Whether redundant instructions are removed from generated methods */
+    private volatile boolean optimizeCode = false;
+
+    /** The size in bytes above which a method is split into helper methods, or zero to never split */
+    private volatile int methodSizeLimit = DEFAULT_METHOD_SIZE_LIMIT;
+
+    /** A persistent cache of generated classes, if one has been provided */
+    private volatile ClassCache classCache = null;
 
     private ExceptionFactory exceptionFactory = null;
 
-    private MethodInvocationConversion methodInvocationConversion;
-    private MethodResolver methodResolver;
-    private AssignmentConversion assignmentConversion;
-    private CastingConversion castingConversion;
-    private NumericPromotion numericPromotion;
-    private StringConversion stringConversion;
+    private volatile MethodInvocationConversion methodInvocationConversion;
+    private volatile MethodResolver methodResolver;
+    private volatile AssignmentConversion assignmentConversion;
+    private volatile CastingConversion castingConversion;
+    private volatile NumericPromotion numericPromotion;
+    private volatile StringConversion stringConversion;
 
     /**
      * Default Constructor for ClassMakerFactory.
@@ -190,6 +229,11 @@ public class ClassMakerFactory
      * <li><code>ClassMaker.SECOND_PASS</code></li>
      * </ul>
      * The default is <code>ClassMaker.ONE_PASS</code>.
+     * </br>
+     * This pass applies to every <code>ClassMaker</code> created by this factory
+     * that has not been given its own pass by <code>ClassMaker.setPass</code>.
+     * Independent compilations that share this factory and its types should set
+     * the pass on their own <code>ClassMaker</code>s instead.
      * @param pass the pass for the class generator
      */
     public void setPass(int pass)
@@ -214,6 +258,183 @@ public class ClassMakerFactory
         return generationPass;
     }
 
+    /**
+     * Sets the major version of the class files generated by all ClassMakers that share this factory.
+     * </br>
+     * The following are valid options.
+     * <ul>
+     * <li><code>ClassMaker.CLASS_VERSION_JAVA_1</code></li>
+     * <li><code>ClassMaker.CLASS_VERSION_JAVA_8</code></li>
+     * <li><code>ClassMaker.CLASS_VERSION_JAVA_11</code></li>
+     * <li><code>ClassMaker.CLASS_VERSION_JAVA_17</code></li>
+     * </ul>
+     * The default is <code>ClassMaker.CLASS_VERSION_JAVA_1</code>.
+     * Later versions include StackMapTable frames so the generated classes are checked
+     * by the faster type checking verifier.
+     * @param majorVersion the major version of the class file
+     */
+    public void setClassFileVersion(int majorVersion)
+    {
+        classFileVersion = majorVersion;
+    }
+
+    /**
+     * The major version of the class files generated by all ClassMakers that share this factory.
+     * @return the major version of the class file
+     */
+    public int getClassFileVersion()
+    {
+        return classFileVersion;
+    }
+
+    /**
+     * Sets whether finally blocks are inlined at each exit from a try block.
+     * </br>
+     * By default a finally block is generated once as a subroutine that is called
+     * using <code>jsr</code> and <code>ret</code>. When inlined, a copy of the finally
+     * block is generated on the normal exit, on each <code>Return</code>,
+     * <code>Break</code> and <code>Continue</code> that leaves the try block and
+     * in the handler for uncaught exceptions.
+     * Finally blocks are always inlined for class file versions 50 and later,
+     * because they do not permit <code>jsr</code> and <code>ret</code>.
+     * @param inline true if finally blocks should be inlined
+     */
+    public void setInlineFinally(boolean inline)
+    {
+        inlineFinally = inline;
+    }
+
+    /**
+     * Whether finally blocks are inlined at each exit from a try block.
+     * @return true if finally blocks are inlined rather than called as subroutines
+     */
+    public boolean isInlineFinally()
+    {
+        return inlineFinally || classFileVersion >= 50;
+    }
+
+    /**
+     * Sets whether the code of generated methods is passed through a peephole optimizer.
+     * </br>
+     * The optimizer removes redundant instructions left by the naive generation of code,
+     * such as a <code>goto</code> to the next instruction, jumps to jumps and values
+     * that are stored and immediately loaded again.
+     * The bytes saved in each class are logged at level <code>FINE</code>.
+     * The default is false.
+     * @param optimize true if generated code should be optimized
+     */
+    public void setOptimizeCode(boolean optimize)
+    {
+        optimizeCode = optimize;
+    }
+
+    /**
+     * Whether the code of generated methods is passed through a peephole optimizer.
+     * @return true if generated code is optimized
+     */
+    public boolean isOptimizeCode()
+    {
+        return optimizeCode;
+    }
+
+    /**
+     * Sets the size of code above which the body of a method is continued in a helper method.
+     * </br>
+     * The JIT compiler will not compile a method with more than 8000 bytes of code,
+     * so a very large generated method would always be interpreted.
+     * When the code of a method nears the limit at the end of an expression statement
+     * in the outermost block of the method body, the remaining statements are generated
+     * in a private synthetic method that is passed the local variables as parameters.
+     * The helper methods are named after the method, as in <code>name$part1</code>,
+     * <code>name$part2</code> and so on.
+     * Constructors are never split.
+     * The default is <code>DEFAULT_METHOD_SIZE_LIMIT</code>.
+     * @param limit the size of code in bytes or zero to never split methods
+     */
+    public void setMethodSizeLimit(int limit)
+    {
+        methodSizeLimit = limit;
+    }
+
+    /**
+     * The size of code above which the body of a method is continued in a helper method.
+     * @return the size of code in bytes or zero if methods are never split
+     */
+    public int getMethodSizeLimit()
+    {
+        return methodSizeLimit;
+    }
+
+    /**
+     * Sets the persistent cache of generated classes.
+     * </br>
+     * Compilers consult the cache before parsing a source file and generating its class,
+     * and generated classes are saved in the cache when they are defined.
+     * @param cache the class cache or null to disable caching
+     */
+    public void setClassCache(ClassCache cache)
+    {
+        classCache = cache;
+    }
+
+    /**
+     * The persistent cache of generated classes.
+     * @return the class cache or null if classes are not cached
+     */
+    public ClassCache getClassCache()
+    {
+        return classCache;
+    }
+
+    /**
+     * Creates a key for a generated class in the class cache.
+     * </br>
+     * The key includes the options of this factory that affect the generated code.
+     * @param className the fully qualified name of the generated class
+     * @return a new key or null if classes are not cached
+     */
+    public ClassCache.Key createCacheKey(String className)
+    {
+        ClassCache cache = classCache;
+        if (cache == null) {
+            return null;
+        }
+        ClassCache.Key key = cache.createKey(className);
+        key.add(Integer.toString(getClassFileVersion()));
+        key.add(Boolean.toString(isInlineFinally()));
+        key.add(Integer.toString(getMethodSizeLimit()));
+        key.add(Boolean.toString(isOptimizeCode()));
+        return key;
+    }
+
+    /**
+     * Defines a class from the class cache.
+     * </br>
+     * Returns the class if it has already been defined in the shared class loader.
+     * @param key the key describing the generated class
+     * @return the class or null if it is not in the cache
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Class<T> defineCachedClass(ClassCache.Key key)
+    {
+        ClassCache cache = classCache;
+        if (cache == null || key == null) {
+            return null;
+        }
+        SimpleClassLoader classLoader = getClassLoader();
+        synchronized (classLoader) {
+            Class<?> javaClass = classLoader.getLocalClasses().get(key.getClassName());
+            if (javaClass == null) {
+                byte[] classBytes = cache.load(key);
+                if (classBytes == null) {
+                    return null;
+                }
+                javaClass = classLoader.defineClass(key.getClassName(), classBytes);
+            }
+            return (Class<T>)javaClass;
+        }
+    }
+
     /**
      * Create a new ClassLoader instance.
      * @return the shared class loader
@@ -227,7 +448,7 @@ public class ClassMakerFactory
      * The ClassLoader used by all ClassMakers that share this factory.
      * @return the shared class loader
      */
-    public SimpleClassLoader getClassLoader()
+    public synchronized SimpleClassLoader getClassLoader()
     {
         if (loader == null) {
             loader = createClassLoader();
@@ -238,15 +459,16 @@ public class ClassMakerFactory
      * Sets the ClassLoader used by all ClassMakers that share this factory.
      * @param classLoader a shared class loader
      */
-    public void setClassLoader(SimpleClassLoader classLoader)
+    public synchronized void setClassLoader(SimpleClassLoader classLoader)
     {
     	loader = classLoader;
+    	clearMissingClasses();
     }
 
     /**
      * The ExceptionFactory to be used by all ClassMakers that share this factory.
      */
-    public ExceptionFactory getExceptionFactory()
+    public synchronized ExceptionFactory getExceptionFactory()
     {
         if (exceptionFactory == null) {
             exceptionFactory = new ExceptionFactory();
@@ -256,21 +478,54 @@ public class ClassMakerFactory
 
     private Type getType(String name)
     {
-        return typeMap.get(name);
+        return (name == null) ? null : typeMap.get(name);
     }
 
     public ClassMaker findClassMaker(String className) {
-        return classMakerMap.get(className);
+        return (className == null) ? null : classMakerMap.get(className);
     }
     
     public void addClassMaker(ClassMaker maker) {
         String className = maker.getFullyQualifiedClassName();
         classMakerMap.put(className, maker);
+        // The new class may previously have been looked up and not found.
+        clearMissingClasses();
+    }
+
+    /**
+     * Forgets all class names that were not found by the class loader.
+     * </br>
+     * This is done automatically when a <code>ClassMaker</code> is added or the class loader
+     * is changed, but must be called explicitly if classes become available by other means.
+     */
+    public void clearMissingClasses()
+    {
+        missingClasses.clear();
+    }
+
+    /**
+     * The number of class lookups that were answered from the cache of missing class names,
+     * without calling the class loader.
+     * @return the number of cache hits
+     */
+    public long getMissingClassHits()
+    {
+        return missingClassHits.get();
+    }
+
+    /**
+     * The number of class lookups that the class loader could not find.
+     * Each of these names is added to the cache of missing class names.
+     * @return the number of cache misses
+     */
+    public long getMissingClassMisses()
+    {
+        return missingClassMisses.get();
     }
 
     public int incAnonomousClass()
     {
-        return anonomousClass++;
+        return anonomousClass.getAndIncrement();
     }
 
     /** Adds all the standard PrimitiveTypes */
@@ -312,9 +567,24 @@ public class ClassMakerFactory
         typeMap.put(name, type);
    }
 
-    protected void addGeneric(String key, GenericType type)
+    /**
+     * Adds the Type to the type map unless a Type with the same name is already mapped.
+     * <br/>
+     * Types may be created concurrently by several threads, so the first Type to be
+     * mapped is shared and later duplicates are discarded.
+     * @param type the Type to be mapped for future lookups
+     * @return the Type that is included in the Type map
+     */
+    protected Type addTypeIfAbsent(Type type)
+    {
+        Type existing = typeMap.putIfAbsent(type.getName(), type);
+        return (existing == null) ? type : existing;
+    }
+
+    protected GenericType addGeneric(String key, GenericType type)
     {
-        genericMap.put(key, type);
+        GenericType existing = genericMap.putIfAbsent(key, type);
+        return (existing == null) ? type : existing;
     }
 
     /**
@@ -349,8 +619,7 @@ public class ClassMakerFactory
             type = new ClassType(javaClass);
         }
         type.setFactory(this);
-        addType(type);
-        return type;
+        return addTypeIfAbsent(type).toClass();
     }
     
     /**
@@ -382,8 +651,7 @@ public class ClassMakerFactory
         String name = typeName + "[]";
         String signature = "[" + arrayOfType.getSignature();
         ArrayType element = new ArrayType(name, signature, arrayOfType, null);
-        addType(element);
-        return element;
+        return addTypeIfAbsent(element).toArray();
     }
 
     /**
@@ -399,8 +667,7 @@ public class ClassMakerFactory
         String signature = MakerUtil.classToSignature(javaClass);
         Type element = classToType(javaClass.getComponentType());
         ArrayType array = new ArrayType(name, signature, element, javaClass);
-        addType(array);
-        return array;
+        return addTypeIfAbsent(array).toArray();
     }
     
     public GenericType javaTypeToGenericType(java.lang.reflect.Type javaType) {
@@ -469,8 +736,7 @@ public class ClassMakerFactory
         ParameterType [] paras = getParameterTypes(genericType, generic);
         genericType.setParameterTypes(paras);
         genericType.setFactory(this);
-        addGeneric(generic.toString(), genericType);
-        return genericType;
+        return addGeneric(generic.toString(), genericType);
     }
     
     /**
@@ -480,12 +746,19 @@ public class ClassMakerFactory
      */
     private Type loadClass(String className) throws ClassMakerException
     {
+        String name = MakerUtil.toDotName(className);
+        // Avoid the cost of another ClassNotFoundException for a name that is known to be missing.
+        if (missingClasses.get(name) != null) {
+            missingClassHits.incrementAndGet();
+            return null;
+        }
         try
         {
-            String name = MakerUtil.toDotName(className);
             Class javaClass = getClassLoader().loadClass(name);
             return classToType(javaClass);
         } catch (ClassNotFoundException ex) {
+            missingClassMisses.incrementAndGet();
+            missingClasses.put(name, Boolean.TRUE);
             return null;
         }
     }
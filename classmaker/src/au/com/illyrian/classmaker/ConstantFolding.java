@@ -0,0 +1,319 @@
+// Copyright (c) 2010, Donald Strong.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+
+package au.com.illyrian.classmaker;
+
+import au.com.illyrian.classmaker.types.Type;
+import au.com.illyrian.classmaker.types.Value;
+
+/**
+ * Evaluates operators on constant operands while the code is generated.
+ * <br/>
+ * The operands are promoted in the same way as for the generated code and the result
+ * is calculated with the same semantics, so replacing the operator with the result
+ * does not change the behaviour of the class.
+ * An integer division or remainder by zero is not evaluated, so that the
+ * <code>ArithmeticException</code> is still thrown when the code is run.
+ */
+final class ConstantFolding
+{
+    static final int ADD = 1;
+    static final int SUBT = 2;
+    static final int MULT = 3;
+    static final int DIV = 4;
+    static final int REM = 5;
+    static final int AND = 6;
+    static final int OR = 7;
+    static final int XOR = 8;
+    static final int SHL = 9;
+    static final int SHR = 10;
+    static final int USHR = 11;
+    static final int GT = 12;
+    static final int GE = 13;
+    static final int LE = 14;
+    static final int LT = 15;
+    static final int EQ = 16;
+    static final int NE = 17;
+    static final int NEG = 18;
+    static final int INV = 19;
+    static final int NOT = 20;
+
+    private ConstantFolding()
+    {
+    }
+
+    /**
+     * The type of a numeric operand after unary promotion.
+     *
+     * @param type the type of the operand
+     * @return the promoted type or null if the operand is not numeric
+     */
+    static Type promote(Type type)
+    {
+        if (ClassMaker.isIntegerType(type))
+            return ClassMakerFactory.INT_TYPE;
+        else if (ClassMaker.isNumericType(type))
+            return type;
+        return null;
+    }
+
+    /**
+     * The type of two numeric operands after binary promotion.
+     *
+     * @param left the type of the left operand
+     * @param right the type of the right operand
+     * @return the promoted type or null if either operand is not numeric
+     */
+    static Type promote(Type left, Type right)
+    {
+        left = promote(left);
+        right = promote(right);
+        if (left == null || right == null)
+            return null;
+        else if (ClassMakerFactory.DOUBLE_TYPE.equals(left) || ClassMakerFactory.DOUBLE_TYPE.equals(right))
+            return ClassMakerFactory.DOUBLE_TYPE;
+        else if (ClassMakerFactory.FLOAT_TYPE.equals(left) || ClassMakerFactory.FLOAT_TYPE.equals(right))
+            return ClassMakerFactory.FLOAT_TYPE;
+        else if (ClassMakerFactory.LONG_TYPE.equals(left) || ClassMakerFactory.LONG_TYPE.equals(right))
+            return ClassMakerFactory.LONG_TYPE;
+        return ClassMakerFactory.INT_TYPE;
+    }
+
+    /**
+     * The type of a constant result.
+     *
+     * @param constant the result of <code>fold</code>
+     * @return the type of the constant
+     */
+    static Type typeOf(Object constant)
+    {
+        if (constant instanceof String)
+            return ClassMakerFactory.STRING_TYPE;
+        else if (constant instanceof Boolean)
+            return ClassMakerFactory.BOOLEAN_TYPE;
+        else if (constant instanceof Long)
+            return ClassMakerFactory.LONG_TYPE;
+        else if (constant instanceof Float)
+            return ClassMakerFactory.FLOAT_TYPE;
+        else if (constant instanceof Double)
+            return ClassMakerFactory.DOUBLE_TYPE;
+        return ClassMakerFactory.INT_TYPE;
+    }
+
+    /**
+     * Applies a unary operator to a constant.
+     *
+     * @param operator one of <code>NEG</code>, <code>INV</code> or <code>NOT</code>
+     * @param value the constant operand
+     * @return the constant result or null if the operator cannot be applied
+     */
+    static Object fold(int operator, Value value)
+    {
+        Object constant = value.getConstant();
+        if (operator == NOT)
+            return (constant instanceof Boolean) ? Boolean.valueOf(!((Boolean) constant).booleanValue()) : null;
+        Type type = promote(value.getType());
+        if (ClassMakerFactory.INT_TYPE.equals(type)) {
+            int a = ((Number) constant).intValue();
+            return (operator == NEG) ? Integer.valueOf(-a) : (operator == INV) ? Integer.valueOf(~a) : null;
+        } else if (ClassMakerFactory.LONG_TYPE.equals(type)) {
+            long a = ((Number) constant).longValue();
+            return (operator == NEG) ? Long.valueOf(-a) : (operator == INV) ? Long.valueOf(~a) : null;
+        } else if (ClassMakerFactory.FLOAT_TYPE.equals(type)) {
+            return (operator == NEG) ? Float.valueOf(-((Number) constant).floatValue()) : null;
+        } else if (ClassMakerFactory.DOUBLE_TYPE.equals(type)) {
+            return (operator == NEG) ? Double.valueOf(-((Number) constant).doubleValue()) : null;
+        }
+        return null;
+    }
+
+    /**
+     * Applies a binary operator to two constants.
+     *
+     * @param operator the operator, from <code>ADD</code> to <code>NE</code>
+     * @param value1 the constant left operand
+     * @param value2 the constant right operand
+     * @return the constant result or null if the operator cannot be applied
+     */
+    static Object fold(int operator, Value value1, Value value2)
+    {
+        Object left = value1.getConstant();
+        Object right = value2.getConstant();
+        if (left instanceof Boolean && right instanceof Boolean) {
+            return foldBoolean(operator, ((Boolean) left).booleanValue(), ((Boolean) right).booleanValue());
+        }
+        if (operator == SHL || operator == SHR || operator == USHR) {
+            // The operands are promoted independently.
+            if (!ClassMakerFactory.INT_TYPE.equals(promote(value2.getType())))
+                return null;
+            Type type = promote(value1.getType());
+            int bits = ((Number) right).intValue();
+            if (ClassMakerFactory.INT_TYPE.equals(type))
+                return foldShift(operator, ((Number) left).intValue(), bits);
+            else if (ClassMakerFactory.LONG_TYPE.equals(type))
+                return foldShift(operator, ((Number) left).longValue(), bits);
+            return null;
+        }
+        Type type = promote(value1.getType(), value2.getType());
+        if (ClassMakerFactory.INT_TYPE.equals(type))
+            return foldInt(operator, ((Number) left).intValue(), ((Number) right).intValue());
+        else if (ClassMakerFactory.LONG_TYPE.equals(type))
+            return foldLong(operator, ((Number) left).longValue(), ((Number) right).longValue());
+        else if (ClassMakerFactory.FLOAT_TYPE.equals(type))
+            return foldFloat(operator, ((Number) left).floatValue(), ((Number) right).floatValue());
+        else if (ClassMakerFactory.DOUBLE_TYPE.equals(type))
+            return foldDouble(operator, ((Number) left).doubleValue(), ((Number) right).doubleValue());
+        return null;
+    }
+
+    private static Object foldBoolean(int operator, boolean a, boolean b)
+    {
+        switch (operator) {
+        case EQ: return Boolean.valueOf(a == b);
+        case NE: return Boolean.valueOf(a != b);
+        default: return null;
+        }
+    }
+
+    private static Object foldShift(int operator, int a, int bits)
+    {
+        switch (operator) {
+        case SHL: return Integer.valueOf(a << bits);
+        case SHR: return Integer.valueOf(a >> bits);
+        case USHR: return Integer.valueOf(a >>> bits);
+        default: return null;
+        }
+    }
+
+    private static Object foldShift(int operator, long a, int bits)
+    {
+        switch (operator) {
+        case SHL: return Long.valueOf(a << bits);
+        case SHR: return Long.valueOf(a >> bits);
+        case USHR: return Long.valueOf(a >>> bits);
+        default: return null;
+        }
+    }
+
+    private static Object foldInt(int operator, int a, int b)
+    {
+        switch (operator) {
+        case ADD: return Integer.valueOf(a + b);
+        case SUBT: return Integer.valueOf(a - b);
+        case MULT: return Integer.valueOf(a * b);
+        case DIV: return (b == 0) ? null : Integer.valueOf(a / b);
+        case REM: return (b == 0) ? null : Integer.valueOf(a % b);
+        case AND: return Integer.valueOf(a & b);
+        case OR: return Integer.valueOf(a | b);
+        case XOR: return Integer.valueOf(a ^ b);
+        case GT: return Boolean.valueOf(a > b);
+        case GE: return Boolean.valueOf(a >= b);
+        case LE: return Boolean.valueOf(a <= b);
+        case LT: return Boolean.valueOf(a < b);
+        case EQ: return Boolean.valueOf(a == b);
+        case NE: return Boolean.valueOf(a != b);
+        default: return null;
+        }
+    }
+
+    private static Object foldLong(int operator, long a, long b)
+    {
+        switch (operator) {
+        case ADD: return Long.valueOf(a + b);
+        case SUBT: return Long.valueOf(a - b);
+        case MULT: return Long.valueOf(a * b);
+        case DIV: return (b == 0) ? null : Long.valueOf(a / b);
+        case REM: return (b == 0) ? null : Long.valueOf(a % b);
+        case AND: return Long.valueOf(a & b);
+        case OR: return Long.valueOf(a | b);
+        case XOR: return Long.valueOf(a ^ b);
+        case GT: return Boolean.valueOf(a > b);
+        case GE: return Boolean.valueOf(a >= b);
+        case LE: return Boolean.valueOf(a <= b);
+        case LT: return Boolean.valueOf(a < b);
+        case EQ: return Boolean.valueOf(a == b);
+        case NE: return Boolean.valueOf(a != b);
+        default: return null;
+        }
+    }
+
+    private static Object foldFloat(int operator, float a, float b)
+    {
+        switch (operator) {
+        case ADD: return Float.valueOf(a + b);
+        case SUBT: return Float.valueOf(a - b);
+        case MULT: return Float.valueOf(a * b);
+        case DIV: return Float.valueOf(a / b);
+        case REM: return Float.valueOf(a % b);
+        case GT: return Boolean.valueOf(a > b);
+        case GE: return Boolean.valueOf(a >= b);
+        case LE: return Boolean.valueOf(a <= b);
+        case LT: return Boolean.valueOf(a < b);
+        case EQ: return Boolean.valueOf(a == b);
+        case NE: return Boolean.valueOf(a != b);
+        default: return null;
+        }
+    }
+
+    private static Object foldDouble(int operator, double a, double b)
+    {
+        switch (operator) {
+        case ADD: return Double.valueOf(a + b);
+        case SUBT: return Double.valueOf(a - b);
+        case MULT: return Double.valueOf(a * b);
+        case DIV: return Double.valueOf(a / b);
+        case REM: return Double.valueOf(a % b);
+        case GT: return Boolean.valueOf(a > b);
+        case GE: return Boolean.valueOf(a >= b);
+        case LE: return Boolean.valueOf(a <= b);
+        case LT: return Boolean.valueOf(a < b);
+        case EQ: return Boolean.valueOf(a == b);
+        case NE: return Boolean.valueOf(a != b);
+        default: return null;
+        }
+    }
+
+    /**
+     * Concatenates two constants, at least one of which is a <code>String</code>.
+     *
+     * @param value1 the constant left operand
+     * @param value2 the constant right operand
+     * @return the concatenated <code>String</code>
+     */
+    static String concatenate(Value value1, Value value2)
+    {
+        return toString(value1) + toString(value2);
+    }
+
+    private static String toString(Value value)
+    {
+        Object constant = value.getConstant();
+        if (ClassMakerFactory.CHAR_TYPE.equals(value.getType()))
+            return String.valueOf((char) ((Integer) constant).intValue());
+        return String.valueOf(constant);
+    }
+}
@@ -138,6 +138,25 @@ class LoopStatement extends Statement {
         return this;
     }
 
+    /**
+     * Finds this statement for <code>Break</code> and <code>Continue</code>
+     * if the <code>label</code> is <code>null</code> or matches this statement.
+     * 
+     * @param jumpTarget <code>ClassMaker.BREAK</code>,
+     *            <code>ClassMaker.CONTINUE</code> or
+     *            <code>ClassMaker.RETURN</code>.
+     * @param label the name of the statement to jump to or <code>null</code>
+     * @return the target <code>Statement</code> or <code>null</code> if not
+     *         found.
+     */
+    protected Statement findJumpTarget(String jumpTarget, String label) {
+        if ((ClassMaker.BREAK.equals(jumpTarget) || ClassMaker.CONTINUE.equals(jumpTarget))
+                && (label == null || label.equals(getLabel()))) {
+            return this;
+        }
+        return super.findJumpTarget(jumpTarget, label);
+    }
+
     /** Jumps to the beginning of the loop. */
     protected void continueLoop() {
         jumpTo(beginLoop);
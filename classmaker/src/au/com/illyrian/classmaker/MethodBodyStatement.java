@@ -30,6 +30,21 @@ class MethodBodyStatement extends ScopeStatement
         return null;
     }
 
+    /**
+     * Finds this instance if the jumpTarget is <code>ClassMaker.RETURN</code>.
+     * @param jumpTarget must be <code>ClassMaker.RETURN</code>.
+     * @param label the name of the statement to jump to
+     * @return the target <code>Statement</code> or <code>null</code> if not found.
+     */
+    protected Statement findJumpTarget(String jumpTarget, String label)
+    {
+        if (ClassMaker.RETURN.equals(jumpTarget) && getNext() == null)
+        {
+            return this;
+        }
+        return null;
+    }
+
     /* Implements Labelled. */
     public void setLabel(String label)
     {
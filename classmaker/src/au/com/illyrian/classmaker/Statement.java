@@ -85,6 +85,26 @@ abstract class Statement implements Labelled
         }
     }
     
+    /**
+     * Finds the <code>Statement</code> that a jump would go to without generating any code.
+     * This default implementation matches a <code>Break</code> with the label of this statement
+     * and otherwise passes the request down the statement stack.
+     * @param jumpType <code>ClassMaker.BREAK</code>, <code>ClassMaker.CONTINUE</code> or
+     * <code>ClassMaker.RETURN</code>.
+     * @param label the name of the statement to jump to
+     * @return the target <code>Statement</code> or <code>null</code> if not found.
+     */
+    protected Statement findJumpTarget(String jumpType, String label)
+    {
+        if (ClassMaker.BREAK.equals(jumpType) && getLabel() != null && getLabel().equals(label)) {
+            return this;
+        } else if (hasNext()) {
+            return getNext().findJumpTarget(jumpType, label);
+        } else {
+            return null;
+        }
+    }
+
     /**
      * Create a location holder where a jump label can be stored.
      * This allows forward jumps as the jump label can be used before the target location 
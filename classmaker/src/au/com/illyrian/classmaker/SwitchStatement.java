@@ -225,4 +225,20 @@ class SwitchStatement extends Statement
         }
         return super.jumpToTarget(jumpTarget, label);
     }
+
+    /**
+     * Finds this statement for <code>Break</code> if the <code>label</code> is
+     * <code>null</code> or matches this statement.
+     * @param jumpTarget <code>ClassMaker.BREAK</code>, <code>ClassMaker.CONTINUE</code> or <code>ClassMaker.RETURN</code>.
+     * @param label the name of the statement to jump to or <code>null</code>
+     * @return the target <code>Statement</code> or <code>null</code> if not found.
+     */
+    protected Statement findJumpTarget(String jumpTarget, String label)
+    {
+        if (ClassMaker.BREAK.equals(jumpTarget) && (label == null || label.equals(this.label)))
+        {
+            return this;
+        }
+        return super.findJumpTarget(jumpTarget, label);
+    }
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package au.com.illyrian.classmaker;
 
+import java.util.Vector;
+
 import au.com.illyrian.classmaker.members.MakerField;
 import au.com.illyrian.classmaker.types.Type;
 
@@ -7,6 +9,13 @@ import au.com.illyrian.classmaker.types.Type;
  * Represents a <code>Try Catch Finally</code> statement.
  * Assists the generation of code for the statement by managing the
  * jump addresses and subroutines.
+ * </br>
+ * Each <code>Return</code>, <code>Break</code> and <code>Continue</code> that leaves
+ * the try or catch blocks jumps to an exit that executes the finally block before
+ * passing the jump down the statement stack.
+ * If the factory inlines finally blocks, the finally block is not called as a
+ * subroutine. Instead, it is generated in the handler for uncaught exceptions and
+ * copied to the normal exit and to each of these exits.
  */
 public class TryCatchFinally extends Statement
 {
@@ -28,6 +37,22 @@ public class TryCatchFinally extends Statement
     
     int finalyExceptionSlot = -1;
     MakerField finalyExceptionField = null;
+
+    /* Finally blocks are copied to each exit rather than called as a subroutine. */
+    boolean inlineFinally = false;
+
+    /* Start and end of the inlined finally block which is copied to each exit. */
+    int startFinallyBlock = 0;
+    int endFinallyBlock = 0;
+
+    /* Break from within the finally block jumps past the normal exit. */
+    int endTryStatement = 0;
+
+    /* An anonymous local variable holds the return value while the finally block is executed. */
+    MakerField finallyReturnValue = null;
+
+    /* Each Return, Break or Continue that leaves the try block through the finally block. */
+    Vector<FinallyExit> finallyExits = new Vector<FinallyExit>();
     
     public TryCatchFinally(ClassMaker classMaker) {
         super(classMaker);
@@ -46,6 +71,7 @@ public class TryCatchFinally extends Statement
         if (maker.isDebugCode()) {
             maker.setDebugComment("Try();");
         }
+        inlineFinally = maker.getFactory().isInlineFinally();
         startTryBlock = acquireLabel();
         endCatchBlock = acquireLabel();
         markLabel(startTryBlock);
@@ -115,6 +141,10 @@ public class TryCatchFinally extends Statement
             maker.setDebugComment("Finally();");
         }
         endTryCatchBlock();
+        if (inlineFinally) {
+            inlineFinally();
+            return;
+        }
 
         // Start finally block
         int catchBlockAll = acquireLabel();
@@ -153,6 +183,29 @@ public class TryCatchFinally extends Statement
         finallyReturnField = maker.storeAnonymousField(ClassMakerFactory.OBJECT_TYPE);
     }
 
+    /**
+     * Starts an inlined finally block.
+     * </br>
+     * The handler for uncaught exceptions stores the exception and falls through
+     * into the original finally block, which is copied to each exit by <code>EndTry</code>.
+     */
+    void inlineFinally()
+    {
+        int catchBlockAll = acquireLabel();
+        getGen().catchException(startTryBlock, catchBlockAll, catchBlockAll, null);
+
+        markLabel(catchBlockAll);
+        maker.markLineNumber(); // possibly add a new line number entry.
+        // Store the exception pointer in an anonymous local variable.
+        if (maker.isDebugCode()) {
+            maker.setDebugComment("Store reference to exception");
+        }
+        finalyExceptionField = maker.storeAnonymousField(ClassMakerFactory.OBJECT_TYPE);
+
+        startFinallyBlock = acquireLabel();
+        markLabel(startFinallyBlock);
+    }
+
     /**
      * Generates the bytecode to end a <code>Try Catch Finally</code> block.
      * The <code>Try</code> block and all preceeding <code>Catch</code> blocks jump to here.
@@ -164,16 +217,38 @@ public class TryCatchFinally extends Statement
             if (maker.isDebugCode())  {
             	maker.setDebugComment("EndTry();");
             }
+            if (inlineFinally) {
+                endInlineFinally();
+                return;
+            }
             if (finallyReturnField != null) {
                 getGen().returnFinallySubroutine(finallyReturnField.getSlot());
+            } else if (!finallyExits.isEmpty()) {
+                // Jump over the exits from the try block.
+                jumpTo(endCatchBlock);
             }
+
+            for (FinallyExit exit : finallyExits) {
+                markLabel(exit.exitLabel);
+                callFinallySubroutine();
+                completeExit(exit);
+            }
+
             markLabel(endCatchBlock);
-            if (finallySubroutine != 0) {
-                getGen().callFinallySubroutine(finallySubroutine);
+            callFinallySubroutine();
+            if (endTryStatement != 0) {
+                markLabel(endTryStatement);
             }
         }
     }
 
+    void callFinallySubroutine()
+    {
+        if (finallySubroutine != 0) {
+            getGen().callFinallySubroutine(finallySubroutine);
+        }
+    }
+
     /**
      * Generates bytecode at the start of a <code>Catch</code> block.
      * </br>
@@ -191,9 +266,149 @@ public class TryCatchFinally extends Statement
         jumpTo(endCatchBlock);
     }
 
+    /**
+     * Generates the bytecode to end a <code>Try Catch Finally</code> block with
+     * an inlined finally block.
+     * </br>
+     * Re-throws the exception at the end of the original finally block and then
+     * generates a copy of the finally block for each exit from the try block,
+     * followed by the normal exit.
+     */
+    void endInlineFinally()
+    {
+        if (startFinallyBlock != 0) {
+            endFinallyBlock = acquireLabel();
+            markLabel(endFinallyBlock);
+            // Re-throw the exception.
+            if (maker.isDebugCode()) {
+                maker.setDebugComment("Load reference to exception");
+            }
+            maker.loadAnonymousField(finalyExceptionField);
+            getGen().Throw(ClassMakerFactory.OBJECT_TYPE);
+        } else if (!finallyExits.isEmpty()) {
+            // Jump over the exits from the try block.
+            jumpTo(endCatchBlock);
+        }
+
+        for (FinallyExit exit : finallyExits) {
+            markLabel(exit.exitLabel);
+            copyFinallyBlock();
+            completeExit(exit);
+        }
+
+        markLabel(endCatchBlock);
+        copyFinallyBlock();
+        if (endTryStatement != 0) {
+            markLabel(endTryStatement);
+        }
+    }
+
+    void copyFinallyBlock()
+    {
+        if (startFinallyBlock != 0) {
+            getGen().copyFinallyBlock(startFinallyBlock, endFinallyBlock);
+        }
+    }
+
+    /**
+     * Completes a <code>Return</code>, <code>Break</code> or <code>Continue</code>
+     * after the finally block has been executed by passing it down the statement stack.
+     */
+    void completeExit(FinallyExit exit)
+    {
+        if (ClassMaker.RETURN.equals(exit.jumpType)) {
+            Type returnType = maker.getReturnType();
+            if (finallyReturnValue != null) {
+                maker.loadAnonymousField(finallyReturnValue);
+            }
+            if (getNext().jumpToTarget(ClassMaker.RETURN, null) instanceof MethodBodyStatement) {
+                if (finallyReturnValue != null) {
+                    getGen().Return(returnType);
+                } else {
+                    getGen().Return();
+                }
+            }
+        } else {
+            getNext().jumpToTarget(exit.jumpType, exit.label);
+        }
+    }
+
+    /**
+     * Whether code is being generated for the finally block rather than the try or catch blocks.
+     */
+    boolean isInFinallyBlock()
+    {
+        return inlineFinally ? startFinallyBlock != 0 : finallySubroutine != 0;
+    }
+
+    /**
+     * Jumps to a <code>Statement</code> through the finally block.
+     * </br>
+     * A <code>Return</code>, <code>Break</code> or <code>Continue</code> that leaves the
+     * try or catch blocks jumps to an exit that executes the finally block, either as a copy
+     * or by calling the finally subroutine, before passing the jump down the statement stack.
+     * A return value is held in an anonymous local variable while the finally block executes.
+     * @param jumpType <code>ClassMaker.BREAK</code>, <code>ClassMaker.CONTINUE</code> or
+     * <code>ClassMaker.RETURN</code>.
+     * @param label the name of the statement to jump to or <code>null</code>
+     * @return this statement if the jump is completed after the finally block,
+     * the target <code>Statement</code>, or <code>null</code> if not found.
+     */
+    protected Statement jumpToTarget(String jumpType, String label)
+    {
+        if (ClassMaker.BREAK.equals(jumpType) && getLabel() != null && getLabel().equals(label)) {
+            if (!isInFinallyBlock()) {
+                // Break jumps to the normal exit, which executes the finally block.
+                jumpTo(endCatchBlock);
+            } else {
+                // Break from the finally block jumps past the normal exit.
+                if (endTryStatement == 0) {
+                    endTryStatement = acquireLabel();
+                }
+                jumpTo(endTryStatement);
+            }
+            return this;
+        }
+        if (isInFinallyBlock() || !hasNext()) {
+            return super.jumpToTarget(jumpType, label);
+        }
+        if (getNext().findJumpTarget(jumpType, label) == null) {
+            return null;
+        }
+        if (ClassMaker.RETURN.equals(jumpType)) {
+            Type returnType = maker.getReturnType();
+            if (!ClassMakerFactory.VOID_TYPE.equals(returnType)) {
+                if (finallyReturnValue == null) {
+                    finallyReturnValue = maker.storeAnonymousField(returnType, getScopeLevel());
+                } else {
+                    getGen().storeLocal(finallyReturnValue);
+                }
+            }
+        }
+        FinallyExit exit = new FinallyExit(acquireLabel(), jumpType, label);
+        finallyExits.add(exit);
+        jumpTo(exit.exitLabel);
+        return this;
+    }
+
     protected int getStatementEnd()
     {
     	return endCatchBlock;
     }
 
+    /* A jump out of the try block that must execute the finally block first. */
+    static class FinallyExit
+    {
+        final int exitLabel;
+        final String jumpType;
+        final String label;
+
+        FinallyExit(int exitLabel, String jumpType, String label)
+        {
+            this.exitLabel = exitLabel;
+            this.jumpType = jumpType;
+            this.label = label;
+        }
+    }
+
 }
\ No newline at end of file
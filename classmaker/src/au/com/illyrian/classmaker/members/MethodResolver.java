@@ -29,7 +29,10 @@ package au.com.illyrian.classmaker.members;
 
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 import au.com.illyrian.classmaker.CallStack;
 import au.com.illyrian.classmaker.CallStackMaker;
@@ -38,6 +41,9 @@ import au.com.illyrian.classmaker.ClassMakerException;
 import au.com.illyrian.classmaker.ClassMakerFactory;
 import au.com.illyrian.classmaker.converters.AssignmentConversion;
 import au.com.illyrian.classmaker.converters.MethodInvocationConversion;
+import au.com.illyrian.classmaker.types.ClassType;
+import au.com.illyrian.classmaker.types.MakerClassType;
+import au.com.illyrian.classmaker.types.MethodsVersion;
 import au.com.illyrian.classmaker.types.Type;
 
 /**
@@ -51,10 +57,16 @@ public class MethodResolver
     /** An empty call stack that may be used to call methods with no parameters */
     private final CallStackMaker EMPTY_CALL_STACK = new CallStackMaker(null);
 
+    /** The maximum number of resolved methods that are remembered. */
+    public static final int RESOLVED_METHOD_CACHE_SIZE = 4096;
+
     private final MethodInvocationConversion invokeConverter;
     private final AssignmentConversion assignConverter;
     private static final MakerMethod[] METHOD_ARRAY = new MakerMethod[0];
 
+    /** Methods previously resolved for a class, method name and actual parameter types. */
+    private final ConcurrentHashMap<ResolveKey, Resolved> resolvedMethods = new ConcurrentHashMap<ResolveKey, Resolved>();
+
     /**
      * Constructs a method resolver.
      * @param factory the shared <code>ClassMakerFactory</code>
@@ -65,6 +77,64 @@ public class MethodResolver
         assignConverter = factory.getAssignmentConversion();
     }
 
+    /**
+     * Resolves which method to call in the given class.
+     * <br/>
+     * The result is remembered, so later calls with the same class, method name and
+     * actual parameter types do not repeat the resolution.
+     * Results that depend upon generated classes are recalculated whenever the methods
+     * or parents of those classes change.
+     * @param maker the <code>ClassMaker</code> instance which is calling the method
+     * @param classType the class that declares or inherits the method
+     * @param name the name of the method, or <code>&lt;init&gt;</code> for a constructor
+     * @param actualParameters the actual parameters provided to the method
+     * @return the most suitable method to call
+     * @throws ClassMakerException if their are no methods of the given name or 
+     *         if a unique candidate cannot be chosen from the overloaded methods
+     */
+    public MakerMethod resolveMethod(ClassMaker maker, ClassType classType, String name, CallStack actualParameters)
+    {
+        if (actualParameters == null) {
+            actualParameters = EMPTY_CALL_STACK;
+        }
+        Type[] actualTypes = actualParameters.toArray();
+        ResolveKey key = new ResolveKey(classType, name, actualTypes);
+        Resolved resolved = resolvedMethods.get(key);
+        if (resolved != null && resolved.version.isCurrent()) {
+            return resolved.method;
+        }
+        MethodsVersion version = getMethodsVersion(classType, name, actualTypes);
+
+        MakerMethod[] methods = ClassMaker.INIT.equals(name) ? classType.getConstructors() : classType.getMethods(name);
+        MakerMethod method = resolveMethod(maker, methods, name, actualParameters);
+        if (resolvedMethods.size() >= RESOLVED_METHOD_CACHE_SIZE) {
+            resolvedMethods.clear();
+        }
+        resolvedMethods.put(key, new Resolved(method, version));
+        return method;
+    }
+
+    /**
+     * Determines the classes being generated that the resolution depends upon.
+     * The methods and parents of a generated class may change while it is being generated.
+     */
+    MethodsVersion getMethodsVersion(ClassType classType, String name, Type[] actualTypes)
+    {
+        Set<MakerClassType> generated = new LinkedHashSet<MakerClassType>();
+        for (Type type : actualTypes) {
+            // The parents of a parameter type determine which methods it may be passed to.
+            if (type instanceof MakerClassType) {
+                ((MakerClassType)type).collectGeneratedTypes(generated);
+            }
+        }
+        if (!ClassMaker.INIT.equals(name)) {
+            classType.collectGeneratedTypes(generated);
+        } else if (classType instanceof MakerClassType) {
+            generated.add((MakerClassType)classType);
+        }
+        return MethodsVersion.create(generated);
+    }
+
     /**
      * Resolves which method to call from the list of method descriptors.
      * <br/>
@@ -152,12 +222,12 @@ public class MethodResolver
     void removeIncompatableCandidates(Vector<MakerMethod> candidates, CallStack parameters)
     {
         // Compare the actual and formal parameters.
+        Type [] actualParameters = parameters.toArray();
         Iterator<MakerMethod> iter = candidates.iterator();
         while (iter.hasNext())
         {
             MakerMethod method = iter.next();
             Type[] formalParameters = method.getFormalTypes();
-            Type [] actualParameters = parameters.toArray();
 
             // Remove candidates with the wrong number of parameters
             int formalSize = formalParameters.length;
@@ -277,4 +347,61 @@ public class MethodResolver
         }
 //        System.out.println("----------------------------------------------------");
     }
+
+    /* Identifies a resolved method by class, method name and the actual parameter types. */
+    static final class ResolveKey
+    {
+        private final ClassType classType;
+        private final String name;
+        private final Type[] actualTypes;
+        private final int hash;
+
+        ResolveKey(ClassType classType, String name, Type[] actualTypes)
+        {
+            this.classType = classType;
+            this.name = name;
+            this.actualTypes = actualTypes;
+            int h = System.identityHashCode(classType) * 31 + name.hashCode();
+            for (Type type : actualTypes) {
+                h = h * 31 + System.identityHashCode(type);
+            }
+            this.hash = h;
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof ResolveKey)) {
+                return false;
+            }
+            ResolveKey other = (ResolveKey)obj;
+            if (classType != other.classType || !name.equals(other.name)
+                    || actualTypes.length != other.actualTypes.length) {
+                return false;
+            }
+            for (int i = 0; i < actualTypes.length; i++) {
+                if (actualTypes[i] != other.actualTypes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /* A resolved method and whether it must be recalculated when generated classes change. */
+    static final class Resolved
+    {
+        final MakerMethod method;
+        final MethodsVersion version;
+
+        Resolved(MakerMethod method, MethodsVersion version)
+        {
+            this.method = method;
+            this.version = version;
+        }
+    }
 }
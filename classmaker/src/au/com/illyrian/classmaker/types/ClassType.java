@@ -27,6 +27,13 @@
 
 package au.com.illyrian.classmaker.types;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
 import au.com.illyrian.classmaker.ClassMakerConstants;
 import au.com.illyrian.classmaker.ClassMakerFactory;
 import au.com.illyrian.classmaker.members.MakerField;
@@ -49,6 +56,8 @@ public class ClassType extends Type {
     protected MakerMethod []  declaredMethods = null;
     protected MakerField  []  declaredFields = null;
     private int               modifiers = 0;
+    private volatile MethodIndex methodIndex = null;
+    private volatile FieldIndex fieldIndex = null;
 
     public ClassType(Class javaClass)
     {
@@ -125,14 +134,15 @@ public class ClassType extends Type {
     public MakerField findDeclaredField(String name)
     {
         MakerField [] fields = getDeclaredFields();
-        if (fields != null) {
-            for (int i = 0; i < fields.length; i++) {
-                if (name.equals(fields[i].getName())) {
-                    return fields[i];
-                }
-            }
+        if (fields == null) {
+            return null;
+        }
+        FieldIndex index = fieldIndex;
+        if (index == null || index.fields != fields) {
+            index = new FieldIndex(fields);
+            fieldIndex = index;
         }
-        return null;
+        return index.get(name);
     }
 
     /**
@@ -188,6 +198,7 @@ public class ClassType extends Type {
     public void setInterfaces(ClassType [] interfaces)
     {
         this.declaredInterfaces = interfaces;
+        methodIndex = null;
     }
     
     /**
@@ -235,6 +246,7 @@ public class ClassType extends Type {
     public void setDeclaredMethods(MakerMethod [] methods)
     {
     	this.declaredMethods = methods;
+    	methodIndex = null;
     }
     
     /**
@@ -243,17 +255,145 @@ public class ClassType extends Type {
      * The methods are collected from the class and all parent classes.
      * If the class is an interface then all abstract interface methods are also collected.
      * Overridden methods are not included so there will only be one method per signature.
+     * </br>
+     * The methods are collected once and indexed by name. The index is rebuilt if it depends
+     * upon a generated class whose methods or parents have since changed.
+     * The returned array is shared and must not be modified.
      * 
      * @param name the simple name of the method without parameters
      * @return an array of method descriptors
      */
     public MakerMethod[] getMethods(String name) {
-        MakerMethodCollector methods = new MakerMethodCollector(name);
-        methods.includeClassMethods(this);
+        MethodIndex index = methodIndex;
+        if (index == null || !index.isCurrent()) {
+            index = createMethodIndex();
+            if (factory != null) {
+                methodIndex = index;
+            }
+        }
+        MakerMethod[] methods = index.methods.get(name);
+        return (methods == null) ? ClassMakerFactory.METHOD_ARRAY : methods;
+    }
+
+    MethodIndex createMethodIndex() {
+        MethodsVersion version = getMethodsVersion();
+        MakerMethodCollector collector = new MakerMethodCollector();
+        collector.includeClassMethods(this);
+        if (isInterface()) {
+            collector.includeInterfaceMethods(this);
+        }
+        Map<String, ArrayList<MakerMethod>> byName = new HashMap<String, ArrayList<MakerMethod>>();
+        for (MakerMethod method : collector.values()) {
+            ArrayList<MakerMethod> list = byName.get(method.getName());
+            if (list == null) {
+                list = new ArrayList<MakerMethod>();
+                byName.put(method.getName(), list);
+            }
+            list.add(method);
+        }
+        Map<String, MakerMethod[]> methods = new HashMap<String, MakerMethod[]>();
+        for (Map.Entry<String, ArrayList<MakerMethod>> entry : byName.entrySet()) {
+            methods.put(entry.getKey(), entry.getValue().toArray(ClassMakerFactory.METHOD_ARRAY));
+        }
+        return new MethodIndex(Collections.unmodifiableMap(methods), version);
+    }
+
+    /**
+     * The version of the methods returned by <code>getMethods</code>, which changes whenever
+     * a generated class among this class and its parents changes its methods or parents.
+     * @return the versions of the generated classes that the methods depend upon
+     */
+    public MethodsVersion getMethodsVersion() {
+        Set<MakerClassType> generated = new LinkedHashSet<MakerClassType>();
+        collectGeneratedTypes(generated);
+        return MethodsVersion.create(generated);
+    }
+
+    /**
+     * Collects the generated classes among this class and the parents whose methods are
+     * returned by <code>getMethods</code>.
+     * @param generated the set to which each <code>MakerClassType</code> is added
+     */
+    public void collectGeneratedTypes(Set<MakerClassType> generated) {
+        for (ClassType type = this; type != null; type = type.getExtendsType()) {
+            if (type instanceof MakerClassType) {
+                generated.add((MakerClassType)type);
+            }
+        }
         if (isInterface()) {
-            methods.includeInterfaceMethods(this);
+            collectGeneratedInterfaces(this, generated);
+        }
+    }
+
+    private static void collectGeneratedInterfaces(ClassType interfaceType, Set<MakerClassType> generated) {
+        if (interfaceType instanceof MakerClassType) {
+            generated.add((MakerClassType)interfaceType);
+        }
+        for (ClassType type : interfaceType.getInterfaces()) {
+            collectGeneratedInterfaces(type, generated);
+        }
+    }
+
+    /**
+     * Determines whether the methods returned by <code>getMethods</code> depend upon a
+     * class that is being generated, so may change while that class is generated.
+     * @return true if this class or a parent is a <code>MakerClassType</code>
+     */
+    public boolean hasGeneratedMethods() {
+        for (ClassType type = this; type != null; type = type.getExtendsType()) {
+            if (type instanceof MakerClassType) {
+                return true;
+            }
+        }
+        return isInterface() && hasGeneratedInterface(this);
+    }
+
+    private static boolean hasGeneratedInterface(ClassType interfaceType) {
+        if (interfaceType instanceof MakerClassType) {
+            return true;
+        }
+        for (ClassType type : interfaceType.getInterfaces()) {
+            if (hasGeneratedInterface(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* The declared fields of a class indexed by name. */
+    static final class FieldIndex {
+        final MakerField [] fields;
+        final Map<String, MakerField> fieldMap;
+
+        FieldIndex(MakerField [] fields) {
+            this.fields = fields;
+            fieldMap = new HashMap<String, MakerField>(fields.length * 2);
+            for (int i = 0; i < fields.length; i++) {
+                // The first declaration of a name takes precedence.
+                if (!fieldMap.containsKey(fields[i].getName())) {
+                    fieldMap.put(fields[i].getName(), fields[i]);
+                }
+            }
+        }
+
+        MakerField get(String name) {
+            return fieldMap.get(name);
+        }
+    }
+
+    /* The methods of a class and its parents indexed by name. */
+    static final class MethodIndex {
+        final Map<String, MakerMethod[]> methods;
+        final MethodsVersion version;
+
+        MethodIndex(Map<String, MakerMethod[]> methods, MethodsVersion version) {
+            this.methods = methods;
+            this.version = version;
+        }
+
+        boolean isCurrent() {
+            return version.isCurrent();
         }
-        return methods.toArray();
     }
 
     /** The list of member fields in this class. */
@@ -275,6 +415,7 @@ public class ClassType extends Type {
     public void setDeclaredFields(MakerField [] fields)
     {
     	this.declaredFields = fields;
+    	fieldIndex = null;
     }
     
     /**
@@ -300,6 +441,7 @@ public class ClassType extends Type {
     
     public void setExtendsType(ClassType baseType) {
         extendsType = baseType;
+        methodIndex = null;
     }
     
     public ClassType populateExtendsType() {
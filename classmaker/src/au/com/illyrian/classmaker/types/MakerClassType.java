@@ -1,5 +1,8 @@
 package au.com.illyrian.classmaker.types;
 
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import au.com.illyrian.classmaker.ClassMaker;
 import au.com.illyrian.classmaker.members.MakerField;
 import au.com.illyrian.classmaker.members.MakerMethod;
@@ -7,21 +10,48 @@ import au.com.illyrian.classmaker.members.MakerMethod;
 public class MakerClassType extends ClassType
 {
     private final ClassMaker classMaker;
+
+    /** The member fields declared so far by the class being generated, indexed by name. */
+    private final Map<String, MakerField> memberFields;
+
+    /** Incremented whenever the methods or parents of this class change. */
+    private final AtomicInteger methodsChanges = new AtomicInteger();
+
     /**
      * Constructor for a <code>ClassType</code> generated by a ClassMaker instance.
-     * @param className the name of the class
+     * @param classMaker the ClassMaker generating the class
+     * @param memberFields a read only view of the member fields declared by the class, indexed by name
      */
-    public MakerClassType(ClassMaker classMaker)
+    public MakerClassType(ClassMaker classMaker, Map<String, MakerField> memberFields)
     {
         super(classMaker.getFullyQualifiedClassName());
         this.setFactory(classMaker.getFactory());
         this.classMaker = classMaker;
+        this.memberFields = memberFields;
     }
 
     public ClassMaker getClassMaker() {
         return classMaker;
     }
 
+    /**
+     * Records that the methods declared by this class, or its parents, have changed.
+     * </br>
+     * Methods collected from or resolved against this class, or a class that extends it,
+     * are recalculated after this is called.
+     */
+    public void methodsChanged() {
+        methodsChanges.incrementAndGet();
+    }
+
+    /**
+     * The number of times that the methods or parents of this class have changed.
+     * @return a version number for the methods of this class
+     */
+    public int getMethodsChanges() {
+        return methodsChanges.get();
+    }
+
     @Override
     public ClassType populateExtendsType() {
         return classMaker.getExtendsType();
@@ -37,6 +67,18 @@ public class MakerClassType extends ClassType
         return classMaker.getDeclaredMethods();
     }
 
+    @Override
+    public void setConstructors(MakerMethod [] methods) {
+        super.setConstructors(methods);
+        methodsChanged();
+    }
+
+    @Override
+    public void setDeclaredMethods(MakerMethod [] methods) {
+        super.setDeclaredMethods(methods);
+        methodsChanged();
+    }
+
     @Override
     protected ClassType[] populateDeclaredInterfaces() {
         return classMaker.getDeclaredInterfaces();
@@ -47,6 +89,14 @@ public class MakerClassType extends ClassType
         return classMaker.getDeclaredFields();
     }
 
+    public MakerField findDeclaredField(String name) {
+        if (declaredFields == null) {
+            // Look up the fields of the class being generated directly.
+            return memberFields.get(name);
+        }
+        return super.findDeclaredField(name);
+    }
+
     public String getSimpleName() {
         return classMaker.getSimpleClassName();
     }
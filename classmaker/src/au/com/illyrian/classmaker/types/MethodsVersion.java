@@ -0,0 +1,64 @@
+package au.com.illyrian.classmaker.types;
+
+import java.util.Collection;
+
+/**
+ * The versions of the methods of some generated classes at the time they were read.
+ * <br/>
+ * Methods collected from, or resolved against, a class hierarchy that includes generated
+ * classes are recalculated once any of those classes changes its methods or its parents.
+ * Classes that are not generated never change, so they are not recorded.
+ */
+public final class MethodsVersion
+{
+    /** The version of a class hierarchy that includes no generated classes. */
+    public static final MethodsVersion FIXED = new MethodsVersion(new MakerClassType[0]);
+
+    private final MakerClassType[] types;
+    private final int[] versions;
+
+    private MethodsVersion(MakerClassType[] types)
+    {
+        this.types = types;
+        versions = new int[types.length];
+        for (int i = 0; i < types.length; i++) {
+            versions[i] = types[i].getMethodsChanges();
+        }
+    }
+
+    /**
+     * Records the current versions of the given generated classes.
+     * @param generated the generated classes that the methods depend upon
+     * @return the version of the methods
+     */
+    public static MethodsVersion create(Collection<MakerClassType> generated)
+    {
+        if (generated.isEmpty()) {
+            return FIXED;
+        }
+        return new MethodsVersion(generated.toArray(new MakerClassType[generated.size()]));
+    }
+
+    /**
+     * Whether the methods depend upon any generated classes.
+     * @return true if a generated class was recorded
+     */
+    public boolean isGenerated()
+    {
+        return types.length > 0;
+    }
+
+    /**
+     * Whether none of the recorded classes has changed its methods since they were recorded.
+     * @return true if the methods are still current
+     */
+    public boolean isCurrent()
+    {
+        for (int i = 0; i < types.length; i++) {
+            if (types[i].getMethodsChanges() != versions[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -3,15 +3,35 @@ package au.com.illyrian.classmaker.types;
 public class Value
 {
     private final Type type;
+    private final Object constant;
     
     public Value(Type type) {
+        this(type, null);
+    }
+    
+    /**
+     * A value that is known at compile time.
+     * The constant is an <code>Integer</code> for the <code>byte</code>, <code>short</code>,
+     * <code>char</code> and <code>int</code> types, otherwise the wrapper of the primitive
+     * type or a <code>String</code>.
+     */
+    public Value(Type type, Object constant) {
         this.type = type;
+        this.constant = constant;
     }
     
     public Type getType() {
         return type;
     }
     
+    public boolean isConstant() {
+        return constant != null;
+    }
+    
+    public Object getConstant() {
+        return constant;
+    }
+    
     public String getName() {
         return type.getName();
     }
@@ -1,5 +1,7 @@
 package au.com.illyrian.classmaker.util;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Vector;
 
 import au.com.illyrian.classmaker.ClassGenerator;
@@ -13,8 +15,18 @@ public class LocalFieldList {
 
     /** A list of local variables in the class being generated. */
     private Vector<MakerField> localTable = new Vector<MakerField>();
+
+    /** The named local variables that are in scope. The last variable in each list shadows the others. */
+    private HashMap<String, ArrayList<MakerField>> visibleLocals = new HashMap<String, ArrayList<MakerField>>();
     
+    /** The largest number of slots used at any point in the method. */
     private short maxLocalSlots = 0; 
+
+    /** The next free slot. Slots above this are reused when a scope ends. */
+    private short nextLocalSlot = 0;
+
+    /** The slots reserved by <code>incLocalSlots</code>, which are never reused. */
+    private short reservedLocalSlots = 0;
     
     public LocalFieldList(ClassGenerator generator) {
    //     gen = generator;
@@ -29,8 +41,8 @@ public class LocalFieldList {
     }
 
     public int incLocalSlots(int incLocalSlots) {
-        int localSlot = maxLocalSlots;
-        maxLocalSlots += incLocalSlots;
+        int localSlot = allocateSlots(incLocalSlots);
+        reservedLocalSlots = nextLocalSlot;
         return localSlot;
     }
 
@@ -38,6 +50,16 @@ public class LocalFieldList {
         return maxLocalSlots;
     }
 
+    /* Allocates slots above the locals that are in scope. */
+    private int allocateSlots(int size) {
+        int localSlot = nextLocalSlot;
+        nextLocalSlot += size;
+        if (nextLocalSlot > maxLocalSlots) {
+            maxLocalSlots = nextLocalSlot;
+        }
+        return localSlot;
+    }
+
     /**
      * Adds a formal parameter or local variable to the method.
      * 
@@ -64,13 +86,20 @@ public class LocalFieldList {
      */
     public int addLocal(String name, Type type, int modifiers, int scopeLevel, int programCounter) {
         MakerField field = new MakerField(name, type, modifiers);
-        field.setSlot(maxLocalSlots);
+        // Long and double values take two slots.
+        field.setSlot(allocateSlots(type.getSlotSize()));
         field.setScopeLevel(scopeLevel);
         field.setStartPC(programCounter);
-        // Adjust the number of slots used.
-        maxLocalSlots += type.getSlotSize();
         int index = localTable.size();
         localTable.add(field);
+        if (name != null) {
+            ArrayList<MakerField> locals = visibleLocals.get(name);
+            if (locals == null) {
+                locals = new ArrayList<MakerField>(1);
+                visibleLocals.put(name, locals);
+            }
+            locals.add(field);
+        }
         return index;
     }
 
@@ -92,12 +121,13 @@ public class LocalFieldList {
      * @return a <code>Field</code> that describes the variable
      */
     public MakerField findLocalField(String name) {
-        for (int i = localTable.size() - 1; i >= 0; i--) {
-            MakerField local = localTable.get(i);
-            if (!local.isInScope())
-                continue; // Skip locals that are out of scope
-            if (name.equals(local.getName())) {
-                return local;
+        ArrayList<MakerField> locals = visibleLocals.get(name);
+        if (locals != null) {
+            for (int i = locals.size() - 1; i >= 0; i--) {
+                MakerField local = locals.get(i);
+                if (local.isInScope()) {
+                    return local; // The innermost local shadows the others
+                }
             }
         }
         return null;
@@ -125,6 +155,38 @@ public class LocalFieldList {
             }
             local.setEndPC(programCounter);
             local.setInScope(false);
+            hideLocal(local);
+        }
+        releaseSlots();
+    }
+
+    /*
+     * Returns the slots above the last local variable still in scope so they
+     * can be reused. Slots are allocated like a stack, so the last local in
+     * scope also occupies the highest slot in use.
+     */
+    private void releaseSlots() {
+        int slot = reservedLocalSlots;
+        for (int i = localTable.size() - 1; i >= 0; i--) {
+            MakerField local = localTable.elementAt(i);
+            if (local.isInScope()) {
+                slot = Math.max(slot, local.getSlot() + local.getType().getSlotSize());
+                break;
+            }
+        }
+        nextLocalSlot = (short)slot;
+    }
+
+    /* Removes a local variable that has gone out of scope from the visible locals. */
+    private void hideLocal(MakerField local) {
+        if (local.getName() != null) {
+            ArrayList<MakerField> locals = visibleLocals.get(local.getName());
+            if (locals != null) {
+                locals.remove(local);
+                if (locals.isEmpty()) {
+                    visibleLocals.remove(local.getName());
+                }
+            }
         }
     }
 
@@ -145,6 +207,9 @@ public class LocalFieldList {
 
     public void clear() {
         localTable.clear();
+        visibleLocals.clear();
         maxLocalSlots = 0;
+        nextLocalSlot = 0;
+        reservedLocalSlots = 0;
     }
 }
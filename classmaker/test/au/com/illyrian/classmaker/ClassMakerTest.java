@@ -29,8 +29,11 @@ package au.com.illyrian.classmaker;
 
 import java.io.File;
 
+import org.mozilla.classfile.ClassFileWriter;
+
 import junit.framework.TestCase;
 import au.com.illyrian.classmaker.types.ClassType;
+import au.com.illyrian.classmaker.types.Type;
 import au.com.illyrian.classmaker.types.Value;
 import au.com.illyrian.classmaker.util.MakerUtil;
 
@@ -399,6 +402,98 @@ public class ClassMakerTest extends TestCase
         assertEquals("Math.log(x)", Math.log(2), exec.unary(2));
     }
 
+    public void testConcurrentFactory() throws Exception
+    {
+        final int threadCount = 8;
+        final Object[] results = new Object[threadCount];
+        final Type[] listTypes = new Type[threadCount];
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int id = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        listTypes[id] = factory.classToType(java.util.List.class);
+                        ClassMaker maker = factory.createClassMaker("test", "Concurrent" + id, "Concurrent.java");
+                        maker.setPass(ClassMakerConstants.ONE_PASS);
+                        maker.Implements(Unary.class);
+                        maker.Method("square", int.class, ClassMakerConstants.ACC_PUBLIC);
+                        maker.Declare("a", int.class, 0);
+                        maker.Begin();
+                        maker.Return(maker.Add(maker.Mult(maker.Get("a"), maker.Get("a")), maker.Literal(id)));
+                        maker.End();
+                        Unary exec = (Unary)maker.defineClass().newInstance();
+                        results[id] = Integer.valueOf(exec.square(3));
+                    } catch (Throwable ex) {
+                        results[id] = ex;
+                    }
+                }
+            };
+        }
+        factory.setPass(ClassMakerConstants.FIRST_PASS);
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("Pass is held for each ClassMaker", ClassMakerConstants.FIRST_PASS, factory.getPass());
+        for (int i = 0; i < threadCount; i++) {
+            assertEquals("Concurrent" + i, Integer.valueOf(9 + i), results[i]);
+            assertSame("Type should be shared", listTypes[0], listTypes[i]);
+        }
+    }
+
+    public void testMissingClassCache() throws Exception
+    {
+        long hits = factory.getMissingClassHits();
+        long misses = factory.getMissingClassMisses();
+        assertNull("Class should not exist", factory.stringToType("test.Missing"));
+        assertEquals("Missing class misses", misses + 1, factory.getMissingClassMisses());
+        assertNull("Class should not exist", factory.stringToType("test.Missing"));
+        assertEquals("Missing class hits", hits + 1, factory.getMissingClassHits());
+        assertEquals("Missing class misses", misses + 1, factory.getMissingClassMisses());
+
+        // Adding a ClassMaker invalidates the cache.
+        factory.createClassMaker("test", "Missing", "Missing.java");
+        assertNotNull("Class should now exist", factory.stringToType("test.Missing"));
+        assertEquals("Missing class hits", hits + 1, factory.getMissingClassHits());
+    }
+
+    public void testReuseClassFileWriter() throws Exception
+    {
+        maker.Declare("id", ClassMakerFactory.INT_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        ClassFileWriter writer = maker.getGen().getClassFileWriter();
+        maker.defineClass();
+        assertEquals("Class name after release", "test/MyClass", maker.getGen().getClassName());
+        assertNotNull("Class bytes after release", maker.getGen().toByteArray());
+
+        ClassMakerFactory other = new ClassMakerFactory();
+        other.setClassFileVersion(ClassFileWriter.MAJOR_VERSION_JAVA_8);
+        other.setOptimizeCode(true);
+        ClassMaker otherMaker = other.createClassMaker("test", "OtherClass", "OtherClass.java");
+        otherMaker.Declare("id", ClassMakerFactory.INT_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        assertSame("Writer should be reused on this thread", writer, otherMaker.getGen().getClassFileWriter());
+        assertEquals("Major version", ClassFileWriter.MAJOR_VERSION_JAVA_8, writer.getMajorVersion());
+        assertTrue("Optimize code", writer.isOptimizeCode());
+        assertNotNull("Reused writer generates the class", otherMaker.defineClass().newInstance());
+    }
+
+    public void testClassCacheKey() throws Exception
+    {
+        String version = ClassCache.getGeneratorVersion();
+        assertEquals("Generator version length", 64, version.length());
+        assertFalse("Generator version should hash the generator classes",
+                version.equals(new ClassCache.Key(ClassCache.COMPILER_VERSION).toString()));
+
+        ClassCache cache = new ClassCache(new File("build/classcache"));
+        String key1 = cache.createKey("test.Cached").add("source").toString();
+        String key2 = cache.createKey("test.Cached").add("source").toString();
+        assertEquals("Same key", key1, key2);
+        String key3 = cache.createKey("test.Cached").add("source").addType(ClassMakerTest.class).toString();
+        assertFalse("Key should depend on the type", key1.equals(key3));
+    }
+
     //FIXME - this is broken
     public void untestSaveClass() throws Exception
     {
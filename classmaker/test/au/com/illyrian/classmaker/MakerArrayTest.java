@@ -2288,4 +2288,41 @@ public class MakerArrayTest extends ClassMakerTestCase implements ByteCode
         assertEquals("Wrong value for arr[0][0][0]", 3, arr[0][0][0]);
         assertEquals("Wrong value for arr[2][1][1]", 5, arr[2][1][1]);
     }
+
+    public interface ArrayOfArrays {
+        String [] [] create();
+    }
+
+    public void testNewArrayOfArrays() throws Exception
+    {
+        // Generate Class
+        maker.Implements(ArrayOfArrays.class);
+
+        ArrayType strings_array = maker.ArrayOf(maker.ArrayOf(String.class));
+
+        // Generate public String [][] create()
+        maker.Method("create", strings_array, ACC_PUBLIC);
+        maker.Begin();
+        {
+            maker.Declare("x", strings_array, 0);
+            // x = new String[2][];
+            maker.Set("x", maker.NewArray(strings_array, maker.Literal(2)));
+            // x[1] = new String[3];
+            maker.SetAt(maker.Get("x"), maker.Literal(1), maker.NewArray(maker.ArrayOf(String.class), maker.Literal(3)));
+            // x[1][2] = "Hello"
+            maker.SetAt(maker.GetAt(maker.Get("x"), maker.Literal(1)), maker.Literal(2), maker.Literal("Hello"));
+            // RETURN x
+            maker.Return(maker.Get("x"));
+        }
+        maker.End();
+
+        Class myClass = maker.defineClass();
+        ArrayOfArrays exec = (ArrayOfArrays)myClass.newInstance();
+
+        String [][] arr = exec.create();
+        assertEquals("Wrong array length", 2, arr.length);
+        assertNull("Wrong value for arr[0]", arr[0]);
+        assertEquals("Wrong array length", 3, arr[1].length);
+        assertEquals("Wrong value for arr[1][2]", "Hello", arr[1][2]);
+    }
 }
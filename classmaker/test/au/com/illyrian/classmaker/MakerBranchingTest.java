@@ -1318,4 +1318,32 @@ nl();     maker.End();
         assertEquals("id", 3, getIntField(myClass, exec, "id"));
     }
 
+    public void testIfElseBranchClassVersion8() throws Exception
+    {
+        factory.setClassFileVersion(ClassMakerConstants.CLASS_VERSION_JAVA_8);
+        maker.Implements(Unary.class);
+        defaultConstructor();
+
+        maker.Method("unary", ClassMakerFactory.INT_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        maker.Declare("a", ClassMakerFactory.INT_TYPE, 0);
+        maker.Begin();
+          maker.Declare("o", Object.class, 0);
+          maker.If(maker.LT(maker.Get("a"), maker.Literal(0)));
+            maker.Set("o", maker.Literal("negative"));
+          maker.Else();
+            maker.Set("o", maker.New(StringBuffer.class).Init(maker.Push(maker.Literal("positive"))));
+          maker.EndIf();
+          maker.Loop();
+            maker.While(maker.GT(maker.Get("a"), maker.Literal(10)));
+            maker.Set("a", maker.Subt(maker.Get("a"), maker.Literal(10)));
+          maker.EndLoop();
+          maker.Return(maker.Add(maker.Get("a"), maker.Call(maker.Call(maker.Get("o"), "toString", null), "length", null)));
+        maker.End();
+
+        Class myClass = maker.defineClass();
+        Unary exec = (Unary)myClass.newInstance();
+
+        assertEquals("Wrong value for exec.unary()", 7, exec.unary(-1));
+        assertEquals("Wrong value for exec.unary()", 11, exec.unary(23));
+    }
 }
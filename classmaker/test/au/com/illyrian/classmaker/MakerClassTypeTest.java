@@ -32,6 +32,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import au.com.illyrian.classmaker.members.MakerMethod;
 import au.com.illyrian.classmaker.types.ClassType;
 import au.com.illyrian.classmaker.types.GenericType;
 import au.com.illyrian.classmaker.types.ParameterType;
@@ -114,6 +115,43 @@ public class MakerClassTypeTest extends TestCase
 //        assertEquals("toString", object.toString(), type.toString());
     }
 
+    public void testMethodIndex() throws Exception {
+        ClassType stringType = factory.classToType(String.class).toClass();
+        MakerMethod[] valueOf = stringType.getMethods("valueOf");
+        assertTrue("Expected overloaded valueOf methods", valueOf.length > 1);
+        assertSame("Methods should be indexed", valueOf, stringType.getMethods("valueOf"));
+        assertEquals("No such method", 0, stringType.getMethods("noSuchMethod").length);
+
+        // Methods inherited from Object are included.
+        assertEquals("Inherited method", 1, stringType.getMethods("getClass").length);
+
+        // The index for a generated class follows the methods as they are declared.
+        ClassMaker classMaker = (ClassMaker)maker;
+        ClassType classType = classMaker.getClassType();
+        assertEquals("No eval methods yet", 0, classType.getMethods("eval").length);
+        classMaker.Method("eval", ClassMakerFactory.VOID_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        classMaker.Forward();
+        assertEquals("Declared eval method", 1, classType.getMethods("eval").length);
+    }
+
+    public void testMethodIndexPerClass() throws Exception {
+        ClassMaker base = factory.createClassMaker("test", "Base", null);
+        ClassMaker derived = factory.createClassMaker("test", "Derived", null);
+        derived.Extends(base.getClassType());
+        ClassMaker other = factory.createClassMaker("test", "Other", null);
+        MakerMethod[] otherMethods = other.getClassType().getMethods("toString");
+        assertEquals("No run methods yet", 0, derived.getClassType().getMethods("run").length);
+
+        // A method declared by a class changes the methods of the classes that extend it.
+        base.Method("run", ClassMakerFactory.VOID_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        base.Forward();
+        assertEquals("Inherited run method", 1, derived.getClassType().getMethods("run").length);
+
+        // Unrelated classes keep their methods.
+        assertSame("Unrelated methods should be kept", otherMethods, other.getClassType().getMethods("toString"));
+        assertTrue("Unrelated version", other.getClassType().getMethodsVersion().isCurrent());
+    }
+
     public void testPrimitiveTypeInt() {
         Type intType = factory.classToType(int.class);
         assertEquals("int", intType.getName());
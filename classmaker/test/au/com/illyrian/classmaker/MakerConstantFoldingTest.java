@@ -0,0 +1,263 @@
+// Copyright (c) 2010, Donald Strong.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+
+package au.com.illyrian.classmaker;
+
+import au.com.illyrian.classmaker.types.Value;
+
+public class MakerConstantFoldingTest extends ClassMakerTestCase
+{
+    protected ClassMaker maker;
+    ClassMakerFactory factory;
+
+    public interface Unary
+    {
+        int unary(int a);
+    }
+
+    public interface LongUnary
+    {
+        long unary(long a);
+    }
+
+    public interface Eval
+    {
+        int eval();
+    }
+
+    public interface DoubleEval
+    {
+        double eval();
+    }
+
+    public interface BooleanEval
+    {
+        boolean eval();
+    }
+
+    public interface StringEval
+    {
+        String eval();
+    }
+
+    public void setUp() throws Exception
+    {
+        factory = new ClassMakerFactory();
+        maker = factory.createClassMaker("au.com.illyrian.classmaker", "MakerConstantFoldingTest", "au/com/illyrian/classmaker/MakerConstantFoldingTest.java");
+        defaultConstructor();
+    }
+
+    public void defaultConstructor()
+    {
+        maker.Method("<init>", ClassMakerFactory.VOID_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        maker.Begin();
+        maker.Init(maker.Super(), null);
+        maker.Return();
+        maker.End();
+    }
+
+    public void testFoldIntegerArithmetic() throws Exception
+    {
+        maker.Implements(Eval.class);
+        maker.Method("eval", ClassMakerFactory.INT_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        maker.Begin();
+        int start = maker.getProgramCounter();
+        // (2 + 3 * 4 - 20 / 3) % 5 ^ ~1 | -8 & 127
+        Value value = maker.Or(maker.Xor(maker.Rem(maker.Subt(maker.Add(maker.Literal(2),
+                maker.Mult(maker.Literal(3), maker.Literal(4))),
+                maker.Div(maker.Literal(20), maker.Literal(3))), maker.Literal(5)),
+                maker.Inv(maker.Literal(1))),
+                maker.And(maker.Neg(maker.Literal(8)), maker.Literal(127)));
+        assertTrue("Should be a constant", value.isConstant());
+        assertEquals("Folded constant", Integer.valueOf((2 + 3 * 4 - 20 / 3) % 5 ^ ~1 | -8 & 127), value.getConstant());
+        assertEquals("Should push a single constant", 2, maker.getProgramCounter() - start);
+        maker.Return(value);
+        maker.End();
+
+        Eval exec = (Eval)maker.defineClass().newInstance();
+        assertEquals("Wrong value for exec.eval()", (2 + 3 * 4 - 20 / 3) % 5 ^ ~1 | -8 & 127, exec.eval());
+    }
+
+    public void testFoldShifts() throws Exception
+    {
+        maker.Implements(Eval.class);
+        maker.Method("eval", ClassMakerFactory.INT_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        maker.Begin();
+        Value value = maker.Add(maker.SHL(maker.Literal(1), maker.Literal(20)),
+                maker.Add(maker.SHR(maker.Literal(-64), maker.Literal(2)), maker.USHR(maker.Literal(-1), maker.Literal(28))));
+        assertTrue("Should be a constant", value.isConstant());
+        maker.Return(value);
+        maker.End();
+
+        Eval exec = (Eval)maker.defineClass().newInstance();
+        assertEquals("Wrong value for exec.eval()", (1 << 20) + ((-64 >> 2) + (-1 >>> 28)), exec.eval());
+    }
+
+    public void testFoldLongAndDouble() throws Exception
+    {
+        maker.Implements(DoubleEval.class);
+        maker.Method("eval", ClassMakerFactory.DOUBLE_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        maker.Begin();
+        Value big = maker.Mult(maker.Literal(1000000L), maker.Literal(3000000));
+        assertEquals("Long constant", Long.valueOf(1000000L * 3000000), big.getConstant());
+        Value value = maker.Div(maker.Add(big, maker.Literal(0.5f)), maker.Literal(2.0));
+        assertTrue("Should be a constant", value.isConstant());
+        assertEquals("Type of constant", ClassMakerFactory.DOUBLE_TYPE, value.getType());
+        maker.Return(value);
+        maker.End();
+
+        DoubleEval exec = (DoubleEval)maker.defineClass().newInstance();
+        assertEquals("Wrong value for exec.eval()", (1000000L * 3000000 + 0.5f) / 2.0, exec.eval(), 0.0);
+    }
+
+    public void testFoldComparisons() throws Exception
+    {
+        maker.Implements(BooleanEval.class);
+        maker.Method("eval", ClassMakerFactory.BOOLEAN_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        maker.Begin();
+        Value gt = maker.GT(maker.Literal(3), maker.Literal(2L));
+        Value ne = maker.NE(gt, maker.Not(maker.LE(maker.Literal(1.5), maker.Literal(2))));
+        Value value = maker.EQ(ne, maker.GE(maker.Literal('a'), maker.Literal(97)));
+        assertTrue("Should be a constant", value.isConstant());
+        assertEquals("Folded constant", Boolean.TRUE, value.getConstant());
+        maker.Return(value);
+        maker.End();
+
+        BooleanEval exec = (BooleanEval)maker.defineClass().newInstance();
+        assertTrue("Wrong value for exec.eval()", exec.eval());
+    }
+
+    public void testNaNComparison() throws Exception
+    {
+        maker.Implements(BooleanEval.class);
+        maker.Method("eval", ClassMakerFactory.BOOLEAN_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        maker.Begin();
+        Value nan = maker.Div(maker.Literal(0.0f), maker.Literal(0.0f));
+        maker.Return(maker.LT(nan, maker.Literal(1.0f)));
+        maker.End();
+
+        BooleanEval exec = (BooleanEval)maker.defineClass().newInstance();
+        assertFalse("NaN is not less than one", exec.eval());
+    }
+
+    public void testFoldStringConcatenation() throws Exception
+    {
+        maker.Implements(StringEval.class);
+        maker.Method("eval", ClassMakerFactory.STRING_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        maker.Begin();
+        Value value = maker.Add(maker.Add(maker.Add(maker.Add(maker.Literal("a"), maker.Literal(1)),
+                maker.Literal('c')), maker.Literal(true)), maker.Literal(1.5f));
+        assertTrue("Should be a constant", value.isConstant());
+        assertEquals("Folded constant", "a1ctrue1.5", value.getConstant());
+        maker.Return(value);
+        maker.End();
+
+        StringEval exec = (StringEval)maker.defineClass().newInstance();
+        assertEquals("Wrong value for exec.eval()", "a1ctrue1.5", exec.eval());
+    }
+
+    public void testDivideByZeroNotFolded() throws Exception
+    {
+        maker.Implements(Eval.class);
+        maker.Method("eval", ClassMakerFactory.INT_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        maker.Begin();
+        Value value = maker.Div(maker.Literal(1), maker.Literal(0));
+        assertFalse("Should not be a constant", value.isConstant());
+        maker.Return(value);
+        maker.End();
+
+        Eval exec = (Eval)maker.defineClass().newInstance();
+        try {
+            exec.eval();
+            fail("Should throw ArithmeticException");
+        } catch (ArithmeticException ex) {
+            // expected
+        }
+    }
+
+    public void testVariablesNotFolded() throws Exception
+    {
+        maker.Implements(Unary.class);
+        maker.Method("unary", ClassMakerFactory.INT_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        maker.Declare("a", ClassMakerFactory.INT_TYPE, 0);
+        maker.Begin();
+        Value value = maker.Subt(maker.Add(maker.Literal(1), maker.Get("a")), maker.Literal(1));
+        assertFalse("Should not be a constant", value.isConstant());
+        maker.Return(value);
+        maker.End();
+
+        Unary exec = (Unary)maker.defineClass().newInstance();
+        assertEquals("Wrong value for exec.unary()", 5, exec.unary(5));
+    }
+
+    public void testMultiplyByPowerOfTwo() throws Exception
+    {
+        maker.Implements(Unary.class);
+        maker.Method("unary", ClassMakerFactory.INT_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        maker.Declare("a", ClassMakerFactory.INT_TYPE, 0);
+        maker.Begin();
+        int start = maker.getProgramCounter();
+        Value value = maker.Mult(maker.Get("a"), maker.Literal(8));
+        // iload_1, iconst_3, ishl rather than iload_1, bipush 8, imul
+        assertEquals("Should shift left", 3, maker.getProgramCounter() - start);
+        assertEquals("Type of result", ClassMakerFactory.INT_TYPE, value.getType());
+        maker.Return(value);
+        maker.End();
+
+        Unary exec = (Unary)maker.defineClass().newInstance();
+        assertEquals("Wrong value for exec.unary()", 40, exec.unary(5));
+        assertEquals("Wrong value for exec.unary()", -24, exec.unary(-3));
+        assertEquals("Wrong value for exec.unary()", Integer.MAX_VALUE * 8, exec.unary(Integer.MAX_VALUE));
+    }
+
+    public void testMultiplyLongByPowerOfTwo() throws Exception
+    {
+        maker.Implements(LongUnary.class);
+        maker.Method("unary", ClassMakerFactory.LONG_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        maker.Declare("a", ClassMakerFactory.LONG_TYPE, 0);
+        maker.Begin();
+        maker.Return(maker.Mult(maker.Get("a"), maker.Literal(1024)));
+        maker.End();
+
+        LongUnary exec = (LongUnary)maker.defineClass().newInstance();
+        assertEquals("Wrong value for exec.unary()", 5L * 1024, exec.unary(5L));
+        assertEquals("Wrong value for exec.unary()", -3000000000L * 1024, exec.unary(-3000000000L));
+    }
+
+    public void testMultiplyByOtherConstant() throws Exception
+    {
+        maker.Implements(Unary.class);
+        maker.Method("unary", ClassMakerFactory.INT_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        maker.Declare("a", ClassMakerFactory.INT_TYPE, 0);
+        maker.Begin();
+        maker.Return(maker.Add(maker.Mult(maker.Get("a"), maker.Literal(6)), maker.Mult(maker.Get("a"), maker.Literal(-8))));
+        maker.End();
+
+        Unary exec = (Unary)maker.defineClass().newInstance();
+        assertEquals("Wrong value for exec.unary()", -14, exec.unary(7));
+    }
+}
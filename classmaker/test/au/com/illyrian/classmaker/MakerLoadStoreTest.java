@@ -147,6 +147,30 @@ public class MakerLoadStoreTest extends ClassMakerTestCase implements ByteCode
         assertEquals("Local Get", 6, exec.unary(6));
     }
 
+    public void testLocalShadowsField() throws Exception
+    {
+        maker.Implements(UnaryInt.class);
+        maker.Declare("x", ClassMakerFactory.INT_TYPE, ACC_PUBLIC);
+
+        maker.Method("unary", ClassMakerFactory.INT_TYPE, ACC_PUBLIC);
+        maker.Declare("a", ClassMakerFactory.INT_TYPE, 0);
+        maker.Begin();
+          maker.Eval(maker.Set(maker.This(), "x", maker.Literal(100)));
+          maker.Begin();
+            maker.Declare("x", ClassMakerFactory.INT_TYPE, 0);
+            maker.Set("x", maker.Get("a"));
+            maker.Set("a", maker.Add(maker.Get("x"), maker.Get("x")));
+          maker.End();
+          maker.Return(maker.Add(maker.Get("a"), maker.Get(maker.This(), "x")));
+        maker.End();
+
+        Class myClass = maker.defineClass();
+        UnaryInt exec = (UnaryInt)myClass.newInstance();
+
+        assertEquals("Local shadows field", 106, exec.unary(3));
+        assertEquals("Local shadows field", 112, exec.unary(6));
+    }
+
     public void testIntGetField() throws Exception
     {
         maker.Implements(UnaryInt.class);
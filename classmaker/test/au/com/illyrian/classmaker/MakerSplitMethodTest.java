@@ -0,0 +1,259 @@
+// Copyright (c) 2010, Donald Strong.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+
+package au.com.illyrian.classmaker;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+public class MakerSplitMethodTest extends ClassMakerTestCase
+{
+    protected ClassMaker maker;
+    ClassMakerFactory factory;
+
+    public interface Unary
+    {
+        int unary(int a);
+    }
+
+    public interface Eval
+    {
+        long eval(long a, double b);
+    }
+
+    public void setUp() throws Exception
+    {
+        factory = new ClassMakerFactory();
+        factory.setMethodSizeLimit(100);
+        maker = factory.createClassMaker("au.com.illyrian.classmaker", "MakerSplitMethodTest", "au/com/illyrian/classmaker/MakerSplitMethodTest.java");
+        defaultConstructor();
+    }
+
+    public void defaultConstructor()
+    {
+        maker.Method("<init>", ClassMakerFactory.VOID_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        maker.Begin();
+        maker.Init(maker.Super(), null);
+        maker.Return();
+        maker.End();
+    }
+
+    void unaryMethod(int statements)
+    {
+        maker.Implements(Unary.class);
+        maker.Method("unary", ClassMakerFactory.INT_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        maker.Declare("x", ClassMakerFactory.INT_TYPE, 0);
+        maker.Begin();
+        maker.Declare("y", ClassMakerFactory.INT_TYPE, 0);
+        maker.Eval(maker.Set("y", maker.Literal(0)));
+        for (int i = 0; i < statements; i++) {
+            maker.Eval(maker.Set("y", maker.Add(maker.Get("y"), maker.Get("x"))));
+        }
+        maker.Return(maker.Get("y"));
+        maker.End();
+    }
+
+    int countParts(Class myClass, String prefix)
+    {
+        int count = 0;
+        for (Method method : myClass.getDeclaredMethods()) {
+            if (method.getName().startsWith(prefix)) {
+                assertTrue("Helper should be synthetic", method.isSynthetic());
+                assertTrue("Helper should be private", Modifier.isPrivate(method.getModifiers()));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /*
+     * Reads the length of the code of each method from a class file.
+     */
+    Map<String, Integer> codeLengths(byte[] classBytes) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classBytes));
+        in.skipBytes(8); // magic and version
+        int poolSize = in.readUnsignedShort();
+        String[] utf8 = new String[poolSize];
+        for (int i = 1; i < poolSize; i++) {
+            int tag = in.readUnsignedByte();
+            if (tag == 1) {
+                utf8[i] = in.readUTF();
+            } else if (tag == 5 || tag == 6) {
+                in.skipBytes(8); // long and double take two entries
+                i++;
+            } else if (tag == 7 || tag == 8 || tag == 16 || tag == 19 || tag == 20) {
+                in.skipBytes(2);
+            } else if (tag == 15) {
+                in.skipBytes(3);
+            } else {
+                in.skipBytes(4);
+            }
+        }
+        in.skipBytes(6); // access flags, this and super class
+        in.skipBytes(2 * in.readUnsignedShort()); // interfaces
+        int fields = in.readUnsignedShort();
+        for (int i = 0; i < fields; i++) {
+            in.skipBytes(6);
+            int attributes = in.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                in.skipBytes(2);
+                in.skipBytes(in.readInt());
+            }
+        }
+        Map<String, Integer> lengths = new HashMap<String, Integer>();
+        int methods = in.readUnsignedShort();
+        for (int i = 0; i < methods; i++) {
+            in.skipBytes(2);
+            String name = utf8[in.readUnsignedShort()];
+            in.skipBytes(2);
+            int attributes = in.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                String attribute = utf8[in.readUnsignedShort()];
+                int length = in.readInt();
+                if ("Code".equals(attribute)) {
+                    in.skipBytes(4); // max stack and max locals
+                    int codeLength = in.readInt();
+                    lengths.put(name, Integer.valueOf(codeLength));
+                    in.skipBytes(length - 8);
+                } else {
+                    in.skipBytes(length);
+                }
+            }
+        }
+        return lengths;
+    }
+
+    public void testSplitWithinLimit() throws Exception
+    {
+        unaryMethod(100);
+
+        Class myClass = maker.defineClass();
+        Unary exec = (Unary)myClass.newInstance();
+        assertEquals("Wrong value for exec.unary()", 400, exec.unary(4));
+        Map<String, Integer> lengths = codeLengths(maker.getGen().toByteArray());
+        int parts = countParts(myClass, "unary$part");
+        assertTrue("Should be split into helper methods", parts > 1);
+        assertTrue("unary should be within the limit: " + lengths.get("unary"), lengths.get("unary") <= 100);
+        for (int i = 1; i <= parts; i++) {
+            Integer length = lengths.get("unary$part" + i);
+            assertNotNull("Helper methods should be numbered from the method name: unary$part" + i, length);
+            assertTrue("unary$part" + i + " should be within the limit: " + length, length <= 100);
+        }
+    }
+
+    public void testSplitInstanceMethod() throws Exception
+    {
+        unaryMethod(100);
+
+        Class myClass = maker.defineClass();
+        Unary exec = (Unary)myClass.newInstance();
+        assertEquals("Wrong value for exec.unary()", 300, exec.unary(3));
+        assertTrue("Should be split into helper methods", countParts(myClass, "unary$part") > 1);
+    }
+
+    public void testSplitStackMapFrames() throws Exception
+    {
+        factory.setClassFileVersion(ClassMakerConstants.CLASS_VERSION_JAVA_8);
+        unaryMethod(100);
+
+        Class myClass = maker.defineClass();
+        Unary exec = (Unary)myClass.newInstance();
+        assertEquals("Wrong value for exec.unary()", -100, exec.unary(-1));
+        assertTrue("Should be split into helper methods", countParts(myClass, "unary$part") > 1);
+    }
+
+    public void testNoSplitBelowLimit() throws Exception
+    {
+        factory.setMethodSizeLimit(0);
+        unaryMethod(100);
+
+        Class myClass = maker.defineClass();
+        Unary exec = (Unary)myClass.newInstance();
+        assertEquals("Wrong value for exec.unary()", 200, exec.unary(2));
+        assertEquals("Should not be split", 0, countParts(myClass, "unary$part"));
+    }
+
+    public void testSplitStaticMethod() throws Exception
+    {
+        maker.Implements(Eval.class);
+        maker.Method("calc", ClassMakerFactory.LONG_TYPE, ClassMakerConstants.ACC_PUBLIC | ClassMakerConstants.ACC_STATIC);
+        maker.Declare("a", ClassMakerFactory.LONG_TYPE, 0);
+        maker.Declare("b", ClassMakerFactory.DOUBLE_TYPE, 0);
+        maker.Begin();
+        maker.Declare("sum", ClassMakerFactory.LONG_TYPE, 0);
+        maker.Declare("d", ClassMakerFactory.DOUBLE_TYPE, 0);
+        maker.Eval(maker.Set("sum", maker.Literal(0L)));
+        maker.Eval(maker.Set("d", maker.Literal(0.0)));
+        for (int i = 0; i < 50; i++) {
+            maker.Eval(maker.Set("sum", maker.Add(maker.Get("sum"), maker.Get("a"))));
+            maker.Eval(maker.Set("d", maker.Add(maker.Get("d"), maker.Get("b"))));
+        }
+        maker.Return(maker.Add(maker.Get("sum"), maker.Cast(maker.Get("d"), long.class)));
+        maker.End();
+
+        maker.Method("eval", ClassMakerFactory.LONG_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        maker.Declare("a", ClassMakerFactory.LONG_TYPE, 0);
+        maker.Declare("b", ClassMakerFactory.DOUBLE_TYPE, 0);
+        maker.Begin();
+        maker.Return(maker.Call(maker.getFullyQualifiedClassName(), "calc", maker.Push(maker.Get("a")).Push(maker.Get("b"))));
+        maker.End();
+
+        Class myClass = maker.defineClass();
+        Eval exec = (Eval)myClass.newInstance();
+        assertEquals("Wrong value for exec.eval()", 50L * 1000000000000L + 25, exec.eval(1000000000000L, 0.5));
+        assertTrue("Should be split into helper methods", countParts(myClass, "calc$part") > 1);
+    }
+
+    public void testNoSplitInNestedBlock() throws Exception
+    {
+        maker.Implements(Unary.class);
+        maker.Method("unary", ClassMakerFactory.INT_TYPE, ClassMakerConstants.ACC_PUBLIC);
+        maker.Declare("x", ClassMakerFactory.INT_TYPE, 0);
+        maker.Begin();
+        maker.Declare("y", ClassMakerFactory.INT_TYPE, 0);
+        maker.Eval(maker.Set("y", maker.Literal(0)));
+        maker.If(maker.GT(maker.Get("x"), maker.Literal(0)));
+        for (int i = 0; i < 100; i++) {
+            maker.Eval(maker.Set("y", maker.Add(maker.Get("y"), maker.Get("x"))));
+        }
+        maker.EndIf();
+        maker.Return(maker.Get("y"));
+        maker.End();
+
+        Class myClass = maker.defineClass();
+        Unary exec = (Unary)myClass.newInstance();
+        assertEquals("Wrong value for exec.unary()", 100, exec.unary(1));
+        assertEquals("Wrong value for exec.unary()", 0, exec.unary(-1));
+        assertEquals("Should not be split within a nested statement", 0, countParts(myClass, "unary$part"));
+    }
+}
@@ -238,6 +238,19 @@ nl();   maker.End();
 //    }
     
     public void testBreakContinueLoop() throws Exception
+    {
+        assertFalse("Finally should be a subroutine", factory.isInlineFinally());
+        breakContinueLoop();
+    }
+
+    public void testBreakContinueLoopInlineFinally() throws Exception
+    {
+        factory.setClassFileVersion(ClassMakerConstants.CLASS_VERSION_JAVA_8);
+        assertTrue("Finally should be inlined", factory.isInlineFinally());
+        breakContinueLoop();
+    }
+
+    void breakContinueLoop() throws Exception
     {
     	maker.Implements(BreakContinueIface.class);
         
@@ -293,7 +306,7 @@ nl();       maker.End();
     	assertEquals("Continue loop", 5, exec.breakContinue(4));
     	assertEquals("Break switch", 9, exec.breakContinue(5));
     	assertEquals("Break trying", 1, exec.breakContinue(6));
-    	assertEquals("Break outer", 0, exec.breakContinue(7));        
+    	assertEquals("Break outer", 1, exec.breakContinue(7));        
     	assertEquals("Break branch", 9, exec.breakContinue(8)); // **
     	assertEquals("Default", 14, exec.breakContinue(10));        
     }
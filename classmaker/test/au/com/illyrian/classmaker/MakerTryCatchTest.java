@@ -691,6 +691,159 @@ nl();   maker.End();
         assertEquals("Wrong value for exec.unary()", -99, exec.unary(-1));
     }
 
+    public void testInlineFinallyReturn() throws Exception
+    {
+        factory.setClassFileVersion(ClassMakerConstants.CLASS_VERSION_JAVA_8);
+        assertTrue("Finally should be inlined", factory.isInlineFinally());
+        maker = factory.createClassMaker();
+        maker.setPackageName(getClass().getPackage().getName());
+        maker.setClassModifiers(ClassMakerConstants.ACC_PUBLIC);
+        maker.setSimpleClassName("Test");
+        maker.Implements(Unary.class);
+        maker.Declare("val", int.class, ClassMakerConstants.ACC_PUBLIC);
+
+        maker.Method("unary", int.class, ClassMakerConstants.ACC_PUBLIC);
+        maker.Declare("x", int.class, 0);
+        maker.Begin();
+        {
+            maker.Declare("y", int.class, 0);
+            maker.Try();
+            {
+                maker.If(maker.GT(maker.Get("x"), maker.Literal(0)));
+                {
+                    maker.Return(maker.Get("x"));
+                }
+                maker.EndIf();
+                maker.Eval(maker.Assign("y", maker.Literal(-1)));
+            }
+            maker.Finally();
+            {
+                maker.Eval(maker.Inc(maker.This(), "val"));
+            }
+            maker.EndTry();
+            maker.Return(maker.Get("y"));
+        }
+        maker.End();
+
+        Class myClass = maker.defineClass();
+        Unary exec = (Unary)myClass.newInstance();
+
+        assertEquals("Wrong value for exec.unary()", 5, exec.unary(5));
+        assertEquals("Finally not called on return", 1, getIntField(myClass, exec, "val"));
+        assertEquals("Wrong value for exec.unary()", -1, exec.unary(0));
+        assertEquals("Finally not called on normal exit", 2, getIntField(myClass, exec, "val"));
+    }
+
+    public void testInlineFinallyBreakContinue() throws Exception
+    {
+        factory.setInlineFinally(true);
+        maker = factory.createClassMaker();
+        maker.setPackageName(getClass().getPackage().getName());
+        maker.setClassModifiers(ClassMakerConstants.ACC_PUBLIC);
+        maker.setSimpleClassName("Test");
+        maker.Implements(Unary.class);
+
+        maker.Method("unary", int.class, ClassMakerConstants.ACC_PUBLIC);
+        maker.Declare("x", int.class, 0);
+        maker.Begin();
+        {
+            maker.Declare("n", int.class, 0);
+            maker.Loop();
+            {
+                maker.Try();
+                {
+                    maker.If(maker.LE(maker.Get("x"), maker.Literal(0)));
+                    {
+                        maker.Break();
+                    }
+                    maker.EndIf();
+                    maker.Eval(maker.Dec("x"));
+                    maker.If(maker.EQ(maker.Get("x"), maker.Literal(2)));
+                    {
+                        maker.Continue();
+                    }
+                    maker.EndIf();
+                    maker.Eval(maker.Inc("n"));
+                }
+                maker.Finally();
+                {
+                    maker.Eval(maker.Assign("n", maker.Add(maker.Get("n"), maker.Literal(10))));
+                }
+                maker.EndTry();
+            }
+            maker.EndLoop();
+            maker.Return(maker.Get("n"));
+        }
+        maker.End();
+
+        Class myClass = maker.defineClass();
+        Unary exec = (Unary)myClass.newInstance();
+
+        assertEquals("Wrong value for exec.unary()", 10, exec.unary(0));
+        assertEquals("Wrong value for exec.unary()", 21, exec.unary(1));
+        assertEquals("Wrong value for exec.unary()", 42, exec.unary(3));
+    }
+
+    public void testInlineNestedFinally() throws Exception
+    {
+        factory.setClassFileVersion(ClassMakerConstants.CLASS_VERSION_JAVA_11);
+        maker = factory.createClassMaker();
+        maker.setPackageName(getClass().getPackage().getName());
+        maker.setClassModifiers(ClassMakerConstants.ACC_PUBLIC);
+        maker.setSimpleClassName("Test");
+        maker.Implements(Unary.class);
+        maker.Declare("val", int.class, ClassMakerConstants.ACC_PUBLIC);
+
+        maker.Method("unary", int.class, ClassMakerConstants.ACC_PUBLIC);
+        maker.Declare("x", int.class, 0);
+        maker.Begin();
+        {
+            maker.Try();
+            {
+                maker.Try();
+                {
+                    maker.If(maker.GT(maker.Get("x"), maker.Literal(0)));
+                    {
+                        maker.Return(maker.Get("x"));
+                    }
+                    maker.EndIf();
+                    maker.If(maker.LT(maker.Get("x"), maker.Literal(0)));
+                    {
+                        maker.Throw(maker.New(IllegalStateException.class).Init(maker.Push()));
+                    }
+                    maker.EndIf();
+                }
+                maker.Finally();
+                {
+                    maker.Eval(maker.Inc(maker.This(), "val"));
+                }
+                maker.EndTry();
+            }
+            maker.Catch(IllegalStateException.class, "ex");
+            {
+                maker.Return(maker.Literal(-100));
+            }
+            maker.Finally();
+            {
+                maker.Eval(maker.Assign(maker.This(), "val",
+                        maker.Add(maker.Get(maker.This(), "val"), maker.Literal(10))));
+            }
+            maker.EndTry();
+            maker.Return(maker.Literal(0));
+        }
+        maker.End();
+
+        Class myClass = maker.defineClass();
+        Unary exec = (Unary)myClass.newInstance();
+
+        assertEquals("Wrong value for exec.unary()", 7, exec.unary(7));
+        assertEquals("Both finally blocks should be called", 11, getIntField(myClass, exec, "val"));
+        assertEquals("Wrong value for exec.unary()", 0, exec.unary(0));
+        assertEquals("Both finally blocks should be called", 22, getIntField(myClass, exec, "val"));
+        assertEquals("Wrong value for exec.unary()", -100, exec.unary(-1));
+        assertEquals("Both finally blocks should be called", 33, getIntField(myClass, exec, "val"));
+    }
+
     public void testTryException() throws Exception
     {
 
@@ -108,6 +108,30 @@ public class MakerResolveMethodTest extends ClassMakerTestCase
         maker.EndClass();
     }
 
+    public void testResolvedMethodCache() throws Exception
+    {
+        ClassType stringType = factory.classToType(String.class).toClass();
+        MakerMethod first = maker.resolveMethod(stringType, "valueOf", maker.Push(ClassMakerFactory.INT_TYPE.getValue()));
+        MakerMethod second = maker.resolveMethod(stringType, "valueOf", maker.Push(ClassMakerFactory.INT_TYPE.getValue()));
+        assertSame("Resolved method should be remembered", first, second);
+        assertEquals("public static java.lang.String valueOf(int)", second.toString());
+
+        // Declaring a more specific method in a generated class changes the resolution.
+        maker.Method("eval", ClassMakerFactory.VOID_TYPE, ByteCode.ACC_PUBLIC);
+        maker.Declare("x", ClassMakerFactory.INT_TYPE, 0);
+        maker.Forward();
+        maker.EndClass();
+        MakerMethod method = maker.resolveMethod(maker.getClassType(), "eval", maker.Push(ClassMakerFactory.SHORT_TYPE.getValue()));
+        assertEquals("public void eval(int)", method.toString());
+
+        maker.Method("eval", ClassMakerFactory.VOID_TYPE, ByteCode.ACC_PUBLIC);
+        maker.Declare("x", ClassMakerFactory.SHORT_TYPE, 0);
+        maker.Forward();
+        maker.EndClass();
+        method = maker.resolveMethod(maker.getClassType(), "eval", maker.Push(ClassMakerFactory.SHORT_TYPE.getValue()));
+        assertEquals("public void eval(short)", method.toString());
+    }
+
     public void testResolveIntMethods() throws Exception
     {
     	forwardPrimitiveMethods(ClassMakerFactory.INT_TYPE);
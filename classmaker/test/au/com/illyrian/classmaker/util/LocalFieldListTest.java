@@ -0,0 +1,47 @@
+package au.com.illyrian.classmaker.util;
+
+import junit.framework.TestCase;
+import au.com.illyrian.classmaker.ClassMakerFactory;
+import au.com.illyrian.classmaker.members.MakerField;
+
+public class LocalFieldListTest extends TestCase
+{
+    LocalFieldList locals = new LocalFieldList(null);
+
+    public void testShadowedLocals() {
+        locals.incLocalSlots(1);
+        MakerField outer = locals.addLocalField("x", ClassMakerFactory.INT_TYPE, 0, 1, 0);
+        assertSame("outer x", outer, locals.findLocalField("x"));
+        MakerField inner = locals.addLocalField("x", ClassMakerFactory.LONG_TYPE, 0, 2, 2);
+        assertSame("inner x", inner, locals.findLocalField("x"));
+        locals.exitScope(2, 4);
+        assertSame("outer x after scope", outer, locals.findLocalField("x"));
+        locals.exitScope(1, 6);
+        assertNull("x after scope", locals.findLocalField("x"));
+    }
+
+    public void testReuseSlots() {
+        locals.incLocalSlots(1);
+        MakerField a = locals.addLocalField("a", ClassMakerFactory.INT_TYPE, 0, 1, 0);
+        assertEquals("a slot", 1, a.getSlot());
+        MakerField b = locals.addLocalField("b", ClassMakerFactory.LONG_TYPE, 0, 2, 1);
+        assertEquals("b slot", 2, b.getSlot());
+        MakerField c = locals.addLocalField("c", ClassMakerFactory.INT_TYPE, 0, 2, 2);
+        assertEquals("c slot", 4, c.getSlot());
+        assertEquals("max slots", 5, locals.getMaxLocalSlots());
+        locals.exitScope(2, 3);
+        assertEquals("b endPC", 3, b.getEndPC());
+        MakerField d = locals.addLocalField("d", ClassMakerFactory.DOUBLE_TYPE, 0, 2, 4);
+        assertEquals("d slot", 2, d.getSlot());
+        MakerField e = locals.addLocalField("e", ClassMakerFactory.INT_TYPE, 0, 2, 5);
+        assertEquals("e slot", 4, e.getSlot());
+        MakerField f = locals.addLocalField("f", ClassMakerFactory.INT_TYPE, 0, 2, 6);
+        assertEquals("f slot", 5, f.getSlot());
+        assertEquals("max slots", 6, locals.getMaxLocalSlots());
+        locals.exitScope(2, 7);
+        locals.exitScope(1, 8);
+        assertEquals("max slots", 6, locals.getMaxLocalSlots());
+        MakerField g = locals.addLocalField("g", ClassMakerFactory.INT_TYPE, 0, 1, 9);
+        assertEquals("reserved slot is kept", 1, g.getSlot());
+    }
+}
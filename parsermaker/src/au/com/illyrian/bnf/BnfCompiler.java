@@ -2,11 +2,13 @@ package au.com.illyrian.bnf;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 
 import au.com.illyrian.bnf.ast.BnfTreeParser;
 import au.com.illyrian.bnf.maker.BnfMakerVisitor;
 import au.com.illyrian.bnf.maker.BnfParserBase;
 import au.com.illyrian.bnf.parser.BnfParser;
+import au.com.illyrian.classmaker.ClassCache;
 import au.com.illyrian.classmaker.ClassMaker;
 import au.com.illyrian.classmaker.ClassMakerConstants;
 import au.com.illyrian.classmaker.ClassMakerFactory;
@@ -22,6 +24,12 @@ import au.com.illyrian.parser.ParseMembers;
 import au.com.illyrian.parser.impl.ModuleContext;
 
 public class BnfCompiler {
+    /** The types imported into every generated parser. */
+    private static final Class<?>[] IMPORTS = {
+        AstExpression.class, AstStructure.class, AstModifiers.class, AstPackage.class,
+        AstImport.class, AstClass.class, TerminalName.class
+    };
+
     private final File sourceDir;
     private final ClassMakerFactory factory;
     private String defaultType = "AstExpression";
@@ -39,15 +47,33 @@ public class BnfCompiler {
     }
     
     public void prepare(ClassMaker maker) {
-        maker.Import(AstExpression.class);
-        maker.Import(AstStructure.class);
-        maker.Import(AstModifiers.class);
-        maker.Import(AstPackage.class);
-        maker.Import(AstImport.class);
-        maker.Import(AstClass.class);
-        maker.Import(TerminalName.class);
+        for (Class<?> javaClass : IMPORTS) {
+            maker.Import(javaClass);
+        }
         maker.Extends(BnfParserBase.class);
     }
+
+    /**
+     * Creates a key for the generated parser in the class cache.
+     * The key covers the grammar, the default type and the signatures of the imported types.
+     * @param names the names derived from the source file
+     * @param sourceText the text of the grammar
+     * @return a cache key or null if classes are not cached
+     */
+    public ClassCache.Key createCacheKey(SourceNames names, String sourceText) {
+        String className = names.getPackageName().length() == 0 ? names.getClassName()
+                : names.getPackageName() + "." + names.getClassName();
+        ClassCache.Key key = factory.createCacheKey(className);
+        if (key != null) {
+            key.add(sourceText);
+            key.add(defaultType);
+            for (Class<?> javaClass : IMPORTS) {
+                key.addType(javaClass);
+            }
+            key.addType(BnfParserBase.class);
+        }
+        return key;
+    }
     
     public String getDefaultType() {
         return defaultType;
@@ -65,6 +91,7 @@ public class BnfCompiler {
         BnfMakerVisitor visitor = new BnfMakerVisitor(maker);
 
         visitor.setActionRequired(true);
+        visitor.setSwitchDispatch(true);
         visitor.setDefaultTypeName(defaultType);
         visitor.setFilename(source);
         visitor.prepare(maker);
@@ -78,11 +105,11 @@ public class BnfCompiler {
 
         BnfMakerVisitor visitor = createBnfVisitor(maker, context.getSource());
         
-        factory.setPass(ClassMakerConstants.FIRST_PASS);
+        maker.setPass(ClassMakerConstants.FIRST_PASS);
         tree.resolveDeclaration(visitor);
         maker.EndClass();
         
-        factory.setPass(ClassMakerConstants.SECOND_PASS);
+        maker.setPass(ClassMakerConstants.SECOND_PASS);
         tree.resolveDeclaration(visitor);
         maker.EndClass();
     }
@@ -94,13 +121,39 @@ public class BnfCompiler {
         
         ModuleContext context = new ModuleContext();
         context.setInputFile(file, source);
+        context.setClassMakerFactory(factory);
+
+        // A parser generated from the same grammar is loaded without parsing it again.
+        ClassCache.Key key = createCacheKey(names, context.getSourceText());
+        Class<ParseMembers> cachedClass = context.defineCachedClass(key);
+        if (cachedClass != null) {
+            return newParser(cachedClass);
+        }
 
         ClassMaker maker = createClassMaker(names);
+        maker.setCacheKey(key);
         
         visitBnf(context, maker);
         
         Class<ParseMembers> parserClass = maker.defineClass();
-        ParseMembers parser = parserClass.newInstance();
+        ParseMembers parser = newParser(parserClass);
         return parser;
     }
+
+    /**
+     * Creates an instance of a parser using its default constructor.
+     */
+    private static <P> P newParser(Class<P> parserClass) throws InstantiationException, IllegalAccessException {
+        try {
+            return parserClass.getDeclaredConstructor().newInstance();
+        } catch (NoSuchMethodException ex) {
+            InstantiationException ie = new InstantiationException(parserClass.getName());
+            ie.initCause(ex);
+            throw ie;
+        } catch (InvocationTargetException ex) {
+            InstantiationException ie = new InstantiationException(parserClass.getName());
+            ie.initCause(ex.getCause());
+            throw ie;
+        }
+    }
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package au.com.illyrian.bnf.maker;
 import java.util.Map;
 import java.util.Vector;
 
+import au.com.illyrian.bnf.ast.BnfFirstSet;
 import au.com.illyrian.bnf.ast.BnfTree;
 import au.com.illyrian.bnf.ast.BnfTreeAction;
 import au.com.illyrian.bnf.ast.BnfTreeAlternative;
@@ -34,6 +35,8 @@ import au.com.illyrian.jesub.ast.AstModifiers;
 import au.com.illyrian.jesub.ast.AstPackage;
 import au.com.illyrian.jesub.ast.AstStructure;
 import au.com.illyrian.parser.ParserException;
+import au.com.illyrian.parser.Token;
+import au.com.illyrian.parser.impl.DecisionTable;
 
 public class BnfMakerVisitor extends AstExpressionVisitor
 {
@@ -44,6 +47,9 @@ public class BnfMakerVisitor extends AstExpressionVisitor
     private final Vector<Type>localVariables = new Vector<Type>();
     private String filename;
     private int lineNumber;
+    private boolean switchDispatch = false;
+    /** The terminals that select the alternatives of each decision made with a <code>Switch</code>. */
+    private final Vector<Vector<Vector<String>>> decisions = new Vector<Vector<Vector<String>>>();
     
     public BnfMakerVisitor() {
     }
@@ -126,6 +132,25 @@ public class BnfMakerVisitor extends AstExpressionVisitor
         this.actionRequired = actionRequired;
     }
 
+    public boolean isSwitchDispatch()
+    {
+        return switchDispatch;
+    }
+
+    /**
+     * Selects alternatives with a <code>Switch</code> on the current token rather than
+     * a chain of <code>If</code> statements.
+     * <br/>
+     * The generated parser calls <code>selectAlternative</code> to find the alternative,
+     * which looks up the token in a table rather than matching each terminal in turn.
+     * The parser builds each table from its <code>Token</code> fields in <code>createDecisionTable</code>.
+     * Rules that need more than one token of lookahead still use <code>If</code> statements.
+     */
+    public void setSwitchDispatch(boolean switchDispatch)
+    {
+        this.switchDispatch = switchDispatch;
+    }
+
     public void setRuleSet(Map<String, BnfTreeRule> ruleSet)
     {
         this.ruleSet = ruleSet;
@@ -143,7 +168,11 @@ public class BnfMakerVisitor extends AstExpressionVisitor
     {
         setRuleSet(tree.getRuleSet());
         setLineNumber(tree);
+        decisions.clear();
         tree.getRules().resolveDeclaration(this);
+        if (isSwitchDispatch()) {
+            resolveDecisionTables();
+        }
         return ClassMakerFactory.VOID_TYPE;
     }
 
@@ -187,8 +216,14 @@ public class BnfMakerVisitor extends AstExpressionVisitor
         return resolveAlternatives(alt.toAltArray(), 1, 1);
     }
  
-    Type resolveAlternatives(BnfTree [] alternatives, int offset, int variable) {
-        BnfTree left = alternatives[offset-1];
+    Type resolveAlternatives(BnfTree<?> [] alternatives, int offset, int variable) {
+        if (offset == 1 && isSwitchDispatch()) {
+            Vector<Vector<String>> selection = resolveSelection(alternatives);
+            if (selection != null) {
+                return resolveSwitch(alternatives, selection, variable);
+            }
+        }
+        BnfTree<?> left = alternatives[offset-1];
         if (offset < alternatives.length) {
             if (left.isEmpty()) {
                 throw new ParserException("Empty alternative must appear last");
@@ -201,7 +236,7 @@ public class BnfMakerVisitor extends AstExpressionVisitor
                 left.resolveSequence(this, variable);
                 getMaker().End();
             }
-            BnfTree right = alternatives[offset];
+            BnfTree<?> right = alternatives[offset];
             // If the right hand side is EMPTY then this is an optional 
             // clause so no need for an else part.
             if (!right.isEmpty() || isOnlyOneOption()) {
@@ -220,6 +255,136 @@ public class BnfMakerVisitor extends AstExpressionVisitor
         return ClassMakerFactory.VOID_TYPE;
     }
 
+    /**
+     * Collects the names of the terminals that select each alternative except the last.
+     * @return the selection or null if an alternative is not selected by the current token alone
+     */
+    Vector<Vector<String>> resolveSelection(BnfTree<?> [] alternatives) {
+        if (alternatives.length < 2) {
+            return null;
+        }
+        Vector<Vector<String>> selection = new Vector<Vector<String>>();
+        for (int i = 0; i < alternatives.length - 1; i++) {
+            if (alternatives[i].isEmpty()) {
+                return null;
+            }
+            Vector<String> names = resolveFirstTerminals(alternatives[i].getHead(), new Vector<String>());
+            if (names == null) {
+                return null;
+            }
+            selection.add(names);
+        }
+        return selection;
+    }
+
+    /**
+     * Collects the terminals that <code>resolveLookahead</code> would match for the head of an alternative.
+     * @return the names of the terminals or null if the lookahead is not a set of single terminals
+     */
+    Vector<String> resolveFirstTerminals(BnfTree<?> head, Vector<String> names) {
+        if (head instanceof BnfTreeReserved) {
+            names.add(head.getName());
+        } else if (head instanceof BnfTreeName) {
+            String name = head.getName();
+            if (isRule(name)) {
+                return resolveFirstTerminals(ruleSet.get(name), names);
+            } else if (head instanceof BnfTreeNonterminal) {
+                return null;
+            }
+            names.add(name);
+        } else if (head instanceof BnfTreeRule) {
+            BnfFirstSet firstSet = ((BnfTreeRule)head).getFirstSet();
+            BnfTree<?> [] list = (firstSet == null) ? new BnfTree<?>[0] : firstSet.toArray();
+            if (list.length == 0) {
+                return null;
+            }
+            for (BnfTree<?> item : list) {
+                if (item == null || resolveFirstTerminals(item, names) == null) {
+                    return null;
+                }
+            }
+        } else if (head instanceof BnfTreeLookahead) {
+            BnfTree<?> pattern = ((BnfTreeLookahead)head).getPattern();
+            return (pattern == null) ? null : resolveFirstTerminals(pattern, names);
+        } else {
+            return null;
+        }
+        return names;
+    }
+
+    Type resolveSwitch(BnfTree<?> [] alternatives, Vector<Vector<String>> selection, int variable) {
+        int last = alternatives.length - 1;
+        setLineNumber(alternatives[0]);
+        int decision = decisions.size();
+        decisions.add(selection);
+        Value selected = getMaker().Call(getMaker().This(), "selectAlternative", 
+                getMaker().Push(getMaker().Literal(decision)));
+        getMaker().Switch(selected);
+        for (int i = 0; i < last; i++) {
+            setLineNumber(alternatives[i]);
+            getMaker().Case(i);
+            getMaker().Begin();
+            alternatives[i].resolveSequence(this, variable);
+            getMaker().End();
+            getMaker().Break();
+        }
+        BnfTree<?> right = alternatives[last];
+        // If the last alternative is EMPTY then this is an optional clause so no need for a default.
+        if (!right.isEmpty() || isOnlyOneOption()) {
+            setLineNumber(right);
+            getMaker().Default();
+            getMaker().Begin();
+            right.resolveSequence(this, variable);
+            getMaker().End();
+            getMaker().Break();
+        }
+        getMaker().EndSwitch();
+        return ClassMakerFactory.VOID_TYPE;
+    }
+
+    /**
+     * Overrides <code>ParserBase.createDecisionTable</code> to build the table for each
+     * decision from the <code>Token</code> fields of the parser.
+     * <br/>
+     * The decisions are collected while the rules are generated, so the body is
+     * generated in the second pass after all the rules.
+     */
+    void resolveDecisionTables() {
+        getMaker().Method("createDecisionTable", DecisionTable.class, ClassMakerConstants.ACC_PROTECTED);
+        getMaker().Declare("decision", int.class, 0);
+        if (getMaker().getPass() == ClassMakerConstants.FIRST_PASS) {
+            getMaker().Forward();
+            return;
+        }
+        getMaker().Begin();
+        getMaker().Declare("terminals", getMaker().ArrayOf(getMaker().ArrayOf(Token.class)), 0);
+        if (!decisions.isEmpty()) {
+            getMaker().Switch(getMaker().Get("decision"));
+            for (int i = 0; i < decisions.size(); i++) {
+                Vector<Vector<String>> selection = decisions.get(i);
+                getMaker().Case(i);
+                getMaker().Begin();
+                getMaker().Eval(getMaker().Assign("terminals", getMaker().NewArray(
+                        getMaker().ArrayOf(getMaker().ArrayOf(Token.class)), getMaker().Literal(selection.size()))));
+                for (int alt = 0; alt < selection.size(); alt++) {
+                    Vector<String> names = selection.get(alt);
+                    getMaker().Eval(getMaker().AssignAt(getMaker().Get("terminals"), getMaker().Literal(alt),
+                            getMaker().NewArray(getMaker().ArrayOf(Token.class), getMaker().Literal(names.size()))));
+                    for (int j = 0; j < names.size(); j++) {
+                        Value terminals = getMaker().GetAt(getMaker().Get("terminals"), getMaker().Literal(alt));
+                        getMaker().Eval(getMaker().AssignAt(terminals, getMaker().Literal(j),
+                                getMaker().Get(getMaker().This(), names.get(j))));
+                    }
+                }
+                getMaker().Return(getMaker().New(DecisionTable.class).Init(getMaker().Push(getMaker().Get("terminals"))));
+                getMaker().End();
+            }
+            getMaker().EndSwitch();
+        }
+        getMaker().Return(getMaker().Null());
+        getMaker().End();
+    }
+
     public Type resolveDeclaration(BnfTreeSequence seq) {
         return resolveSequence(seq, 1);
     }
@@ -5,11 +5,12 @@ import au.com.illyrian.jesub.ast.AstStructure;
 import au.com.illyrian.jesub.ast.AstStructureFactory;
 import au.com.illyrian.parser.CompilerContext;
 import au.com.illyrian.parser.ParseMembers;
+import au.com.illyrian.parser.ResettableParser;
 import au.com.illyrian.parser.Token;
 import au.com.illyrian.parser.TokenType;
 import au.com.illyrian.parser.impl.ParserBase;
 
-public abstract class BnfParserBase extends ParserBase implements ParseMembers<AstStructure>
+public abstract class BnfParserBase extends ParserBase implements ParseMembers<AstStructure>, ResettableParser
 {
     public AstStructureFactory ast;
     
@@ -50,5 +51,14 @@ public abstract class BnfParserBase extends ParserBase implements ParseMembers<A
         return tree;
     }
     
+    /**
+     * Forgets the compiler context and input of the previous parse.
+     * Generated parsers keep no other state between parses, so they can be pooled.
+     */
+    public void reset()
+    {
+        resetParser();
+    }
+
     public abstract AstStructure goal();
 }
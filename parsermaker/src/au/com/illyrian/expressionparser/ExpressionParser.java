@@ -17,6 +17,7 @@ import au.com.illyrian.parser.CompilerContext;
 import au.com.illyrian.parser.ParseClass;
 import au.com.illyrian.parser.ParseExpression;
 import au.com.illyrian.parser.ParseMembers;
+import au.com.illyrian.parser.ResettableParser;
 import au.com.illyrian.parser.TokenType;
 import au.com.illyrian.parser.expr.AstExpressionPrecidenceAction;
 import au.com.illyrian.parser.expr.AstExpressionPrecidenceParser;
@@ -37,7 +38,7 @@ import au.com.illyrian.parser.expr.AstExpressionPrecidenceParser;
  * @author strongd
  */
 public class ExpressionParser extends AstExpressionPrecidenceParser
-    implements ParseClass, ParseMembers, ParseExpression, ClassMakerLocation
+    implements ParseClass, ParseMembers, ParseExpression, ClassMakerLocation, ResettableParser
 {
     private ClassMaker maker = null;
 
@@ -150,6 +151,18 @@ public class ExpressionParser extends AstExpressionPrecidenceParser
         return maker;
     }
 
+    /**
+     * Forgets the class maker and actions of the previous parse, 
+     * as the default actions refer to the class maker.
+     * The compiler context and input are also forgotten.
+     */
+    public void reset()
+    {
+        maker = null;
+        expressionAction = null;
+        resetParser();
+    }
+
     public Object parseClass(CompilerContext context)
     {
         setCompilerContext(context);
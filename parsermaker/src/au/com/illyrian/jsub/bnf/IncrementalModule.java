@@ -0,0 +1,511 @@
+package au.com.illyrian.jsub.bnf;
+
+import java.io.IOException;
+import java.util.Vector;
+
+import au.com.illyrian.jesub.ast.AstStatementCompound;
+import au.com.illyrian.jesub.ast.AstStructure;
+import au.com.illyrian.jesub.ast.AstStructureFactory;
+import au.com.illyrian.parser.Lexer;
+import au.com.illyrian.parser.ParserException;
+import au.com.illyrian.parser.TokenType;
+import au.com.illyrian.parser.impl.LexerInputBuffer;
+import au.com.illyrian.parser.impl.ModuleContext;
+import au.com.illyrian.parser.impl.TokenBuffer;
+
+/**
+ * Parses successive versions of a Jsub source, parsing again only the block that contains an edit.
+ * <br/>
+ * The tokens of the previous version are kept as offsets into its text, together with the
+ * braces of every compound statement in the tree.
+ * When a new version is parsed only the text around the changed characters is lexed again.
+ * Lexing resumes from the start of a token before the change and stops as soon as a new
+ * token starts at the same place in the unchanged text as an old token, because every
+ * token after that point is the same.
+ * <ul>
+ * <li>If the tokens and their line numbers are unchanged, e.g. after editing a comment or
+ *     the whitespace within a line, the previous tree is returned.</li>
+ * <li>If the changed tokens lie within a compound statement, such as a method body, the
+ *     innermost such statement is parsed again from its opening brace. The code of the new
+ *     statement replaces the code of the statement in the previous tree, so the rest of the
+ *     tree, including the other methods and blocks, is reused.</li>
+ * <li>Otherwise, e.g. after editing a method signature or a brace that ends a block,
+ *     the whole source is parsed again.</li>
+ * </ul>
+ * The parser is given a factory that records the offsets of each compound statement it builds,
+ * so the parser should not be shared with other threads while it is used by this class.
+ */
+public class IncrementalModule
+{
+    private final JsubParserBase parser;
+    private final BlockRecorder recorder = new BlockRecorder();
+
+    private String text = null;
+    private String sourceName = null;
+    private AstStructure tree = null;
+    private boolean reused = false;
+    private AstStatementCompound reparsed = null;
+
+    /** The class of the lexer used by the parser, or null if the tokens cannot be compared. */
+    private Class<? extends Lexer> lexerType;
+
+    /** The tokens of the previous version. */
+    private TokenList tokens = new TokenList();
+
+    /** The compound statements of the previous tree, or null if they could not all be found. */
+    private Vector<Block> blocks = null;
+
+    public IncrementalModule(JsubParserBase parser)
+    {
+        this.parser = parser;
+        parser.ast = recorder;
+        Lexer lexer = parser.getLexer();
+        // A token buffer records its own position, so the offsets of statements are not known.
+        lexerType = (lexer instanceof TokenBuffer) ? null : lexer.getClass();
+    }
+
+    public JsubParserBase getParser()
+    {
+        return parser;
+    }
+
+    /**
+     * Whether the last call to <code>parseString</code> returned the previous tree without parsing.
+     *
+     * @return true if the previous tree was reused
+     */
+    public boolean isReused()
+    {
+        return reused;
+    }
+
+    /**
+     * The statement of the previous tree whose code was replaced by the last call to <code>parseString</code>.
+     *
+     * @return the statement that was parsed again, or null if the tree was reused or the whole source was parsed
+     */
+    public AstStatementCompound getReparsed()
+    {
+        return reparsed;
+    }
+
+    /**
+     * Parses a new version of the source.
+     *
+     * @param newText the text of the source
+     * @param name the name of the source
+     * @return the tree of the module
+     * @throws IOException if the text cannot be read
+     */
+    public AstStructure parseString(String newText, String name) throws IOException
+    {
+        reused = false;
+        reparsed = null;
+        boolean sameSource = (name == null) ? sourceName == null : name.equals(sourceName);
+        if (tree != null && sameSource && blocks != null) {
+            if (newText.equals(text)) {
+                reused = true;
+                return tree;
+            } else if (parseChange(newText, name)) {
+                text = newText;
+                return tree;
+            }
+        }
+        tree = null;
+        AstStructure result = parse(newText, name);
+        text = newText;
+        sourceName = name;
+        tokens = new TokenList();
+        blocks = null;
+        if (lex(newText, 0, tokens, null, 0, 0) >= 0) {
+            blocks = new Vector<Block>();
+            if (!addBlocks(recorder.getRecorded(), newText)) {
+                blocks = null;
+            }
+        }
+        tree = result;
+        return tree;
+    }
+
+    /**
+     * Parses the whole of the source, recording the offsets of each compound statement.
+     *
+     * @param newText the text of the source
+     * @param name the name of the source
+     * @return the tree of the module
+     * @throws IOException if the text cannot be read
+     */
+    protected AstStructure parse(String newText, String name) throws IOException
+    {
+        ModuleContext context = new ModuleContext();
+        context.setInputString(newText, name);
+        recorder.start((LexerInputBuffer)context.getInput());
+        try {
+            return parser.parseModule(context);
+        } finally {
+            parser.reset();
+        }
+    }
+
+    /**
+     * Lexes the changed part of the new text and updates the previous tree.
+     *
+     * @return true if the previous tree was reused or updated, false if the whole source must be parsed
+     */
+    private boolean parseChange(String newText, String name) throws IOException
+    {
+        int oldLength = text.length();
+        int newLength = newText.length();
+        int limit = Math.min(oldLength, newLength);
+        int prefix = 0;
+        while (prefix < limit && text.charAt(prefix) == newText.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < limit - prefix
+                && text.charAt(oldLength - suffix - 1) == newText.charAt(newLength - suffix - 1)) {
+            suffix++;
+        }
+
+        // Resume one token before the first token that reaches the change,
+        // as the lexer peeks at the characters after a token.
+        int first = 0;
+        while (first < tokens.count && tokens.finishes[first] < prefix) {
+            first++;
+        }
+        first = Math.max(0, first - 1);
+        int resume = (first < tokens.count) ? tokens.starts[first] : 0;
+
+        TokenList changed = new TokenList();
+        int delta = newLength - oldLength;
+        int last = lex(newText, resume, changed, tokens, newLength - suffix, delta);
+        if (last < 0) {
+            return false;
+        }
+        // A changed number of lines moves every following token to another line.
+        int lineDelta = lineBreaks(newText) - lineBreaks(text);
+        if (lineDelta == 0 && sameTokens(newText, changed, first, last)) {
+            tokens = tokens.splice(first, last, changed, delta, 0);
+            reused = true;
+            return true;
+        }
+
+        // Find the innermost block that encloses the changed tokens.
+        Block block = null;
+        for (Block candidate : blocks) {
+            if (candidate.open < first && candidate.close >= last
+                    && (block == null || candidate.open > block.open)) {
+                block = candidate;
+            }
+        }
+        if (block == null) {
+            return false;
+        }
+        AstStatementCompound statement = parseBlock(newText, name, block, first, last, changed, delta, lineDelta);
+        if (statement == null) {
+            return false;
+        }
+        block.node.setCode(statement.getCode());
+        reparsed = block.node;
+        return true;
+    }
+
+    /**
+     * Parses the block again from its opening brace and records the blocks within it.
+     *
+     * @return the new statement, or null if it does not end at the closing brace of the block
+     */
+    private AstStatementCompound parseBlock(String newText, String name, Block block,
+            int first, int last, TokenList changed, int delta, int lineDelta) throws IOException
+    {
+        // Remove the blocks within the block, as they are recorded again.
+        Vector<Block> remaining = new Vector<Block>();
+        for (Block inner : blocks) {
+            if (inner.open <= block.open || inner.close >= block.close) {
+                remaining.add(inner);
+            }
+        }
+        int shift = changed.count - (last - first);
+        for (Block outer : remaining) {
+            outer.open += (outer.open >= last) ? shift : 0;
+            outer.close += (outer.close >= last) ? shift : 0;
+        }
+        blocks = remaining;
+        tokens = tokens.splice(first, last, changed, delta, lineDelta);
+
+        // The block must end where the closing brace of the previous block ends.
+        if (block.close + 1 >= tokens.count) {
+            return null;
+        }
+        int end = tokens.starts[block.close + 1];
+        ModuleContext context = new ModuleContext();
+        context.setInputString(newText, name);
+        LexerInputBuffer input = (LexerInputBuffer)context.getInput();
+        input.setOffset(tokens.starts[block.open]);
+        recorder.start(input);
+        AstStructure result;
+        try {
+            result = parser.parseStatement(context);
+        } catch (ParserException ex) {
+            return null;
+        } finally {
+            parser.reset();
+        }
+        Vector<Block> recorded = recorder.getRecorded();
+        if (recorded.isEmpty()) {
+            return null;
+        }
+        // The block itself is the last statement to be built.
+        Block outermost = recorded.remove(recorded.size() - 1);
+        if (result != outermost.node || outermost.end != end) {
+            return null;
+        }
+        if (!addBlocks(recorded, newText)) {
+            return null;
+        }
+        return outermost.node;
+    }
+
+    /**
+     * Compares the changed tokens with the previous tokens they replace.
+     */
+    private boolean sameTokens(String newText, TokenList changed, int first, int last)
+    {
+        if (changed.count != last - first) {
+            return false;
+        }
+        for (int i = 0; i < changed.count; i++) {
+            int j = first + i;
+            int length = tokens.finishes[j] - tokens.starts[j];
+            if (changed.types[i] != tokens.types[j] || changed.lines[i] != tokens.lines[j]
+                    || changed.finishes[i] - changed.starts[i] != length
+                    || !newText.regionMatches(changed.starts[i], text, tokens.starts[j], length)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the braces of each recorded block within the tokens of the given text.
+     *
+     * @return false if the braces of a block cannot be found
+     */
+    private boolean addBlocks(Vector<Block> recorded, String source)
+    {
+        for (Block block : recorded) {
+            // The closing brace is the last token before the offset recorded after the block.
+            int low = 0;
+            int high = tokens.count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (tokens.starts[mid] < block.end) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            block.close = low - 1;
+            if (block.close < 0 || !isDelimiter(source, block.close, '}')) {
+                return false;
+            }
+            int depth = 0;
+            for (int i = block.close; i >= 0; i--) {
+                if (isDelimiter(source, i, '}')) {
+                    depth++;
+                } else if (isDelimiter(source, i, '{') && --depth == 0) {
+                    block.open = i;
+                    break;
+                }
+            }
+            if (block.open < 0) {
+                return false;
+            }
+            blocks.add(block);
+        }
+        return true;
+    }
+
+    private boolean isDelimiter(String source, int index, char ch)
+    {
+        return tokens.types[index] == TokenType.DELIMITER.ordinal()
+                && tokens.finishes[index] - tokens.starts[index] == 1
+                && source.charAt(tokens.starts[index]) == ch;
+    }
+
+    private static int lineBreaks(String str)
+    {
+        int breaks = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char ch = str.charAt(i);
+            if (ch == '\n' || (ch == '\r' && (i + 1 >= str.length() || str.charAt(i + 1) != '\n'))) {
+                breaks++;
+            }
+        }
+        return breaks;
+    }
+
+    /**
+     * Records the tokens of the source from the given offset.
+     * <br/>
+     * If <code>previous</code> is provided, lexing stops at the first token at or after
+     * <code>changeEnd</code> that starts at the same place as a previous token, allowing for
+     * the change in length <code>delta</code>.
+     *
+     * @return the index of the previous token where lexing stopped, the number of previous
+     *         tokens if lexing reached the end of input, or -1 if there was a lexer error
+     *         or the lexer could not be created
+     */
+    private int lex(String source, int offset, TokenList list, TokenList previous, int changeEnd, int delta)
+    {
+        Lexer lexer = createLexer();
+        if (lexer == null) {
+            return -1;
+        }
+        LexerInputBuffer input = new LexerInputBuffer(source, null);
+        input.setOffset(offset);
+        lexer.setInput(input);
+        int match = 0;
+        while (true) {
+            TokenType type = lexer.nextToken();
+            if (type == TokenType.END) {
+                return (previous == null) ? list.count : previous.count;
+            } else if (type == TokenType.ERROR) {
+                return -1;
+            }
+            int start = input.getTokenOffset();
+            if (previous != null && start >= changeEnd) {
+                while (match < previous.count && previous.starts[match] + delta < start) {
+                    match++;
+                }
+                if (match < previous.count && previous.starts[match] + delta == start) {
+                    return match;
+                }
+            }
+            list.add(type, start, input.getTokenEndOffset(), lexer.getLineNumber());
+        }
+    }
+
+    /**
+     * Creates a lexer of the same class as the lexer of the parser.
+     * A lexer without reserved words is sufficient, as reserved words only change the type
+     * of an identifier and the text of each token is compared.
+     *
+     * @return a new lexer or null if the lexer class is unknown or cannot be instantiated
+     */
+    protected Lexer createLexer()
+    {
+        if (lexerType == null) {
+            return null;
+        }
+        try {
+            return lexerType.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * A compound statement of the tree and the indexes of its braces in the tokens.
+     */
+    static class Block
+    {
+        final AstStatementCompound node;
+        /** The offset of the token after the closing brace, as recorded while parsing. */
+        final int end;
+        int open = -1;
+        int close = -1;
+
+        Block(AstStatementCompound node, int end)
+        {
+            this.node = node;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Records each compound statement built by the parser, with the offset of the current
+     * token, which follows the closing brace of the statement.
+     */
+    static class BlockRecorder extends AstStructureFactory
+    {
+        private LexerInputBuffer input = null;
+        private Vector<Block> recorded = new Vector<Block>();
+
+        void start(LexerInputBuffer input)
+        {
+            this.input = input;
+            recorded = new Vector<Block>();
+        }
+
+        Vector<Block> getRecorded()
+        {
+            return recorded;
+        }
+
+        public AstStatementCompound Compound(AstStructure body)
+        {
+            AstStatementCompound stmt = super.Compound(body);
+            recorded.add(new Block(stmt, input.getTokenOffset()));
+            return stmt;
+        }
+    }
+
+    /**
+     * The type, offsets and line number of each token, held in primitive arrays.
+     */
+    static class TokenList
+    {
+        int[] types = new int[64];
+        int[] starts = new int[64];
+        int[] finishes = new int[64];
+        int[] lines = new int[64];
+        int count = 0;
+
+        void add(TokenType type, int start, int finish, int line)
+        {
+            add(type.ordinal(), start, finish, line);
+        }
+
+        private void add(int type, int start, int finish, int line)
+        {
+            if (count == types.length) {
+                types = grow(types);
+                starts = grow(starts);
+                finishes = grow(finishes);
+                lines = grow(lines);
+            }
+            types[count] = type;
+            starts[count] = start;
+            finishes[count] = finish;
+            lines[count] = line;
+            count++;
+        }
+
+        /**
+         * Replaces the tokens from <code>first</code> up to <code>last</code> with the changed tokens.
+         * The following tokens are moved by the change in length and lines.
+         */
+        TokenList splice(int first, int last, TokenList changed, int delta, int lineDelta)
+        {
+            TokenList list = new TokenList();
+            for (int i = 0; i < first; i++) {
+                list.add(types[i], starts[i], finishes[i], lines[i]);
+            }
+            for (int i = 0; i < changed.count; i++) {
+                list.add(changed.types[i], changed.starts[i], changed.finishes[i], changed.lines[i]);
+            }
+            for (int i = last; i < count; i++) {
+                list.add(types[i], starts[i] + delta, finishes[i] + delta, lines[i] + lineDelta);
+            }
+            return list;
+        }
+
+        private static int[] grow(int[] array)
+        {
+            int[] larger = new int[array.length * 2];
+            System.arraycopy(array, 0, larger, 0, array.length);
+            return larger;
+        }
+    }
+}
@@ -2,11 +2,13 @@ package au.com.illyrian.jsub.bnf;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 
 import au.com.illyrian.bnf.ast.BnfTreeParser;
 import au.com.illyrian.bnf.maker.BnfMakerVisitor;
 import au.com.illyrian.bnf.maker.BnfParserBase;
 import au.com.illyrian.bnf.parser.BnfParser;
+import au.com.illyrian.classmaker.ClassCache;
 import au.com.illyrian.classmaker.ClassMaker;
 import au.com.illyrian.classmaker.ClassMakerConstants;
 import au.com.illyrian.classmaker.ClassMakerFactory;
@@ -24,6 +26,12 @@ import au.com.illyrian.parser.impl.ModuleContext;
 public class JsubCompiler {
     public static final String TEST_DIR = "test";
     public static final String JSUB_BNF = "au/com/illyrian/bnf/Jesub_syntax.bnf";
+    public static final String JSUB_CLASS = "au.com.illyrian.bnf.Jsub";
+    /** The types imported into the generated parser. */
+    private static final Class<?>[] IMPORTS = {
+        AstExpression.class, AstStructure.class, AstModifiers.class, AstPackage.class,
+        AstImport.class, AstClass.class, TerminalName.class
+    };
     private final File sourceDir = new File(TEST_DIR);
     private final ClassMakerFactory factory;
     
@@ -40,20 +48,30 @@ public class JsubCompiler {
     }
     
     public void prepare(ClassMaker maker) {
-        maker.Import(AstExpression.class);
-        maker.Import(AstStructure.class);
-        maker.Import(AstModifiers.class);
-        maker.Import(AstPackage.class);
-        maker.Import(AstImport.class);
-        maker.Import(AstClass.class);
-        maker.Import(TerminalName.class);
+        for (Class<?> javaClass : IMPORTS) {
+            maker.Import(javaClass);
+        }
         maker.Extends(JsubParserBase.class);
     }
+
+    /**
+     * Creates a key for the generated parser in the class cache.
+     * The key covers the grammar and the signatures of the imported types and the base class.
+     * @param context the context holding the grammar
+     * @return a cache key or null if classes are not cached
+     */
+    public ClassCache.Key createCacheKey(ModuleContext context) {
+        Class<?>[] types = new Class<?>[IMPORTS.length + 1];
+        System.arraycopy(IMPORTS, 0, types, 0, IMPORTS.length);
+        types[IMPORTS.length] = JsubParserBase.class;
+        return context.createCacheKey(JSUB_CLASS, types);
+    }
     
     public BnfMakerVisitor createBnfVisitor(ClassMaker maker, String source) {
         BnfMakerVisitor visitor = new BnfMakerVisitor(maker);
 
         visitor.setActionRequired(true);
+        visitor.setSwitchDispatch(true);
         visitor.setDefaultTypeName("AstStructure");
         visitor.setFilename(source);
         return visitor;
@@ -66,11 +84,11 @@ public class JsubCompiler {
 
         BnfMakerVisitor visitor = createBnfVisitor(maker, context.getSource());
         
-        factory.setPass(ClassMakerConstants.FIRST_PASS);
+        maker.setPass(ClassMakerConstants.FIRST_PASS);
         tree.resolveDeclaration(visitor);
         maker.EndClass();
         
-        factory.setPass(ClassMakerConstants.SECOND_PASS);
+        maker.setPass(ClassMakerConstants.SECOND_PASS);
         tree.resolveDeclaration(visitor);
         maker.EndClass();
     }
@@ -81,13 +99,39 @@ public class JsubCompiler {
         
         ModuleContext context = new ModuleContext();
         context.setInputFile(file, JSUB_BNF);
+        context.setClassMakerFactory(factory);
+
+        // A parser generated from the same grammar is loaded without parsing it again.
+        ClassCache.Key key = createCacheKey(context);
+        Class<ParseModule> cachedClass = context.defineCachedClass(key);
+        if (cachedClass != null) {
+            return newParser(cachedClass);
+        }
 
         ClassMaker maker = createClassMaker();
+        maker.setCacheKey(key);
         
         visitBnf(context, maker);
         
         Class<ParseModule> parserClass = maker.defineClass();
-        ParseModule parser = parserClass.newInstance();
+        ParseModule parser = newParser(parserClass);
         return parser;
     }
+
+    /**
+     * Creates an instance of a parser using its default constructor.
+     */
+    private static <P> P newParser(Class<P> parserClass) throws InstantiationException, IllegalAccessException {
+        try {
+            return parserClass.getDeclaredConstructor().newInstance();
+        } catch (NoSuchMethodException ex) {
+            InstantiationException ie = new InstantiationException(parserClass.getName());
+            ie.initCause(ex);
+            throw ie;
+        } catch (InvocationTargetException ex) {
+            InstantiationException ie = new InstantiationException(parserClass.getName());
+            ie.initCause(ex.getCause());
+            throw ie;
+        }
+    }
 }
\ No newline at end of file
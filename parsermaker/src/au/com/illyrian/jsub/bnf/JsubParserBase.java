@@ -5,13 +5,15 @@ import au.com.illyrian.jesub.ast.AstStructure;
 import au.com.illyrian.jesub.ast.AstStructureFactory;
 import au.com.illyrian.parser.CompilerContext;
 import au.com.illyrian.parser.ParseModule;
+import au.com.illyrian.parser.ParseStatement;
+import au.com.illyrian.parser.ResettableParser;
 import au.com.illyrian.parser.Token;
 import au.com.illyrian.parser.TokenType;
 import au.com.illyrian.parser.expr.AstExpressionPrecidenceAction;
 import au.com.illyrian.parser.expr.AstExpressionPrecidenceParser;
 
 public abstract class JsubParserBase extends AstExpressionPrecidenceParser 
-    implements ParseModule<AstStructure>
+    implements ParseModule<AstStructure>, ParseStatement<AstStructure>, ResettableParser
 {
     public AstStructureFactory ast;
     
@@ -78,7 +80,29 @@ public abstract class JsubParserBase extends AstExpressionPrecidenceParser
         return tree;
     }
     
+    /**
+     * Parses a single statement, such as a block, from the current offset of the input.
+     */
+    public AstStructure parseStatement(CompilerContext context)
+    {
+        setCompilerContext(context);
+
+        nextToken();
+        return statement();
+    }
+
+    /**
+     * Forgets the compiler context and input of the previous parse.
+     * Generated parsers keep no other state between parses, so they can be pooled.
+     */
+    public void reset()
+    {
+        resetParser();
+    }
+
     public abstract AstStructure goal();
+
+    public abstract AstStructure statement();
     
 //    public AstExpression precedence(int level) {
 //        return null;
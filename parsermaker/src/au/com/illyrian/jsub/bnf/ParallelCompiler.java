@@ -0,0 +1,357 @@
+package au.com.illyrian.jsub.bnf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import au.com.illyrian.classmaker.ClassMaker;
+import au.com.illyrian.classmaker.ClassMakerConstants;
+import au.com.illyrian.classmaker.ClassMakerFactory;
+import au.com.illyrian.classmaker.ast.AstExpression;
+import au.com.illyrian.classmaker.ast.ResolvePath;
+import au.com.illyrian.jesub.ast.AstClass;
+import au.com.illyrian.jesub.ast.AstImport;
+import au.com.illyrian.jesub.ast.AstInterface;
+import au.com.illyrian.jesub.ast.AstPackage;
+import au.com.illyrian.jesub.ast.AstStructure;
+import au.com.illyrian.jesub.ast.AstStructureVisitor;
+import au.com.illyrian.parser.ParseModule;
+import au.com.illyrian.parser.impl.ModuleContext;
+
+/**
+ * Compiles many source files concurrently.
+ * <br/>
+ * Each source is parsed on the pool with its own <code>ModuleContext</code>, lexer and parser.
+ * The classes are then generated with <code>ClassMaker</code>s that share one <code>ClassMakerFactory</code>,
+ * so that they can refer to each other.
+ * <ul>
+ * <li>The name of every class is registered with the factory before any code is generated.</li>
+ * <li>The first pass runs in dependency order; a class is declared after the classes it
+ *     extends, implements or imports. Classes with no dependencies between them are declared
+ *     at the same time.</li>
+ * <li>The second pass generates the code for every class at the same time, as all the
+ *     members were declared by the first pass.</li>
+ * </ul>
+ * Each source must declare a single class or interface.
+ */
+public class ParallelCompiler
+{
+    private final Class<? extends ParseModule<AstStructure>> parserClass;
+    private final ClassMakerFactory factory;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a compiler that uses the common fork join pool.
+     *
+     * @param parser a parser of the same class is created for each source
+     * @param factory the factory shared by the generated classes
+     */
+    public ParallelCompiler(ParseModule<AstStructure> parser, ClassMakerFactory factory)
+    {
+        this(parser, factory, ForkJoinPool.commonPool());
+    }
+
+    @SuppressWarnings("unchecked")
+    public ParallelCompiler(ParseModule<AstStructure> parser, ClassMakerFactory factory, ForkJoinPool pool)
+    {
+        this.parserClass = (Class<? extends ParseModule<AstStructure>>)parser.getClass();
+        this.factory = factory;
+        this.pool = pool;
+    }
+
+    public ClassMakerFactory getFactory()
+    {
+        return factory;
+    }
+
+    /**
+     * Compiles the given sources.
+     *
+     * @param sourceDir the directory that contains the sources
+     * @param sources the paths of the sources relative to the directory
+     * @return the bytes of each generated class, by fully qualified class name
+     * @throws IOException if a source cannot be read
+     */
+    public Map<String, byte[]> compile(File sourceDir, List<String> sources) throws IOException
+    {
+        List<Unit> units = parse(sourceDir, sources);
+        for (Unit unit : units) {
+            unit.declare(factory);
+        }
+        for (List<Unit> layer : dependencyLayers(units)) {
+            runAll(layer, ClassMakerConstants.FIRST_PASS);
+        }
+        runAll(units, ClassMakerConstants.SECOND_PASS);
+
+        Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+        for (Unit unit : units) {
+            unit.maker.getGen().releaseClassFileWriter();
+            classes.put(unit.getClassName(), unit.maker.getGen().toByteArray());
+        }
+        return classes;
+    }
+
+    /**
+     * Parses each source concurrently.
+     */
+    List<Unit> parse(final File sourceDir, List<String> sources) throws IOException
+    {
+        List<Callable<Unit>> tasks = new ArrayList<Callable<Unit>>();
+        for (final String source : sources) {
+            tasks.add(new Callable<Unit>() {
+                public Unit call() throws Exception
+                {
+                    ModuleContext context = new ModuleContext();
+                    context.setInputFile(new File(sourceDir, source), source);
+                    ParseModule<AstStructure> parser = parserClass.getDeclaredConstructor().newInstance();
+                    return new Unit(source, parser.parseModule(context));
+                }
+            });
+        }
+        List<Unit> units = new ArrayList<Unit>();
+        for (Future<Unit> result : pool.invokeAll(tasks)) {
+            units.add(get(result));
+        }
+        return units;
+    }
+
+    /**
+     * Runs a pass of the code generator over each unit concurrently.
+     * The pass is set on the <code>ClassMaker</code> of each unit, as the units share the factory.
+     */
+    void runAll(List<Unit> units, final int pass) throws IOException
+    {
+        List<Callable<Unit>> tasks = new ArrayList<Callable<Unit>>();
+        for (final Unit unit : units) {
+            tasks.add(new Callable<Unit>() {
+                public Unit call()
+                {
+                    unit.maker.setPass(pass);
+                    unit.tree.resolveDeclaration(unit.visitor);
+                    unit.maker.EndClass();
+                    return unit;
+                }
+            });
+        }
+        for (Future<Unit> result : pool.invokeAll(tasks)) {
+            get(result);
+        }
+    }
+
+    private static <T> T get(Future<T> result) throws IOException
+    {
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Compilation interrupted", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            // A fork join task may rethrow a copy of the exception thrown on the worker thread.
+            if (cause.getCause() != null && cause.getCause().getClass() == cause.getClass())
+                cause = cause.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Sorts the units into layers, where each unit depends only on units in earlier layers.
+     * Units in a dependency cycle are placed together in the last layer.
+     */
+    static List<List<Unit>> dependencyLayers(List<Unit> units)
+    {
+        Map<String, Unit> byName = new HashMap<String, Unit>();
+        for (Unit unit : units) {
+            byName.put(unit.getClassName(), unit);
+        }
+        Map<Unit, Integer> waiting = new HashMap<Unit, Integer>();
+        Map<Unit, List<Unit>> dependents = new HashMap<Unit, List<Unit>>();
+        List<Unit> ready = new ArrayList<Unit>();
+        for (Unit unit : units) {
+            int count = 0;
+            for (String name : unit.getDependencies()) {
+                Unit dependency = byName.get(name);
+                if (dependency != null && dependency != unit) {
+                    List<Unit> list = dependents.get(dependency);
+                    if (list == null) {
+                        list = new ArrayList<Unit>();
+                        dependents.put(dependency, list);
+                    }
+                    list.add(unit);
+                    count++;
+                }
+            }
+            waiting.put(unit, count);
+            if (count == 0) {
+                ready.add(unit);
+            }
+        }
+        List<List<Unit>> layers = new ArrayList<List<Unit>>();
+        int placed = 0;
+        while (!ready.isEmpty()) {
+            layers.add(ready);
+            placed += ready.size();
+            List<Unit> next = new ArrayList<Unit>();
+            for (Unit unit : ready) {
+                List<Unit> list = dependents.get(unit);
+                if (list != null) {
+                    for (Unit dependent : list) {
+                        int count = waiting.get(dependent) - 1;
+                        waiting.put(dependent, count);
+                        if (count == 0) {
+                            next.add(dependent);
+                        }
+                    }
+                }
+            }
+            ready = next;
+        }
+        if (placed < units.size()) {
+            List<Unit> cycle = new ArrayList<Unit>();
+            for (Unit unit : units) {
+                if (waiting.get(unit) > 0) {
+                    cycle.add(unit);
+                }
+            }
+            layers.add(cycle);
+        }
+        return layers;
+    }
+
+    /**
+     * A parsed source and the <code>ClassMaker</code> that generates its class.
+     */
+    static class Unit
+    {
+        final String source;
+        final AstStructure tree;
+        final Declarations declarations = new Declarations();
+        ClassMaker maker;
+        AstStructureVisitor visitor;
+
+        Unit(String source, AstStructure tree)
+        {
+            this.source = source;
+            this.tree = tree;
+            tree.resolveDeclaration(declarations);
+            if (declarations.simpleName == null) {
+                throw new IllegalArgumentException("No class declared in " + source);
+            }
+        }
+
+        String getClassName()
+        {
+            return (declarations.packageName == null) ? declarations.simpleName
+                    : declarations.packageName + "." + declarations.simpleName;
+        }
+
+        /**
+         * The fully qualified names of the classes this unit refers to in its declaration.
+         * Simple names are resolved against the imports, otherwise they are assumed to be in the same package.
+         */
+        List<String> getDependencies()
+        {
+            List<String> names = new ArrayList<String>(declarations.imports);
+            for (String name : declarations.references) {
+                names.add(resolve(name));
+            }
+            return names;
+        }
+
+        private String resolve(String name)
+        {
+            if (name.indexOf('.') != -1)
+                return name;
+            for (String imported : declarations.imports) {
+                if (imported.endsWith("." + name))
+                    return imported;
+            }
+            return (declarations.packageName == null) ? name : declarations.packageName + "." + name;
+        }
+
+        /**
+         * Creates the <code>ClassMaker</code> and registers the class name with the factory,
+         * so that other classes can refer to it before it is declared.
+         */
+        void declare(ClassMakerFactory factory)
+        {
+            maker = factory.createClassMaker();
+            if (declarations.packageName != null) {
+                maker.setPackageName(declarations.packageName);
+            }
+            maker.setSimpleClassName(declarations.simpleName);
+            maker.getFullyQualifiedClassName();
+            visitor = new AstStructureVisitor(maker);
+            visitor.setFilename(source);
+        }
+    }
+
+    /**
+     * Collects the names in the declaration of a class without generating any code.
+     */
+    static class Declarations extends AstStructureVisitor
+    {
+        String packageName = null;
+        String simpleName = null;
+        final Vector<String> imports = new Vector<String>();
+        final Vector<String> references = new Vector<String>();
+
+        public void resolveDeclaration(AstPackage pack)
+        {
+            packageName = pack.getExpression().resolvePath(this);
+        }
+
+        public void resolveDeclaration(AstImport unit)
+        {
+            imports.add(unit.getExpression().resolvePath(this));
+        }
+
+        public void resolveDeclaration(AstClass unit)
+        {
+            declareClass(unit.getClassName().resolvePath(this));
+            resolveExtends(unit.getExtends());
+            if (unit.getImplementsList() != null)
+                unit.getImplementsList().resolveImplements(this);
+        }
+
+        public void resolveDeclaration(AstInterface unit)
+        {
+            declareClass(unit.getClassName().resolvePath(this));
+            resolveExtends(unit.getExtends());
+        }
+
+        private void declareClass(String name)
+        {
+            if (simpleName != null)
+                throw new IllegalArgumentException("Only one class may be declared in each source: " + name);
+            simpleName = name;
+        }
+
+        public void resolveExtends(ResolvePath className)
+        {
+            if (className != null)
+                references.add(className.resolvePath(this));
+        }
+
+        public void resolveImplements(AstExpression className)
+        {
+            if (className != null)
+                references.add(className.resolvePath(this));
+        }
+    }
+}
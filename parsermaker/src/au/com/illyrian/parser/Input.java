@@ -42,6 +42,28 @@ public interface Input
      */
     String getTokenString();
 
+    /**
+     * Get the characters of the current token without copying them.
+     * 
+     * @return the characters of the current token
+     */
+    CharSequence getTokenSequence();
+
+    /**
+     * Get a hash of the current token, computed as for <code>String.hashCode()</code>.
+     *
+     * @return the hash of the characters in the current token
+     */
+    int getTokenHash();
+
+    /**
+     * Compare the current token with the given text without copying the token.
+     *
+     * @param value the text to compare
+     * @return true if the current token has the same characters as the value
+     */
+    boolean matchToken(String value);
+
     /**
      * Get the character at the start of the current token.
      *
@@ -24,6 +24,24 @@ public interface Lexer extends LineNumber
     
     public char getTokenDelimiter();
 
+    /**
+     * An integer id for the current token, set when the token is read.
+     * The id is the hash of the token text as for <code>String.hashCode()</code>,
+     * except for strings and characters where it is the quote delimiter.
+     *
+     * @return the id of the current token
+     */
+    public int getTokenId();
+
+    /**
+     * Compare the current token with a value without creating a <code>String</code>.
+     * Strings and characters are compared by their quote delimiter.
+     *
+     * @param value the expected text of the token
+     * @return true if the current token matches the value
+     */
+    public boolean matchTokenValue(String value);
+
     public String getErrorMessage();
     
     public Properties getReservedWords();
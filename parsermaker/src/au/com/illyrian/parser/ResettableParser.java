@@ -0,0 +1,10 @@
+package au.com.illyrian.parser;
+
+public interface ResettableParser
+{
+    /**
+     * Clears any state left by a previous parse so that the parser can be reused.
+     * The input and actions are provided again by the compiler context when the parser is next invoked.
+     */
+    public void reset();
+}
@@ -315,8 +315,7 @@ public class AstExpressionPrecidenceParser extends OperatorPrecidenceParser<AstE
         case CHARACTER:
             return true;
         case RESERVED:
-            String operator = getLexer().getTokenValue();
-            return reservedOperands.contains(operator);
+            return reservedOperands.contains(getLexer());
         default:
         }
         return false;
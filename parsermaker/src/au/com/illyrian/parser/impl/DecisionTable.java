@@ -0,0 +1,109 @@
+package au.com.illyrian.parser.impl;
+
+import au.com.illyrian.parser.Lexer;
+import au.com.illyrian.parser.Token;
+import au.com.illyrian.parser.TokenType;
+
+/**
+ * Selects one of the alternatives of a grammar rule from the current token.
+ * <br/>
+ * Each alternative is chosen by a set of terminals. A terminal with only a token type,
+ * e.g. IDENTIFIER, matches any token of that type, so it is recorded in a table indexed
+ * by the token type. A terminal with a value, e.g. (RESERVED, "if"), is recorded in an
+ * open addressed table keyed by <code>String.hashCode()</code> of the value, which is the
+ * id that the lexer gives to the token.
+ * <br/>
+ * A token may match a terminal in both tables, so the earlier of the two alternatives is
+ * selected; this is the alternative that a chain of <code>match</code> calls would select.
+ */
+public class DecisionTable
+{
+    private static final int TOKEN_TYPES = TokenType.values().length;
+
+    /** The first alternative for each token type, or -1. */
+    private final int[] typeAlternatives;
+
+    private final String[] values;
+    private final int[] ids;
+    private final int[] types;
+    private final int[] alternatives;
+    private final int mask;
+
+    /**
+     * Builds the table.
+     *
+     * @param terminals the terminals that select each alternative, in the order the alternatives are tried
+     */
+    public DecisionTable(Token[][] terminals)
+    {
+        typeAlternatives = new int[TOKEN_TYPES];
+        for (int i = 0; i < TOKEN_TYPES; i++) {
+            typeAlternatives[i] = -1;
+        }
+        int count = 0;
+        for (Token[] set : terminals) {
+            count += set.length;
+        }
+        int size = 4;
+        while (size < count * 2) {
+            size <<= 1;
+        }
+        values = new String[size];
+        ids = new int[size];
+        types = new int[size];
+        alternatives = new int[size];
+        mask = size - 1;
+        for (int alt = 0; alt < terminals.length; alt++) {
+            for (Token token : terminals[alt]) {
+                add(token, alt);
+            }
+        }
+    }
+
+    private void add(Token token, int alt)
+    {
+        int type = token.getTokenType().ordinal();
+        String value = token.getTokenValue();
+        if (value == null) {
+            if (typeAlternatives[type] == -1) {
+                typeAlternatives[type] = alt;
+            }
+            return;
+        }
+        int id = value.hashCode();
+        int slot = id & mask;
+        while (values[slot] != null) {
+            if (ids[slot] == id && types[slot] == type && values[slot].equals(value)) {
+                // An earlier alternative already has this terminal.
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        values[slot] = value;
+        ids[slot] = id;
+        types[slot] = type;
+        alternatives[slot] = alt;
+    }
+
+    /**
+     * Selects an alternative using the current token of the lexer.
+     *
+     * @param lexer the lexer positioned on the next token
+     * @return the index of the first alternative with a terminal that matches the token, or -1 if none match
+     */
+    public int select(Lexer lexer)
+    {
+        int type = lexer.getTokenType().ordinal();
+        int selected = typeAlternatives[type];
+        int id = lexer.getTokenId();
+        int slot = id & mask;
+        while (values[slot] != null) {
+            if (ids[slot] == id && types[slot] == type && lexer.matchTokenValue(values[slot])) {
+                int alt = alternatives[slot];
+                return (selected == -1 || alt < selected) ? alt : selected;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return selected;
+    }
+}
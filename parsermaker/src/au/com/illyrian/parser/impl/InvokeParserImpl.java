@@ -11,6 +11,8 @@ import au.com.illyrian.parser.ParserException;
 
 public class InvokeParserImpl<T> extends ParserBase implements InvokeParser<T>
 {
+    private ParserRegistry parserRegistry = null;
+
     public InvokeParserImpl()
     {
         super();
@@ -31,12 +33,29 @@ public class InvokeParserImpl<T> extends ParserBase implements InvokeParser<T>
         return getCompilerContext().getInput();
     }
     
+    /**
+     * The registry that loads and pools the invoked parsers.
+     * The registry is shared by every compilation that uses the same class loader,
+     * so the parser classes and pools outlive each module.
+     */
+    public ParserRegistry getParserRegistry()
+    {
+        ClassLoader classLoader = getClassLoader();
+        if (parserRegistry == null || parserRegistry.getClassLoader() != classLoader)
+            parserRegistry = ParserRegistry.getRegistry(classLoader);
+        return parserRegistry;
+    }
+
+    public void setParserRegistry(ParserRegistry registry)
+    {
+        this.parserRegistry = registry;
+    }
+
     protected Object loadParser(String parseName)
     {
         Object objectInstance = null;
         try {
-            Class parserClass = getClassLoader().loadClass(parseName);
-            objectInstance = parserClass.newInstance();
+            objectInstance = getParserRegistry().acquire(parseName);
         } catch (ClassNotFoundException cnfe) {
             throw exception("Could not load parser: " + parseName);
         } catch (IllegalAccessException iae) {
@@ -47,6 +66,14 @@ public class InvokeParserImpl<T> extends ParserBase implements InvokeParser<T>
         return objectInstance;
     }
 
+    /**
+     * Returns a parser for reuse once it has parsed its input without error.
+     */
+    protected void releaseParser(String parseName, Object parser)
+    {
+        getParserRegistry().release(parseName, parser);
+    }
+
     /* (non-Javadoc)
      * @see au.com.illyrian.parser.impl.InvokeParser#invokeParseModule(java.lang.String, au.com.illyrian.parser.Input)
      */
@@ -65,7 +92,9 @@ public class InvokeParserImpl<T> extends ParserBase implements InvokeParser<T>
             pex.setParserStatus(getInput());
             throw pex;
         }
-        return parserInstance.parseModule(getCompilerContext());
+        T result = parserInstance.parseModule(getCompilerContext());
+        releaseParser(parseName, parserInstance);
+        return result;
     }
 
     /* (non-Javadoc)
@@ -86,7 +115,9 @@ public class InvokeParserImpl<T> extends ParserBase implements InvokeParser<T>
             pex.setParserStatus(getInput());
             throw pex;
         }
-        return parserInstance.parseClass(getCompilerContext());
+        T result = parserInstance.parseClass(getCompilerContext());
+        releaseParser(parseName, parserInstance);
+        return result;
     }
 
     /* (non-Javadoc)
@@ -107,7 +138,9 @@ public class InvokeParserImpl<T> extends ParserBase implements InvokeParser<T>
             pex.setParserStatus(getInput());
             throw pex;
         }
-        return parserInstance.parseMembers(getCompilerContext());
+        T result = parserInstance.parseMembers(getCompilerContext());
+        releaseParser(parseName, parserInstance);
+        return result;
     }
 
     /* (non-Javadoc)
@@ -128,7 +161,9 @@ public class InvokeParserImpl<T> extends ParserBase implements InvokeParser<T>
             pex.setParserStatus(getInput());
             throw pex;
         }
-        return parserInstance.parseStatement(getCompilerContext());
+        T result = parserInstance.parseStatement(getCompilerContext());
+        releaseParser(parseName, parserInstance);
+        return result;
     }
 
     /* (non-Javadoc)
@@ -149,6 +184,8 @@ public class InvokeParserImpl<T> extends ParserBase implements InvokeParser<T>
             pex.setParserStatus(getInput());
             throw pex;
         }
-        return parserInstance.parseExpression(getCompilerContext());
+        T result = parserInstance.parseExpression(getCompilerContext());
+        releaseParser(parseName, parserInstance);
+        return result;
     }
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+package au.com.illyrian.parser.impl;
+
+import java.util.Properties;
+import java.util.Set;
+
+import au.com.illyrian.parser.Input;
+import au.com.illyrian.parser.TokenType;
+
+/**
+ * A lookup table for the reserved words of a lexer.
+ * <br/>
+ * The table is built once from the reserved words and operators configured in the lexer.
+ * Words are stored in an open addressed table indexed by <code>String.hashCode()</code>,
+ * so an identifier can be looked up using the hash computed while it was scanned and
+ * compared against the input without creating a <code>String</code>.
+ */
+public class KeywordTable
+{
+    private final String[] words;
+    private final TokenType[] types;
+    private final int[] hashes;
+    private final int mask;
+
+    /**
+     * Builds the table.
+     * A word is reserved if it has a <code>String</code> value in <code>reservedWords</code>.
+     * A reserved word that also has a value in <code>operators</code> is an operator, e.g. <code>instanceof</code>.
+     *
+     * @param reservedWords the reserved words or null
+     * @param operators the operators or null
+     */
+    public KeywordTable(Properties reservedWords, Properties operators)
+    {
+        Set<String> reserved = (reservedWords == null) ? null : reservedWords.stringPropertyNames();
+        int count = (reserved == null) ? 0 : reserved.size();
+        int size = 16;
+        while (size < count * 2) {
+            size <<= 1;
+        }
+        words = new String[size];
+        types = new TokenType[size];
+        hashes = new int[size];
+        mask = size - 1;
+        if (reserved != null) {
+            for (String word : reserved) {
+                boolean isOperator = operators != null && operators.getProperty(word) != null;
+                add(word, isOperator ? TokenType.OPERATOR : TokenType.RESERVED);
+            }
+        }
+    }
+
+    private void add(String word, TokenType type)
+    {
+        int hash = word.hashCode();
+        int index = hash & mask;
+        while (words[index] != null) {
+            index = (index + 1) & mask;
+        }
+        words[index] = word;
+        types[index] = type;
+        hashes[index] = hash;
+    }
+
+    /**
+     * Looks up the current token of the input.
+     *
+     * @param input the input positioned on an identifier
+     * @param hash the hash of the identifier as for <code>String.hashCode()</code>
+     * @return RESERVED or OPERATOR if the identifier is a reserved word, otherwise IDENTIFIER
+     */
+    public TokenType lookup(Input input, int hash)
+    {
+        int index = hash & mask;
+        while (words[index] != null) {
+            if (hashes[index] == hash && input.matchToken(words[index])) {
+                return types[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return TokenType.IDENTIFIER;
+    }
+}
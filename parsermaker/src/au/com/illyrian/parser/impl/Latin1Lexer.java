@@ -49,17 +49,32 @@ public class Latin1Lexer implements Lexer
     private int lineNumber = 0;
 
     /** Whitespace before the current token */
-    private String whitespace;
+    private CharSequence whitespace;
 
     /** The characters in a string or char excluding the quotes. */
     private String tokenString;
 
+    /** The characters of the last string literal, until they are requested. */
+    private final StringBuilder literalBuffer = new StringBuilder();
+
+    /** True if tokenString must be created from literalBuffer. */
+    private boolean literalPending = false;
+
     /** The quote character that surrounded the string. */
     private char tokenDelimiter;
 
+    /** The id of the current token. Modified by nextToken() */
+    private int tokenId;
+
     /** The text of a comment. */
     private String commentString = null;
 
+    /** The text of the last comment, until it is requested. */
+    private final StringBuilder commentBuffer = new StringBuilder();
+
+    /** True if commentString must be created from commentBuffer. */
+    private boolean commentPending = false;
+
     private String errorMessage;
 
     /**
@@ -77,6 +92,41 @@ public class Latin1Lexer implements Lexer
      */
     private Properties operators = null;
 
+    /**
+     * The reserved words indexed by hash. Built when the reserved words or
+     * operators are set, or when the first identifier is read.
+     */
+    private KeywordTable keywordTable = null;
+
+    /** Character class flags for the Latin-1 characters. */
+    private static final byte WHITESPACE = 1;
+    private static final byte DIGIT = 2;
+    private static final byte IDENTIFIER_START = 4;
+    private static final byte DELIMITER = 8;
+    private static final byte OPERATOR = 16;
+
+    /** The character classes of the Latin-1 characters. */
+    private static final byte[] CHAR_CLASS = new byte[256];
+
+    static {
+        for (char ch = 0; ch < CHAR_CLASS.length; ch++) {
+            if (Character.isWhitespace(ch))
+                CHAR_CLASS[ch] |= WHITESPACE;
+        }
+        for (char ch = '0'; ch <= '9'; ch++)
+            CHAR_CLASS[ch] |= DIGIT;
+        for (char ch = 'a'; ch <= 'z'; ch++)
+            CHAR_CLASS[ch] |= IDENTIFIER_START;
+        for (char ch = 'A'; ch <= 'Z'; ch++)
+            CHAR_CLASS[ch] |= IDENTIFIER_START;
+        CHAR_CLASS['$'] |= IDENTIFIER_START;
+        CHAR_CLASS['_'] |= IDENTIFIER_START;
+        for (char ch : ",;({[)}]".toCharArray())
+            CHAR_CLASS[ch] |= DELIMITER;
+        for (char ch : "+-*/=%&|<>.?!~^:".toCharArray())
+            CHAR_CLASS[ch] |= OPERATOR;
+    }
+
     /**
      * Constructor for Search Query Tokeniser.
      *
@@ -113,14 +163,29 @@ public class Latin1Lexer implements Lexer
 
     public String getCommentString()
     {
+        if (commentPending) {
+            commentString = commentBuffer.toString();
+            commentPending = false;
+        }
         return commentString;
     }
 
+    /**
+     * Sets the reserved words and builds the table used to look them up.
+     * The lexer keeps the given properties rather than a copy. The table is not rebuilt
+     * when they change, so call this method again after adding or removing words.
+     */
     public void setReservedWords(Properties reservedWords)
     {
         this.reservedWords = reservedWords;
+        keywordTable = (reservedWords == null) ? null : new KeywordTable(reservedWords, operators);
     }
 
+    /**
+     * The reserved words.
+     * Words may be added before the first token is read. After that, call
+     * <code>setReservedWords</code> again so that the changes are seen.
+     */
     public Properties getReservedWords()
     {
         if (reservedWords == null)
@@ -128,17 +193,40 @@ public class Latin1Lexer implements Lexer
         return reservedWords;
     }
 
+    /**
+     * Sets the operators and rebuilds the table used to look up reserved words.
+     * The lexer keeps the given properties rather than a copy. The table is not rebuilt
+     * when they change, so call this method again after adding or removing operators.
+     */
     public void setOperators(Properties operators)
     {
         this.operators = operators;
+        keywordTable = (reservedWords == null) ? null : new KeywordTable(reservedWords, operators);
     }
 
+    /**
+     * The operators.
+     * Operators may be added before the first token is read. After that, call
+     * <code>setOperators</code> again so that the changes are seen.
+     */
     public Properties getOperators()
     {
         if (operators == null)
             operators = new Properties();
         return operators;
     }
+
+    /*
+     * The reserved words indexed by hash, built when the first identifier is read
+     * unless the words or operators have been set.
+     */
+    private KeywordTable getKeywordTable()
+    {
+        if (keywordTable == null) {
+            keywordTable = new KeywordTable(reservedWords, operators);
+        }
+        return keywordTable;
+    }
     
     /**
      * Get the whitespace before the current token.
@@ -147,7 +235,7 @@ public class Latin1Lexer implements Lexer
      */
     public String getWhitespace()
     {
-        return whitespace;
+        return (whitespace == null) ? null : whitespace.toString();
     }
 
     public Lexer clone()
@@ -166,13 +254,27 @@ public class Latin1Lexer implements Lexer
     {
         return input.getTokenString();
     }
+
+    /**
+     * The characters of the current token as a view of the input.
+     * Unlike <code>getTokenValue()</code> this does not create a new <code>String</code>.
+     */
+    public CharSequence getTokenSequence()
+    {
+        return input.getTokenSequence();
+    }
     
     protected void setTokenString(String value) {
         tokenString = value;
+        literalPending = false;
     }
 
     public String getTokenString()
     {
+        if (literalPending) {
+            tokenString = literalBuffer.toString();
+            literalPending = false;
+        }
         return tokenString;
     }
 
@@ -181,6 +283,19 @@ public class Latin1Lexer implements Lexer
         return tokenDelimiter;
     }
 
+    public int getTokenId()
+    {
+        return tokenId;
+    }
+
+    public boolean matchTokenValue(String value)
+    {
+        if (tokenType == TokenType.STRING || tokenType == TokenType.CHARACTER) {
+            return value.length() == 1 && value.charAt(0) == tokenDelimiter;
+        }
+        return tokenId == value.hashCode() && input.matchToken(value);
+    }
+
     public String getErrorMessage()
     {
         return errorMessage;
@@ -212,7 +327,7 @@ public class Latin1Lexer implements Lexer
     public Object getTokenOperator()
     {
         if (tokenType == TokenType.OPERATOR) {
-            return getOperators().get(input.getTokenString());
+            return (operators == null) ? null : operators.get(input.getTokenString());
         } else {
             throw new IllegalStateException("Token is not an Operator");
         }
@@ -236,6 +351,11 @@ public class Latin1Lexer implements Lexer
             tokenType = spanNextToken();
 
         } while (tokenType == TokenType.COMMENT);
+        if (tokenType == TokenType.STRING || tokenType == TokenType.CHARACTER) {
+            tokenId = tokenDelimiter;
+        } else {
+            tokenId = input.getTokenHash();
+        }
         return tokenType;
     }
 
@@ -301,7 +421,7 @@ public class Latin1Lexer implements Lexer
             tokenDelimiter = ch;
             ch = input.nextChar();
             if (!isCharacterQuote(ch)) {
-                tokenString = String.valueOf(ch); // Store the character
+                setTokenString(String.valueOf(ch)); // Store the character
                 ch = input.nextChar();
                 if (isCharacterQuote(ch) && tokenDelimiter == ch) {
                     ch = input.nextChar();
@@ -324,7 +444,9 @@ public class Latin1Lexer implements Lexer
      */
     TokenType spanStringLiteral()
     {
-        StringBuffer buf = new StringBuffer();
+        // The characters are collected but only copied to a String when requested.
+        StringBuilder buf = literalBuffer;
+        buf.setLength(0);
         char ch = input.startChar(); // Mark start of token
         if (isQuote(ch)) {
             tokenDelimiter = ch;
@@ -337,7 +459,7 @@ public class Latin1Lexer implements Lexer
             }
             if (ch == tokenDelimiter) {
                 ch = input.nextChar();
-                tokenString = buf.toString();
+                literalPending = true;
                 return TokenType.STRING;
             }
             return error("Missing quote at end of String: " + tokenDelimiter);
@@ -355,7 +477,8 @@ public class Latin1Lexer implements Lexer
             while (isWhitespace(ch)) {
                 ch = input.nextChar();
             }
-            whitespace = getTokenValue();
+            // Whitespace is rarely examined, so avoid copying it.
+            whitespace = input.getTokenSequence();
         } else {
             whitespace = "";
         }
@@ -371,21 +494,17 @@ public class Latin1Lexer implements Lexer
     public TokenType spanIdentifier()
     {
         char ch = input.startChar();
+        int hash = 0;
         {
             // Move the finish pointer just past the end of the identifier.
             while (isIdentifierChar(ch)) {
+                hash = 31 * hash + ch;
                 ch = input.nextChar();
             }
         }
         // Examine the identifier to determine if it is a reserved word.
         if (reservedWords != null) {
-            String identifier = getTokenValue();
-            if (getReservedWords().getProperty(identifier) != null) {
-                if (getOperators().getProperty(identifier) != null) {
-                    return TokenType.OPERATOR;
-                }
-                return TokenType.RESERVED;
-            }
+            return getKeywordTable().lookup(input, hash);
         }
         return TokenType.IDENTIFIER;
     }
@@ -435,7 +554,8 @@ public class Latin1Lexer implements Lexer
 
     boolean peekLineComment()
     {
-        return ("//".equals(input.peek(2)));
+        // Check the current character first to avoid creating a String.
+        return input.getChar() == '/' && ("//".equals(input.peek(2)));
     }
 
     /**
@@ -453,13 +573,15 @@ public class Latin1Lexer implements Lexer
         while (ch != Input.NULL && ch != EOL) {
             ch = input.nextChar();
         }
-        commentString = input.getTokenString();
+        commentBuffer.setLength(0);
+        commentBuffer.append(input.getTokenSequence());
+        commentPending = true;
         return TokenType.COMMENT;
     }
 
     boolean peekMultiComment()
     {
-        return ("/*".equals(input.peek(2)));
+        return input.getChar() == '/' && ("/*".equals(input.peek(2)));
     }
 
     /**
@@ -470,7 +592,8 @@ public class Latin1Lexer implements Lexer
      */
     public TokenType spanMultiComment()
     {
-        commentString = "";
+        // Append each line to a buffer so that a long comment is scanned in linear time.
+        commentBuffer.setLength(0);
         char prev = Input.NULL;
         char ch = input.nextChar();
         while (ch != Input.NULL) {
@@ -478,12 +601,13 @@ public class Latin1Lexer implements Lexer
                 input.nextChar();
                 break;
             } else if (ch == Input.EOLN) {
-                commentString += input.getTokenString();
+                commentBuffer.append(input.getTokenSequence());
             }
             prev = ch;
             ch = input.nextChar();
         }
-        commentString += input.getTokenString();
+        commentBuffer.append(input.getTokenSequence());
+        commentPending = true;
         return TokenType.COMMENT;
     }
 
@@ -504,6 +628,8 @@ public class Latin1Lexer implements Lexer
      */
     public boolean isWhitespace(char ch)
     {
+        if (ch < CHAR_CLASS.length)
+            return (CHAR_CLASS[ch] & WHITESPACE) != 0;
         return Character.isWhitespace(ch);
     }
 
@@ -516,7 +642,7 @@ public class Latin1Lexer implements Lexer
      */
     public boolean isDigitChar(char ch)
     {
-        return ('0' <= ch && ch <= '9');
+        return ch < CHAR_CLASS.length && (CHAR_CLASS[ch] & DIGIT) != 0;
     }
 
     /**
@@ -541,24 +667,12 @@ public class Latin1Lexer implements Lexer
      */
     public boolean isIdentifierStartChar(char ch)
     {
-        return ('a' <= ch && ch <= 'z') || ('A' <= ch && ch <= 'Z') || ch == '$' || ch == '_';
+        return ch < CHAR_CLASS.length && (CHAR_CLASS[ch] & IDENTIFIER_START) != 0;
     }
 
     public boolean isDelimiter(char ch)
     {
-        switch (ch) {
-        case ',' :
-        case ';' :
-        case '(' :
-        case '{' :
-        case '[' :
-        case ')' :
-        case '}' :
-        case ']' :
-            return true;
-        default:
-            return false;
-        }
+        return ch < CHAR_CLASS.length && (CHAR_CLASS[ch] & DELIMITER) != 0;
     }
 
     public boolean isQuote(char ch)
@@ -573,27 +687,7 @@ public class Latin1Lexer implements Lexer
 
     public boolean isOperator(char ch)
     {
-        switch (ch) {
-        case '+':
-        case '-':
-        case '*':
-        case '/':
-        case '=':
-        case '%':
-        case '&':
-        case '|':
-        case '<':
-        case '>':
-        case '.':
-        case '?':
-        case '!':
-        case '~':
-        case '^':
-        case ':':
-            return true;
-        default:
-            return false;
-        }
+        return ch < CHAR_CLASS.length && (CHAR_CLASS[ch] & OPERATOR) != 0;
     }
     
     /**
@@ -0,0 +1,430 @@
+package au.com.illyrian.parser.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+
+import au.com.illyrian.parser.Input;
+
+/**
+ * Input for the lexer that holds the whole source in a single <code>CharBuffer</code>.
+ * <br/>
+ * A source file is read and decoded once, rather than read a line at a time.
+ * Tokens are exposed as views of the buffer through <code>getTokenSequence()</code>,
+ * so a <code>String</code> is only created when <code>getTokenString()</code> is called.
+ * <br/>
+ * The input behaves like <code>LexerInputStream</code>; each line ends with an
+ * <code>EOLN</code> and token offsets are relative to the start of the current line.
+ * The start of each line is recorded in an index so that line numbers are available
+ * without scanning the text again.
+ */
+public class LexerInputBuffer implements Input
+{
+    /** The charset of source files unless another is given. */
+    public static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+
+    /** The whole of the source text. */
+    private final CharBuffer buffer;
+
+    private final File sourceFile;
+    private final String sourceFilename;
+
+    /** The offset of the first character of each line. */
+    private int[] lineStarts;
+
+    /** The offset just past the last character of each line, excluding the line terminator. */
+    private int[] lineEnds;
+
+    /** The number of lines in the source. */
+    private int lineCount = 0;
+
+    /** The index of the current line. */
+    private int lineIndex = 0;
+
+    /** The offset of the start of the current token. */
+    private int start = 0;
+
+    /** The offset just past the end of the current token. */
+    private int finish = 0;
+
+    /**
+     * Creates input over the given text.
+     *
+     * @param text the source text
+     * @param sourceFilename the name of the source or null
+     */
+    public LexerInputBuffer(CharSequence text, String sourceFilename)
+    {
+        this(CharBuffer.wrap(text), null, sourceFilename);
+    }
+
+    /**
+     * Creates input by reading a UTF-8 source file.
+     *
+     * @param file the source file
+     * @param sourceFilename the name of the source or null
+     * @throws IOException if the file cannot be read
+     */
+    public LexerInputBuffer(File file, String sourceFilename) throws IOException
+    {
+        this(file, sourceFilename, DEFAULT_CHARSET);
+    }
+
+    /**
+     * Creates input by reading a source file and decoding it with the given charset.
+     *
+     * @param file the source file
+     * @param sourceFilename the name of the source or null
+     * @param charset the encoding of the source file
+     * @throws IOException if the file cannot be read
+     */
+    public LexerInputBuffer(File file, String sourceFilename, Charset charset) throws IOException
+    {
+        this(readFile(file, charset), file, sourceFilename);
+    }
+
+    /**
+     * Creates input by reading the whole of the reader into a buffer.
+     *
+     * @param reader the source of the text
+     * @param sourceFilename the name of the source or null
+     * @throws IOException if the text cannot be read
+     */
+    public LexerInputBuffer(Reader reader, String sourceFilename) throws IOException
+    {
+        this(readAll(reader), null, sourceFilename);
+    }
+
+    private LexerInputBuffer(CharBuffer buffer, File sourceFile, String sourceFilename)
+    {
+        this.buffer = buffer;
+        this.sourceFile = sourceFile;
+        this.sourceFilename = sourceFilename;
+        indexLines();
+    }
+
+    /*
+     * Reads the whole file into an array sized from the length of the file, then decodes it.
+     */
+    private static CharBuffer readFile(File file, Charset charset) throws IOException
+    {
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int)file.length()];
+            int length = 0;
+            int count;
+            while ((count = input.read(bytes, length, bytes.length - length)) > 0) {
+                length += count;
+                if (length == bytes.length) {
+                    // The file may have grown since its length was read.
+                    byte[] larger = new byte[bytes.length * 2 + 1];
+                    System.arraycopy(bytes, 0, larger, 0, length);
+                    bytes = larger;
+                }
+            }
+            return charset.decode(ByteBuffer.wrap(bytes, 0, length));
+        } finally {
+            input.close();
+        }
+    }
+
+    private static CharBuffer readAll(Reader reader) throws IOException
+    {
+        try {
+            StringBuilder buf = new StringBuilder();
+            char[] chars = new char[4096];
+            int count;
+            while ((count = reader.read(chars)) != -1) {
+                buf.append(chars, 0, count);
+            }
+            return CharBuffer.wrap(buf);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /*
+     * Records the start and end of each line.
+     * Lines are terminated by a line feed, a carriage return or both, as for <code>BufferedReader.readLine</code>.
+     */
+    private void indexLines()
+    {
+        int length = buffer.length();
+        lineStarts = new int[16];
+        lineEnds = new int[16];
+        int offset = 0;
+        while (offset < length) {
+            int lineStart = offset;
+            char ch = 0;
+            while (offset < length) {
+                ch = buffer.get(offset);
+                if (ch == '\n' || ch == '\r') {
+                    break;
+                }
+                offset++;
+            }
+            addLine(lineStart, offset);
+            if (offset < length) {
+                offset++;
+                if (ch == '\r' && offset < length && buffer.get(offset) == '\n') {
+                    offset++;
+                }
+            }
+        }
+        if (lineCount > 0) {
+            start = finish = lineStarts[0];
+        }
+    }
+
+    private void addLine(int lineStart, int lineEnd)
+    {
+        if (lineCount == lineStarts.length) {
+            int[] starts = new int[lineCount * 2];
+            int[] ends = new int[lineCount * 2];
+            System.arraycopy(lineStarts, 0, starts, 0, lineCount);
+            System.arraycopy(lineEnds, 0, ends, 0, lineCount);
+            lineStarts = starts;
+            lineEnds = ends;
+        }
+        lineStarts[lineCount] = lineStart;
+        lineEnds[lineCount] = lineEnd;
+        lineCount++;
+    }
+
+    /**
+     * The whole of the source text.
+     *
+     * @return a read only view of the text
+     */
+    public CharSequence getText()
+    {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Moves to the start of the next line.
+     */
+    public void nextLine()
+    {
+        if (lineIndex < lineCount) {
+            lineIndex++;
+        }
+        start = finish = (lineIndex < lineCount) ? lineStarts[lineIndex] : buffer.length();
+    }
+
+    /**
+     * Get the current line of input.
+     * A new <code>String</code> is created, so this is intended for error messages.
+     *
+     * @return the current line or null if past the end of input
+     */
+    public String getLine()
+    {
+        if (lineIndex >= lineCount)
+            return null;
+        return buffer.subSequence(lineStarts[lineIndex], lineEnds[lineIndex]).toString();
+    }
+
+    private int lineStart()
+    {
+        return (lineIndex < lineCount) ? lineStarts[lineIndex] : buffer.length();
+    }
+
+    /**
+     * The offset of the start of the current token from the start of the text.
+     *
+     * @return the offset of the current token
+     */
+    public int getTokenOffset()
+    {
+        return start;
+    }
+
+    /**
+     * The offset just past the end of the current token from the start of the text.
+     *
+     * @return the offset of the end of the current token
+     */
+    public int getTokenEndOffset()
+    {
+        return finish;
+    }
+
+    /**
+     * Moves to the given offset, so that lexing can resume part way through the text.
+     * The offset should be the start of a token so that the lexer is not within a comment or literal.
+     *
+     * @param offset the offset from the start of the text
+     */
+    public void setOffset(int offset)
+    {
+        lineIndex = (offset >= buffer.length()) ? lineCount : getLineNumber(offset) - 1;
+        start = finish = offset;
+    }
+
+    public int getTokenFinish()
+    {
+        return finish - lineStart();
+    }
+
+    public int getTokenStart()
+    {
+        return start - lineStart();
+    }
+
+    /**
+     * Get the String for the current token.
+     * Prefer <code>getTokenSequence()</code> where a copy is not required.
+     *
+     * @return the String for the current token or null if past the end of input
+     */
+    public String getTokenString()
+    {
+        if (lineIndex >= lineCount)
+            return null;
+        return buffer.subSequence(start, finish).toString();
+    }
+
+    /**
+     * Get the characters of the current token as a view of the buffer.
+     *
+     * @return the characters of the current token or null if past the end of input
+     */
+    public CharSequence getTokenSequence()
+    {
+        if (lineIndex >= lineCount)
+            return null;
+        return buffer.subSequence(start, finish);
+    }
+
+    public int getTokenHash()
+    {
+        int hash = 0;
+        if (lineIndex < lineCount) {
+            for (int i = start; i < finish; i++) {
+                hash = 31 * hash + buffer.get(i);
+            }
+        }
+        return hash;
+    }
+
+    public boolean matchToken(String value)
+    {
+        if (lineIndex >= lineCount || value.length() != finish - start)
+            return false;
+        for (int i = 0; i < value.length(); i++) {
+            if (buffer.get(start + i) != value.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    public char startChar()
+    {
+        start = finish;
+        if (getChar() == Input.EOLN) {
+            nextLine();
+        }
+        start = finish;
+        return getChar();
+    }
+
+    public char nextChar()
+    {
+        if (lineIndex < lineCount) {
+            if (finish < lineEnds[lineIndex]) {
+                finish++;
+            } else {
+                nextLine();
+            }
+        }
+        return getChar();
+    }
+
+    public char getChar()
+    {
+        if (lineIndex >= lineCount)
+            return Input.NULL;
+        else if (finish < lineEnds[lineIndex])
+            return buffer.get(finish);
+        else
+            return Input.EOLN;
+    }
+
+    /**
+     * The source file.
+     *
+     * @return the source file or null if the input was not read from a file
+     */
+    public File getSourceFile()
+    {
+        return sourceFile;
+    }
+
+    public String getFilename()
+    {
+        return sourceFilename;
+    }
+
+    /**
+     * The line number in the current source file.
+     *
+     * @return the number of the current line, counting from one
+     */
+    public int getLineNumber()
+    {
+        return (lineIndex < lineCount) ? lineIndex + 1 : lineCount;
+    }
+
+    /**
+     * Finds the line that contains the given offset using the line index.
+     *
+     * @param offset an offset into the source text
+     * @return the number of the line, counting from one
+     */
+    public int getLineNumber(int offset)
+    {
+        int low = 0;
+        int high = lineCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (lineStarts[mid] <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return (high < 0) ? 1 : high + 1;
+    }
+
+    public String peek(int lookahead)
+    {
+        if (lineIndex >= lineCount)
+            return null;
+        int end = Math.min(finish + lookahead, lineEnds[lineIndex]);
+        return buffer.subSequence(finish, end).toString();
+    }
+
+    public String toString()
+    {
+        StringBuffer buf = new StringBuffer();
+        buf.append(getFilename()).append(';').append(getLineNumber()).append('\n');
+        if (lineIndex >= lineCount) {
+            buf.append("$$");
+        } else {
+            int lineStart = lineStarts[lineIndex];
+            int lineEnd = lineEnds[lineIndex];
+            buf.append(LexerInputString.encode(buffer.subSequence(lineStart, start).toString()));
+            buf.append('$');
+            buf.append(LexerInputString.encode(buffer.subSequence(start, finish).toString()));
+            buf.append('$');
+            buf.append(LexerInputString.encode(buffer.subSequence(finish, lineEnd).toString()));
+        }
+        return buf.toString();
+    }
+}
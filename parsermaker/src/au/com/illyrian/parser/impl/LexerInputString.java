@@ -11,6 +11,7 @@
 package au.com.illyrian.parser.impl;
 
 import java.io.File;
+import java.nio.CharBuffer;
 
 import au.com.illyrian.parser.Input;
 
@@ -140,6 +141,37 @@ public class LexerInputString implements Input
         return (line != null) ? line.substring(start, finish) : null;
     }
 
+    /* (non-Javadoc)
+     * @see au.com.illyrian.parser.Input#getTokenSequence()
+     */
+    public CharSequence getTokenSequence()
+    {
+        return (line != null) ? CharBuffer.wrap(line, start, finish) : null;
+    }
+
+    /* (non-Javadoc)
+     * @see au.com.illyrian.parser.Input#getTokenHash()
+     */
+    public int getTokenHash()
+    {
+        int hash = 0;
+        if (line != null) {
+            for (int i = start; i < finish; i++) {
+                hash = 31 * hash + line.charAt(i);
+            }
+        }
+        return hash;
+    }
+
+    /* (non-Javadoc)
+     * @see au.com.illyrian.parser.Input#matchToken(java.lang.String)
+     */
+    public boolean matchToken(String value)
+    {
+        int length = finish - start;
+        return line != null && value.length() == length && line.regionMatches(start, value, 0, length);
+    }
+
     /**
      * The source file.
      * 
@@ -1,12 +1,13 @@
 package au.com.illyrian.parser.impl;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
-import java.io.StringReader;
+import java.nio.charset.Charset;
 import java.util.Properties;
 
+import au.com.illyrian.classmaker.ClassCache;
+import au.com.illyrian.classmaker.ClassMakerFactory;
 import au.com.illyrian.domainparser.ModuleParser;
 import au.com.illyrian.parser.CompilerContext;
 import au.com.illyrian.parser.Input;
@@ -15,10 +16,12 @@ import au.com.illyrian.parser.ParserException;
 public class ModuleContext implements CompilerContext
 {
     private String source;
+    private CharSequence sourceText = null;
     private Input input = null;
     private InvokeParser invokerParser = null;
     private ModuleParser moduleParser = null;
     private Properties map = new Properties();
+    private ClassMakerFactory factory = null;
 
     public ModuleContext()
     {
@@ -29,6 +32,15 @@ public class ModuleContext implements CompilerContext
         return source;
     }
 
+    /**
+     * The text of the source, if it was provided as a file or a string.
+     * Compilers hash the text to find a previously generated class.
+     * @return the source text or null if the input is a stream
+     */
+    public String getSourceText() {
+        return (sourceText == null) ? null : sourceText.toString();
+    }
+
     public Input getInput()
     {
         if (input == null)
@@ -39,6 +51,7 @@ public class ModuleContext implements CompilerContext
     public void setInput(Input input)
     {
         this.input = input;
+        this.sourceText = null;
     }
 
     public void setInput(File file, String source) throws IOException
@@ -55,17 +68,23 @@ public class ModuleContext implements CompilerContext
     }
 
     public void setInputFile(File sourceFile, String sourcePath) throws IOException
+    {
+        setInputFile(sourceFile, sourcePath, LexerInputBuffer.DEFAULT_CHARSET);
+    }
+
+    public void setInputFile(File sourceFile, String sourcePath, Charset charset) throws IOException
     {
         this.source = sourcePath;
-        Reader reader = new FileReader(sourceFile);
-        setInputReader(reader, sourcePath);
+        LexerInputBuffer buffer = new LexerInputBuffer(sourceFile, sourcePath, charset);
+        setInput(buffer);
+        this.sourceText = buffer.getText();
     }
 
     public void setInputString(String string, String sourceName) throws IOException
     {
         this.source = sourceName;
-        Reader reader = new StringReader(string);
-        setInputReader(reader, sourceName);
+        setInput(new LexerInputBuffer(string, sourceName));
+        this.sourceText = string;
     }
 
     public InvokeParser getInvokeParser()
@@ -135,6 +154,53 @@ public class ModuleContext implements CompilerContext
         return getClass().getClassLoader();
     }
 
+    public ClassMakerFactory getClassMakerFactory()
+    {
+        return factory;
+    }
+
+    /**
+     * Sets the factory whose class cache is consulted before the module is compiled.
+     * @param factory the factory that generates classes from this module
+     */
+    public void setClassMakerFactory(ClassMakerFactory factory)
+    {
+        this.factory = factory;
+    }
+
+    /**
+     * Creates a key for a class generated from the source of this module.
+     * The key covers the source text and the signatures of the given types.
+     * @param className the fully qualified name of the generated class
+     * @param types the types that the generated class refers to
+     * @return a cache key or null if classes are not cached or the source text is not available
+     */
+    public ClassCache.Key createCacheKey(String className, Class<?>... types)
+    {
+        if (factory == null || sourceText == null) {
+            return null;
+        }
+        ClassCache.Key key = factory.createCacheKey(className);
+        if (key != null) {
+            key.add(getSourceText());
+            for (Class<?> javaClass : types) {
+                key.addType(javaClass);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Loads a class previously generated from the source of this module,
+     * so the source need not be parsed again.
+     * @param key a key created by <code>createCacheKey</code>
+     * @return the cached class or null if it is not in the cache
+     */
+    public <T> Class<T> defineCachedClass(ClassCache.Key key)
+    {
+        return (factory == null) ? null : factory.<T>defineCachedClass(key);
+    }
+
     public Object parseModule()
     {
         ModuleParser parser = getModuleParser();
@@ -10,7 +10,10 @@ import au.com.illyrian.parser.TokenType;
 public class ParserBase
 {
     private Lexer lexer;
+    /** The buffer that wraps the lexer while tokens are read ahead; kept for reuse. */
+    private TokenBuffer tokenBuffer = null;
     private CompilerContext compilerContext = null;
+    private DecisionTable[] decisionTables = null;
 
     public ParserBase()
     {
@@ -56,6 +59,25 @@ public class ParserBase
     {
         this.lexer = lexer;
     }
+
+    /**
+     * Forgets the compiler context and input of the previous parse, so that a pooled parser
+     * does not hold on to them. Parsers that implement <code>ResettableParser</code> call this
+     * from <code>reset()</code>.
+     */
+    protected void resetParser()
+    {
+        compilerContext = null;
+        if (tokenBuffer != null) {
+            if (lexer == tokenBuffer) {
+                lexer = tokenBuffer.getLexer();
+            }
+            tokenBuffer = null;
+        }
+        if (lexer != null) {
+            lexer.setInput(null);
+        }
+    }
     
     /**
      * The source file.
@@ -91,6 +113,11 @@ public class ParserBase
     public TokenType nextToken()
     {
         TokenType token = getLexer().nextToken();
+        if (lexer == tokenBuffer && !tokenBuffer.isBuffered())
+        {
+            // The tokens read ahead have been consumed, so read from the lexer directly again.
+            lexer = tokenBuffer.getLexer();
+        }
         if (token == TokenType.ERROR)
         {
             throw exception(getLexer().getErrorMessage() );
@@ -120,16 +147,111 @@ public class ParserBase
 
     public boolean match(TokenType s, String value)
     {
-        TokenType tokenType = getTokenType();
-        String tokenValue;
-        if (s == TokenType.STRING || s == TokenType.CHARACTER) {
-            tokenValue = Character.toString(getLexer().getTokenDelimiter());
+        // The lexer compares the token id before the text, so no String is created.
+        return (getTokenType() == s && (value == null || getLexer().matchTokenValue(value)));
+    }
+    
+    /**
+     * Match a token ahead of the current token without consuming any tokens.
+     * Generated parsers use this for grammars that need more than one token of lookahead.
+     *
+     * @param token the expected token
+     * @param howFar the number of tokens past the current token
+     * @return true if the token matches
+     */
+    public boolean match(Token token, int howFar)
+    {
+        return match(token.getTokenType(), token.getTokenValue(), howFar);
+    }
+
+    public boolean match(TokenType s, String value, int howFar)
+    {
+        if (howFar == 0) {
+            return match(s, value);
+        }
+        TokenBuffer buffer = getTokenBuffer();
+        return (buffer.peek(howFar) == s && (value == null || buffer.matchTokenValue(howFar, value)));
+    }
+
+    /**
+     * The lexer as a <code>TokenBuffer</code> that can look ahead of the current token.
+     * <br/>
+     * The lexer is wrapped in a <code>TokenBuffer</code> only while it is needed;
+     * <code>nextToken()</code> unwraps the lexer again once the tokens read ahead have
+     * been consumed and no marks are held.
+     *
+     * @return the token buffer
+     */
+    public TokenBuffer getTokenBuffer()
+    {
+        Lexer current = getLexer();
+        if (current instanceof TokenBuffer) {
+            return (TokenBuffer)current;
+        }
+        if (tokenBuffer == null || tokenBuffer.getLexer() != current) {
+            tokenBuffer = new TokenBuffer(current);
         } else {
-            tokenValue = getLexer().getTokenValue();
+            tokenBuffer.restart();
         }
-        return (tokenType == s && (value == null || value.equals(tokenValue)));
+        lexer = tokenBuffer;
+        return tokenBuffer;
     }
-    
+
+    /*
+     * The input for reporting the position of an error.
+     * Tokens read ahead are left in place if the input cannot be rewound over them.
+     */
+    private Input getStatusInput()
+    {
+        Lexer current = getLexer();
+        if (current instanceof TokenBuffer && !((TokenBuffer)current).canRewind()) {
+            return ((TokenBuffer)current).getLexer().getInput();
+        }
+        return current.getInput();
+    }
+
+    /**
+     * Selects an alternative of a grammar rule using the current token.
+     * Generated parsers call this instead of trying each alternative with <code>match</code>.
+     * <br/>
+     * The table for each decision is created by <code>createDecisionTable</code> the
+     * first time this parser makes the decision.
+     *
+     * @param decision a number identifying the decision within the parser
+     * @return the index of the selected alternative or -1 if the token selects none of them
+     */
+    public int selectAlternative(int decision)
+    {
+        if (decisionTables == null || decision >= decisionTables.length) {
+            DecisionTable[] tables = new DecisionTable[Math.max(16, decision * 2)];
+            if (decisionTables != null) {
+                System.arraycopy(decisionTables, 0, tables, 0, decisionTables.length);
+            }
+            decisionTables = tables;
+        }
+        DecisionTable table = decisionTables[decision];
+        if (table == null) {
+            table = createDecisionTable(decision);
+            if (table == null) {
+                throw new IllegalStateException("Parser does not have a decision numbered " + decision);
+            }
+            decisionTables[decision] = table;
+        }
+        return table.select(getLexer());
+    }
+
+    /**
+     * Creates the table that selects the alternatives of a decision.
+     * Generated parsers override this to build each table from their <code>Token</code> fields.
+     *
+     * @param decision a number identifying the decision within the parser
+     * @return the decision table or null if the parser has no such decision
+     */
+    protected DecisionTable createDecisionTable(int decision)
+    {
+        return null;
+    }
+
     public boolean accept(Token token)
     {
         return accept(token.getTokenType(), token.getTokenValue());
@@ -216,7 +338,7 @@ public class ParserBase
     public ParserException exception(String message)
     {
         ParserException ex =  new ParserException(message);
-        ex.setParserStatus(getInput());
+        ex.setParserStatus(getStatusInput());
         return ex;
     }
     
@@ -226,9 +348,10 @@ public class ParserBase
     
     public String toString()
     {
-        if (getInput() == null) {
+        Input input = getStatusInput();
+        if (input == null) {
             return "$$ - no input";
         }
-        return getInput().toString();
+        return input.toString();
    }
 }
\ No newline at end of file
@@ -0,0 +1,208 @@
+package au.com.illyrian.parser.impl;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import au.com.illyrian.parser.ResettableParser;
+
+/**
+ * Loads parsers by class name and keeps them for reuse.
+ * <br/>
+ * The constructor of each parser class is looked up once and cached, so invoking a
+ * sub-parser does not search the class loader each time.
+ * Parsers that implement <code>ResettableParser</code> are pooled separately for each thread;
+ * an instance is taken from the pool by <code>acquire</code> and returned by <code>release</code>
+ * when the parse is complete. A nested invocation of the same parser takes another instance,
+ * so a parser is never used by two parses at the same time.
+ * Other parsers may keep state between parses, so a new instance is created each time.
+ * <br/>
+ * A released parser is reset, then given its input and actions by <code>setCompilerContext</code>
+ * when it is next invoked.
+ * <br/>
+ * The number of times each parser has been acquired is recorded.
+ * <br/>
+ * A registry is shared by every compilation that loads parsers from the same class loader;
+ * see <code>getRegistry</code>.
+ */
+public class ParserRegistry
+{
+    /** The maximum number of idle instances of each parser kept for each thread. */
+    public static final int POOL_SIZE = 4;
+
+    /**
+     * The shared registry for each class loader. The registries are held softly because each
+     * registry refers to its class loader, which would otherwise never be collected.
+     */
+    private static final Map<ClassLoader, SoftReference<ParserRegistry>> REGISTRIES =
+            new WeakHashMap<ClassLoader, SoftReference<ParserRegistry>>();
+
+    private final ClassLoader classLoader;
+
+    private final ConcurrentHashMap<String, Constructor<?>> constructors = new ConcurrentHashMap<String, Constructor<?>>();
+
+    private final ConcurrentHashMap<String, AtomicLong> counts = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final ThreadLocal<Map<String, Vector<Object>>> pools = new ThreadLocal<Map<String, Vector<Object>>>() {
+        protected Map<String, Vector<Object>> initialValue()
+        {
+            return new HashMap<String, Vector<Object>>();
+        }
+    };
+
+    public ParserRegistry(ClassLoader classLoader)
+    {
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * The registry shared by the compilations that load parsers from the given class loader.
+     * A new registry is created if there is none or it has been collected.
+     *
+     * @param classLoader the class loader of the parsers
+     * @return the shared registry
+     */
+    public static ParserRegistry getRegistry(ClassLoader classLoader)
+    {
+        synchronized (REGISTRIES) {
+            SoftReference<ParserRegistry> reference = REGISTRIES.get(classLoader);
+            ParserRegistry registry = (reference == null) ? null : reference.get();
+            if (registry == null) {
+                registry = new ParserRegistry(classLoader);
+                REGISTRIES.put(classLoader, new SoftReference<ParserRegistry>(registry));
+            }
+            return registry;
+        }
+    }
+
+    public ClassLoader getClassLoader()
+    {
+        return classLoader;
+    }
+
+    /**
+     * Gets an instance of the named parser, reusing an idle instance if one is available.
+     *
+     * @param parseName the fully qualified class name of the parser
+     * @return an instance of the parser
+     * @throws ClassNotFoundException if the parser class cannot be loaded
+     * @throws IllegalAccessException if the parser constructor is not accessible
+     * @throws InstantiationException if the parser cannot be instantiated
+     */
+    public Object acquire(String parseName)
+            throws ClassNotFoundException, IllegalAccessException, InstantiationException
+    {
+        count(parseName).incrementAndGet();
+        Vector<Object> pool = pools.get().get(parseName);
+        if (pool != null && !pool.isEmpty()) {
+            return pool.remove(pool.size() - 1);
+        }
+        try {
+            return getConstructor(parseName).newInstance();
+        } catch (InvocationTargetException ex) {
+            InstantiationException ie = new InstantiationException(parseName);
+            ie.initCause(ex.getCause());
+            throw ie;
+        }
+    }
+
+    /**
+     * Returns a parser to the pool of the current thread once it has finished parsing.
+     * The parser is discarded if it does not implement <code>ResettableParser</code>.
+     *
+     * @param parseName the name used to acquire the parser
+     * @param parser the parser instance
+     */
+    public void release(String parseName, Object parser)
+    {
+        if (!(parser instanceof ResettableParser)) {
+            return;
+        }
+        ((ResettableParser)parser).reset();
+        Map<String, Vector<Object>> map = pools.get();
+        Vector<Object> pool = map.get(parseName);
+        if (pool == null) {
+            pool = new Vector<Object>(POOL_SIZE);
+            map.put(parseName, pool);
+        }
+        if (pool.size() < POOL_SIZE) {
+            pool.add(parser);
+        }
+    }
+
+    /**
+     * Gets the class of the named parser, loading it the first time.
+     *
+     * @param parseName the fully qualified class name of the parser
+     * @return the parser class
+     * @throws ClassNotFoundException if the parser class cannot be loaded
+     */
+    public Class<?> getParserClass(String parseName) throws ClassNotFoundException
+    {
+        return getConstructor(parseName).getDeclaringClass();
+    }
+
+    private Constructor<?> getConstructor(String parseName) throws ClassNotFoundException
+    {
+        Constructor<?> constructor = constructors.get(parseName);
+        if (constructor == null) {
+            Class<?> parserClass = classLoader.loadClass(parseName);
+            try {
+                constructor = parserClass.getConstructor();
+            } catch (NoSuchMethodException ex) {
+                throw new ClassNotFoundException("No public default constructor for parser: " + parseName, ex);
+            }
+            Constructor<?> existing = constructors.putIfAbsent(parseName, constructor);
+            if (existing != null) {
+                constructor = existing;
+            }
+        }
+        return constructor;
+    }
+
+    private AtomicLong count(String parseName)
+    {
+        AtomicLong count = counts.get(parseName);
+        if (count == null) {
+            count = new AtomicLong();
+            AtomicLong existing = counts.putIfAbsent(parseName, count);
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The number of times the named parser has been invoked.
+     *
+     * @param parseName the fully qualified class name of the parser
+     * @return the number of invocations
+     */
+    public long getInvocationCount(String parseName)
+    {
+        AtomicLong count = counts.get(parseName);
+        return (count == null) ? 0 : count.get();
+    }
+
+    /**
+     * The number of times each parser has been invoked.
+     *
+     * @return the invocation counts, sorted by parser name
+     */
+    public Map<String, Long> getInvocationCounts()
+    {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : counts.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+}
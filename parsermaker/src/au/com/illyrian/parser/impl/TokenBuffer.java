@@ -0,0 +1,507 @@
+package au.com.illyrian.parser.impl;
+
+import java.util.Properties;
+
+import au.com.illyrian.parser.Input;
+import au.com.illyrian.parser.Lexer;
+import au.com.illyrian.parser.TokenType;
+
+/**
+ * A lexer that buffers tokens so that a parser can look ahead of the current token.
+ * <br/>
+ * Tokens are read from the underlying lexer and recorded in a ring buffer.
+ * The type, id, line and position of each token are held in primitive arrays.
+ * <code>peek(k)</code> reads up to k tokens ahead without moving the current token,
+ * and <code>mark()</code> and <code>reset()</code> return to an earlier token
+ * without reading the input again.
+ * <br/>
+ * When a <code>Latin1Lexer</code> reads a <code>LexerInputBuffer</code> the text of each
+ * token is recorded as offsets into the source text, so a <code>String</code> is only
+ * created when <code>getTokenValue()</code> is called. Other lexers have the text of
+ * each token recorded as a <code>String</code>.
+ * <br/>
+ * The underlying lexer reads ahead of the current token, so <code>getInput()</code>
+ * rewinds the input to the end of the current token and discards the tokens read ahead.
+ */
+public class TokenBuffer implements Lexer
+{
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private final Lexer lexer;
+
+    private int[] types;
+    private int[] ids;
+    private int[] lines;
+    private int[] starts;
+    private int[] finishes;
+    private char[] delimiters;
+    /** The offsets of each token in the source text, or -1 if the text is held in <code>values</code>. */
+    private int[] offsets;
+    private int[] ends;
+    private String[] values;
+    private String[] strings;
+    private String[] errors;
+    private Object[] operators;
+    private int mask;
+
+    /** The sequence number of the current token. */
+    private int position = 0;
+
+    /** One past the sequence number of the last token read from the lexer. */
+    private int end = 0;
+
+    /** The sequence numbers saved by <code>mark()</code>. */
+    private int[] marks = new int[4];
+    private int markCount = 0;
+
+    /** The input that <code>text</code> was taken from. */
+    private Input textInput = null;
+
+    /** The whole of the source text, or null if the input does not hold the source text. */
+    private CharSequence text = null;
+
+    /**
+     * Creates a buffer over the given lexer.
+     * The current token of the lexer becomes the current token of the buffer.
+     *
+     * @param lexer the source of the tokens
+     */
+    public TokenBuffer(Lexer lexer)
+    {
+        this(lexer, 16);
+    }
+
+    /**
+     * Creates a buffer over the given lexer.
+     *
+     * @param lexer the source of the tokens
+     * @param capacity the initial number of tokens held; rounded up to a power of two
+     */
+    public TokenBuffer(Lexer lexer, int capacity)
+    {
+        this.lexer = lexer;
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        allocate(size);
+        record(0);
+        end = 1;
+    }
+
+    /**
+     * Discards the buffered tokens and marks, so that the current token of the lexer
+     * becomes the current token of the buffer again.
+     */
+    public void restart()
+    {
+        position = 0;
+        markCount = 0;
+        record(0);
+        end = 1;
+    }
+
+    /**
+     * Whether tokens have been read ahead of the current token or are held for a mark.
+     *
+     * @return true if the buffer holds tokens that the underlying lexer has moved past
+     */
+    public boolean isBuffered()
+    {
+        return end > position + 1 || markCount > 0;
+    }
+
+    private void allocate(int size)
+    {
+        types = new int[size];
+        ids = new int[size];
+        lines = new int[size];
+        starts = new int[size];
+        finishes = new int[size];
+        delimiters = new char[size];
+        offsets = new int[size];
+        ends = new int[size];
+        values = new String[size];
+        strings = new String[size];
+        errors = new String[size];
+        operators = new Object[size];
+        mask = size - 1;
+    }
+
+    /**
+     * The underlying lexer.
+     */
+    public Lexer getLexer()
+    {
+        return lexer;
+    }
+
+    /**
+     * Records the current token of the lexer at the given index.
+     */
+    private void record(int index)
+    {
+        TokenType type = lexer.getTokenType();
+        types[index] = type.ordinal();
+        ids[index] = lexer.getTokenId();
+        lines[index] = lexer.getLineNumber();
+        Input input = lexer.getInput();
+        starts[index] = (input == null) ? 0 : input.getTokenStart();
+        finishes[index] = (input == null) ? 0 : input.getTokenFinish();
+        delimiters[index] = lexer.getTokenDelimiter();
+        if (input != textInput) {
+            bindText(input);
+        }
+        if (text != null) {
+            LexerInputBuffer buffer = (LexerInputBuffer)input;
+            offsets[index] = buffer.getTokenOffset();
+            ends[index] = buffer.getTokenEndOffset();
+            values[index] = null;
+        } else {
+            offsets[index] = -1;
+            values[index] = (input == null) ? null : lexer.getTokenValue();
+        }
+        strings[index] = (type == TokenType.STRING || type == TokenType.CHARACTER) ? lexer.getTokenString() : null;
+        errors[index] = (type == TokenType.ERROR) ? lexer.getErrorMessage() : null;
+        operators[index] = (type == TokenType.OPERATOR) ? lexer.getTokenOperator() : null;
+    }
+
+    /*
+     * Token values are views of the source text if the lexer takes them directly from a buffered input.
+     */
+    private void bindText(Input input)
+    {
+        textInput = input;
+        boolean direct = lexer instanceof Latin1Lexer && input instanceof LexerInputBuffer;
+        text = direct ? ((LexerInputBuffer)input).getText() : null;
+    }
+
+    /**
+     * The text of the token at the given index.
+     */
+    private String value(int i)
+    {
+        if (offsets[i] < 0) {
+            return values[i];
+        }
+        // The input returns null for tokens past the end of the text.
+        return (offsets[i] >= text.length()) ? null : text.subSequence(offsets[i], ends[i]).toString();
+    }
+
+    /**
+     * Compares the text of the token at the given index with a value without creating a <code>String</code>.
+     */
+    private boolean matchValue(int i, String value)
+    {
+        if (offsets[i] < 0) {
+            return value.equals(values[i]);
+        }
+        int start = offsets[i];
+        if (start >= text.length() || value.length() != ends[i] - start) {
+            return false;
+        }
+        for (int j = 0; j < value.length(); j++) {
+            if (text.charAt(start + j) != value.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next token from the lexer into the buffer.
+     */
+    private void fill()
+    {
+        int retained = (markCount > 0) ? marks[0] : position;
+        if (end - retained > mask) {
+            grow(retained);
+        }
+        lexer.nextToken();
+        record(end & mask);
+        end++;
+    }
+
+    /**
+     * Doubles the size of the buffer, keeping the tokens from <code>retained</code> onwards.
+     */
+    private void grow(int retained)
+    {
+        int[] oldTypes = types;
+        int[] oldIds = ids;
+        int[] oldLines = lines;
+        int[] oldStarts = starts;
+        int[] oldFinishes = finishes;
+        char[] oldDelimiters = delimiters;
+        int[] oldOffsets = offsets;
+        int[] oldEnds = ends;
+        String[] oldValues = values;
+        String[] oldStrings = strings;
+        String[] oldErrors = errors;
+        Object[] oldOperators = operators;
+        int oldMask = mask;
+        allocate(types.length * 2);
+        for (int seq = retained; seq < end; seq++) {
+            int from = seq & oldMask;
+            int to = seq & mask;
+            types[to] = oldTypes[from];
+            ids[to] = oldIds[from];
+            lines[to] = oldLines[from];
+            starts[to] = oldStarts[from];
+            finishes[to] = oldFinishes[from];
+            delimiters[to] = oldDelimiters[from];
+            offsets[to] = oldOffsets[from];
+            ends[to] = oldEnds[from];
+            values[to] = oldValues[from];
+            strings[to] = oldStrings[from];
+            errors[to] = oldErrors[from];
+            operators[to] = oldOperators[from];
+        }
+    }
+
+    /**
+     * The index of a token, reading ahead from the lexer as required.
+     * The index must be computed before the arrays are read as the buffer may grow.
+     */
+    private int index(int howFar)
+    {
+        while (position + howFar >= end) {
+            fill();
+        }
+        return (position + howFar) & mask;
+    }
+
+    /** The index of the current token, which is always in the buffer. */
+    private int current()
+    {
+        return position & mask;
+    }
+
+    public TokenType nextToken()
+    {
+        position++;
+        if (position == end) {
+            fill();
+        }
+        return getTokenType();
+    }
+
+    /**
+     * Looks ahead of the current token without consuming any tokens.
+     *
+     * @param howFar the number of tokens past the current token; zero is the current token
+     * @return the type of the token
+     */
+    public TokenType peek(int howFar)
+    {
+        int i = index(howFar);
+        return TOKEN_TYPES[types[i]];
+    }
+
+    /**
+     * Compare a token ahead of the current token with a value.
+     * Strings and characters are compared by their quote delimiter.
+     *
+     * @param howFar the number of tokens past the current token
+     * @param value the expected text of the token
+     * @return true if the token matches the value
+     */
+    public boolean matchTokenValue(int howFar, String value)
+    {
+        int i = index(howFar);
+        if (types[i] == TokenType.STRING.ordinal() || types[i] == TokenType.CHARACTER.ordinal()) {
+            return value.length() == 1 && value.charAt(0) == delimiters[i];
+        }
+        return ids[i] == value.hashCode() && matchValue(i, value);
+    }
+
+    /**
+     * Get the text of a token ahead of the current token.
+     *
+     * @param howFar the number of tokens past the current token
+     * @return the text of the token
+     */
+    public String getTokenValue(int howFar)
+    {
+        int i = index(howFar);
+        return value(i);
+    }
+
+    /**
+     * Saves the current token so that the parser can return to it using <code>reset()</code>.
+     * Tokens are kept in the buffer until every mark is reset or released.
+     */
+    public void mark()
+    {
+        if (markCount == marks.length) {
+            int[] larger = new int[marks.length * 2];
+            System.arraycopy(marks, 0, larger, 0, markCount);
+            marks = larger;
+        }
+        marks[markCount++] = position;
+    }
+
+    /**
+     * Returns to the token saved by the last call to <code>mark()</code>.
+     */
+    public void reset()
+    {
+        if (markCount == 0)
+            throw new IllegalStateException("reset() called without mark()");
+        position = marks[--markCount];
+    }
+
+    /**
+     * Discards the last mark without moving the current token.
+     */
+    public void release()
+    {
+        if (markCount == 0)
+            throw new IllegalStateException("release() called without mark()");
+        markCount--;
+    }
+
+    public TokenType getTokenType()
+    {
+        return TOKEN_TYPES[types[current()]];
+    }
+
+    public String getTokenValue()
+    {
+        return value(current());
+    }
+
+    public Integer getTokenInteger()
+    {
+        if (getTokenType() == TokenType.NUMBER) {
+            return Integer.valueOf(getTokenValue());
+        } else {
+            throw new NumberFormatException("Token is not an Integer");
+        }
+    }
+
+    public Float getTokenFloat()
+    {
+        if (getTokenType() == TokenType.DECIMAL) {
+            return Float.valueOf(getTokenValue());
+        } else {
+            throw new NumberFormatException("Token is not a decimal number");
+        }
+    }
+
+    public Object getTokenOperator()
+    {
+        if (getTokenType() == TokenType.OPERATOR) {
+            return operators[current()];
+        } else {
+            throw new IllegalStateException("Token is not an Operator");
+        }
+    }
+
+    public String getTokenString()
+    {
+        return strings[current()];
+    }
+
+    public char getTokenDelimiter()
+    {
+        return delimiters[current()];
+    }
+
+    public int getTokenId()
+    {
+        return ids[current()];
+    }
+
+    public boolean matchTokenValue(String value)
+    {
+        return matchTokenValue(0, value);
+    }
+
+    /**
+     * The start of the current token, relative to the start of its line.
+     */
+    public int getTokenStart()
+    {
+        return starts[current()];
+    }
+
+    /**
+     * The finish of the current token, relative to the start of its line.
+     */
+    public int getTokenFinish()
+    {
+        return finishes[current()];
+    }
+
+    public String getErrorMessage()
+    {
+        return errors[current()];
+    }
+
+    public Properties getReservedWords()
+    {
+        return lexer.getReservedWords();
+    }
+
+    public Properties getOperators()
+    {
+        return lexer.getOperators();
+    }
+
+    /**
+     * The input of the underlying lexer, positioned at the end of the current token.
+     * <br/>
+     * Tokens read ahead of the current token are discarded and the input is rewound, so that
+     * whoever takes the input continues from the current token.
+     *
+     * @return the input of the underlying lexer
+     * @throws IllegalStateException if tokens have been read ahead and the input cannot be rewound
+     */
+    public Input getInput()
+    {
+        Input input = lexer.getInput();
+        if (end > position + 1) {
+            if (!canRewind()) {
+                throw new IllegalStateException("Cannot rewind the input over the tokens read ahead");
+            }
+            ((LexerInputBuffer)input).setOffset(ends[current()]);
+            end = position + 1;
+        }
+        return input;
+    }
+
+    /**
+     * Whether <code>getInput()</code> can return the input positioned at the end of the current token.
+     *
+     * @return true if no tokens have been read ahead or the input can be rewound over them
+     */
+    public boolean canRewind()
+    {
+        return end == position + 1 || (text != null && textInput == lexer.getInput() && offsets[current()] >= 0);
+    }
+
+    /**
+     * Sets the input of the underlying lexer and discards any tokens read ahead.
+     * The text of the current token is kept, as it no longer refers to the input.
+     */
+    public void setInput(Input input)
+    {
+        int i = current();
+        values[i] = value(i);
+        offsets[i] = -1;
+        lexer.setInput(input);
+        end = position + 1;
+        markCount = 0;
+    }
+
+    public String getFilename()
+    {
+        return lexer.getFilename();
+    }
+
+    public int getLineNumber()
+    {
+        return lines[current()];
+    }
+}
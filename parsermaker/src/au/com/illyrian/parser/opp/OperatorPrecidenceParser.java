@@ -1,10 +1,5 @@
 package au.com.illyrian.parser.opp;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-
 import au.com.illyrian.parser.ParserException;
 import au.com.illyrian.parser.TokenType;
 import au.com.illyrian.parser.impl.ParserBase;
@@ -14,12 +9,12 @@ public class OperatorPrecidenceParser<Expr> extends ParserBase
     public static final int DEFAULT_PRECIDENCE = 0;
 
     /**
-     * A map from operator to an object.
+     * Tables from the id of an operator token to an operator.
      */
-    protected final Map<String, Operator> nudOperators;
-    protected final Map<String, Operator> ledOperators;
-    protected final Set<String> reservedOperands;
-    protected final Set<String> reservedOperators;
+    protected final OperatorTable nudOperators;
+    protected final OperatorTable ledOperators;
+    protected final OperatorTable reservedOperands;
+    protected final OperatorTable reservedOperators;
     
     protected OperatorPrecidenceAction<Expr> precidenceActions = null;
     protected int defaultPrecidence = DEFAULT_PRECIDENCE;
@@ -27,10 +22,10 @@ public class OperatorPrecidenceParser<Expr> extends ParserBase
     public OperatorPrecidenceParser()
     {
         super();
-        nudOperators = new HashMap<String, Operator>();
-        ledOperators = new HashMap<String, Operator>();
-        reservedOperands = new HashSet<String>();
-        reservedOperators = new HashSet<String>();
+        nudOperators = new OperatorTable();
+        ledOperators = new OperatorTable();
+        reservedOperands = new OperatorTable();
+        reservedOperators = new OperatorTable();
     }
 
     public OperatorPrecidenceAction<Expr> getPrecidenceActions()
@@ -79,13 +74,13 @@ public class OperatorPrecidenceParser<Expr> extends ParserBase
 
     protected Operator addNudOperator(Operator operator)
     {
-        nudOperators.put(operator.getName(), operator);
+        nudOperators.add(operator);
         return operator;
     }
 
     protected Operator addLedOperator(Operator operator)
     {
-        ledOperators.put(operator.getName(), operator);
+        ledOperators.add(operator);
         return operator;
     }
 
@@ -96,10 +91,9 @@ public class OperatorPrecidenceParser<Expr> extends ParserBase
         // Operators may include reserved words and brackets.
         if (token == TokenType.OPERATOR || token == TokenType.DELIMITER 
                 || token == TokenType.RESERVED) {
-            String lookup = getLexer().getTokenValue();
-            operator = nudOperators.get(lookup);
+            operator = nudOperators.get(getLexer());
             if (operator == null) {
-                checkOperatorImplemented(token, lookup);
+                checkOperatorImplemented(token);
             }
         }
         return operator;
@@ -112,20 +106,19 @@ public class OperatorPrecidenceParser<Expr> extends ParserBase
         // Operators may include reserved words and brackets.
         if (token == TokenType.OPERATOR || token == TokenType.DELIMITER 
                 || token == TokenType.RESERVED) {
-            String lookup = getLexer().getTokenValue();
-            operator = ledOperators.get(lookup);
+            operator = ledOperators.get(getLexer());
             if (operator == null) {
-                checkOperatorImplemented(token, lookup);
+                checkOperatorImplemented(token);
             }
         }
         return operator;
     }
 
-    protected void checkOperatorImplemented(TokenType tokenValue, String operatorName)
+    protected void checkOperatorImplemented(TokenType tokenValue)
     {
         // Throw an exception if this is a pure operator that we know nothing about.
-        if (tokenValue == TokenType.OPERATOR && nudOperators.get(operatorName) == null
-                && ledOperators.get(operatorName) == null) {
+        if (tokenValue == TokenType.OPERATOR && nudOperators.get(getLexer()) == null
+                && ledOperators.get(getLexer()) == null) {
             throw new ParserException("Operator not implemented: " + getLexer().getTokenValue());
         }
     }
@@ -133,13 +126,13 @@ public class OperatorPrecidenceParser<Expr> extends ParserBase
     public void addReservedOperand(String operand)
     {
         addReserved(operand);
-        reservedOperands.add(operand);
+        reservedOperands.add(operand, null);
     }
 
     public void addReservedOperator(String operand)
     {
         addReserved(operand);
-        reservedOperators.add(operand);
+        reservedOperators.add(operand, null);
     }
 
     public int getDefaultPrecidence()
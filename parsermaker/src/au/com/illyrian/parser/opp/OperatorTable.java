@@ -0,0 +1,165 @@
+package au.com.illyrian.parser.opp;
+
+import au.com.illyrian.parser.Lexer;
+
+/**
+ * A table of operator names indexed by the id of the token.
+ * <br/>
+ * The lexer gives each operator, delimiter and reserved word the id <code>String.hashCode()</code>
+ * of its text, so the operator for the current token can be found by probing an open addressed
+ * table with the id and comparing the text using <code>Lexer.matchTokenValue</code>.
+ * No <code>String</code> is created for the token and no hash is calculated during the lookup.
+ * <br/>
+ * The table is built as operators are added when the parser is configured.
+ * A name may be added without an operator, so the table can also be used as a set of names.
+ */
+public class OperatorTable
+{
+    private String[] names;
+    private int[] ids;
+    private Operator[] operators;
+    private int mask;
+    private int count = 0;
+
+    public OperatorTable()
+    {
+        allocate(16);
+    }
+
+    private void allocate(int size)
+    {
+        names = new String[size];
+        ids = new int[size];
+        operators = new Operator[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an operator, replacing any operator with the same name.
+     *
+     * @param operator the operator to be added
+     */
+    public void add(Operator operator)
+    {
+        add(operator.getName(), operator);
+    }
+
+    /**
+     * Adds a name with an optional operator, replacing any operator with the same name.
+     *
+     * @param name the text of the token
+     * @param operator the operator or null
+     */
+    public void add(String name, Operator operator)
+    {
+        if ((count + 1) * 2 > names.length) {
+            grow();
+        }
+        int id = name.hashCode();
+        int slot = id & mask;
+        while (names[slot] != null) {
+            if (ids[slot] == id && names[slot].equals(name)) {
+                operators[slot] = operator;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        names[slot] = name;
+        ids[slot] = id;
+        operators[slot] = operator;
+        count++;
+    }
+
+    private void grow()
+    {
+        String[] oldNames = names;
+        Operator[] oldOperators = operators;
+        allocate(names.length * 2);
+        count = 0;
+        for (int i = 0; i < oldNames.length; i++) {
+            if (oldNames[i] != null) {
+                add(oldNames[i], oldOperators[i]);
+            }
+        }
+    }
+
+    /**
+     * Finds the current token of the lexer.
+     *
+     * @param lexer the lexer positioned on an operator
+     * @return the slot of the token in the table or -1 if it is not present
+     */
+    public int find(Lexer lexer)
+    {
+        int id = lexer.getTokenId();
+        int slot = id & mask;
+        while (names[slot] != null) {
+            if (ids[slot] == id && lexer.matchTokenValue(names[slot])) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds a name.
+     *
+     * @param name the text of the token
+     * @return the slot of the name in the table or -1 if it is not present
+     */
+    public int find(String name)
+    {
+        int id = name.hashCode();
+        int slot = id & mask;
+        while (names[slot] != null) {
+            if (ids[slot] == id && names[slot].equals(name)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * The operator in a slot returned by <code>find</code>.
+     *
+     * @param slot the slot in the table or -1
+     * @return the operator or null
+     */
+    public Operator get(int slot)
+    {
+        return (slot < 0) ? null : operators[slot];
+    }
+
+    /**
+     * The operator for the current token of the lexer.
+     *
+     * @param lexer the lexer positioned on an operator
+     * @return the operator or null if the token is not an operator in the table
+     */
+    public Operator get(Lexer lexer)
+    {
+        return get(find(lexer));
+    }
+
+    public Operator get(String name)
+    {
+        return get(find(name));
+    }
+
+    public boolean contains(Lexer lexer)
+    {
+        return find(lexer) >= 0;
+    }
+
+    public boolean contains(String name)
+    {
+        return find(name) >= 0;
+    }
+
+    public int size()
+    {
+        return count;
+    }
+}
@@ -0,0 +1,56 @@
+package au.com.illyrian.bnf.maker;
+
+import java.io.File;
+
+import au.com.illyrian.bnf.BnfCompiler;
+import au.com.illyrian.classmaker.ClassMaker;
+import au.com.illyrian.classmaker.ClassMakerFactory;
+import au.com.illyrian.jesub.ast.AstStructure;
+import au.com.illyrian.parser.ParseMembers;
+import au.com.illyrian.parser.impl.LexerInputString;
+import au.com.illyrian.parser.impl.ModuleContext;
+
+public class DispatchParserTest extends BnfMakerTextBase {
+    private static final String TEST_DIR = "test/";
+
+    ParseMembers<AstStructure> switchParser;
+    ParseMembers<AstStructure> ifParser;
+
+    public void setUp() throws Exception {
+        BnfCompiler switchCompiler = new BnfCompiler(new File(TEST_DIR), new ClassMakerFactory());
+        switchParser = switchCompiler.compile("test/DispatchParser.bnf");
+
+        BnfCompiler ifCompiler = new BnfCompiler(new File(TEST_DIR), new ClassMakerFactory()) {
+            public BnfMakerVisitor createBnfVisitor(ClassMaker maker, String source) {
+                BnfMakerVisitor visitor = super.createBnfVisitor(maker, source);
+                visitor.setSwitchDispatch(false);
+                return visitor;
+            }
+        };
+        ifParser = ifCompiler.compile("test/DispatchParser.bnf");
+    }
+
+    String parse(ParseMembers<AstStructure> parser, String text) {
+        ModuleContext compile = new ModuleContext();
+        compile.setInput(new LexerInputString(text));
+        return parser.parseMembers(compile).toString();
+    }
+
+    void assertSameAlternative(String text, String expected) {
+        assertEquals("If chain: " + text, expected, parse(ifParser, text));
+        assertEquals("Switch: " + text, expected, parse(switchParser, text));
+    }
+
+    public void testTypeBeforeValue() throws Exception {
+        // PACKAGE is an IDENTIFIER, so the IDENTIFIER alternative shadows it.
+        assertSameAlternative(", a b", "package a.b;\n");
+        assertSameAlternative(", package b", "package package.b;\n");
+        assertSameAlternative(", . b", "package b;\n");
+    }
+
+    public void testValueBeforeType() throws Exception {
+        assertSameAlternative("package b", "package b;\n");
+        assertSameAlternative("a b", "package a.b;\n");
+        assertSameAlternative(". b", "package b;\n");
+    }
+}
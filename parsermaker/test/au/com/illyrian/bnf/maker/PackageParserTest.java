@@ -4,8 +4,10 @@ import java.io.File;
 import java.io.IOException;
 
 import au.com.illyrian.bnf.BnfCompiler;
+import au.com.illyrian.classmaker.ClassCache;
 import au.com.illyrian.classmaker.ClassMaker;
 import au.com.illyrian.classmaker.ClassMakerFactory;
+import au.com.illyrian.classmaker.SourceNames;
 import au.com.illyrian.jesub.ast.AstStructure;
 import au.com.illyrian.jesub.ast.AstStructureVisitor;
 import au.com.illyrian.parser.ParseMembers;
@@ -80,4 +82,82 @@ public class PackageParserTest extends BnfMakerTextBase {
             assertEquals("Package name expected", ex.getMessage());
         }
     }
+
+    public void testClassCache() throws Exception {
+        File cacheDir = File.createTempFile("classcache", "");
+        cacheDir.delete();
+        ClassCache cache = new ClassCache(cacheDir);
+        try {
+            ClassMakerFactory factory1 = new ClassMakerFactory();
+            factory1.setClassCache(cache);
+            BnfCompiler compiler1 = new BnfCompiler(new File(TEST_DIR), factory1);
+            compiler1.compile("test/PackageParser.bnf");
+            assertEquals("Cache misses", 1, cache.getMisses());
+            assertEquals("Cache hits", 0, cache.getHits());
+
+            ClassMakerFactory factory2 = new ClassMakerFactory();
+            factory2.setClassCache(cache);
+            BnfCompiler compiler2 = new BnfCompiler(new File(TEST_DIR), factory2);
+            ParseMembers<AstStructure> cached = compiler2.compile("test/PackageParser.bnf");
+            assertEquals("Cache misses", 1, cache.getMisses());
+            assertEquals("Cache hits", 1, cache.getHits());
+
+            LexerInputString input = new LexerInputString("package au.com.test;");
+            ModuleContext compile = new ModuleContext();
+            compile.setInput(input);
+            AstStructure tree = cached.parseMembers(compile);
+            assertEquals("package au.com.test;\n", tree.toString());
+
+            ClassMakerFactory factory3 = new ClassMakerFactory();
+            factory3.setClassCache(cache);
+            BnfCompiler compiler3 = new BnfCompiler(new File(TEST_DIR), factory3);
+            compiler3.setDefaultType("AstStructure");
+            String key2 = compiler2.createCacheKey(new SourceNames("test/PackageParser.bnf"), "").toString();
+            String key3 = compiler3.createCacheKey(new SourceNames("test/PackageParser.bnf"), "").toString();
+            assertFalse("Key should depend on the default type", key2.equals(key3));
+        } finally {
+            File[] files = cacheDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            cacheDir.delete();
+        }
+    }
+
+    public void testClassCacheEviction() throws Exception {
+        File cacheDir = File.createTempFile("classcache", "");
+        cacheDir.delete();
+        ClassCache cache = new ClassCache(cacheDir);
+        cache.setMaxEntries(2);
+        try {
+            cacheDir.mkdirs();
+            File stale = new File(cacheDir, "0000000000000000-Stale.class");
+            assertTrue("Create stale entry", stale.createNewFile());
+            byte[] classBytes = new byte[] {1, 2, 3};
+            ClassCache.Key key1 = cache.createKey("test.First");
+            ClassCache.Key key2 = cache.createKey("test.Second");
+            ClassCache.Key key3 = cache.createKey("test.Third");
+            assertTrue("Store first", cache.store(key1, classBytes));
+            assertFalse("Other generator versions should be evicted", stale.exists());
+            assertTrue("Store second", cache.store(key2, classBytes));
+            cache.getClassFile(key1).setLastModified(1000000000000L);
+            cache.getClassFile(key2).setLastModified(1100000000000L);
+            // Loading the first entry makes the second the least recently used.
+            assertNotNull("Load first", cache.load(key1));
+            assertTrue("Store third", cache.store(key3, classBytes));
+            assertTrue("First entry", cache.getClassFile(key1).exists());
+            assertFalse("Second entry should be evicted", cache.getClassFile(key2).exists());
+            assertTrue("Third entry", cache.getClassFile(key3).exists());
+        } finally {
+            File[] files = cacheDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            cacheDir.delete();
+        }
+    }
 }
@@ -0,0 +1,182 @@
+package au.com.illyrian.jsub;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import au.com.illyrian.jesub.ast.AstClass;
+import au.com.illyrian.jesub.ast.AstDeclareMethod;
+import au.com.illyrian.jesub.ast.AstModule;
+import au.com.illyrian.jesub.ast.AstStatementCompound;
+import au.com.illyrian.jesub.ast.AstStatementIf;
+import au.com.illyrian.jesub.ast.AstStructure;
+import au.com.illyrian.jesub.ast.AstStructureLink;
+import au.com.illyrian.jsub.bnf.IncrementalModule;
+import au.com.illyrian.jsub.bnf.JsubBnfParser;
+import au.com.illyrian.jsub.bnf.JsubParserBase;
+import au.com.illyrian.parser.impl.ModuleContext;
+
+public class IncrementalModuleTest extends TestCase
+{
+    static final String SOURCE = "package au.com.illyrian.jsub;\n"
+            + "public class Counter {\n"
+            + "  int count;\n"
+            + "  public int next() {\n"
+            + "    this.count = this.count + 1; // first\n"
+            + "    return this.count;\n"
+            + "  }\n"
+            + "  public void reset(int value) {\n"
+            + "    if (value > 0) {\n"
+            + "      this.count = value;\n"
+            + "    }\n"
+            + "  }\n"
+            + "}\n";
+
+    static JsubBnfParser bnfParser = null;
+
+    int parses = 0;
+    IncrementalModule module;
+
+    public void setUp() throws Exception
+    {
+        if (bnfParser == null) {
+            bnfParser = new JsubBnfParser(new File("test"));
+        }
+        module = new IncrementalModule(newParser()) {
+            protected AstStructure parse(String text, String name) throws IOException
+            {
+                parses++;
+                return super.parse(text, name);
+            }
+        };
+    }
+
+    JsubParserBase newParser() throws Exception
+    {
+        return (JsubParserBase)bnfParser.getParser().getClass().getDeclaredConstructor().newInstance();
+    }
+
+    AstStructure member(AstStructure tree, int index)
+    {
+        AstStructure members = ((AstClass)((AstModule)tree).getClassList()).getMembers();
+        for (int i = 0; i < index; i++) {
+            members = ((AstStructureLink)members).right;
+        }
+        return (members instanceof AstStructureLink) ? ((AstStructureLink)members).left : members;
+    }
+
+    AstStatementCompound body(AstStructure tree, int index)
+    {
+        return (AstStatementCompound)((AstDeclareMethod)member(tree, index)).getMethodBody();
+    }
+
+    /** Parses the text from scratch with another parser. */
+    String members(String text) throws Exception
+    {
+        ModuleContext context = new ModuleContext();
+        context.setInputString(text, "Counter.jsub");
+        return members(newParser().parseModule(context));
+    }
+
+    String members(AstStructure tree)
+    {
+        return ((AstClass)((AstModule)tree).getClassList()).getMembers().toString();
+    }
+
+    public void testReuseAfterComment() throws Exception
+    {
+        AstStructure first = module.parseString(SOURCE, "Counter.jsub");
+        assertEquals("Members", members(SOURCE), members(first));
+        assertFalse("Reused", module.isReused());
+        AstStructure second = module.parseString(SOURCE.replace("// first", "// the first line"), "Counter.jsub");
+        assertTrue("Reused", module.isReused());
+        assertSame("Result", first, second);
+        AstStructure third = module.parseString(SOURCE.replace("// first", "  /* first */ "), "Counter.jsub");
+        assertTrue("Reused", module.isReused());
+        assertSame("Result", first, third);
+        assertEquals("Parses", 1, parses);
+    }
+
+    public void testReparseMethodBody() throws Exception
+    {
+        AstStructure first = module.parseString(SOURCE, "Counter.jsub");
+        AstStatementCompound next = body(first, 1);
+        AstStatementCompound reset = body(first, 2);
+        String text = SOURCE.replace("count + 1", "count + 2");
+        AstStructure second = module.parseString(text, "Counter.jsub");
+        assertFalse("Reused", module.isReused());
+        assertSame("Result", first, second);
+        assertSame("Reparsed", next, module.getReparsed());
+        assertSame("Next", next, body(second, 1));
+        assertSame("Reset", reset, body(second, 2));
+        assertEquals("Members", members(text), members(second));
+        assertEquals("Parses", 1, parses);
+    }
+
+    public void testReparseInnerBlock() throws Exception
+    {
+        AstStructure first = module.parseString(SOURCE, "Counter.jsub");
+        AstStatementCompound reset = body(first, 2);
+        AstStatementCompound inner = (AstStatementCompound)((AstStatementIf)reset.getCode()).getThenCode();
+        // Adding a line moves the following tokens to other lines.
+        String text = SOURCE.replace("count = value;", "count = value;\n      this.count = 0;");
+        AstStructure second = module.parseString(text, "Counter.jsub");
+        assertSame("Reparsed", inner, module.getReparsed());
+        assertEquals("Members", members(text), members(second));
+        // The offsets of the blocks follow the edit.
+        text = text.replace("count + 1", "count - 1");
+        AstStructure third = module.parseString(text, "Counter.jsub");
+        assertSame("Reparsed", body(first, 1), module.getReparsed());
+        assertEquals("Members", members(text), members(third));
+        text = text.replace("count = 0;", "count = 1;");
+        module.parseString(text, "Counter.jsub");
+        assertSame("Reparsed", inner, module.getReparsed());
+        assertEquals("Members", members(text), members(third));
+        assertEquals("Parses", 1, parses);
+    }
+
+    public void testReparseNewBlocks() throws Exception
+    {
+        AstStructure first = module.parseString(SOURCE, "Counter.jsub");
+        AstStatementCompound next = body(first, 1);
+        String text = SOURCE.replace("return this.count;", "{ { this.count = 0; } }\n    return this.count;");
+        module.parseString(text, "Counter.jsub");
+        assertSame("Reparsed", next, module.getReparsed());
+        // The blocks added by the edit are recorded.
+        text = text.replace("count = 0;", "count = 3;");
+        AstStructure third = module.parseString(text, "Counter.jsub");
+        assertNotSame("Reparsed", next, module.getReparsed());
+        assertNotNull("Reparsed", module.getReparsed());
+        assertEquals("Members", members(text), members(third));
+        assertEquals("Parses", 1, parses);
+    }
+
+    public void testParseAfterSignatureChange() throws Exception
+    {
+        AstStructure first = module.parseString(SOURCE, "Counter.jsub");
+        String text = SOURCE.replace("int value", "int amount");
+        AstStructure second = module.parseString(text, "Counter.jsub");
+        assertFalse("Reused", module.isReused());
+        assertNull("Reparsed", module.getReparsed());
+        assertNotSame("Result", first, second);
+        assertEquals("Members", members(text), members(second));
+        assertEquals("Parses", 2, parses);
+    }
+
+    public void testParseAfterBraceChange() throws Exception
+    {
+        module.parseString(SOURCE, "Counter.jsub");
+        // The inner block now ends early, so the method body is not where it was.
+        String text = SOURCE.replace("count = value;", "count = value; }");
+        try {
+            module.parseString(text, "Counter.jsub");
+        } catch (RuntimeException ex) {
+            // The text does not parse, but the whole source was tried.
+        }
+        assertNull("Reparsed", module.getReparsed());
+        assertEquals("Parses", 2, parses);
+        AstStructure third = module.parseString(SOURCE, "Counter.jsub");
+        assertEquals("Members", members(SOURCE), members(third));
+        assertEquals("Parses", 3, parses);
+    }
+}
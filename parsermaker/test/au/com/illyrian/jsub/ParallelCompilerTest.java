@@ -0,0 +1,107 @@
+package au.com.illyrian.jsub;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.mozilla.classfile.SimpleClassLoader;
+
+import junit.framework.TestCase;
+import au.com.illyrian.classmaker.ClassMakerFactory;
+import au.com.illyrian.jsub.bnf.JsubBnfParser;
+import au.com.illyrian.jsub.bnf.ParallelCompiler;
+
+public class ParallelCompilerTest extends TestCase {
+    File sourceDir;
+
+    public void setUp() throws Exception {
+        sourceDir = File.createTempFile("jsub", "");
+        sourceDir.delete();
+        sourceDir.mkdirs();
+    }
+
+    public void tearDown() {
+        for (File file : sourceDir.listFiles()) {
+            file.delete();
+        }
+        sourceDir.delete();
+    }
+
+    void write(String source, String... lines) throws IOException {
+        FileWriter writer = new FileWriter(new File(sourceDir, source));
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    public void testCompileDependentClasses() throws Exception {
+        // The subclass is listed first, so must wait for its superclass to be declared.
+        write("Derived.jsub",
+                "package au.com.illyrian.jsub;",
+                "public class Derived extends Base implements One {",
+                "  public int one() {return this.count + 1;}",
+                "  public void none() {}",
+                "  public void one(int i) {this.count = i;}",
+                "}");
+        write("Base.jsub",
+                "package au.com.illyrian.jsub;",
+                "public class Base {",
+                "  int count;",
+                "}");
+        write("Other.jsub",
+                "package au.com.illyrian.jsub;",
+                "public class Other implements One {",
+                "  int one;",
+                "  public int one() {return one;}",
+                "  public void none() {}",
+                "  public void one(int i) {this.one = i;}",
+                "}");
+
+        JsubBnfParser bnfParser = new JsubBnfParser(new File("test"));
+        ClassMakerFactory factory = new ClassMakerFactory();
+        ParallelCompiler compiler = new ParallelCompiler(bnfParser.getParser(), factory);
+        Map<String, byte[]> classes = compiler.compile(sourceDir, Arrays.asList("Derived.jsub", "Base.jsub", "Other.jsub"));
+
+        assertEquals("[au.com.illyrian.jsub.Derived, au.com.illyrian.jsub.Base, au.com.illyrian.jsub.Other]",
+                classes.keySet().toString());
+        for (byte[] bytes : classes.values()) {
+            assertTrue("Class file", bytes.length > 0);
+        }
+
+        SimpleClassLoader loader = factory.getClassLoader();
+        loader.defineClass("au.com.illyrian.jsub.Base", classes.get("au.com.illyrian.jsub.Base"));
+        Class<?> derived = loader.defineClass("au.com.illyrian.jsub.Derived", classes.get("au.com.illyrian.jsub.Derived"));
+        One instance = (One)derived.newInstance();
+        assertEquals(1, instance.one());
+        instance.one(41);
+        assertEquals(42, instance.one());
+        Class<?> other = loader.defineClass("au.com.illyrian.jsub.Other", classes.get("au.com.illyrian.jsub.Other"));
+        One one = (One)other.newInstance();
+        one.one(5);
+        assertEquals(5, one.one());
+    }
+
+    public void testOneClassPerSource() throws Exception {
+        write("Two.jsub",
+                "package au.com.illyrian.jsub;",
+                "public class First {",
+                "}",
+                "public class Second {",
+                "}");
+        JsubBnfParser bnfParser = new JsubBnfParser(new File("test"));
+        ParallelCompiler compiler = new ParallelCompiler(bnfParser.getParser(), new ClassMakerFactory());
+        try {
+            compiler.compile(sourceDir, Arrays.asList("Two.jsub"));
+            fail("Should throw IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            assertEquals("Only one class may be declared in each source: Second", ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package au.com.illyrian.parser.impl;
+
+import au.com.illyrian.bnf.parser.BnfParserToken;
+import au.com.illyrian.parser.Token;
+import au.com.illyrian.parser.TokenType;
+import junit.framework.TestCase;
+
+public class DecisionTableTest extends TestCase
+{
+    static final Token IDENTIFIER = new BnfParserToken(TokenType.IDENTIFIER);
+    static final Token NUMBER = new BnfParserToken(TokenType.NUMBER);
+    static final Token IF = new BnfParserToken(TokenType.RESERVED, "if");
+    static final Token WHILE = new BnfParserToken(TokenType.RESERVED, "while");
+    static final Token LPAR = new BnfParserToken(TokenType.DELIMITER, "(");
+
+    Latin1Lexer lexer(String text)
+    {
+        Latin1Lexer lexer = new Latin1Lexer(new LexerInputString(text));
+        lexer.getReservedWords().put("if", "if");
+        lexer.getReservedWords().put("while", "while");
+        lexer.nextToken();
+        return lexer;
+    }
+
+    public void testSelectByTypeAndValue()
+    {
+        DecisionTable table = new DecisionTable(new Token[][] {{IF}, {WHILE, LPAR}, {IDENTIFIER, NUMBER}});
+        assertEquals("if", 0, table.select(lexer("if")));
+        assertEquals("while", 1, table.select(lexer("while")));
+        assertEquals("(", 1, table.select(lexer("(")));
+        assertEquals("identifier", 2, table.select(lexer("x")));
+        assertEquals("number", 2, table.select(lexer("42")));
+        assertEquals(")", -1, table.select(lexer(")")));
+        assertEquals("end", -1, table.select(lexer("")));
+    }
+
+    public void testFirstAlternativeWins()
+    {
+        DecisionTable table = new DecisionTable(new Token[][] {{IDENTIFIER}, {IF, IDENTIFIER}, {IF}});
+        assertEquals("identifier", 0, table.select(lexer("x")));
+        assertEquals("if", 1, table.select(lexer("if")));
+
+        table = new DecisionTable(new Token[][] {{IF}, {new BnfParserToken(TokenType.RESERVED)}});
+        assertEquals("if", 0, table.select(lexer("if")));
+        assertEquals("while", 1, table.select(lexer("while")));
+    }
+
+    public void testManyValues()
+    {
+        Token[][] terminals = new Token[50][];
+        for (int i = 0; i < terminals.length; i++) {
+            terminals[i] = new Token[] {new BnfParserToken(TokenType.IDENTIFIER, "x" + i)};
+        }
+        DecisionTable table = new DecisionTable(terminals);
+        for (int i = 0; i < terminals.length; i++) {
+            assertEquals("x" + i, i, table.select(lexer("x" + i)));
+        }
+        assertEquals("y", -1, table.select(lexer("y")));
+    }
+}
@@ -0,0 +1,100 @@
+package au.com.illyrian.parser.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+
+import au.com.illyrian.parser.Input;
+import au.com.illyrian.parser.TokenType;
+import junit.framework.TestCase;
+
+public class InputBufferTest extends TestCase
+{
+    public void testEmpty()
+    {
+        LexerInputBuffer input = new LexerInputBuffer("", null);
+        assertEquals("NULL expected",  Input.NULL, input.startChar());
+        assertEquals("NULL expected",  Input.NULL, input.nextChar());
+        assertNull("Token", input.getTokenString());
+    }
+
+    public void testTokenSequence()
+    {
+        LexerInputBuffer input = new LexerInputBuffer("package au;\nimport;", "Test.java");
+        Latin1Lexer tokeniser = new Latin1Lexer(input);
+        assertEquals("token", TokenType.IDENTIFIER, tokeniser.nextToken());
+        CharSequence token = tokeniser.getTokenSequence();
+        assertEquals("length", 7, token.length());
+        assertEquals("sequence", "package", token.toString());
+        assertEquals("line", 1, input.getLineNumber());
+        assertEquals("token", TokenType.IDENTIFIER, tokeniser.nextToken());
+        assertEquals("Start", 8, input.getTokenStart());
+        assertEquals("Finish", 10, input.getTokenFinish());
+        assertEquals("token", TokenType.DELIMITER, tokeniser.nextToken());
+        assertEquals("token", TokenType.IDENTIFIER, tokeniser.nextToken());
+        assertEquals("String", "import", tokeniser.getTokenValue());
+        assertEquals("line", 2, input.getLineNumber());
+        assertEquals("Start", 0, input.getTokenStart());
+        assertEquals("Line", "import;", input.getLine());
+        assertEquals("Location", "Test.java;2\n$import$;", input.toString());
+    }
+
+    public void testLineNumberIndex()
+    {
+        LexerInputBuffer input = new LexerInputBuffer("a\r\nbb\rccc\n\nd", null);
+        assertEquals("line", 1, input.getLineNumber(0));
+        assertEquals("line", 1, input.getLineNumber(2));
+        assertEquals("line", 2, input.getLineNumber(3));
+        assertEquals("line", 3, input.getLineNumber(6));
+        assertEquals("line", 4, input.getLineNumber(10));
+        assertEquals("line", 5, input.getLineNumber(11));
+    }
+
+    public void testSameTokensAsStream() throws Exception
+    {
+        String text = "package au;\r\n\r\n  /* multi\n   line */ int x = 10 + 2.5; // comment\n"
+                + "\tString s = \"quoted\";\rchar c = 'c';\n\n";
+        Latin1Lexer expected = new Latin1Lexer(new LexerInputStream(new StringReader(text), "Test.java"));
+        Latin1Lexer actual = new Latin1Lexer(new LexerInputBuffer(text, "Test.java"));
+        TokenType token;
+        do {
+            token = expected.nextToken();
+            assertEquals("Token", token, actual.nextToken());
+            assertEquals("Value", expected.getTokenValue(), actual.getTokenValue());
+            assertEquals("Whitespace", expected.getWhitespace(), actual.getWhitespace());
+            assertEquals("Line", expected.getLineNumber(), actual.getLineNumber());
+            assertEquals("Start", expected.getInput().getTokenStart(), actual.getInput().getTokenStart());
+        } while (token != TokenType.END);
+    }
+
+    public void testFileLoad() throws Exception
+    {
+        File file = File.createTempFile("InputBufferTest", ".java");
+        file.deleteOnExit();
+        FileWriter writer = new FileWriter(file);
+        writer.write("package au;\n\npublic class Test {\n    int x = 1;\n}\n");
+        writer.close();
+        LexerInputBuffer input = new LexerInputBuffer(file, "Test.java");
+        Latin1Lexer tokeniser = new Latin1Lexer(input);
+        assertEquals("token", TokenType.IDENTIFIER, tokeniser.nextToken());
+        assertEquals("String", "package", tokeniser.getTokenValue());
+        assertEquals("File", file, input.getSourceFile());
+        while (tokeniser.nextToken() != TokenType.END) {
+            // Skip to the end of the file.
+        }
+        assertEquals("last line", 5, input.getLineNumber());
+    }
+
+    public void testFileCharset() throws Exception
+    {
+        File file = File.createTempFile("InputBufferTest", ".java");
+        file.deleteOnExit();
+        FileOutputStream output = new FileOutputStream(file);
+        output.write("caf\u00e9;".getBytes("ISO-8859-1"));
+        output.close();
+        LexerInputBuffer input = new LexerInputBuffer(file, "Test.java", Charset.forName("ISO-8859-1"));
+        assertEquals("Text", "caf\u00e9;", input.getText().toString());
+    }
+}
@@ -327,6 +327,29 @@ public class Latin1LexerTest extends TestCase
         assertEquals("END expected", TokenType.END, tok.nextToken());
     }
 
+    public void testCommentString() throws Exception
+    {
+        StringWriter writer = new StringWriter() ;
+        PrintWriter  out = new PrintWriter(writer);
+        out.println("/* first");
+        for (int i = 0; i < 1000; i++) {
+            out.println(" * line");
+        }
+        out.println(" */ a \"string\" // last");
+        StringReader reader = new StringReader(writer.toString());
+        Latin1Lexer tok = createLexer(new LexerInputStream(reader, null));
+        assertEquals("Identifier expected", TokenType.IDENTIFIER, tok.nextToken());
+        String comment = tok.getCommentString();
+        assertTrue("Comment start", comment.startsWith("/* first * line * line"));
+        assertTrue("Comment end", comment.endsWith(" * line */"));
+        assertEquals("Comment length", 8 + 1000 * 7 + 3, comment.length());
+        assertEquals("String expected", TokenType.STRING, tok.nextToken());
+        assertEquals("String", "string", tok.getTokenString());
+        assertEquals("END expected", TokenType.END, tok.nextToken());
+        assertEquals("Comment", "// last", tok.getCommentString());
+        assertEquals("String", "string", tok.getTokenString());
+    }
+
     public void testReservedWordIf()
     {
         LexerInputString inp = new LexerInputString(" if \t");
@@ -485,4 +508,57 @@ public class Latin1LexerTest extends TestCase
         assertEquals("Error message expected", "Unrecognised input character: \\177", tok.getErrorMessage());
         assertEquals("ERROR= Unrecognised input character: \\177", tok.toString());
     }
+
+    public void testTokenId()
+    {
+        LexerInputString inp = new LexerInputString("count >= \"text\" ;");
+        Latin1Lexer tok = createLexer(inp);
+        assertEquals("Identifier expected", TokenType.IDENTIFIER, tok.nextToken());
+        assertEquals("Token id", "count".hashCode(), tok.getTokenId());
+        assertTrue("count expected", tok.matchTokenValue("count"));
+        assertFalse("counter not expected", tok.matchTokenValue("counter"));
+        assertEquals("Operator expected", TokenType.OPERATOR, tok.nextToken());
+        assertTrue(">= expected", tok.matchTokenValue(">="));
+        assertFalse("> not expected", tok.matchTokenValue(">"));
+        assertEquals("String expected", TokenType.STRING, tok.nextToken());
+        assertEquals("Token id", '"', tok.getTokenId());
+        assertTrue("Quote expected", tok.matchTokenValue("\""));
+        assertEquals("Delimiter expected", TokenType.DELIMITER, tok.nextToken());
+        assertTrue("';' expected", tok.matchTokenValue(";"));
+        assertEquals("End expected", TokenType.END, tok.nextToken());
+    }
+
+    public void testReservedWords()
+    {
+        LexerInputString inp = new LexerInputString("if instanceof iff else $ \u00e9");
+        Latin1Lexer tok = createLexer(inp);
+        tok.getReservedWords().setProperty("if", "if");
+        tok.getReservedWords().setProperty("instanceof", "instanceof");
+        tok.getOperators().setProperty("instanceof", "instanceof");
+        assertEquals("Reserved expected", TokenType.RESERVED, tok.nextToken());
+        assertEquals("Operator expected", TokenType.OPERATOR, tok.nextToken());
+        assertEquals("Identifier expected", TokenType.IDENTIFIER, tok.nextToken());
+        tok.getReservedWords().setProperty("else", "else");
+        tok.setReservedWords(tok.getReservedWords());
+        assertEquals("Reserved expected after adding word", TokenType.RESERVED, tok.nextToken());
+        assertEquals("Identifier expected", TokenType.IDENTIFIER, tok.nextToken());
+        assertEquals("Error expected", TokenType.ERROR, tok.nextToken());
+    }
+
+    public void testReservedWordsChanged()
+    {
+        LexerInputString inp = new LexerInputString("if else if else");
+        Latin1Lexer tok = createLexer(inp);
+        Properties words = tok.getReservedWords();
+        words.setProperty("if", "if");
+        assertEquals("Reserved expected", TokenType.RESERVED, tok.nextToken());
+        assertEquals("Identifier expected", TokenType.IDENTIFIER, tok.nextToken());
+        // The lexer keeps the properties, but only sees changes once they are set again.
+        words.remove("if");
+        words.setProperty("else", "else");
+        tok.setReservedWords(words);
+        assertSame("Words should be kept", words, tok.getReservedWords());
+        assertEquals("Identifier expected after removing word", TokenType.IDENTIFIER, tok.nextToken());
+        assertEquals("Reserved expected after adding word", TokenType.RESERVED, tok.nextToken());
+    }
 }
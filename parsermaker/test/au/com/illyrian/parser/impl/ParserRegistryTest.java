@@ -0,0 +1,152 @@
+package au.com.illyrian.parser.impl;
+
+import java.io.File;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+import au.com.illyrian.bnf.BnfCompiler;
+import au.com.illyrian.classmaker.ClassMakerFactory;
+import au.com.illyrian.domainparser.TestModuleAction;
+import au.com.illyrian.domainparser.TestTokenParser;
+import au.com.illyrian.expressionparser.ExpressionParser;
+import au.com.illyrian.parser.ResettableParser;
+
+public class ParserRegistryTest extends TestCase
+{
+    static final String TOKEN_PARSER = "au.com.illyrian.domainparser.TestTokenParser";
+    static final String EXPRESSION_PARSER = "au.com.illyrian.expressionparser.ExpressionParser";
+
+    ParserRegistry registry = new ParserRegistry(getClass().getClassLoader());
+
+    public void testReleasedParserIsReused() throws Exception
+    {
+        Object first = registry.acquire(EXPRESSION_PARSER);
+        assertTrue("Parser class", first instanceof ExpressionParser);
+        registry.release(EXPRESSION_PARSER, first);
+        assertSame("Reused parser", first, registry.acquire(EXPRESSION_PARSER));
+        assertEquals("Invocations", 2, registry.getInvocationCount(EXPRESSION_PARSER));
+        assertEquals("Parser class", ExpressionParser.class, registry.getParserClass(EXPRESSION_PARSER));
+    }
+
+    public void testReleasedParserIsReset() throws Exception
+    {
+        ExpressionParser parser = (ExpressionParser)registry.acquire(EXPRESSION_PARSER);
+        parser.setClassMaker(new ClassMakerFactory().createClassMaker());
+        assertNotNull("Expression action", parser.getExpressionAction());
+        registry.release(EXPRESSION_PARSER, parser);
+        assertNull("Class maker", parser.getClassMaker());
+    }
+
+    public void testReleasedParserForgetsInput() throws Exception
+    {
+        ExpressionParser parser = (ExpressionParser)registry.acquire(EXPRESSION_PARSER);
+        ModuleContext context = new ModuleContext();
+        context.setInputString("a + b", null);
+        parser.setCompilerContext(context);
+        assertNotNull("Input", parser.getLexer().getInput());
+        registry.release(EXPRESSION_PARSER, parser);
+        assertNull("Input", parser.getLexer().getInput());
+        try {
+            parser.getCompilerContext();
+            fail("Compiler context should be forgotten");
+        } catch (NullPointerException ex) {
+            assertEquals("CompilerContext is null.", ex.getMessage());
+        }
+    }
+
+    public void testGeneratedParserIsReused() throws Exception
+    {
+        ClassMakerFactory factory = new ClassMakerFactory();
+        BnfCompiler compiler = new BnfCompiler(new File("test"), factory);
+        Object compiled = compiler.compile("test/PackageParser.bnf");
+        String parseName = compiled.getClass().getName();
+        ParserRegistry generated = new ParserRegistry(factory.getClassLoader());
+        Object first = generated.acquire(parseName);
+        assertTrue("Resettable", first instanceof ResettableParser);
+        generated.release(parseName, first);
+        assertSame("Reused parser", first, generated.acquire(parseName));
+    }
+
+    public void testRegistryIsShared() throws Exception
+    {
+        ClassLoader classLoader = getClass().getClassLoader();
+        assertSame("Shared registry", ParserRegistry.getRegistry(classLoader), ParserRegistry.getRegistry(classLoader));
+        ModuleContext context1 = new ModuleContext();
+        context1.setInputString("", null);
+        ModuleContext context2 = new ModuleContext();
+        context2.setInputString("", null);
+        InvokeParserImpl first = (InvokeParserImpl)context1.getInvokeParser();
+        InvokeParserImpl second = (InvokeParserImpl)context2.getInvokeParser();
+        assertSame("Registry of each module", first.getParserRegistry(), second.getParserRegistry());
+    }
+
+    public void testParserWithStateIsNotReused() throws Exception
+    {
+        Object first = registry.acquire(TOKEN_PARSER);
+        assertTrue("Parser class", first instanceof TestTokenParser);
+        registry.release(TOKEN_PARSER, first);
+        assertNotSame("New parser", first, registry.acquire(TOKEN_PARSER));
+        assertEquals("Invocations", 2, registry.getInvocationCount(TOKEN_PARSER));
+    }
+
+    public void testNestedParsersAreDistinct() throws Exception
+    {
+        Object outer = registry.acquire(EXPRESSION_PARSER);
+        Object inner = registry.acquire(EXPRESSION_PARSER);
+        assertNotSame("Nested parser", outer, inner);
+        registry.release(EXPRESSION_PARSER, inner);
+        registry.release(EXPRESSION_PARSER, outer);
+        assertSame("Last released", outer, registry.acquire(EXPRESSION_PARSER));
+    }
+
+    public void testPoolIsPerThread() throws Exception
+    {
+        final Object first = registry.acquire(EXPRESSION_PARSER);
+        registry.release(EXPRESSION_PARSER, first);
+        final Object[] other = new Object[1];
+        Thread thread = new Thread() {
+            public void run()
+            {
+                try {
+                    other[0] = registry.acquire(EXPRESSION_PARSER);
+                } catch (Exception ex) {
+                    other[0] = ex;
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        assertTrue("Parser class", other[0] instanceof ExpressionParser);
+        assertNotSame("Other thread", first, other[0]);
+    }
+
+    public void testUnknownParser() throws Exception
+    {
+        try {
+            registry.acquire("au.com.illyrian.domainparser.Unknown");
+            fail("ClassNotFoundException expected");
+        } catch (ClassNotFoundException ex) {
+            assertEquals("Invocations", 1, registry.getInvocationCount("au.com.illyrian.domainparser.Unknown"));
+        }
+    }
+
+    public void testModuleInvocationCounts() throws Exception
+    {
+        String source = "import au.com.illyrian.domainparser.TestTokenParser;\n"
+                + "TestTokenParser::{\n"
+                + "   a * b + c;\n"
+                + "}::TestTokenParser\n";
+        String expected = "import au.com.illyrian.domainparser.TestTokenParser;\n"
+                + "a * b + c ; ";
+        ModuleContext compile = new ModuleContext();
+        for (int i = 0; i < 2; i++) {
+            compile.setInput(new LexerInputStream(new StringReader(source), null));
+            ((InvokeParserImpl)compile.getInvokeParser()).setParserRegistry(registry);
+            compile.getModuleParser().setAction(new TestModuleAction());
+            Object output = compile.parseModule();
+            assertEquals("Output text", expected, output.toString());
+        }
+        assertEquals("Invocations", 2, registry.getInvocationCount(TOKEN_PARSER));
+        assertEquals("Invocation counts", "{" + TOKEN_PARSER + "=2}", registry.getInvocationCounts().toString());
+    }
+}
@@ -0,0 +1,139 @@
+package au.com.illyrian.parser.impl;
+
+import au.com.illyrian.bnf.parser.BnfParserToken;
+import au.com.illyrian.parser.Input;
+import au.com.illyrian.parser.Token;
+import au.com.illyrian.parser.TokenType;
+import junit.framework.TestCase;
+
+public class TokenBufferTest extends TestCase
+{
+    public void testPeek()
+    {
+        Latin1Lexer lexer = new Latin1Lexer(new LexerInputString("a : b ;"));
+        lexer.nextToken();
+        TokenBuffer buffer = new TokenBuffer(lexer);
+        assertEquals("Current", TokenType.IDENTIFIER, buffer.getTokenType());
+        assertEquals("Current", "a", buffer.getTokenValue());
+        assertEquals("Peek 1", TokenType.OPERATOR, buffer.peek(1));
+        assertTrue("Peek 1", buffer.matchTokenValue(1, ":"));
+        assertEquals("Peek 3", TokenType.DELIMITER, buffer.peek(3));
+        assertEquals("Peek 4", TokenType.END, buffer.peek(4));
+        assertEquals("Current after peek", "a", buffer.getTokenValue());
+        assertEquals("Start", 0, buffer.getTokenStart());
+        assertEquals("Next", TokenType.OPERATOR, buffer.nextToken());
+        assertEquals("Start", 2, buffer.getTokenStart());
+        assertEquals("Next", TokenType.IDENTIFIER, buffer.nextToken());
+        assertEquals("Next", "b", buffer.getTokenValue());
+        assertEquals("Next", TokenType.DELIMITER, buffer.nextToken());
+        assertEquals("Next", TokenType.END, buffer.nextToken());
+    }
+
+    public void testMarkReset()
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append("x").append(i).append(' ');
+        }
+        Latin1Lexer lexer = new Latin1Lexer(new LexerInputString(text.toString()));
+        lexer.nextToken();
+        TokenBuffer buffer = new TokenBuffer(lexer, 4);
+        buffer.mark();
+        for (int i = 0; i < 50; i++) {
+            assertEquals("Token", "x" + i, buffer.getTokenValue());
+            buffer.nextToken();
+        }
+        buffer.reset();
+        assertEquals("After reset", "x0", buffer.getTokenValue());
+        buffer.nextToken();
+        buffer.mark();
+        buffer.nextToken();
+        buffer.release();
+        assertEquals("After release", "x2", buffer.getTokenValue());
+        for (int i = 2; i < 100; i++) {
+            assertEquals("Token", "x" + i, buffer.getTokenValue());
+            buffer.nextToken();
+        }
+        assertEquals("End", TokenType.END, buffer.getTokenType());
+    }
+
+    public void testParserLookahead()
+    {
+        Token identifier = new BnfParserToken(TokenType.IDENTIFIER);
+        Token colon = new BnfParserToken(TokenType.OPERATOR, ":");
+        ParserBase parser = new ParserBase();
+        parser.setInput(new LexerInputString("label : x = 1"));
+        parser.nextToken();
+        assertTrue("Identifier", parser.match(identifier, 0));
+        assertTrue("Colon", parser.match(colon, 1));
+        assertFalse("Colon", parser.match(colon, 3));
+        assertEquals("Identifier", "label", parser.expect(identifier));
+        assertEquals("Colon", ":", parser.expect(colon));
+        assertEquals("Identifier", "x", parser.expect(identifier));
+    }
+
+    public void testTextOffsets()
+    {
+        Latin1Lexer lexer = new Latin1Lexer(new LexerInputBuffer("alpha\n beta gamma;", null));
+        lexer.nextToken();
+        TokenBuffer buffer = new TokenBuffer(lexer);
+        assertTrue("Peek 1", buffer.matchTokenValue(1, "beta"));
+        assertFalse("Peek 1", buffer.matchTokenValue(1, "bet"));
+        assertEquals("Peek 2", "gamma", buffer.getTokenValue(2));
+        assertEquals("Current", "alpha", buffer.getTokenValue());
+        assertEquals("Next", TokenType.IDENTIFIER, buffer.nextToken());
+        assertEquals("Next", "beta", buffer.getTokenValue());
+        assertEquals("Line", 2, buffer.getLineNumber());
+        assertEquals("Start", 1, buffer.getTokenStart());
+    }
+
+    public void testInputRewound()
+    {
+        Latin1Lexer lexer = new Latin1Lexer(new LexerInputBuffer("a b c d", null));
+        lexer.nextToken();
+        TokenBuffer buffer = new TokenBuffer(lexer);
+        assertEquals("Peek 2", "c", buffer.getTokenValue(2));
+        assertTrue("Rewindable", buffer.canRewind());
+        Input input = buffer.getInput();
+        assertFalse("Lookahead discarded", buffer.isBuffered());
+        Latin1Lexer other = new Latin1Lexer(input);
+        assertEquals("Token after current", TokenType.IDENTIFIER, other.nextToken());
+        assertEquals("Token after current", "b", other.getTokenValue());
+    }
+
+    public void testInputNotRewound()
+    {
+        Latin1Lexer lexer = new Latin1Lexer(new LexerInputString("a b c d"));
+        lexer.nextToken();
+        TokenBuffer buffer = new TokenBuffer(lexer);
+        buffer.peek(2);
+        assertFalse("Rewindable", buffer.canRewind());
+        try {
+            buffer.getInput();
+            fail("Input should not be handed over while tokens are read ahead");
+        } catch (IllegalStateException ex) {
+            assertEquals("Cannot rewind the input over the tokens read ahead", ex.getMessage());
+        }
+    }
+
+    public void testParserUnwrapsLexer()
+    {
+        Token identifier = new BnfParserToken(TokenType.IDENTIFIER);
+        Token colon = new BnfParserToken(TokenType.OPERATOR, ":");
+        ParserBase parser = new ParserBase();
+        Latin1Lexer lexer = new Latin1Lexer();
+        parser.setLexer(lexer);
+        parser.setInput(new LexerInputBuffer("label : x : y", null));
+        parser.nextToken();
+        assertTrue("Colon", parser.match(colon, 1));
+        assertTrue("Wrapped for lookahead", parser.getLexer() instanceof TokenBuffer);
+        assertEquals("Identifier", "label", parser.expect(identifier));
+        assertSame("Unwrapped after lookahead", lexer, parser.getLexer());
+        assertEquals("Colon", ":", parser.expect(colon));
+        assertTrue("Colon", parser.match(colon, 1));
+        assertEquals("Identifier", "x", parser.expect(identifier));
+        assertSame("Unwrapped after lookahead", lexer, parser.getLexer());
+        assertEquals("Colon", ":", parser.expect(colon));
+        assertEquals("Identifier", "y", parser.expect(identifier));
+    }
+}
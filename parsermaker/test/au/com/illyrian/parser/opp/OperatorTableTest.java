@@ -0,0 +1,65 @@
+package au.com.illyrian.parser.opp;
+
+import junit.framework.TestCase;
+import au.com.illyrian.parser.TokenType;
+import au.com.illyrian.parser.impl.Latin1Lexer;
+import au.com.illyrian.parser.impl.LexerInputString;
+
+public class OperatorTableTest extends TestCase
+{
+    public void testFindByName()
+    {
+        OperatorTable table = new OperatorTable();
+        Operator plus = new Operator("+", 1, 10, Operator.BINARY);
+        table.add(plus);
+        table.add("this", null);
+        assertSame("+", plus, table.get("+"));
+        assertTrue("this", table.contains("this"));
+        assertNull("this", table.get("this"));
+        assertFalse("-", table.contains("-"));
+        assertEquals("size", 2, table.size());
+    }
+
+    public void testReplace()
+    {
+        OperatorTable table = new OperatorTable();
+        table.add(new Operator("-", 1, 10, Operator.BINARY));
+        Operator minus = new Operator("-", 2, 12, Operator.PREFIX);
+        table.add(minus);
+        assertSame("-", minus, table.get("-"));
+        assertEquals("size", 1, table.size());
+    }
+
+    public void testGrow()
+    {
+        OperatorTable table = new OperatorTable();
+        for (int i = 0; i < 100; i++) {
+            table.add(new Operator("op" + i, i, i, Operator.BINARY));
+        }
+        assertEquals("size", 100, table.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("op" + i, i, table.get("op" + i).getIndex());
+        }
+    }
+
+    public void testFindByLexer()
+    {
+        OperatorTable table = new OperatorTable();
+        Operator lessEqual = new Operator("<=", 1, 8, Operator.BINARY);
+        Operator paren = new Operator("(", ")", 2, 15, Operator.PARAMS);
+        table.add(lessEqual);
+        table.add(paren);
+        Latin1Lexer lexer = new Latin1Lexer(new LexerInputString("a <= f ( b ) < c"));
+        assertEquals("a", TokenType.IDENTIFIER, lexer.nextToken());
+        assertNull("a", table.get(lexer));
+        assertEquals("<=", TokenType.OPERATOR, lexer.nextToken());
+        assertSame("<=", lessEqual, table.get(lexer));
+        lexer.nextToken();
+        assertEquals("(", TokenType.DELIMITER, lexer.nextToken());
+        assertSame("(", paren, table.get(lexer));
+        lexer.nextToken();
+        lexer.nextToken();
+        assertEquals("<", TokenType.OPERATOR, lexer.nextToken());
+        assertFalse("<", table.contains(lexer));
+    }
+}
@@ -534,6 +534,19 @@ public class AstStatementTreeTest extends ClassMakerTestCase
     }
 
     public void testBreakContinueLoop() throws Exception
+    {
+        assertFalse("Finally should be a subroutine", factory.isInlineFinally());
+        breakContinueLoop();
+    }
+
+    public void testBreakContinueLoopInlineFinally() throws Exception
+    {
+        factory.setClassFileVersion(ClassMakerConstants.CLASS_VERSION_JAVA_8);
+        assertTrue("Finally should be inlined", factory.isInlineFinally());
+        breakContinueLoop();
+    }
+
+    void breakContinueLoop() throws Exception
     {
         AstStructureFactory build = new AstStructureFactory();
 
@@ -634,7 +647,7 @@ public class AstStatementTreeTest extends ClassMakerTestCase
     	assertEquals("Continue loop", 5, exec.breakContinue(4));
     	assertEquals("Break switch", 9, exec.breakContinue(5));
     	assertEquals("Break trying", 1, exec.breakContinue(6));
-    	assertEquals("Break outer", 0, exec.breakContinue(7));        
+    	assertEquals("Break outer", 1, exec.breakContinue(7));        
     	assertEquals("Break branch", 9, exec.breakContinue(8)); // **
     	assertEquals("Default", 14, exec.breakContinue(10));        
     }
@@ -398,6 +398,19 @@ public class AstStatementMakerTest extends ClassMakerTestCase
     }
 
     public void testBreakContinueLoop() throws Exception
+    {
+        assertFalse("Finally should be a subroutine", factory.isInlineFinally());
+        breakContinueLoop();
+    }
+
+    public void testBreakContinueLoopInlineFinally() throws Exception
+    {
+        factory.setClassFileVersion(ClassMakerConstants.CLASS_VERSION_JAVA_8);
+        assertTrue("Finally should be inlined", factory.isInlineFinally());
+        breakContinueLoop();
+    }
+
+    void breakContinueLoop() throws Exception
     {
         AstStructureFactoryMaker build = new AstStructureFactoryMaker(maker);
         build.Package(build.Name("au.com.illyrian.jesub.ast"));
@@ -482,7 +495,7 @@ public class AstStatementMakerTest extends ClassMakerTestCase
         assertEquals("Continue loop", 5, exec.breakContinue(4));
         assertEquals("Break switch", 9, exec.breakContinue(5));
         assertEquals("Break trying", 1, exec.breakContinue(6));
-        assertEquals("Break outer", 0, exec.breakContinue(7));
+        assertEquals("Break outer", 1, exec.breakContinue(7));
         assertEquals("Break branch", 9, exec.breakContinue(8));
         assertEquals("Default", 14, exec.breakContinue(10));
     }